@@ -48,6 +48,7 @@
 #include "android-base/errors.h"
 #include "android-base/file.h"
 #include "android-base/logging.h"
+#include "android-base/parseint.h"
 #include "android-base/result.h"
 #include "android-base/scopeguard.h"
 #include "android-base/strings.h"
@@ -101,6 +102,7 @@ using ::android::base::Dirname;
 using ::android::base::Error;
 using ::android::base::Join;
 using ::android::base::make_scope_guard;
+using ::android::base::ParseUint;
 using ::android::base::ReadFileToString;
 using ::android::base::Result;
 using ::android::base::Split;
@@ -884,6 +886,27 @@ ndk::ScopedAStatus Artd::dexopt(
     files_to_delete.push_back(art_path);
   }
 
+  std::string compiled_method_cache_path = OatPathToCompiledMethodCachePath(oat_path);
+  std::unique_ptr<File> input_compiled_method_cache_file = nullptr;
+  std::unique_ptr<NewFile> compiled_method_cache_file = nullptr;
+  if (ShouldUseCompiledMethodCache(OR_RETURN_FATAL(ParseCompilerFilter(in_compilerFilter)))) {
+    // Without a cache from the previous dexopt, dex2oat compiles all methods and creates one.
+    std::error_code ec;
+    if (std::filesystem::exists(compiled_method_cache_path, ec)) {
+      input_compiled_method_cache_file =
+          OR_RETURN_NON_FATAL(OpenFileForReading(compiled_method_cache_path));
+      args.Add("--input-compiled-method-cache-fd=%d", input_compiled_method_cache_file->Fd());
+      fd_logger.Add(*input_compiled_method_cache_file);
+    }
+    compiled_method_cache_file =
+        OR_RETURN_NON_FATAL(NewFile::Create(compiled_method_cache_path, fs_permission));
+    args.Add("--output-compiled-method-cache-fd=%d", compiled_method_cache_file->Fd());
+    fd_logger.Add(*compiled_method_cache_file);
+    files_to_commit.push_back(compiled_method_cache_file.get());
+  } else {
+    files_to_delete.push_back(compiled_method_cache_path);
+  }
+
   std::unique_ptr<NewFile> swap_file = nullptr;
   if (ShouldCreateSwapFileForDexopt()) {
     swap_file = OR_RETURN_NON_FATAL(
@@ -983,7 +1006,8 @@ ndk::ScopedAStatus Artd::dexopt(
   };
 
   ProcessStat stat;
-  Result<int> result = ExecAndReturnCode(art_exec_args.Get(), kLongTimeoutSec, callbacks, &stat);
+  Result<int> result =
+      ExecDex2oatAndReturnCode(art_exec_args.Get(), kLongTimeoutSec, callbacks, &stat);
   _aidl_return->wallTimeMs = stat.wall_time_ms;
   _aidl_return->cpuTimeMs = stat.cpu_time_ms;
   if (!result.ok()) {
@@ -1052,6 +1076,7 @@ ScopedAStatus Artd::cleanup(const std::vector<ProfilePath>& in_profilesToKeep,
     std::string oat_path = OR_RETURN_FATAL(BuildOatPath(artifacts));
     files_to_keep.insert(OatPathToVdexPath(oat_path));
     files_to_keep.insert(OatPathToArtPath(oat_path));
+    files_to_keep.insert(OatPathToCompiledMethodCachePath(oat_path));
     files_to_keep.insert(std::move(oat_path));
   }
   for (const VdexPath& vdex : in_vdexFilesToKeep) {
@@ -1222,6 +1247,13 @@ bool Artd::ShouldCreateSwapFileForDexopt() {
   return props_->GetBool("dalvik.vm.dex2oat-swap", /*default_value=*/true);
 }
 
+bool Artd::ShouldUseCompiledMethodCache(CompilerFilter::Filter compiler_filter) {
+  // Off by default. The cache mostly helps when only some of the dex files of an app change, see
+  // dex2oat/driver/compiled_method_cache.h.
+  return CompilerFilter::IsAotCompilationEnabled(compiler_filter) &&
+         props_->GetBool("dalvik.vm.dex2oat-compiled-method-cache", /*default_value=*/false);
+}
+
 void Artd::AddBootImageFlags(/*out*/ CmdlineBuilder& args) {
   if (UseJitZygote()) {
     args.Add("--force-jit-zygote");
@@ -1318,6 +1350,52 @@ Result<int> Artd::ExecAndReturnCode(const std::vector<std::string>& args,
   return result.exit_code;
 }
 
+Result<int> Artd::ExecDex2oatAndReturnCode(const std::vector<std::string>& args,
+                                           int timeout_sec,
+                                           const ExecCallbacks& callbacks,
+                                           ProcessStat* stat) {
+  Dex2oatPool* dex2oat_pool = GetDex2oatPool();
+  if (dex2oat_pool != nullptr) {
+    bool started;
+    Result<int> result = dex2oat_pool->RunJob(args, timeout_sec, callbacks, stat, &started);
+    if (result.ok() || started) {
+      return result;
+    }
+    LOG(WARNING) << "Failed to run dex2oat on a server, running it directly: " << result.error();
+  }
+  return ExecAndReturnCode(args, timeout_sec, callbacks, stat);
+}
+
+Dex2oatPool* Artd::GetDex2oatPool() {
+  std::lock_guard<std::mutex> lock(dex2oat_pool_mu_);
+  // Read once, as the pool keeps its servers for the lifetime of artd.
+  if (!dex2oat_pool_.has_value()) {
+    unsigned int max_idle_servers = 0;
+    std::string pool_size = props_->GetOrEmpty("dalvik.vm.dex2oat-server-pool-size");
+    if (!pool_size.empty() && !ParseUint(pool_size, &max_idle_servers)) {
+      LOG(WARNING) << "Invalid dalvik.vm.dex2oat-server-pool-size '{}'"_format(pool_size);
+    }
+    if (max_idle_servers == 0) {
+      dex2oat_pool_ = nullptr;
+    } else {
+      dex2oat_pool_ = std::make_unique<Dex2oatPool>(
+          max_idle_servers,
+          [this](const std::vector<std::string>& args, const ExecCallbacks& callbacks) {
+            std::string error_msg;
+            ExecResult result = exec_utils_->ExecAndReturnResult(
+                args, /*timeout_sec=*/-1, callbacks, /*stat=*/nullptr, &error_msg);
+            if (result.status != ExecResult::kExited || result.exit_code != 0) {
+              LOG(WARNING) << "dex2oat server failed: "
+                           << (error_msg.empty() ? "exit code {}"_format(result.exit_code) :
+                                                   error_msg);
+            }
+          },
+          kill_);
+    }
+  }
+  return dex2oat_pool_->get();
+}
+
 Result<struct stat> Artd::Fstat(const File& file) const {
   struct stat st;
   if (fstat_(file.Fd(), &st) != 0) {
@@ -37,7 +37,9 @@
 #include "android-base/result.h"
 #include "android-base/thread_annotations.h"
 #include "android/binder_auto_utils.h"
+#include "base/compiler_filter.h"
 #include "base/os.h"
+#include "dex2oat_pool.h"
 #include "exec_utils.h"
 #include "oat_file_assistant_context.h"
 #include "tools/cmdline_builder.h"
@@ -192,6 +194,16 @@ class Artd : public aidl::com::android::server::art::BnArtd {
                                                const ExecCallbacks& callbacks = ExecCallbacks(),
                                                ProcessStat* stat = nullptr) const;
 
+  // Runs the dex2oat command line `arg_vector` on a dex2oat server if the pool is enabled, or
+  // like `ExecAndReturnCode` otherwise.
+  android::base::Result<int> ExecDex2oatAndReturnCode(const std::vector<std::string>& arg_vector,
+                                                      int timeout_sec,
+                                                      const ExecCallbacks& callbacks,
+                                                      ProcessStat* stat);
+
+  // Returns the pool of dex2oat servers, or null if it is disabled.
+  Dex2oatPool* GetDex2oatPool() EXCLUDES(dex2oat_pool_mu_);
+
   android::base::Result<std::string> GetProfman();
 
   android::base::Result<std::string> GetArtExec();
@@ -202,6 +214,8 @@ class Artd : public aidl::com::android::server::art::BnArtd {
 
   bool ShouldCreateSwapFileForDexopt();
 
+  bool ShouldUseCompiledMethodCache(CompilerFilter::Filter compiler_filter);
+
   void AddBootImageFlags(/*out*/ art::tools::CmdlineBuilder& args);
 
   void AddCompilerConfigFlags(const std::string& instruction_set,
@@ -230,6 +244,10 @@ class Artd : public aidl::com::android::server::art::BnArtd {
   const std::unique_ptr<ExecUtils> exec_utils_;
   const std::function<int(pid_t, int)> kill_;
   const std::function<int(int, struct stat*)> fstat_;
+
+  // Declared after `exec_utils_`, which the servers run with, so that it is destroyed first.
+  std::mutex dex2oat_pool_mu_;
+  std::optional<std::unique_ptr<Dex2oatPool>> dex2oat_pool_ GUARDED_BY(dex2oat_pool_mu_);
 };
 
 }  // namespace artd
@@ -906,6 +906,64 @@ TEST_F(ArtdTest, dexoptFlagsForceJitZygote) {
   RunDexopt();
 }
 
+TEST_F(ArtdTest, dexoptCompiledMethodCache) {
+  EXPECT_CALL(*mock_props_, GetProperty("dalvik.vm.dex2oat-compiled-method-cache"))
+      .WillOnce(Return("true"));
+  CreateFile(scratch_path_ + "/a/oat/arm64/b.cmc", "old_cmc");
+
+  EXPECT_CALL(*mock_exec_utils_,
+              DoExecAndReturnCode(
+                  WhenSplitBy("--",
+                              _,
+                              AllOf(Contains(Flag("--input-compiled-method-cache-fd=",
+                                                  FdOf(scratch_path_ + "/a/oat/arm64/b.cmc"))),
+                                    Contains(Flag("--output-compiled-method-cache-fd=", FdOf(_))))),
+                  _,
+                  _))
+      .WillOnce(DoAll(WithArg<0>(WriteToFdFlag("--output-compiled-method-cache-fd=", "cmc")),
+                      Return(0)));
+  RunDexopt();
+
+  CheckContent(scratch_path_ + "/a/oat/arm64/b.cmc", "cmc");
+}
+
+TEST_F(ArtdTest, dexoptCompiledMethodCacheNoInput) {
+  EXPECT_CALL(*mock_props_, GetProperty("dalvik.vm.dex2oat-compiled-method-cache"))
+      .WillOnce(Return("true"));
+
+  EXPECT_CALL(*mock_exec_utils_,
+              DoExecAndReturnCode(
+                  WhenSplitBy("--",
+                              _,
+                              AllOf(Not(Contains(Flag("--input-compiled-method-cache-fd=", _))),
+                                    Contains(Flag("--output-compiled-method-cache-fd=", FdOf(_))))),
+                  _,
+                  _))
+      .WillOnce(DoAll(WithArg<0>(WriteToFdFlag("--output-compiled-method-cache-fd=", "cmc")),
+                      Return(0)));
+  RunDexopt();
+
+  CheckContent(scratch_path_ + "/a/oat/arm64/b.cmc", "cmc");
+}
+
+TEST_F(ArtdTest, dexoptCompiledMethodCacheDisabled) {
+  CreateFile(scratch_path_ + "/a/oat/arm64/b.cmc", "old_cmc");
+
+  EXPECT_CALL(*mock_exec_utils_,
+              DoExecAndReturnCode(
+                  WhenSplitBy("--",
+                              _,
+                              AllOf(Not(Contains(Flag("--input-compiled-method-cache-fd=", _))),
+                                    Not(Contains(Flag("--output-compiled-method-cache-fd=", _))))),
+                  _,
+                  _))
+      .WillOnce(Return(0));
+  RunDexopt();
+
+  // A stale cache is not kept around.
+  EXPECT_FALSE(std::filesystem::exists(scratch_path_ + "/a/oat/arm64/b.cmc"));
+}
+
 static void SetDefaultResourceControlProps(MockSystemProperties* mock_props) {
   EXPECT_CALL(*mock_props, GetProperty("dalvik.vm.dex2oat-cpu-set")).WillRepeatedly(Return("0,2"));
   EXPECT_CALL(*mock_props, GetProperty("dalvik.vm.dex2oat-threads")).WillRepeatedly(Return("4"));
@@ -1886,6 +1944,10 @@ TEST_F(ArtdTest, cleanup) {
   CreateGcKeptFile(android_data_ + "/user_de/0/com.android.foo/aaa/oat/arm64/2.odex");
   CreateGcKeptFile(android_data_ + "/user_de/0/com.android.foo/aaa/oat/arm64/2.vdex");
   CreateGcKeptFile(android_data_ + "/user_de/0/com.android.foo/aaa/oat/arm64/2.art");
+  CreateGcKeptFile(android_data_ + "/user_de/0/com.android.foo/aaa/oat/arm64/2.cmc");
+  CreateGcKeptFile(
+      android_expand_ +
+      "/123456-7890/app/~~nkfeankfna==/com.android.bar-jfoeaofiew==/oat/arm64/base.cmc");
 
   // Files to remove.
   CreateGcRemovedFile(android_data_ + "/misc/profiles/ref/com.android.foo/primary.prof");
@@ -1909,6 +1971,7 @@ TEST_F(ArtdTest, cleanup) {
   CreateGcRemovedFile(android_data_ + "/user_de/0/com.android.foo/oat/arm64/1.odex");
   CreateGcRemovedFile(android_data_ + "/user_de/0/com.android.foo/oat/arm64/1.vdex");
   CreateGcRemovedFile(android_data_ + "/user_de/0/com.android.foo/oat/arm64/1.art");
+  CreateGcRemovedFile(android_data_ + "/user_de/0/com.android.foo/oat/arm64/1.cmc");
   CreateGcRemovedFile(android_data_ + "/user_de/0/com.android.foo/oat/arm64/1.odex.123456.tmp");
   CreateGcRemovedFile(android_data_ + "/user_de/0/com.android.foo/oat/arm64/2.odex.123456.tmp");
   CreateGcRemovedFile(android_data_ + "/user_de/0/com.android.foo/aaa/oat/arm64/1.odex");
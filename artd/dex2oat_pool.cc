@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "dex2oat_pool.h"
+
+#include <fcntl.h>
+#include <poll.h>
+#include <signal.h>
+#include <sys/socket.h>
+#include <unistd.h>
+
+#include <algorithm>
+#include <climits>
+#include <cstdint>
+#include <optional>
+#include <string_view>
+#include <thread>
+#include <utility>
+
+#include "android-base/cmsg.h"
+#include "android-base/logging.h"
+#include "android-base/parseint.h"
+#include "android-base/strings.h"
+#include "base/time_utils.h"
+#include "dex2oat/dex2oat_server.h"
+
+namespace art {
+namespace artd {
+
+namespace {
+
+using ::android::base::Errorf;
+using ::android::base::ErrnoErrorf;
+using ::android::base::ConsumePrefix;
+using ::android::base::Join;
+using ::android::base::ParseInt;
+using ::android::base::Result;
+using ::android::base::Split;
+using ::android::base::unique_fd;
+
+using Reply = Dex2oatServer::Reply;
+
+// Waits for a reply from a server for up to `timeout_ms`, or indefinitely if it is negative.
+// Returns the reply, or `std::nullopt` on timeout.
+Result<std::optional<Reply>> ReceiveReply(int socket_fd, int64_t timeout_ms) {
+  if (timeout_ms >= 0) {
+    struct pollfd pfd = {.fd = socket_fd, .events = POLLIN};
+    int res = TEMP_FAILURE_RETRY(
+        poll(&pfd, /*nfds=*/1, static_cast<int>(std::min<int64_t>(timeout_ms, INT_MAX))));
+    if (res < 0) {
+      return ErrnoErrorf("Failed to poll the dex2oat server");
+    }
+    if (res == 0) {
+      return std::nullopt;
+    }
+  }
+  Reply reply;
+  ssize_t size = TEMP_FAILURE_RETRY(recv(socket_fd, &reply, sizeof(reply), /*flags=*/0));
+  if (size < 0) {
+    return ErrnoErrorf("Failed to receive a reply from the dex2oat server");
+  }
+  if (size != sizeof(reply)) {
+    return Errorf("The dex2oat server exited unexpectedly");
+  }
+  return reply;
+}
+
+// Waits for a reply of the given kind from a server.
+Result<Reply> ReceiveReplyOfKind(int socket_fd, Reply::Kind kind) {
+  std::optional<Reply> reply = OR_RETURN(ReceiveReply(socket_fd, /*timeout_ms=*/-1));
+  if (reply->kind != kind) {
+    return Errorf("Unexpected reply {} from the dex2oat server", static_cast<int>(reply->kind));
+  }
+  return reply.value();
+}
+
+}  // namespace
+
+Dex2oatPool::~Dex2oatPool() {
+  std::unique_lock<std::mutex> lock(mu_);
+  // Closing the sockets makes the servers exit.
+  idle_servers_.clear();
+  servers_exited_cv_.wait(lock, [&]() REQUIRES(mu_) { return running_servers_ == 0; });
+}
+
+Result<int> Dex2oatPool::RunJob(const std::vector<std::string>& exec_args,
+                                int timeout_sec,
+                                const ExecCallbacks& callbacks,
+                                /*out*/ ProcessStat* stat,
+                                /*out*/ bool* started) {
+  *started = false;
+  auto separator = std::find(exec_args.begin(), exec_args.end(), "--");
+  if (separator == exec_args.end()) {
+    return Errorf("Missing '--' in the art_exec command line");
+  }
+  std::vector<std::string> art_exec_args;
+  std::vector<int> fds;
+  for (auto it = exec_args.begin(); it != separator; ++it) {
+    std::string_view arg = *it;
+    if (!ConsumePrefix(&arg, "--keep-fds=")) {
+      art_exec_args.push_back(*it);
+      continue;
+    }
+    if (arg.empty()) {
+      continue;
+    }
+    for (const std::string& fd_str : Split(std::string(arg), ":")) {
+      int fd;
+      if (!ParseInt(fd_str, &fd)) {
+        return Errorf("Invalid fd '{}' in the art_exec command line", fd_str);
+      }
+      fds.push_back(fd);
+    }
+  }
+  std::vector<std::string> args(separator + 1, exec_args.end());
+
+  std::string data = Dex2oatServer::EncodeJob(fds, args);
+  if (data.size() > Dex2oatServer::kMaxJobSize || fds.size() > Dex2oatServer::kMaxJobFds) {
+    return Errorf("The dex2oat job is too large for a server");
+  }
+  std::unique_ptr<Server> server =
+      OR_RETURN(AcquireServer(art_exec_args, Dex2oatServer::GetServerArgs(args)));
+  int socket_fd = server->socket.get();
+
+  int64_t start_ms = MilliTime();
+  if (android::base::SendFileDescriptorVector(socket_fd, data.data(), data.size(), fds) !=
+      static_cast<ssize_t>(data.size())) {
+    return ErrnoErrorf("Failed to send the job to the dex2oat server");
+  }
+  // A new server creates the runtime before it starts the job, so count that towards the timeout.
+  std::optional<Reply> reply =
+      OR_RETURN(ReceiveReply(socket_fd, timeout_sec < 0 ? -1 : timeout_sec * INT64_C(1000)));
+  if (!reply.has_value()) {
+    // The server may still start the job, so it must not be run some other way.
+    *started = true;
+    return Errorf("Timed out waiting for the dex2oat server to start the job");
+  }
+  if (reply->kind != Reply::kStarted) {
+    return Errorf("Unexpected reply {} from the dex2oat server", static_cast<int>(reply->kind));
+  }
+  *started = true;
+  pid_t pid = reply->pid;
+  callbacks.on_start(pid);
+
+  // The job process stays waitable, and its pid valid, until we acknowledge the `kExited` reply.
+  bool timed_out = false;
+  Reply exited;
+  while (true) {
+    int64_t timeout_ms = -1;
+    if (timeout_sec >= 0 && !timed_out) {
+      timeout_ms = std::max<int64_t>(start_ms + timeout_sec * INT64_C(1000) - MilliTime(), 0);
+    }
+    Result<std::optional<Reply>> result = ReceiveReply(socket_fd, timeout_ms);
+    if (!result.ok()) {
+      callbacks.on_end(pid);
+      return result.error();
+    }
+    if (result->has_value()) {
+      exited = result->value();
+      break;
+    }
+    timed_out = true;
+    kill_(pid, SIGKILL);
+  }
+  callbacks.on_end(pid);
+  if (exited.kind != Reply::kExited) {
+    return Errorf("Unexpected reply {} from the dex2oat server", static_cast<int>(exited.kind));
+  }
+  stat->wall_time_ms = static_cast<int>(MilliTime() - start_ms);
+
+  if (TEMP_FAILURE_RETRY(
+          send(socket_fd, &Dex2oatServer::kAck, sizeof(Dex2oatServer::kAck), MSG_NOSIGNAL)) !=
+      sizeof(Dex2oatServer::kAck)) {
+    return ErrnoErrorf("Failed to send to the dex2oat server");
+  }
+  Reply reaped = OR_RETURN(ReceiveReplyOfKind(socket_fd, Reply::kReaped));
+  stat->cpu_time_ms = static_cast<int>(reaped.cpu_time_ms);
+  ReleaseServer(std::move(server));
+
+  if (timed_out) {
+    return Errorf("dex2oat job {} timed out after {} seconds and was killed", pid, timeout_sec);
+  }
+  if (exited.signal != 0) {
+    return Errorf("dex2oat job {} was killed by signal {}", pid, exited.signal);
+  }
+  return exited.exit_code;
+}
+
+Result<std::unique_ptr<Dex2oatPool::Server>> Dex2oatPool::AcquireServer(
+    const std::vector<std::string>& art_exec_args, const std::vector<std::string>& server_args) {
+  std::string key = Join(art_exec_args, ' ') + " -- " + Join(server_args, ' ');
+  {
+    std::lock_guard<std::mutex> lock(mu_);
+    auto it = std::find_if(
+        idle_servers_.begin(), idle_servers_.end(), [&](const std::unique_ptr<Server>& server) {
+          return server->key == key;
+        });
+    if (it != idle_servers_.end()) {
+      std::unique_ptr<Server> server = std::move(*it);
+      idle_servers_.erase(it);
+      return server;
+    }
+  }
+
+  int sockets[2];
+  if (socketpair(AF_UNIX, SOCK_SEQPACKET | SOCK_CLOEXEC, /*protocol=*/0, sockets) != 0) {
+    return ErrnoErrorf("Failed to create a socket for a dex2oat server");
+  }
+  auto server = std::make_unique<Server>();
+  server->key = std::move(key);
+  server->socket.reset(sockets[0]);
+  unique_fd server_end(sockets[1]);
+  // The server end is passed through `art_exec` to dex2oat.
+  if (fcntl(server_end.get(), F_SETFD, 0) != 0) {
+    return ErrnoErrorf("Failed to clear FD_CLOEXEC on the socket of a dex2oat server");
+  }
+
+  std::vector<std::string> args = art_exec_args;
+  args.push_back("--keep-fds=" + std::to_string(server_end.get()));
+  args.push_back("--");
+  args.insert(args.end(), server_args.begin(), server_args.end());
+  args.push_back("--server-socket-fd=" + std::to_string(server_end.get()));
+  LOG(INFO) << "Starting dex2oat server: " << Join(args, /*separator=*/" ");
+
+  {
+    std::lock_guard<std::mutex> lock(mu_);
+    ++running_servers_;
+  }
+  std::thread([this, args = std::move(args), server_end = std::move(server_end)]() mutable {
+    ExecCallbacks callbacks{
+        // Only the server may keep its end open, so that the socket closes when the server exits.
+        .on_start = [&](pid_t) { server_end.reset(); },
+    };
+    run_server_(args, callbacks);
+    server_end.reset();
+    std::lock_guard<std::mutex> lock(mu_);
+    --running_servers_;
+    servers_exited_cv_.notify_all();
+  }).detach();
+  return server;
+}
+
+void Dex2oatPool::ReleaseServer(std::unique_ptr<Server> server) {
+  std::lock_guard<std::mutex> lock(mu_);
+  if (idle_servers_.size() < max_idle_servers_) {
+    idle_servers_.push_back(std::move(server));
+  }
+}
+
+}  // namespace artd
+}  // namespace art
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef ART_ARTD_DEX2OAT_POOL_H_
+#define ART_ARTD_DEX2OAT_POOL_H_
+
+#include <sys/types.h>
+
+#include <condition_variable>
+#include <functional>
+#include <memory>
+#include <mutex>
+#include <string>
+#include <vector>
+
+#include "android-base/result.h"
+#include "android-base/thread_annotations.h"
+#include "android-base/unique_fd.h"
+#include "exec_utils.h"
+
+namespace art {
+namespace artd {
+
+// A pool of dex2oat servers, which have the runtime created and the boot image loaded already and
+// compile each job in a process forked from themselves (see dex2oat/dex2oat_server.h). Running a
+// job on a server rather than exec'ing dex2oat saves the runtime startup on every job after the
+// first one of each server.
+//
+// Servers are started on demand, one per concurrently running job, and are kept for later jobs
+// that need the same kind of server, up to `max_idle_servers` of them.
+class Dex2oatPool {
+ public:
+  // Runs the command line `args` of a server, blocking until the server exits. Called on a thread
+  // of its own. `callbacks` must be called as for `ExecUtils::ExecAndReturnResult`.
+  using RunServerFunc =
+      std::function<void(const std::vector<std::string>& args, const ExecCallbacks& callbacks)>;
+
+  Dex2oatPool(size_t max_idle_servers,
+              RunServerFunc run_server_func,
+              std::function<int(pid_t, int)> kill_func)
+      : max_idle_servers_(max_idle_servers),
+        run_server_(std::move(run_server_func)),
+        kill_(std::move(kill_func)) {}
+
+  // Closes the idle servers and waits for them to exit.
+  ~Dex2oatPool();
+
+  // Runs a dex2oat job on a server. `exec_args` is the command line that would run the job
+  // otherwise, `art_exec [OPTIONS] --keep-fds=FDS -- dex2oat [ARGS]`. The server is started with
+  // the same `art_exec` options, which set up the sandbox of the server and therefore of the job.
+  // Returns the exit code of the job, or an error as `ExecUtils::ExecAndReturnResult` does. Sets
+  // `started` to false if the job certainly did not start, in which case it is safe to run it
+  // some other way after an error.
+  android::base::Result<int> RunJob(const std::vector<std::string>& exec_args,
+                                    int timeout_sec,
+                                    const ExecCallbacks& callbacks,
+                                    /*out*/ ProcessStat* stat,
+                                    /*out*/ bool* started);
+
+ private:
+  struct Server {
+    std::string key;
+    android::base::unique_fd socket;
+  };
+
+  // Returns an idle server with the given key, or starts a new one.
+  android::base::Result<std::unique_ptr<Server>> AcquireServer(
+      const std::vector<std::string>& art_exec_args, const std::vector<std::string>& server_args)
+      EXCLUDES(mu_);
+
+  // Keeps the server for later jobs, if there is room.
+  void ReleaseServer(std::unique_ptr<Server> server) EXCLUDES(mu_);
+
+  const size_t max_idle_servers_;
+  const RunServerFunc run_server_;
+  const std::function<int(pid_t, int)> kill_;
+
+  std::mutex mu_;
+  std::condition_variable servers_exited_cv_;
+  std::vector<std::unique_ptr<Server>> idle_servers_ GUARDED_BY(mu_);
+  // The number of servers whose `run_server_` has not returned yet.
+  size_t running_servers_ GUARDED_BY(mu_) = 0;
+};
+
+}  // namespace artd
+}  // namespace art
+
+#endif  // ART_ARTD_DEX2OAT_POOL_H_
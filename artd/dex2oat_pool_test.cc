@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "dex2oat_pool.h"
+
+#include <signal.h>
+#include <sys/socket.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+#include <atomic>
+#include <string>
+#include <string_view>
+#include <vector>
+
+#include "android-base/cmsg.h"
+#include "android-base/file.h"
+#include "android-base/parseint.h"
+#include "android-base/result-gmock.h"
+#include "android-base/result.h"
+#include "android-base/strings.h"
+#include "android-base/unique_fd.h"
+#include "dex2oat/dex2oat_server.h"
+#include "exec_utils.h"
+#include "gmock/gmock.h"
+#include "gtest/gtest.h"
+
+namespace art {
+namespace artd {
+namespace {
+
+using ::android::base::ConsumePrefix;
+using ::android::base::ParseInt;
+using ::android::base::ReadFdToString;
+using ::android::base::Result;
+using ::android::base::unique_fd;
+using ::android::base::testing::HasError;
+using ::android::base::testing::HasValue;
+using ::android::base::testing::WithMessage;
+using ::testing::HasSubstr;
+
+using Reply = Dex2oatServer::Reply;
+
+void SendReply(int socket_fd, const Reply& reply) {
+  ASSERT_EQ(TEMP_FAILURE_RETRY(send(socket_fd, &reply, sizeof(reply), MSG_NOSIGNAL)),
+            static_cast<ssize_t>(sizeof(reply)));
+}
+
+// Serves jobs as the dex2oat server does, but the job processes, instead of compiling, write
+// "job" to `--output-fd` if given, hang if `--hang` is given, and then exit with `--exit-code`.
+void ServeJobs(int socket_fd) {
+  std::string data(Dex2oatServer::kMaxJobSize, '\0');
+  while (true) {
+    std::vector<unique_fd> received_fds;
+    ssize_t size = TEMP_FAILURE_RETRY(android::base::ReceiveFileDescriptorVector(
+        socket_fd, data.data(), data.size(), Dex2oatServer::kMaxJobFds, &received_fds));
+    if (size <= 0) {
+      return;
+    }
+    std::vector<int> client_fds;
+    std::vector<std::string> args;
+    ASSERT_TRUE(Dex2oatServer::DecodeJob(
+        std::string_view(data.data(), static_cast<size_t>(size)), &client_fds, &args));
+    std::vector<int> server_fds;
+    for (const unique_fd& fd : received_fds) {
+      server_fds.push_back(fd.get());
+    }
+    std::string error_msg;
+    ASSERT_TRUE(Dex2oatServer::RemapFdArgs(client_fds, server_fds, &args, &error_msg))
+        << error_msg;
+
+    int output_fd = -1;
+    int exit_code = 0;
+    bool hang = false;
+    for (const std::string& arg : args) {
+      std::string_view value = arg;
+      if (ConsumePrefix(&value, "--output-fd=")) {
+        ASSERT_TRUE(ParseInt(std::string(value), &output_fd));
+      } else if (ConsumePrefix(&value, "--exit-code=")) {
+        ASSERT_TRUE(ParseInt(std::string(value), &exit_code));
+      } else if (arg == "--hang") {
+        hang = true;
+      }
+    }
+
+    pid_t pid = fork();
+    ASSERT_GE(pid, 0);
+    if (pid == 0) {
+      if (output_fd >= 0) {
+        TEMP_FAILURE_RETRY(write(output_fd, "job", 3));
+      }
+      while (hang) {
+        pause();
+      }
+      _exit(exit_code);
+    }
+    received_fds.clear();
+    SendReply(socket_fd, {Reply::kStarted, pid, -1, 0, 0});
+
+    siginfo_t info;
+    ASSERT_EQ(TEMP_FAILURE_RETRY(waitid(P_PID, pid, &info, WEXITED | WNOWAIT)), 0);
+    bool exited = info.si_code == CLD_EXITED;
+    SendReply(socket_fd,
+              {Reply::kExited, pid, exited ? info.si_status : -1, exited ? 0 : info.si_status, 0});
+    char ack = 0;
+    ASSERT_EQ(TEMP_FAILURE_RETRY(recv(socket_fd, &ack, sizeof(ack), /*flags=*/0)), 1);
+    ASSERT_EQ(ack, Dex2oatServer::kAck);
+    ASSERT_EQ(TEMP_FAILURE_RETRY(waitpid(pid, nullptr, /*options=*/0)), pid);
+    SendReply(socket_fd, {Reply::kReaped, pid, -1, 0, 0});
+  }
+}
+
+class Dex2oatPoolTest : public testing::Test {
+ protected:
+  void SetUp() override {
+    pool_ = std::make_unique<Dex2oatPool>(
+        /*max_idle_servers=*/2,
+        [this](const std::vector<std::string>& args, const ExecCallbacks& callbacks) {
+          RunServer(args, callbacks);
+        },
+        kill);
+  }
+
+  void TearDown() override { pool_.reset(); }
+
+  void RunServer(const std::vector<std::string>& args, const ExecCallbacks& callbacks) {
+    server_args_.push_back(args);
+    if (fail_to_start_) {
+      return;
+    }
+    int socket_fd = -1;
+    for (const std::string& arg : args) {
+      std::string_view value = arg;
+      if (ConsumePrefix(&value, "--server-socket-fd=")) {
+        ASSERT_TRUE(ParseInt(std::string(value), &socket_fd));
+      }
+    }
+    // `on_start` closes the pool's copy of the server end, as if the server was another process.
+    unique_fd socket(dup(socket_fd));
+    ASSERT_GE(socket.get(), 0);
+    callbacks.on_start(getpid());
+    ServeJobs(socket.get());
+    callbacks.on_end(getpid());
+  }
+
+  Result<int> RunJob(const std::vector<std::string>& art_exec_options,
+                     const std::vector<int>& fds,
+                     const std::vector<std::string>& dex2oat_args,
+                     int timeout_sec = -1) {
+    std::vector<std::string> exec_args = {"/apex/com.android.art/bin/art_exec"};
+    exec_args.insert(exec_args.end(), art_exec_options.begin(), art_exec_options.end());
+    std::vector<std::string> fd_strs;
+    for (int fd : fds) {
+      fd_strs.push_back(std::to_string(fd));
+    }
+    exec_args.push_back("--keep-fds=" + android::base::Join(fd_strs, ':'));
+    exec_args.push_back("--");
+    exec_args.push_back("/apex/com.android.art/bin/dex2oat64");
+    exec_args.push_back("--instruction-set=arm64");
+    exec_args.insert(exec_args.end(), dex2oat_args.begin(), dex2oat_args.end());
+
+    ExecCallbacks callbacks{
+        .on_start = [&](pid_t pid) { started_pid_ = pid; },
+        .on_end = [&](pid_t pid) { ended_pid_ = pid; },
+    };
+    ProcessStat stat;
+    return pool_->RunJob(exec_args, timeout_sec, callbacks, &stat, &started_);
+  }
+
+  std::unique_ptr<Dex2oatPool> pool_;
+  // Only accessed by one server at a time, since the tests run one job at a time.
+  std::vector<std::vector<std::string>> server_args_;
+  std::atomic<bool> fail_to_start_ = false;
+  bool started_ = false;
+  pid_t started_pid_ = 0;
+  pid_t ended_pid_ = 0;
+};
+
+TEST_F(Dex2oatPoolTest, RunJob) {
+  EXPECT_THAT(RunJob({"--drop-capabilities"}, {}, {"--exit-code=0"}), HasValue(0));
+  EXPECT_TRUE(started_);
+  EXPECT_GT(started_pid_, 0);
+  EXPECT_NE(started_pid_, getpid());
+  EXPECT_EQ(ended_pid_, started_pid_);
+
+  EXPECT_THAT(RunJob({"--drop-capabilities"}, {}, {"--exit-code=3"}), HasValue(3));
+
+  // Both jobs ran on the same server, whose arguments are the runtime-related ones of the job.
+  ASSERT_EQ(server_args_.size(), 1u);
+  EXPECT_EQ(server_args_[0][0], "/apex/com.android.art/bin/art_exec");
+  EXPECT_EQ(server_args_[0][1], "--drop-capabilities");
+  EXPECT_THAT(server_args_[0][2], testing::StartsWith("--keep-fds="));
+  EXPECT_EQ(server_args_[0][3], "--");
+  EXPECT_EQ(server_args_[0][4], "/apex/com.android.art/bin/dex2oat64");
+  EXPECT_EQ(server_args_[0][5], "--instruction-set=arm64");
+  EXPECT_THAT(server_args_[0][6], testing::StartsWith("--server-socket-fd="));
+  EXPECT_EQ(server_args_[0].size(), 7u);
+}
+
+TEST_F(Dex2oatPoolTest, RunJobPassesFds) {
+  int pipe_fds[2];
+  ASSERT_EQ(pipe(pipe_fds), 0);
+  unique_fd read_fd(pipe_fds[0]);
+  unique_fd write_fd(pipe_fds[1]);
+
+  EXPECT_THAT(
+      RunJob({}, {write_fd.get()}, {"--output-fd=" + std::to_string(write_fd.get())}),
+      HasValue(0));
+
+  write_fd.reset();
+  std::string content;
+  ASSERT_TRUE(ReadFdToString(read_fd, &content));
+  EXPECT_EQ(content, "job");
+}
+
+TEST_F(Dex2oatPoolTest, RunJobDifferentServers) {
+  EXPECT_THAT(RunJob({"--drop-capabilities"}, {}, {}), HasValue(0));
+  EXPECT_THAT(RunJob({"--set-priority=background"}, {}, {}), HasValue(0));
+  EXPECT_THAT(RunJob({"--drop-capabilities"}, {}, {"--runtime-arg", "-Xmx512m"}), HasValue(0));
+  // Only the job arguments that don't affect the server may differ between the jobs of a server.
+  EXPECT_THAT(RunJob({"--drop-capabilities"}, {}, {"--compiler-filter=speed"}), HasValue(0));
+
+  EXPECT_EQ(server_args_.size(), 3u);
+}
+
+TEST_F(Dex2oatPoolTest, RunJobTimeout) {
+  EXPECT_THAT(RunJob({}, {}, {"--hang"}, /*timeout_sec=*/1),
+              HasError(WithMessage(HasSubstr("timed out"))));
+  EXPECT_TRUE(started_);
+  EXPECT_EQ(ended_pid_, started_pid_);
+
+  // The server is still usable.
+  EXPECT_THAT(RunJob({}, {}, {"--exit-code=0"}), HasValue(0));
+  EXPECT_EQ(server_args_.size(), 1u);
+}
+
+TEST_F(Dex2oatPoolTest, RunJobServerFailedToStart) {
+  fail_to_start_ = true;
+  EXPECT_THAT(RunJob({}, {}, {}), HasError(testing::_));
+  EXPECT_FALSE(started_);
+
+  // A failed server is not reused.
+  fail_to_start_ = false;
+  EXPECT_THAT(RunJob({}, {}, {}), HasValue(0));
+  EXPECT_TRUE(started_);
+  EXPECT_EQ(server_args_.size(), 2u);
+}
+
+TEST_F(Dex2oatPoolTest, RunJobMissingSeparator) {
+  ProcessStat stat;
+  bool started = true;
+  EXPECT_THAT(pool_->RunJob({"art_exec", "dex2oat"}, /*timeout_sec=*/-1, {}, &stat, &started),
+              HasError(WithMessage(HasSubstr("Missing '--'"))));
+  EXPECT_FALSE(started);
+  EXPECT_TRUE(server_args_.empty());
+}
+
+}  // namespace
+}  // namespace artd
+}  // namespace art
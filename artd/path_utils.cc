@@ -145,6 +145,7 @@ Result<std::vector<std::string>> ListManagedFiles() {
         patterns.push_back(secondary_oat_dir + "/*/*.odex" + maybe_tmp_suffix);
         patterns.push_back(secondary_oat_dir + "/*/*.vdex" + maybe_tmp_suffix);
         patterns.push_back(secondary_oat_dir + "/*/*.art" + maybe_tmp_suffix);
+        patterns.push_back(secondary_oat_dir + "/*/*.cmc" + maybe_tmp_suffix);
       }
     }
   }
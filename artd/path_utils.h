@@ -48,6 +48,11 @@ inline std::string OatPathToArtPath(const std::string& oat_path) {
   return ReplaceFileExtension(oat_path, "art");
 }
 
+// Returns the path to the cache of compiled methods that corresponds to the OAT file.
+inline std::string OatPathToCompiledMethodCachePath(const std::string& oat_path) {
+  return ReplaceFileExtension(oat_path, "cmc");
+}
+
 android::base::Result<std::string> BuildPrimaryRefProfilePath(
     const aidl::com::android::server::art::ProfilePath::PrimaryRefProfilePath&
         primary_ref_profile_path);
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+public class ArraysIntrinsicsBenchmark {
+    // Lengths are chosen to not be a multiple of the vector size, so that the scalar tails are
+    // exercised as well.
+    static final int SHORT_LENGTH = 13;
+    static final int LONG_LENGTH = 1029;
+
+    static final byte[] shortBytes1 = new byte[SHORT_LENGTH];
+    static final byte[] shortBytes2 = new byte[SHORT_LENGTH];
+    static final byte[] longBytes1 = new byte[LONG_LENGTH];
+    static final byte[] longBytes2 = new byte[LONG_LENGTH];
+    static final char[] longChars1 = new char[LONG_LENGTH];
+    static final char[] longChars2 = new char[LONG_LENGTH];
+    static final int[] shortInts1 = new int[SHORT_LENGTH];
+    static final int[] shortInts2 = new int[SHORT_LENGTH];
+    static final int[] longInts1 = new int[LONG_LENGTH];
+    static final int[] longInts2 = new int[LONG_LENGTH];
+    static final long[] longLongs1 = new long[LONG_LENGTH];
+    static final long[] longLongs2 = new long[LONG_LENGTH];
+
+    static final String shortString = "0123456789ABC";
+    static final String longCompressedString;
+    static final String longUncompressedString;
+
+    static {
+        for (int i = 0; i < LONG_LENGTH; ++i) {
+            longBytes1[i] = longBytes2[i] = (byte) i;
+            longChars1[i] = longChars2[i] = (char) (i * 37);
+            longInts1[i] = longInts2[i] = i * 1000003;
+            longLongs1[i] = longLongs2[i] = i * 1000000007L;
+        }
+        for (int i = 0; i < SHORT_LENGTH; ++i) {
+            shortBytes1[i] = shortBytes2[i] = (byte) i;
+            shortInts1[i] = shortInts2[i] = i;
+        }
+        StringBuilder compressed = new StringBuilder();
+        StringBuilder uncompressed = new StringBuilder();
+        for (int i = 0; i < LONG_LENGTH; ++i) {
+            compressed.append((char) ('a' + (i % 26)));
+            uncompressed.append((char) (0x400 + (i % 64)));
+        }
+        longCompressedString = compressed.toString();
+        longUncompressedString = uncompressed.toString();
+    }
+
+    public void timeEqualsShortBytes(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.equals(shortBytes1, shortBytes2);
+        }
+    }
+
+    public void timeEqualsLongBytes(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.equals(longBytes1, longBytes2);
+        }
+    }
+
+    public void timeEqualsLongChars(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.equals(longChars1, longChars2);
+        }
+    }
+
+    public void timeEqualsShortInts(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.equals(shortInts1, shortInts2);
+        }
+    }
+
+    public void timeEqualsLongInts(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.equals(longInts1, longInts2);
+        }
+    }
+
+    public void timeEqualsLongLongs(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.equals(longLongs1, longLongs2);
+        }
+    }
+
+    public void timeFillShortBytes(int count) {
+        byte[] array = new byte[SHORT_LENGTH];
+        for (int i = 0; i < count; ++i) {
+            Arrays.fill(array, (byte) i);
+        }
+    }
+
+    public void timeFillLongBytes(int count) {
+        byte[] array = new byte[LONG_LENGTH];
+        for (int i = 0; i < count; ++i) {
+            Arrays.fill(array, (byte) i);
+        }
+    }
+
+    public void timeFillLongChars(int count) {
+        char[] array = new char[LONG_LENGTH];
+        for (int i = 0; i < count; ++i) {
+            Arrays.fill(array, (char) i);
+        }
+    }
+
+    public void timeFillLongInts(int count) {
+        int[] array = new int[LONG_LENGTH];
+        for (int i = 0; i < count; ++i) {
+            Arrays.fill(array, i);
+        }
+    }
+
+    public void timeFillLongLongs(int count) {
+        long[] array = new long[LONG_LENGTH];
+        for (int i = 0; i < count; ++i) {
+            Arrays.fill(array, (long) i);
+        }
+    }
+
+    public void timeHashCodeShortBytes(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.hashCode(shortBytes1);
+        }
+    }
+
+    public void timeHashCodeLongBytes(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.hashCode(longBytes1);
+        }
+    }
+
+    public void timeHashCodeLongChars(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.hashCode(longChars1);
+        }
+    }
+
+    public void timeHashCodeShortInts(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.hashCode(shortInts1);
+        }
+    }
+
+    public void timeHashCodeLongInts(int count) {
+        for (int i = 0; i < count; ++i) {
+            Arrays.hashCode(longInts1);
+        }
+    }
+
+    // The hash code of a string is cached, so these benchmarks create new strings to hash. The
+    // copy is made with `new String()` which does not compute the hash code.
+    public void timeStringHashCodeShort(int count) {
+        for (int i = 0; i < count; ++i) {
+            new String(shortString).hashCode();
+        }
+    }
+
+    public void timeStringHashCodeLongCompressed(int count) {
+        for (int i = 0; i < count; ++i) {
+            new String(longCompressedString).hashCode();
+        }
+    }
+
+    public void timeStringHashCodeLongUncompressed(int count) {
+        for (int i = 0; i < count; ++i) {
+            new String(longUncompressedString).hashCode();
+        }
+    }
+}
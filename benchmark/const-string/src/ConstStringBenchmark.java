@@ -1059,6 +1059,56 @@ public class ConstStringBenchmark {
         }
     }
 
+    // The multi-threaded benchmarks below intern strings on several threads at once to show
+    // how intern table lookups scale. The strings are copies that are not interned themselves,
+    // so that each `intern()` call goes to the runtime's intern table instead of returning
+    // early. Strings from the boot image intern table can be found without taking the intern
+    // table lock, while other strings still need the lock.
+    public static final int NUM_THREADS = 4;
+
+    public static final String[] bootImageStrings = copyStrings(new String[] {
+        "java.lang.Object", "toString", "hashCode", "equals", "length", "value",
+    });
+
+    public static final String[] appStrings = copyStrings(new String[] {
+        string_0000, string_0001, string_0002, string_0003, string_0004, string_0005,
+    });
+
+    public void timeInternBootImageStringsMultiThreaded(int count) throws Exception {
+        internOnThreads(bootImageStrings, count);
+    }
+
+    public void timeInternAppStringsMultiThreaded(int count) throws Exception {
+        internOnThreads(appStrings, count);
+    }
+
+    static void internOnThreads(final String[] strings, final int count) throws Exception {
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int t = 0; t < NUM_THREADS; ++t) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < count; ++i) {
+                        for (String s : strings) {
+                            $noinline$foo(s.intern());
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    static String[] copyStrings(String[] strings) {
+        String[] copies = new String[strings.length];
+        for (int i = 0; i < strings.length; ++i) {
+            copies[i] = new String(strings[i].toCharArray());
+        }
+        return copies;
+    }
+
     static void $noinline$foo(String s) {
         if (doThrow) { throw new Error(); }
     }
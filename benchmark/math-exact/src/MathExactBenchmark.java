@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class MathExactBenchmark {
+    // None of the operations below overflow, so the benchmarks measure the fast paths.
+    static final int LENGTH = 1024;
+
+    static final int[] ints = new int[LENGTH];
+    static final long[] longs = new long[LENGTH];
+
+    static int intResult;
+    static long longResult;
+
+    static {
+        for (int i = 0; i < LENGTH; ++i) {
+            ints[i] = (i * 37) & 0x7fff;
+            longs[i] = (i * 1000003L) & 0x7fffffffL;
+        }
+    }
+
+    public void timeAddExactInt(int count) {
+        int sum = 0;
+        for (int i = 0; i < count; ++i) {
+            for (int j = 0; j < LENGTH; ++j) {
+                sum = Math.addExact(sum, ints[j]) & 0xffffff;
+            }
+        }
+        intResult = sum;
+    }
+
+    public void timeAddExactLong(int count) {
+        long sum = 0;
+        for (int i = 0; i < count; ++i) {
+            for (int j = 0; j < LENGTH; ++j) {
+                sum = Math.addExact(sum, longs[j]) & 0xffffffffffffL;
+            }
+        }
+        longResult = sum;
+    }
+
+    public void timeSubtractExactInt(int count) {
+        int difference = 0;
+        for (int i = 0; i < count; ++i) {
+            for (int j = 0; j < LENGTH; ++j) {
+                difference = Math.subtractExact(difference, ints[j]) & 0xffffff;
+            }
+        }
+        intResult = difference;
+    }
+
+    public void timeSubtractExactLong(int count) {
+        long difference = 0;
+        for (int i = 0; i < count; ++i) {
+            for (int j = 0; j < LENGTH; ++j) {
+                difference = Math.subtractExact(difference, longs[j]) & 0xffffffffffffL;
+            }
+        }
+        longResult = difference;
+    }
+
+    public void timeMultiplyExactInt(int count) {
+        int product = 1;
+        for (int i = 0; i < count; ++i) {
+            for (int j = 0; j < LENGTH; ++j) {
+                product = Math.multiplyExact(product, ints[j]) & 0xffff;
+            }
+        }
+        intResult = product;
+    }
+
+    public void timeMultiplyExactLong(int count) {
+        long product = 1;
+        for (int i = 0; i < count; ++i) {
+            for (int j = 0; j < LENGTH; ++j) {
+                product = Math.multiplyExact(product, longs[j]) & 0xffffffffL;
+            }
+        }
+        longResult = product;
+    }
+
+    public void timeBoxUnbox(int count) {
+        int sum = 0;
+        for (int i = 0; i < count; ++i) {
+            for (int j = 0; j < LENGTH; ++j) {
+                Integer boxed = ints[j] + i;
+                sum += boxed;
+            }
+        }
+        intResult = sum;
+    }
+}
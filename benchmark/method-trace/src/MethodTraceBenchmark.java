@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.lang.reflect.Method;
+
+public class MethodTraceBenchmark {
+    // Each call to $noinline$leaf() records one method entry and one method exit event, so the
+    // time per event is the time of an iteration divided by two. The untraced benchmarks give
+    // the baseline cost of the calls themselves.
+    public static final int NUM_THREADS = 4;
+
+    public void timeCallsUntraced(int count) throws Exception {
+        runOnThreads(1, count);
+    }
+
+    public void timeCallsStreamingTraced(int count) throws Exception {
+        runTraced(1, count);
+    }
+
+    public void timeCallsUntracedMultiThreaded(int count) throws Exception {
+        runOnThreads(NUM_THREADS, count);
+    }
+
+    public void timeCallsStreamingTracedMultiThreaded(int count) throws Exception {
+        runTraced(NUM_THREADS, count);
+    }
+
+    static void runTraced(int numThreads, int count) throws Exception {
+        File file = File.createTempFile("MethodTraceBenchmark", ".trace");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            VMDebug.startMethodTracing(file.getPath(), out.getFD(), /* bufferSize= */ 0,
+                    /* flags= */ 0, /* samplingEnabled= */ false, /* intervalUs= */ 0,
+                    /* streaming= */ true);
+            try {
+                runOnThreads(numThreads, count);
+            } finally {
+                VMDebug.stopMethodTracing();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    static void runOnThreads(int numThreads, final int count) throws Exception {
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < count; ++i) {
+                        $noinline$leaf();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    static void $noinline$leaf() {
+        if (doThrow) { throw new Error(); }
+    }
+
+    public static boolean doThrow = false;
+
+    private static class VMDebug {
+        private static final Method startMethodTracingMethod;
+        private static final Method stopMethodTracingMethod;
+        static {
+            try {
+                Class<?> c = Class.forName("dalvik.system.VMDebug");
+                startMethodTracingMethod = c.getDeclaredMethod("startMethodTracing", String.class,
+                        FileDescriptor.class, Integer.TYPE, Integer.TYPE, Boolean.TYPE,
+                        Integer.TYPE, Boolean.TYPE);
+                stopMethodTracingMethod = c.getDeclaredMethod("stopMethodTracing");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public static void startMethodTracing(String filename, FileDescriptor fd, int bufferSize,
+                int flags, boolean samplingEnabled, int intervalUs, boolean streaming)
+                throws Exception {
+            startMethodTracingMethod.invoke(
+                    null, filename, fd, bufferSize, flags, samplingEnabled, intervalUs, streaming);
+        }
+
+        public static void stopMethodTracing() throws Exception {
+            stopMethodTracingMethod.invoke(null);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class MonitorContentionBenchmark {
+    // Each thread enters the shared monitor `count` times. A short critical section is a few
+    // arithmetic operations, a long one is a few microseconds of work, long enough that spinning
+    // for the monitor does not pay off. The single-threaded benchmarks give the uncontended
+    // baseline.
+    static final int SHORT_WORK = 1;
+    static final int LONG_WORK = 1000;
+
+    final Object lock = new Object();
+    long counter;
+
+    public void timeShortUncontended(int count) throws Exception {
+        runOnThreads(1, count, SHORT_WORK);
+    }
+
+    public void timeShortContended2Threads(int count) throws Exception {
+        runOnThreads(2, count, SHORT_WORK);
+    }
+
+    public void timeShortContended4Threads(int count) throws Exception {
+        runOnThreads(4, count, SHORT_WORK);
+    }
+
+    public void timeShortContended8Threads(int count) throws Exception {
+        runOnThreads(8, count, SHORT_WORK);
+    }
+
+    public void timeLongUncontended(int count) throws Exception {
+        runOnThreads(1, count, LONG_WORK);
+    }
+
+    public void timeLongContended4Threads(int count) throws Exception {
+        runOnThreads(4, count, LONG_WORK);
+    }
+
+    void runOnThreads(int numThreads, final int count, final int work) throws Exception {
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < count; ++i) {
+                        synchronized (lock) {
+                            counter = $noinline$work(counter, work);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    static long $noinline$work(long value, int work) {
+        for (int i = 0; i < work; ++i) {
+            value = value * 31 + i;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class ScalarLoopsBenchmark {
+    // The loops use constant bounds so that their trip count is known to the compiler. Sizes
+    // which are not a multiple of the unrolling factor exercise the peeling of the remaining
+    // iterations.
+    static final int SIZE = 1024;
+    static final int ODD_SIZE = 1023;
+
+    static final int[] ints = new int[SIZE];
+    static final byte[] bytes = new byte[SIZE];
+    static final int[] crcTable = new int[256];
+
+    static {
+        for (int i = 0; i < SIZE; ++i) {
+            ints[i] = i * 1000003;
+            bytes[i] = (byte) (i * 37);
+        }
+        for (int i = 0; i < 256; ++i) {
+            int c = i;
+            for (int k = 0; k < 8; ++k) {
+                c = ((c & 1) != 0) ? (0xedb88320 ^ (c >>> 1)) : (c >>> 1);
+            }
+            crcTable[i] = c;
+        }
+    }
+
+    // Loop-carried dependence through memory.
+    private static void prefixSum(int[] a) {
+        for (int i = 1; i < SIZE; ++i) {
+            a[i] += a[i - 1];
+        }
+    }
+
+    private static void prefixSumOdd(int[] a) {
+        for (int i = 1; i < ODD_SIZE; ++i) {
+            a[i] += a[i - 1];
+        }
+    }
+
+    // Reduction which is not a simple sum.
+    private static int polynomialHash(int[] a) {
+        int hash = 1;
+        for (int i = 0; i < SIZE; ++i) {
+            hash = hash * 31 + a[i];
+        }
+        return hash;
+    }
+
+    // Mixed types and a table lookup depending on the previous iteration.
+    private static int crc32(byte[] b) {
+        int crc = ~0;
+        for (int i = 0; i < SIZE; ++i) {
+            crc = crcTable[(crc ^ b[i]) & 0xff] ^ (crc >>> 8);
+        }
+        return ~crc;
+    }
+
+    public void timePrefixSum(int count) {
+        int[] a = new int[SIZE];
+        for (int i = 0; i < count; ++i) {
+            prefixSum(a);
+        }
+    }
+
+    public void timePrefixSumOdd(int count) {
+        int[] a = new int[SIZE];
+        for (int i = 0; i < count; ++i) {
+            prefixSumOdd(a);
+        }
+    }
+
+    public int timePolynomialHash(int count) {
+        int result = 0;
+        for (int i = 0; i < count; ++i) {
+            result += polynomialHash(ints);
+        }
+        return result;
+    }
+
+    public int timeCrc32(int count) {
+        int result = 0;
+        for (int i = 0; i < count; ++i) {
+            result += crc32(bytes);
+        }
+        return result;
+    }
+}
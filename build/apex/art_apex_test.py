@@ -756,6 +756,7 @@ class TestingTargetChecker:
     self._checker.check_art_test_data('art-gtest-jars-Statics.jar')
     self._checker.check_art_test_data('art-gtest-jars-AllFields.jar')
     self._checker.check_art_test_data('art-gtest-jars-IMTA.jar')
+    self._checker.check_art_test_data('art-gtest-jars-CompiledMethodCache.jar')
     self._checker.check_art_test_data('art-gtest-jars-ImageLayoutA.jar')
     self._checker.check_art_test_data('art-gtest-jars-MainEmptyUncompressed.jar')
     self._checker.check_art_test_data('art-gtest-jars-Dex2oatVdexTestDex.jar')
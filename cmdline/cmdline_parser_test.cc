@@ -42,7 +42,8 @@ namespace art {
         lhs.min_methods_to_save_ == rhs.min_methods_to_save_ &&
         lhs.min_classes_to_save_ == rhs.min_classes_to_save_ &&
         lhs.min_notification_before_wake_ == rhs.min_notification_before_wake_ &&
-        lhs.max_notification_before_wake_ == rhs.max_notification_before_wake_;
+        lhs.max_notification_before_wake_ == rhs.max_notification_before_wake_ &&
+        lhs.persist_jit_methods_ == rhs.persist_jit_methods_;
   }
 
   bool UsuallyEquals(double expected, double actual) {
@@ -481,13 +482,19 @@ TEST_F(CmdlineParserTest, TestJitOptions) {
   {
     EXPECT_SINGLE_PARSE_VALUE(12345u, "-Xjitthreshold:12345", M::JITOptimizeThreshold);
   }
+  {
+    EXPECT_SINGLE_PARSE_VALUE(4u, "-Xjitthreadcount:4", M::JITPoolThreadCount);
+  }
 }  // TEST_F
 
 /*
 * -Xps-*
 */
 TEST_F(CmdlineParserTest, ProfileSaverOptions) {
-  ProfileSaverOptions opt = ProfileSaverOptions(true, 1, 2, 3, 4, 5, 6, 7, 8, "abc", true);
+  ProfileSaverOptions opt = ProfileSaverOptions(true, 1, 2, 3, 4, 5, 6, 7, 8, "abc", true,
+                                                /*profile_aot_code=*/ false,
+                                                /*wait_for_jit_notifications_to_save=*/ true,
+                                                /*persist_jit_methods=*/ true);
 
   EXPECT_SINGLE_PARSE_VALUE(opt,
                             "-Xjitsaveprofilinginfo "
@@ -500,7 +507,8 @@ TEST_F(CmdlineParserTest, ProfileSaverOptions) {
                             "-Xps-min-notification-before-wake:7 "
                             "-Xps-max-notification-before-wake:8 "
                             "-Xps-profile-path:abc "
-                            "-Xps-profile-boot-class-path",
+                            "-Xps-profile-boot-class-path "
+                            "-Xps-persist-jit-methods",
                             M::ProfileSaverOpts);
 }  // TEST_F
 
@@ -86,6 +86,9 @@ class Compiler {
   virtual uintptr_t GetEntryPointOf(ArtMethod* method) const
      REQUIRES_SHARED(Locks::mutator_lock_) = 0;
 
+  // Dumps the statistics collected so far, if any, for example for a SIGQUIT dump.
+  virtual void DumpStats(std::ostream& os ATTRIBUTE_UNUSED) const {}
+
   uint64_t GetMaximumCompilationTimeBeforeWarning() const {
     return maximum_compilation_time_before_warning_;
   }
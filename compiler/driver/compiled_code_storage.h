@@ -21,6 +21,7 @@
 
 #include "base/array_ref.h"
 #include "base/macros.h"
+#include "dex/method_reference.h"
 
 namespace art HIDDEN {
 
@@ -60,6 +61,12 @@ class CompiledCodeStorage {
                             ArrayRef<const uint8_t> code,
                             const std::string& debug_name) = 0;
 
+  // Reports the methods whose code was used to produce `compiled_method`, typically because
+  // they have been inlined. The default implementation ignores this information.
+  virtual void SetInlinedMethods(CompiledMethod* compiled_method ATTRIBUTE_UNUSED,
+                                 ArrayRef<const MethodReference> inlined_methods ATTRIBUTE_UNUSED) {
+  }
+
  protected:
   CompiledCodeStorage() {}
   ~CompiledCodeStorage() {}
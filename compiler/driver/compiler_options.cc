@@ -16,7 +16,9 @@
 
 #include "compiler_options.h"
 
+#include <algorithm>
 #include <fstream>
+#include <sstream>
 #include <string_view>
 
 #include "android-base/stringprintf.h"
@@ -81,6 +83,8 @@ CompilerOptions::CompilerOptions()
       initialize_app_image_classes_(false),
       check_profiled_methods_(ProfileMethodsCheck::kNone),
       max_image_block_size_(std::numeric_limits<uint32_t>::max()),
+      optimization_time_budget_ms_(0u),
+      optimization_memory_budget_(0u),
       register_allocation_strategy_(RegisterAllocator::kRegisterAllocatorDefault),
       passes_to_run_(nullptr) {
 }
@@ -175,4 +179,78 @@ bool CompilerOptions::ShouldCompileWithClinitCheck(ArtMethod* method) const {
   return false;
 }
 
+// Returns a 64-bit FNV-1a hash of the sorted `strings`, to keep keys short for large sets.
+static uint64_t HashSortedStrings(const HashSet<std::string>& strings) {
+  std::vector<std::string_view> sorted(strings.begin(), strings.end());
+  std::sort(sorted.begin(), sorted.end());
+  uint64_t hash = UINT64_C(0xcbf29ce484222325);
+  for (std::string_view s : sorted) {
+    for (char c : s) {
+      hash = (hash ^ static_cast<uint8_t>(c)) * UINT64_C(0x100000001b3);
+    }
+    // Separate the strings so that different sets cannot produce the same sequence.
+    hash = (hash ^ static_cast<uint8_t>('\n')) * UINT64_C(0x100000001b3);
+  }
+  return hash;
+}
+
+std::string CompilerOptions::GetCodeGenerationKey() const {
+  std::ostringstream oss;
+  oss << "filter=" << CompilerFilter::NameOfFilter(compiler_filter_)
+      << ";huge-method=" << huge_method_threshold_
+      << ";large-method=" << large_method_threshold_
+      << ";num-dex-methods=" << num_dex_methods_threshold_
+      << ";inline-max-code-units=" << inline_max_code_units_
+      << ";isa=" << GetInstructionSetString(instruction_set_)
+      << ";isa-features="
+      << (instruction_set_features_ != nullptr ? instruction_set_features_->GetFeatureString()
+                                               : std::string("none"))
+      << ";no-inline-from=";
+  for (const DexFile* dex_file : no_inline_from_) {
+    oss << dex_file->GetLocation() << ",";
+  }
+  oss << ";oat-dex-files=";
+  for (const DexFile* dex_file : dex_files_for_oat_file_) {
+    oss << dex_file->GetLocation() << ",";
+  }
+  oss << ";image-classes=" << image_classes_.size() << ":" << HashSortedStrings(image_classes_)
+      << ";preloaded-classes=" << preloaded_classes_.size() << ":"
+      << HashSortedStrings(preloaded_classes_)
+      << ";compiler-type=" << static_cast<int>(compiler_type_)
+      << ";image-type=" << static_cast<int>(image_type_)
+      << ";multi-image=" << multi_image_
+      << ";compile-art-test=" << compile_art_test_
+      << ";baseline=" << baseline_
+      << ";debuggable=" << debuggable_
+      << ";debug-info=" << generate_debug_info_
+      << ";mini-debug-info=" << generate_mini_debug_info_
+      << ";build-id=" << generate_build_id_
+      << ";implicit-null-checks=" << implicit_null_checks_
+      << ";implicit-so-checks=" << implicit_so_checks_
+      << ";implicit-suspend-checks=" << implicit_suspend_checks_
+      << ";pic=" << compile_pic_
+      << ";top-k-profile-threshold=" << top_k_profile_threshold_
+      << ";force-determinism=" << force_determinism_
+      << ";check-linkage-conditions=" << check_linkage_conditions_
+      << ";crash-on-linkage-violation=" << crash_on_linkage_violation_
+      << ";deduplicate-code=" << deduplicate_code_
+      << ";count-hotness=" << count_hotness_in_compiled_code_
+      << ";resolve-startup-const-strings=" << resolve_startup_const_strings_
+      << ";initialize-app-image-classes=" << initialize_app_image_classes_
+      << ";max-image-block-size=" << max_image_block_size_
+      << ";optimization-time-budget-ms=" << optimization_time_budget_ms_
+      << ";optimization-memory-budget=" << optimization_memory_budget_
+      << ";register-allocation=" << static_cast<int>(register_allocation_strategy_)
+      << ";run-time-checks=" << EmitRunTimeChecksInDebugMode()
+      << ";passes=";
+  if (passes_to_run_ != nullptr) {
+    for (const std::string& pass : *passes_to_run_) {
+      oss << pass << ",";
+    }
+  } else {
+    oss << "default";
+  }
+  return oss.str();
+}
+
 }  // namespace art
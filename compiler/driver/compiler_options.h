@@ -374,6 +374,15 @@ class CompilerOptions final {
     max_image_block_size_ = size;
   }
 
+  // Per-method optimization budgets, zero if unlimited.
+  uint32_t GetOptimizationTimeBudgetMs() const {
+    return optimization_time_budget_ms_;
+  }
+
+  uint32_t GetOptimizationMemoryBudget() const {
+    return optimization_memory_budget_;
+  }
+
   bool InitializeAppImageClasses() const {
     return initialize_app_image_classes_;
   }
@@ -389,6 +398,12 @@ class CompilerOptions final {
   // which at runtime we will need to dirty after initialization.
   EXPORT bool ShouldCompileWithClinitCheck(ArtMethod* method) const;
 
+  // Returns a description of all options that may affect the code generated for a method,
+  // used to detect that code compiled with other options cannot be reused. Options that
+  // only affect diagnostics, such as dumping and verbose output, are left out. Any new
+  // option that affects the generated code must be added to it.
+  EXPORT std::string GetCodeGenerationKey() const;
+
  private:
   EXPORT bool ParseDumpInitFailures(const std::string& option, std::string* error_msg);
   EXPORT bool ParseRegisterAllocationStrategy(const std::string& option, std::string* error_msg);
@@ -488,6 +503,11 @@ class CompilerOptions final {
   // Maximum solid block size in the generated image.
   uint32_t max_image_block_size_;
 
+  // Maximum time in milliseconds and arena memory in bytes for optimizing a single method
+  // before the remaining optional passes are skipped. Zero means no limit.
+  uint32_t optimization_time_budget_ms_;
+  uint32_t optimization_memory_budget_;
+
   RegisterAllocator::Strategy register_allocation_strategy_;
 
   // If not null, specifies optimization passes which will be run instead of defaults.
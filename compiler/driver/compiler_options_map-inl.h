@@ -97,6 +97,8 @@ inline bool ReadCompilerOptions(Base& map, CompilerOptions* options, std::string
     options->check_profiled_methods_ = *map.Get(Base::CheckProfiledMethods);
   }
   map.AssignIfExists(Base::MaxImageBlockSize, &options->max_image_block_size_);
+  map.AssignIfExists(Base::OptimizationTimeBudget, &options->optimization_time_budget_ms_);
+  map.AssignIfExists(Base::OptimizationMemoryBudget, &options->optimization_memory_budget_);
 
   if (map.Exists(Base::DumpTimings)) {
     options->dump_timings_ = true;
@@ -256,7 +258,22 @@ inline void AddCompilerOptionsArgumentParserOptions(Builder& b) {
       .Define("--max-image-block-size=_")
           .template WithType<unsigned int>()
           .WithHelp("Maximum solid block size for compressed images.")
-          .IntoKey(Map::MaxImageBlockSize);
+          .IntoKey(Map::MaxImageBlockSize)
+
+      .Define("--optimization-time-budget-ms=_")
+          .template WithType<unsigned int>()
+          .WithHelp("Maximum time in milliseconds spent optimizing a single method. Once a method\n"
+                    "exceeds the budget, the remaining optional optimization passes are skipped.\n"
+                    "The result depends on the machine load, so this is meant for the JIT.\n"
+                    "Eg: --optimization-time-budget-ms=50")
+          .IntoKey(Map::OptimizationTimeBudget)
+
+      .Define("--optimization-memory-budget=_")
+          .template WithType<unsigned int>()
+          .WithHelp("Maximum arena memory in bytes used for optimizing a single method. Once a\n"
+                    "method exceeds the budget, the remaining optional optimization passes are\n"
+                    "skipped. Eg: --optimization-memory-budget=33554432")
+          .IntoKey(Map::OptimizationMemoryBudget);
   // clang-format on
 }
 
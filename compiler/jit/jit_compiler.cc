@@ -152,6 +152,10 @@ bool JitCompiler::GenerateDebugInfo() {
   return GetCompilerOptions().GetGenerateDebugInfo();
 }
 
+void JitCompiler::DumpForSigQuit(std::ostream& os) {
+  compiler_->DumpStats(os);
+}
+
 std::vector<uint8_t> JitCompiler::PackElfFileForJIT(ArrayRef<const JITCodeEntry*> elf_files,
                                                     ArrayRef<const void*> removed_symbols,
                                                     bool compress,
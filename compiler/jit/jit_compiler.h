@@ -57,6 +57,8 @@ class JitCompiler : public JitCompilerInterface {
 
   void ParseCompilerOptions() override;
 
+  void DumpForSigQuit(std::ostream& os) override;
+
   void TypesLoaded(mirror::Class**, size_t count) REQUIRES_SHARED(Locks::mutator_lock_) override;
 
   std::vector<uint8_t> PackElfFileForJIT(ArrayRef<const JITCodeEntry*> elf_files,
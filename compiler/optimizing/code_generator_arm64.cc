@@ -4576,12 +4576,25 @@ void CodeGeneratorARM64::MaybeGenerateInlineCacheCheck(HInstruction* instruction
     DCHECK(info != nullptr);
     InlineCache* cache = info->GetInlineCache(instruction->GetDexPc());
     uint64_t address = reinterpret_cast64<uint64_t>(cache);
-    vixl::aarch64::Label done;
+    vixl::aarch64::Label update_cache, done;
     __ Mov(x8, address);
     __ Ldr(x9, MemOperand(x8, InlineCache::ClassesOffset().Int32Value()));
-    // Fast path for a monomorphic cache.
+    // Fast path for a monomorphic cache: only update the receiver count of the first entry.
+    // The update is sampled, see InlineCache::kCountSamplingRate. The count saturates at the
+    // maximum unsigned value.
     __ Cmp(klass, x9);
-    __ B(eq, &done);
+    __ B(ne, &update_cache);
+    __ Mov(x9, reinterpret_cast64<uint64_t>(info));
+    __ Ldrh(w9, MemOperand(x9, ProfilingInfo::BaselineHotnessCountOffset().Int32Value()));
+    __ Tst(w9, InlineCache::kCountSamplingRate - 1u);
+    __ B(ne, &done);
+    MemOperand count(x8, InlineCache::CountsOffset().Int32Value());
+    __ Ldr(w9, count);
+    __ Adds(w9, w9, InlineCache::kCountSamplingRate);
+    __ Csinv(w9, w9, wzr, cc);
+    __ Str(w9, count);
+    __ B(&done);
+    __ Bind(&update_cache);
     InvokeRuntime(kQuickUpdateInlineCache, instruction, instruction->GetDexPc());
     __ Bind(&done);
   }
@@ -140,6 +140,12 @@ using VIXLUInt32Literal = vixl::aarch32::Literal<uint32_t>;
   V(FP16Min)                                                               \
   V(FP16Max)                                                               \
   V(MathMultiplyHigh)                                                      \
+  V(MathAddExactInt)                                                       \
+  V(MathAddExactLong)                                                      \
+  V(MathSubtractExactInt)                                                  \
+  V(MathSubtractExactLong)                                                 \
+  V(MathMultiplyExactInt)                                                  \
+  V(MathMultiplyExactLong)                                                 \
   V(StringStringIndexOf)                                                   \
   V(StringStringIndexOfAfter)                                              \
   V(StringBufferAppend)                                                    \
@@ -157,6 +163,21 @@ using VIXLUInt32Literal = vixl::aarch32::Literal<uint32_t>;
   V(StringBuilderAppendDouble)                                             \
   V(StringBuilderLength)                                                   \
   V(StringBuilderToString)                                                 \
+  V(ArraysEqualsByte)                                                      \
+  V(ArraysEqualsChar)                                                      \
+  V(ArraysEqualsShort)                                                     \
+  V(ArraysEqualsInt)                                                       \
+  V(ArraysEqualsLong)                                                      \
+  V(ArraysFillByte)                                                        \
+  V(ArraysFillChar)                                                        \
+  V(ArraysFillShort)                                                       \
+  V(ArraysFillInt)                                                         \
+  V(ArraysFillLong)                                                        \
+  V(ArraysHashCodeByte)                                                    \
+  V(ArraysHashCodeChar)                                                    \
+  V(ArraysHashCodeShort)                                                   \
+  V(ArraysHashCodeInt)                                                     \
+  V(StringHashCode)                                                        \
   V(SystemArrayCopyByte)                                                   \
   V(SystemArrayCopyInt)                                                    \
   /* 1.8 */                                                                \
@@ -71,6 +71,12 @@ static constexpr size_t kRuntimeParameterFpuRegistersLength =
   V(FP16Min)                                \
   V(FP16Max)                                \
   V(MathMultiplyHigh)                       \
+  V(MathAddExactInt)                        \
+  V(MathAddExactLong)                       \
+  V(MathSubtractExactInt)                   \
+  V(MathSubtractExactLong)                  \
+  V(MathMultiplyExactInt)                   \
+  V(MathMultiplyExactLong)                  \
   V(StringStringIndexOf)                    \
   V(StringStringIndexOfAfter)               \
   V(StringBufferAppend)                     \
@@ -88,6 +94,21 @@ static constexpr size_t kRuntimeParameterFpuRegistersLength =
   V(StringBuilderAppendDouble)              \
   V(StringBuilderLength)                    \
   V(StringBuilderToString)                  \
+  V(ArraysEqualsByte)                       \
+  V(ArraysEqualsChar)                       \
+  V(ArraysEqualsShort)                      \
+  V(ArraysEqualsInt)                        \
+  V(ArraysEqualsLong)                       \
+  V(ArraysFillByte)                         \
+  V(ArraysFillChar)                         \
+  V(ArraysFillShort)                        \
+  V(ArraysFillInt)                          \
+  V(ArraysFillLong)                         \
+  V(ArraysHashCodeByte)                     \
+  V(ArraysHashCodeChar)                     \
+  V(ArraysHashCodeShort)                    \
+  V(ArraysHashCodeInt)                      \
+  V(StringHashCode)                         \
   /* 1.8 */                                 \
   V(UnsafeGetAndAddInt)                     \
   V(UnsafeGetAndAddLong)                    \
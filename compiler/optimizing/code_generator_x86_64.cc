@@ -3005,11 +3005,27 @@ void CodeGeneratorX86_64::MaybeGenerateInlineCacheCheck(HInstruction* instructio
     DCHECK(info != nullptr);
     InlineCache* cache = info->GetInlineCache(instruction->GetDexPc());
     uint64_t address = reinterpret_cast64<uint64_t>(cache);
-    NearLabel done;
+    NearLabel update_cache, done;
     __ movq(CpuRegister(TMP), Immediate(address));
-    // Fast path for a monomorphic cache.
+    // Fast path for a monomorphic cache: only update the receiver count of the first entry.
+    // The update is sampled, see InlineCache::kCountSamplingRate. The count saturates at the
+    // maximum unsigned value.
     __ cmpl(Address(CpuRegister(TMP), InlineCache::ClassesOffset().Int32Value()), klass);
-    __ j(kEqual, &done);
+    __ j(kNotEqual, &update_cache);
+    // The inline caches are allocated right after the ProfilingInfo, so the hotness count can
+    // be addressed relative to the inline cache.
+    int32_t hotness_count_offset = ProfilingInfo::BaselineHotnessCountOffset().Int32Value() -
+        dchecked_integral_cast<int32_t>(
+            reinterpret_cast<uintptr_t>(cache) - reinterpret_cast<uintptr_t>(info));
+    __ testb(Address(CpuRegister(TMP), hotness_count_offset),
+             Immediate(InlineCache::kCountSamplingRate - 1u));
+    __ j(kNotZero, &done);
+    Address count(CpuRegister(TMP), InlineCache::CountsOffset().Int32Value());
+    __ addl(count, Immediate(InlineCache::kCountSamplingRate));
+    __ j(kAboveEqual, &done);
+    __ movl(count, Immediate(-1));
+    __ jmp(&done);
+    __ Bind(&update_cache);
     GenerateInvokeRuntime(
         GetThreadOffset<kX86_64PointerSize>(kQuickUpdateInlineCache).Int32Value());
     __ Bind(&done);
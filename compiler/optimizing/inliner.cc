@@ -16,6 +16,9 @@
 
 #include "inliner.h"
 
+#include <algorithm>
+#include <numeric>
+
 #include "art_method-inl.h"
 #include "base/enums.h"
 #include "base/logging.h"
@@ -69,6 +72,28 @@ static constexpr size_t kMaximumNumberOfRecursiveCalls = 4;
 // recursive calls at all.
 static constexpr size_t kMaximumNumberOfPolymorphicRecursiveCalls = 0;
 
+// Limits used instead of the above for the hottest call sites of a method, when the JIT has
+// recorded how often each call site was executed. The limits scale with the hotness of the call
+// site relative to the hottest call site of the method, see `HInliner::UpdateInliningBudget`.
+static constexpr size_t kMaximumNumberOfTotalInstructionsForHotCallSite =
+    2 * kMaximumNumberOfTotalInstructions;
+static constexpr size_t kMaximumNumberOfCumulatedDexRegistersForHotCallSite =
+    2 * kMaximumNumberOfCumulatedDexRegisters;
+
+// Percentage of the executions of the hottest call site of a method above which a call site is
+// considered hot, and gets the larger dex register limit.
+static constexpr uint32_t kHotCallSitePercentage = 50;
+
+// Receiver types seen in less than this percentage of the executions of a polymorphic call site
+// are not worth the code size of an inlined copy and a type guard.
+static constexpr uint32_t kMinimumPolymorphicTargetPercentage = 5;
+
+// Megamorphic call sites get their most frequent receiver types inlined behind type guards,
+// keeping the virtual call as a fallback, if they are seen in at least this percentage of the
+// executions. As the percentage is above a third, at most two targets can qualify.
+static constexpr uint32_t kMinimumMegamorphicTargetPercentage = 35;
+static constexpr size_t kMaximumNumberOfMegamorphicTargets = 2;
+
 // Controls the use of inline caches in AOT mode.
 static constexpr bool kUseAOTInlineCaches = true;
 
@@ -122,15 +147,66 @@ static size_t CountNumberOfInstructions(HGraph* graph) {
   return number_of_instructions;
 }
 
+// Whether the JIT inline caches of code running on `isa` have complete receiver counts, see
+// `InlineCache`. On other instruction sets, the counts miss the receivers seen by the
+// baseline compiled code and would be skewed towards the other receiver types.
+static bool HasCompleteReceiverCounts(InstructionSet isa) {
+  return isa == InstructionSet::kArm64 || isa == InstructionSet::kX86_64;
+}
+
+size_t HInliner::GetMaximumNumberOfTotalInstructions() const {
+  if (call_site_hotness_ == kUnknownCallSiteHotness) {
+    return kMaximumNumberOfTotalInstructions;
+  }
+  // Scale linearly from half the default limit for the coldest call sites up to
+  // the hot call site limit for the hottest one.
+  DCHECK_LE(call_site_hotness_, 100u);
+  constexpr size_t kMinimum = kMaximumNumberOfTotalInstructions / 2;
+  constexpr size_t kMaximum = kMaximumNumberOfTotalInstructionsForHotCallSite;
+  return kMinimum + (kMaximum - kMinimum) * call_site_hotness_ / 100u;
+}
+
+size_t HInliner::GetMaximumNumberOfCumulatedDexRegisters() const {
+  if (call_site_hotness_ != kUnknownCallSiteHotness &&
+      call_site_hotness_ >= kHotCallSitePercentage) {
+    return kMaximumNumberOfCumulatedDexRegistersForHotCallSite;
+  }
+  return kMaximumNumberOfCumulatedDexRegisters;
+}
+
 void HInliner::UpdateInliningBudget() {
-  if (total_number_of_instructions_ >= kMaximumNumberOfTotalInstructions) {
+  size_t maximum_number_of_total_instructions = GetMaximumNumberOfTotalInstructions();
+  if (call_site_hotness_ == 0u) {
+    // The call site was never executed, only inline small methods.
+    inlining_budget_ = kMaximumNumberOfInstructionsForSmallMethod;
+  } else if (total_number_of_instructions_ >= maximum_number_of_total_instructions) {
     // Always try to inline small methods.
     inlining_budget_ = kMaximumNumberOfInstructionsForSmallMethod;
   } else {
     inlining_budget_ = std::max(
         kMaximumNumberOfInstructionsForSmallMethod,
-        kMaximumNumberOfTotalInstructions - total_number_of_instructions_);
+        maximum_number_of_total_instructions - total_number_of_instructions_);
+  }
+}
+
+void HInliner::UpdateCallSiteHotness(HInvoke* invoke_instruction) {
+  call_site_hotness_ = kUnknownCallSiteHotness;
+  // Only virtual and interface calls have an inline cache recording how often they
+  // were executed. Other calls keep the default limits.
+  if (max_call_site_count_ != 0u &&
+      (invoke_instruction->IsInvokeVirtual() || invoke_instruction->IsInvokeInterface())) {
+    ProfilingInfo* profiling_info = graph_->GetProfilingInfo();
+    DCHECK(profiling_info != nullptr);
+    uint64_t count =
+        profiling_info->GetInlineCache(invoke_instruction->GetDexPc())->GetTotalCount();
+    call_site_hotness_ =
+        static_cast<uint32_t>(std::min<uint64_t>(count * 100u / max_call_site_count_, 100u));
+    if (call_site_hotness_ == 0u && count != 0u) {
+      // Keep zero for call sites that were never executed.
+      call_site_hotness_ = 1u;
+    }
   }
+  UpdateInliningBudget();
 }
 
 bool HInliner::Run() {
@@ -156,6 +232,15 @@ bool HInliner::Run() {
     total_number_of_instructions_ = CountNumberOfInstructions(graph_);
   }
 
+  // With JIT profiling information, the inlining limits depend on the hotness of each call site
+  // relative to the hottest call site of the method.
+  ProfilingInfo* profiling_info = graph_->GetProfilingInfo();
+  max_call_site_count_ = (profiling_info != nullptr &&
+                          !Runtime::Current()->IsAotCompiler() &&
+                          HasCompleteReceiverCounts(codegen_->GetInstructionSet()))
+      ? profiling_info->GetMaxInlineCacheTotalCount()
+      : 0u;
+
   UpdateInliningBudget();
   DCHECK_NE(total_number_of_instructions_, 0u);
   DCHECK_NE(inlining_budget_, 0u);
@@ -183,6 +268,7 @@ bool HInliner::Run() {
       HInvoke* call = instruction->AsInvoke();
       // As long as the call is not intrinsified, it is worth trying to inline.
       if (call != nullptr && !codegen_->IsImplementedIntrinsic(call)) {
+        UpdateCallSiteHotness(call);
         if (honor_noinline_directives) {
           // Debugging case: directives in method names control or assert on inlining.
           std::string callee_name =
@@ -590,12 +676,15 @@ bool HInliner::TryInlineFromInlineCache(HInvoke* invoke_instruction)
   }
 
   StackHandleScope<InlineCache::kIndividualCacheSize> classes(Thread::Current());
+  // Receiver counts are only recorded by the JIT, they stay zero for profiles.
+  InlineCacheCounts counts;
+  counts.fill(0u);
   // The Zygote JIT compiles based on a profile, so we shouldn't use runtime inline caches
   // for it.
   InlineCacheType inline_cache_type =
       (Runtime::Current()->IsAotCompiler() || Runtime::Current()->IsZygote())
           ? GetInlineCacheAOT(invoke_instruction, &classes)
-          : GetInlineCacheJIT(invoke_instruction, &classes);
+          : GetInlineCacheJIT(invoke_instruction, &classes, &counts);
 
   switch (inline_cache_type) {
     case kInlineCacheNoData: {
@@ -616,7 +705,7 @@ bool HInliner::TryInlineFromInlineCache(HInvoke* invoke_instruction)
     case kInlineCacheMonomorphic: {
       MaybeRecordStat(stats_, MethodCompilationStat::kMonomorphicCall);
       if (UseOnlyPolymorphicInliningWithNoDeopt()) {
-        return TryInlinePolymorphicCall(invoke_instruction, classes);
+        return TryInlinePolymorphicCall(invoke_instruction, classes, counts);
       } else {
         return TryInlineMonomorphicCall(invoke_instruction, classes);
       }
@@ -624,15 +713,18 @@ bool HInliner::TryInlineFromInlineCache(HInvoke* invoke_instruction)
 
     case kInlineCachePolymorphic: {
       MaybeRecordStat(stats_, MethodCompilationStat::kPolymorphicCall);
-      return TryInlinePolymorphicCall(invoke_instruction, classes);
+      return TryInlinePolymorphicCall(invoke_instruction, classes, counts);
     }
 
     case kInlineCacheMegamorphic: {
+      MaybeRecordStat(stats_, MethodCompilationStat::kMegamorphicCall);
+      if (TryInlineMegamorphicCall(invoke_instruction, classes, counts)) {
+        return true;
+      }
       LOG_FAIL_NO_STAT()
           << "Interface or virtual call to "
           << invoke_instruction->GetMethodReference().PrettyMethod()
           << " is megamorphic and not inlined";
-      MaybeRecordStat(stats_, MethodCompilationStat::kMegamorphicCall);
       return false;
     }
 
@@ -649,7 +741,8 @@ bool HInliner::TryInlineFromInlineCache(HInvoke* invoke_instruction)
 
 HInliner::InlineCacheType HInliner::GetInlineCacheJIT(
     HInvoke* invoke_instruction,
-    /*out*/StackHandleScope<InlineCache::kIndividualCacheSize>* classes) {
+    /*out*/StackHandleScope<InlineCache::kIndividualCacheSize>* classes,
+    /*out*/InlineCacheCounts* counts) {
   DCHECK(codegen_->GetCompilerOptions().IsJitCompiler());
 
   ArtMethod* caller = graph_->GetArtMethod();
@@ -662,7 +755,11 @@ HInliner::InlineCacheType HInliner::GetInlineCacheJIT(
 
   Runtime::Current()->GetJit()->GetCodeCache()->CopyInlineCacheInto(
       *profiling_info->GetInlineCache(invoke_instruction->GetDexPc()),
-      classes);
+      classes,
+      counts);
+  if (!HasCompleteReceiverCounts(codegen_->GetInstructionSet())) {
+    counts->fill(0u);
+  }
   return GetInlineCacheType(*classes);
 }
 
@@ -950,9 +1047,58 @@ static void MaybeReplaceAndRemove(HInstruction* new_instruction, HInstruction* o
   old_instruction->GetBlock()->RemoveInstruction(old_instruction);
 }
 
+static uint64_t GetTotalReceiverCount(const HInliner::InlineCacheCounts& counts,
+                                      size_t number_of_types) {
+  uint64_t total_count = 0u;
+  for (size_t i = 0; i != number_of_types; ++i) {
+    total_count += counts[i];
+  }
+  return total_count;
+}
+
+size_t HInliner::SelectPolymorphicTargets(size_t number_of_types,
+                                          const InlineCacheCounts& counts,
+                                          bool is_megamorphic,
+                                          /*out*/InlineCacheTargets* targets) {
+  DCHECK_LE(number_of_types, InlineCache::kIndividualCacheSize);
+  uint64_t total_count = GetTotalReceiverCount(counts, number_of_types);
+  if (total_count == 0u) {
+    // Without receiver counts, we cannot tell whether a megamorphic call site has dominant
+    // targets, and we try all receiver types of a polymorphic one, in inline cache order.
+    if (is_megamorphic) {
+      return 0u;
+    }
+    std::iota(targets->begin(), targets->begin() + number_of_types, 0u);
+    return number_of_types;
+  }
+
+  // The count of the last entry of a megamorphic inline cache also accounts for the receiver
+  // types that did not fit in the cache, so that entry is not a candidate.
+  size_t number_of_candidates = is_megamorphic ? number_of_types - 1u : number_of_types;
+  std::iota(targets->begin(), targets->begin() + number_of_candidates, 0u);
+  std::stable_sort(targets->begin(),
+                   targets->begin() + number_of_candidates,
+                   [&counts](size_t a, size_t b) { return counts[a] > counts[b]; });
+
+  const uint32_t minimum_percentage = is_megamorphic
+      ? kMinimumMegamorphicTargetPercentage
+      : kMinimumPolymorphicTargetPercentage;
+  const size_t maximum_number_of_targets = is_megamorphic
+      ? std::min(kMaximumNumberOfMegamorphicTargets, number_of_candidates)
+      : number_of_candidates;
+  size_t number_of_targets = 0u;
+  while (number_of_targets != maximum_number_of_targets &&
+         uint64_t{counts[(*targets)[number_of_targets]]} * 100u >=
+             total_count * minimum_percentage) {
+    ++number_of_targets;
+  }
+  return number_of_targets;
+}
+
 bool HInliner::TryInlinePolymorphicCall(
     HInvoke* invoke_instruction,
-    const StackHandleScope<InlineCache::kIndividualCacheSize>& classes) {
+    const StackHandleScope<InlineCache::kIndividualCacheSize>& classes,
+    const InlineCacheCounts& counts) {
   DCHECK(invoke_instruction->IsInvokeVirtual() || invoke_instruction->IsInvokeInterface())
       << invoke_instruction->DebugName();
 
@@ -960,17 +1106,71 @@ bool HInliner::TryInlinePolymorphicCall(
     return true;
   }
 
+  DCHECK_EQ(classes.NumberOfReferences(), InlineCache::kIndividualCacheSize);
+  uint8_t number_of_types = InlineCache::kIndividualCacheSize - classes.RemainingSlots();
+  InlineCacheTargets targets;
+  size_t number_of_targets = SelectPolymorphicTargets(
+      number_of_types, counts, /* is_megamorphic= */ false, &targets);
+  if (!TryInlinePolymorphicTargets(invoke_instruction,
+                                   classes,
+                                   targets,
+                                   number_of_targets,
+                                   /* is_megamorphic= */ false)) {
+    return false;
+  }
+  MaybeRecordStat(stats_, MethodCompilationStat::kInlinedPolymorphicCall);
+  return true;
+}
+
+bool HInliner::TryInlineMegamorphicCall(
+    HInvoke* invoke_instruction,
+    const StackHandleScope<InlineCache::kIndividualCacheSize>& classes,
+    const InlineCacheCounts& counts) {
+  DCHECK(invoke_instruction->IsInvokeVirtual() || invoke_instruction->IsInvokeInterface())
+      << invoke_instruction->DebugName();
+  DCHECK_EQ(classes.RemainingSlots(), 0u);
+
+  InlineCacheTargets targets;
+  size_t number_of_targets = SelectPolymorphicTargets(
+      InlineCache::kIndividualCacheSize, counts, /* is_megamorphic= */ true, &targets);
+  if (number_of_targets == 0u) {
+    LOG_NOTE() << "Megamorphic call to "
+               << invoke_instruction->GetMethodReference().PrettyMethod()
+               << " has no dominant receiver type";
+    return false;
+  }
+  if (!TryInlinePolymorphicTargets(invoke_instruction,
+                                   classes,
+                                   targets,
+                                   number_of_targets,
+                                   /* is_megamorphic= */ true)) {
+    return false;
+  }
+  MaybeRecordStat(stats_, MethodCompilationStat::kInlinedMegamorphicCall);
+  return true;
+}
+
+bool HInliner::TryInlinePolymorphicTargets(
+    HInvoke* invoke_instruction,
+    const StackHandleScope<InlineCache::kIndividualCacheSize>& classes,
+    const InlineCacheTargets& targets,
+    size_t number_of_targets,
+    bool is_megamorphic) {
   ClassLinker* class_linker = caller_compilation_unit_.GetClassLinker();
   PointerSize pointer_size = class_linker->GetImagePointerSize();
 
-  bool all_targets_inlined = true;
-  bool one_target_inlined = false;
   DCHECK_EQ(classes.NumberOfReferences(), InlineCache::kIndividualCacheSize);
   uint8_t number_of_types = InlineCache::kIndividualCacheSize - classes.RemainingSlots();
-  for (size_t i = 0; i != number_of_types; ++i) {
-    DCHECK(classes.GetReference(i) != nullptr);
+  // If receiver types were left out, the original invoke instruction must be kept for them.
+  bool all_targets_inlined = !is_megamorphic && (number_of_targets == number_of_types);
+  bool one_target_inlined = false;
+  // Guards are emitted in the order of `targets`, so the most frequent receiver type is
+  // tested first.
+  for (size_t i = 0; i != number_of_targets; ++i) {
+    size_t index = targets[i];
+    DCHECK(classes.GetReference(index) != nullptr);
     Handle<mirror::Class> handle =
-        graph_->GetHandleCache()->NewHandle(classes.GetReference(i)->AsClass());
+        graph_->GetHandleCache()->NewHandle(classes.GetReference(index)->AsClass());
     ArtMethod* method = ResolveMethodFromInlineCache(handle, invoke_instruction, pointer_size);
     if (method == nullptr) {
       DCHECK(Runtime::Current()->IsAotCompiler());
@@ -1015,7 +1215,7 @@ bool HInliner::TryInlinePolymorphicCall(
     } else {
       one_target_inlined = true;
 
-      LOG_SUCCESS() << "Polymorphic call to "
+      LOG_SUCCESS() << (is_megamorphic ? "Megamorphic" : "Polymorphic") << " call to "
                     << invoke_instruction->GetMethodReference().PrettyMethod()
                     << " has inlined " << ArtMethod::PrettyMethod(method);
 
@@ -1023,7 +1223,7 @@ bool HInliner::TryInlinePolymorphicCall(
       // we deoptimize instead of keeping the original invoke instruction.
       bool deoptimize = !UseOnlyPolymorphicInliningWithNoDeopt() &&
           all_targets_inlined &&
-          (i + 1 == number_of_types);
+          (i + 1 == number_of_targets);
 
       HInstruction* compare = AddTypeGuard(receiver,
                                            cursor,
@@ -1048,8 +1248,6 @@ bool HInliner::TryInlinePolymorphicCall(
     return false;
   }
 
-  MaybeRecordStat(stats_, MethodCompilationStat::kInlinedPolymorphicCall);
-
   // Run type propagation to get the guards typed.
   ReferenceTypePropagation rtp_fixup(graph_,
                                      outer_compilation_unit_.GetDexCache(),
@@ -1541,6 +1739,8 @@ bool HInliner::TryBuildAndInline(HInvoke* invoke_instruction,
       new_invoke->SetReferenceTypeInfoIfValid(invoke_instruction->GetReferenceTypeInfo());
     }
     *return_replacement = new_invoke;
+    outermost_graph_->AddInlinedMethod(
+        MethodReference(method->GetDexFile(), method->GetDexMethodIndex()));
     return true;
   }
 
@@ -1553,6 +1753,8 @@ bool HInliner::TryBuildAndInline(HInvoke* invoke_instruction,
       LOG_SUCCESS() << "Successfully replaced pattern of invoke "
                     << method->PrettyMethod();
       MaybeRecordStat(stats_, MethodCompilationStat::kReplacedInvokeWithSimplePattern);
+      outermost_graph_->AddInlinedMethod(
+          MethodReference(method->GetDexFile(), method->GetDexMethodIndex()));
       return true;
     }
     LOG_FAIL(stats_, MethodCompilationStat::kNotInlinedWont)
@@ -1587,6 +1789,8 @@ bool HInliner::TryBuildAndInline(HInvoke* invoke_instruction,
   if (outermost_graph_ == graph_) {
     MaybeRecordStat(stats_, MethodCompilationStat::kInlinedLastInvoke);
   }
+  outermost_graph_->AddInlinedMethod(
+      MethodReference(method->GetDexFile(), method->GetDexMethodIndex()));
   return true;
 }
 
@@ -1965,7 +2169,7 @@ bool HInliner::CanInlineBody(const HGraph* callee_graph,
   }
 
   const bool too_many_registers =
-      total_number_of_dex_registers_ > kMaximumNumberOfCumulatedDexRegisters;
+      total_number_of_dex_registers_ > GetMaximumNumberOfCumulatedDexRegisters();
   bool needs_bss_check = false;
   const bool can_encode_in_stack_map = CanEncodeInlinedMethodInStackMap(
       *outer_compilation_unit_.GetDexFile(), resolved_method, codegen_, &needs_bss_check);
@@ -2221,7 +2425,7 @@ void HInliner::RunOptimizations(HGraph* callee_graph,
 
   // Bail early for pathological cases on the environment (for example recursive calls,
   // or too large environment).
-  if (total_number_of_dex_registers_ > kMaximumNumberOfCumulatedDexRegisters) {
+  if (total_number_of_dex_registers_ > GetMaximumNumberOfCumulatedDexRegisters()) {
     LOG_NOTE() << "Calls in " << callee_graph->GetArtMethod()->PrettyMethod()
              << " will not be inlined because the outer method has reached"
              << " its environment budget limit.";
@@ -17,6 +17,9 @@
 #ifndef ART_COMPILER_OPTIMIZING_INLINER_H_
 #define ART_COMPILER_OPTIMIZING_INLINER_H_
 
+#include <array>
+#include <limits>
+
 #include "base/macros.h"
 #include "dex/dex_file_types.h"
 #include "dex/invoke_type.h"
@@ -56,6 +59,8 @@ class HInliner : public HOptimization {
         parent_(parent),
         depth_(depth),
         inlining_budget_(0),
+        max_call_site_count_(0),
+        call_site_hotness_(kUnknownCallSiteHotness),
         try_catch_inlining_allowed_(try_catch_inlining_allowed),
         inline_stats_(nullptr) {}
 
@@ -63,7 +68,19 @@ class HInliner : public HOptimization {
 
   static constexpr const char* kInlinerPassName = "inliner";
 
+  // Number of times each receiver type of an inline cache was seen, in the order of
+  // the types. All zero when the counts are unknown, for example in AOT mode, or incomplete,
+  // see `InlineCache`.
+  using InlineCacheCounts = std::array<uint32_t, InlineCache::kIndividualCacheSize>;
+
  private:
+  // Indices of receiver types in an inline cache, ordered by decreasing frequency.
+  using InlineCacheTargets = std::array<size_t, InlineCache::kIndividualCacheSize>;
+
+  // Value of `call_site_hotness_` when the JIT has not recorded how often call sites were
+  // executed.
+  static constexpr uint32_t kUnknownCallSiteHotness = std::numeric_limits<uint32_t>::max();
+
   enum InlineCacheType {
     kInlineCacheNoData = 0,
     kInlineCacheUninitialized = 1,
@@ -185,7 +202,8 @@ class HInliner : public HOptimization {
   // invoke info was found in the profile info.
   InlineCacheType GetInlineCacheJIT(
       HInvoke* invoke_instruction,
-      /*out*/StackHandleScope<InlineCache::kIndividualCacheSize>* classes)
+      /*out*/StackHandleScope<InlineCache::kIndividualCacheSize>* classes,
+      /*out*/InlineCacheCounts* counts)
     REQUIRES_SHARED(Locks::mutator_lock_);
 
   // Try getting the inline cache from AOT offline profile.
@@ -209,11 +227,37 @@ class HInliner : public HOptimization {
                                 const StackHandleScope<InlineCache::kIndividualCacheSize>& classes)
     REQUIRES_SHARED(Locks::mutator_lock_);
 
-  // Try to inline targets of a polymorphic call.
+  // Try to inline targets of a polymorphic call. With receiver counts, targets are
+  // guarded by decreasing frequency and rarely seen ones are left to the virtual call.
   bool TryInlinePolymorphicCall(HInvoke* invoke_instruction,
-                                const StackHandleScope<InlineCache::kIndividualCacheSize>& classes)
+                                const StackHandleScope<InlineCache::kIndividualCacheSize>& classes,
+                                const InlineCacheCounts& counts)
+    REQUIRES_SHARED(Locks::mutator_lock_);
+
+  // Try to inline the dominant targets of a megamorphic call, based on receiver counts. If
+  // successful, the inlined code is guarded by type checks and the virtual call is kept
+  // for the other receiver types.
+  bool TryInlineMegamorphicCall(HInvoke* invoke_instruction,
+                                const StackHandleScope<InlineCache::kIndividualCacheSize>& classes,
+                                const InlineCacheCounts& counts)
     REQUIRES_SHARED(Locks::mutator_lock_);
 
+  // Inline the first `number_of_targets` receiver types of `targets` behind type guards.
+  bool TryInlinePolymorphicTargets(
+      HInvoke* invoke_instruction,
+      const StackHandleScope<InlineCache::kIndividualCacheSize>& classes,
+      const InlineCacheTargets& targets,
+      size_t number_of_targets,
+      bool is_megamorphic)
+    REQUIRES_SHARED(Locks::mutator_lock_);
+
+  // Fill `targets` with the receiver types of a polymorphic or megamorphic inline cache that
+  // are worth inlining, and return their number.
+  static size_t SelectPolymorphicTargets(size_t number_of_types,
+                                         const InlineCacheCounts& counts,
+                                         bool is_megamorphic,
+                                         /*out*/InlineCacheTargets* targets);
+
   bool TryInlinePolymorphicCallToSameTarget(
       HInvoke* invoke_instruction,
       const StackHandleScope<InlineCache::kIndividualCacheSize>& classes)
@@ -304,9 +348,17 @@ class HInliner : public HOptimization {
                                                 HInstruction* return_replacement,
                                                 HInstruction* invoke_instruction);
 
-  // Update the inlining budget based on `total_number_of_instructions_`.
+  // Update the inlining budget based on `total_number_of_instructions_`
+  // and `call_site_hotness_`.
   void UpdateInliningBudget();
 
+  // Update `call_site_hotness_` and the inlining budget for `invoke_instruction`.
+  void UpdateCallSiteHotness(HInvoke* invoke_instruction);
+
+  // Limits for the current call site, depending on its hotness.
+  size_t GetMaximumNumberOfTotalInstructions() const;
+  size_t GetMaximumNumberOfCumulatedDexRegisters() const;
+
   // Count the number of calls of `method` being inlined recursively.
   size_t CountRecursiveCallsOf(ArtMethod* method) const;
 
@@ -328,6 +380,14 @@ class HInliner : public HOptimization {
   // The budget left for inlining, in number of instructions.
   size_t inlining_budget_;
 
+  // The largest number of executions of a call site of `graph_` recorded by the JIT,
+  // or 0 if unknown.
+  uint32_t max_call_site_count_;
+
+  // Number of executions of the call site being inlined, as a percentage of
+  // `max_call_site_count_`, or `kUnknownCallSiteHotness`.
+  uint32_t call_site_hotness_;
+
   // States if we are allowing try catch inlining to occur at this particular instance of inlining.
   bool try_catch_inlining_allowed_;
 
@@ -77,6 +77,7 @@ class InstructionSimplifierVisitor final : public HGraphDelegateVisitor {
   void VisitEqual(HEqual* equal) override;
   void VisitNotEqual(HNotEqual* equal) override;
   void VisitBooleanNot(HBooleanNot* bool_not) override;
+  void VisitInstanceFieldGet(HInstanceFieldGet* instruction) override;
   void VisitInstanceFieldSet(HInstanceFieldSet* equal) override;
   void VisitStaticFieldSet(HStaticFieldSet* equal) override;
   void VisitArraySet(HArraySet* equal) override;
@@ -737,6 +738,35 @@ void InstructionSimplifierVisitor::VisitInstanceOf(HInstanceOf* instruction) {
   }
 }
 
+void InstructionSimplifierVisitor::VisitInstanceFieldGet(HInstanceFieldGet* instruction) {
+  // Fold the unboxing of a boxed value, i.e. replace `Integer.valueOf(x).intValue()` with `x`.
+  // The `Integer.value` field is final, so it holds `x` whether the object returned by
+  // `valueOf()` comes from the boxing cache or was freshly allocated.
+  HInstruction* object = instruction->InputAt(0);
+  if (object->IsNullCheck()) {
+    object = object->InputAt(0);
+  }
+  if (!object->IsInvokeStaticOrDirect() ||
+      object->AsInvokeStaticOrDirect()->GetIntrinsic() != Intrinsics::kIntegerValueOf) {
+    return;
+  }
+  {
+    ScopedObjectAccess soa(Thread::Current());
+    ArtField* field = instruction->GetFieldInfo().GetField();
+    ArtMethod* value_of = object->AsInvokeStaticOrDirect()->GetResolvedMethod();
+    if (field == nullptr ||
+        value_of == nullptr ||
+        field->GetDeclaringClass() != value_of->GetDeclaringClass() ||
+        strcmp(field->GetName(), "value") != 0) {
+      return;
+    }
+  }
+  DCHECK_EQ(instruction->GetType(), DataType::Type::kInt32);
+  instruction->ReplaceWith(object->InputAt(0));
+  instruction->GetBlock()->RemoveInstruction(instruction);
+  RecordSimplification();
+}
+
 void InstructionSimplifierVisitor::VisitInstanceFieldSet(HInstanceFieldSet* instruction) {
   if ((instruction->GetValue()->GetType() == DataType::Type::kReference)
       && CanEnsureNotNullAt(instruction->GetValue(), instruction)) {
@@ -58,6 +58,7 @@ using helpers::InputCPURegisterOrZeroRegAt;
 using helpers::OperandFrom;
 using helpers::RegisterFrom;
 using helpers::SRegisterFrom;
+using helpers::VRegisterFrom;
 using helpers::WRegisterFrom;
 using helpers::XRegisterFrom;
 using helpers::HRegisterFrom;
@@ -2575,6 +2576,554 @@ void IntrinsicCodeGeneratorARM64::VisitStringGetCharsNoCheck(HInvoke* invoke) {
   __ Bind(&done);
 }
 
+// Returns the scalar view of `reg` accessing its lowest `size` bytes.
+static VRegister ScalarVRegisterOfSize(VRegister reg, size_t size) {
+  switch (size) {
+    case 1u:
+      return reg.B();
+    case 2u:
+      return reg.H();
+    case 4u:
+      return reg.S();
+    case 8u:
+      return reg.D();
+    default:
+      LOG(FATAL) << "Unexpected size " << size;
+      UNREACHABLE();
+  }
+}
+
+// Loads `size` bytes from `mem` into `reg`, zero-extended.
+static void LoadZeroExtended(MacroAssembler* masm,
+                             size_t size,
+                             Register reg,
+                             const MemOperand& mem) {
+  switch (size) {
+    case 1u:
+      __ Ldrb(reg.W(), mem);
+      break;
+    case 2u:
+      __ Ldrh(reg.W(), mem);
+      break;
+    case 4u:
+      __ Ldr(reg.W(), mem);
+      break;
+    case 8u:
+      __ Ldr(reg.X(), mem);
+      break;
+    default:
+      LOG(FATAL) << "Unexpected size " << size;
+      UNREACHABLE();
+  }
+}
+
+static void CreateArraysEqualsLocations(ArenaAllocator* allocator, HInvoke* invoke) {
+  LocationSummary* locations =
+      new (allocator) LocationSummary(invoke, LocationSummary::kNoCall, kIntrinsified);
+  locations->SetInAt(0, Location::RequiresRegister());
+  locations->SetInAt(1, Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->SetOut(Location::RequiresRegister(), Location::kOutputOverlap);
+}
+
+static void GenArraysEquals(HInvoke* invoke, MacroAssembler* masm, DataType::Type type) {
+  LocationSummary* locations = invoke->GetLocations();
+
+  Register array1 = WRegisterFrom(locations->InAt(0));
+  Register array2 = WRegisterFrom(locations->InAt(1));
+  Register out = XRegisterFrom(locations->Out());
+  Register ptr1 = XRegisterFrom(locations->GetTemp(0));
+  Register ptr2 = XRegisterFrom(locations->GetTemp(1));
+  Register remaining = XRegisterFrom(locations->GetTemp(2));
+  VRegister vtmp1 = VRegisterFrom(locations->GetTemp(3));
+  VRegister vtmp2 = VRegisterFrom(locations->GetTemp(4));
+
+  const size_t component_size = DataType::Size(type);
+  const uint32_t length_offset = mirror::Array::LengthOffset().Uint32Value();
+  const uint32_t data_offset = mirror::Array::DataOffset(component_size).Uint32Value();
+
+  vixl::aarch64::Label loop;
+  vixl::aarch64::Label tail;
+  vixl::aarch64::Label end;
+  vixl::aarch64::Label return_true;
+  vixl::aarch64::Label return_false;
+
+  // Reference equality check, return true if same reference. This includes both being null.
+  __ Cmp(array1, array2);
+  __ B(&return_true, eq);
+
+  // At most one of the inputs is null, return false if it is.
+  if (invoke->InputAt(0)->CanBeNull()) {
+    __ Cbz(array1, &return_false);
+  }
+  if (invoke->InputAt(1)->CanBeNull()) {
+    __ Cbz(array2, &return_false);
+  }
+
+  // Return false if the lengths differ.
+  __ Ldr(remaining.W(), HeapOperand(array1, length_offset));
+  __ Ldr(out.W(), HeapOperand(array2, length_offset));
+  __ Cmp(remaining.W(), out.W());
+  __ B(&return_false, ne);
+
+  // Compare the data as bytes. The byte count can exceed INT32_MAX for wide component types.
+  if (component_size != 1u) {
+    __ Lsl(remaining, remaining, DataType::SizeShift(type));
+  }
+  __ Add(ptr1, array1.X(), data_offset);
+  __ Add(ptr2, array2.X(), data_offset);
+  __ Cmp(remaining, kQRegSizeInBytes);
+  __ B(&tail, lo);
+
+  // Main loop comparing 16 bytes at a time. Unaligned accesses are acceptable here.
+  __ Bind(&loop);
+  __ Ldr(vtmp1.Q(), MemOperand(ptr1, kQRegSizeInBytes, PostIndex));
+  __ Ldr(vtmp2.Q(), MemOperand(ptr2, kQRegSizeInBytes, PostIndex));
+  __ Sub(remaining, remaining, kQRegSizeInBytes);
+  __ Eor(vtmp1.V16B(), vtmp1.V16B(), vtmp2.V16B());
+  // Fold the 128-bit difference into the low 64 bits and check it in a core register.
+  __ Umaxp(vtmp1.V4S(), vtmp1.V4S(), vtmp1.V4S());
+  __ Fmov(out, vtmp1.D());
+  __ Cbnz(out, &return_false);
+  __ Cmp(remaining, kQRegSizeInBytes);
+  __ B(&loop, hs);
+
+  // Compare the remaining 0-15 bytes. The remaining byte count is a multiple of the component
+  // size, so its bits below the component size are clear.
+  __ Bind(&tail);
+  {
+    UseScratchRegisterScope temps(masm);
+    Register tmp = temps.AcquireX();
+    for (size_t size = kXRegSizeInBytes; size >= component_size; size /= 2u) {
+      vixl::aarch64::Label skip;
+      __ Tbz(remaining, WhichPowerOf2(size), &skip);
+      LoadZeroExtended(masm, size, out, MemOperand(ptr1, size, PostIndex));
+      LoadZeroExtended(masm, size, tmp, MemOperand(ptr2, size, PostIndex));
+      __ Cmp(out, tmp);
+      __ B(&return_false, ne);
+      __ Bind(&skip);
+    }
+  }
+
+  __ Bind(&return_true);
+  __ Mov(out, 1);
+  __ B(&end);
+
+  __ Bind(&return_false);
+  __ Mov(out, 0);
+  __ Bind(&end);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysEqualsByte(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysEqualsByte(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetVIXLAssembler(), DataType::Type::kInt8);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysEqualsChar(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysEqualsChar(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetVIXLAssembler(), DataType::Type::kUint16);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysEqualsShort(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysEqualsShort(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetVIXLAssembler(), DataType::Type::kInt16);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysEqualsInt(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysEqualsInt(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetVIXLAssembler(), DataType::Type::kInt32);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysEqualsLong(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysEqualsLong(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetVIXLAssembler(), DataType::Type::kInt64);
+}
+
+static void CreateArraysFillLocations(ArenaAllocator* allocator, HInvoke* invoke) {
+  LocationSummary* locations =
+      new (allocator) LocationSummary(invoke,
+                                      invoke->InputAt(0)->CanBeNull()
+                                          ? LocationSummary::kCallOnSlowPath
+                                          : LocationSummary::kNoCall,
+                                      kIntrinsified);
+  locations->SetInAt(0, Location::RequiresRegister());
+  locations->SetInAt(1, Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+}
+
+static void GenArraysFill(HInvoke* invoke, CodeGeneratorARM64* codegen, DataType::Type type) {
+  MacroAssembler* masm = codegen->GetVIXLAssembler();
+  LocationSummary* locations = invoke->GetLocations();
+
+  Register array = WRegisterFrom(locations->InAt(0));
+  Register value = RegisterFrom(locations->InAt(1), type);
+  Register ptr = XRegisterFrom(locations->GetTemp(0));
+  Register remaining = XRegisterFrom(locations->GetTemp(1));
+  VRegister vtmp = VRegisterFrom(locations->GetTemp(2));
+
+  const size_t component_size = DataType::Size(type);
+  const uint32_t length_offset = mirror::Array::LengthOffset().Uint32Value();
+  const uint32_t data_offset = mirror::Array::DataOffset(component_size).Uint32Value();
+
+  // Let the managed implementation throw the NullPointerException.
+  SlowPathCodeARM64* slow_path = nullptr;
+  if (invoke->InputAt(0)->CanBeNull()) {
+    slow_path = new (codegen->GetScopedAllocator()) IntrinsicSlowPathARM64(invoke);
+    codegen->AddSlowPath(slow_path);
+    __ Cbz(array, slow_path->GetEntryLabel());
+  }
+
+  __ Ldr(remaining.W(), HeapOperand(array, length_offset));
+  if (component_size != 1u) {
+    __ Lsl(remaining, remaining, DataType::SizeShift(type));
+  }
+  __ Add(ptr, array.X(), data_offset);
+
+  // Replicate the value to all lanes.
+  switch (type) {
+    case DataType::Type::kInt8:
+      __ Dup(vtmp.V16B(), value);
+      break;
+    case DataType::Type::kUint16:
+    case DataType::Type::kInt16:
+      __ Dup(vtmp.V8H(), value);
+      break;
+    case DataType::Type::kInt32:
+      __ Dup(vtmp.V4S(), value);
+      break;
+    case DataType::Type::kInt64:
+      __ Dup(vtmp.V2D(), value);
+      break;
+    default:
+      LOG(FATAL) << "Unexpected type " << type;
+      UNREACHABLE();
+  }
+
+  vixl::aarch64::Label loop;
+  vixl::aarch64::Label tail;
+  __ Cmp(remaining, kQRegSizeInBytes);
+  __ B(&tail, lo);
+
+  // Main loop storing 16 bytes at a time. Primitive arrays need no card marking.
+  __ Bind(&loop);
+  __ Str(vtmp.Q(), MemOperand(ptr, kQRegSizeInBytes, PostIndex));
+  __ Sub(remaining, remaining, kQRegSizeInBytes);
+  __ Cmp(remaining, kQRegSizeInBytes);
+  __ B(&loop, hs);
+
+  // Store the remaining 0-15 bytes, see GenArraysEquals().
+  __ Bind(&tail);
+  for (size_t size = kXRegSizeInBytes; size >= component_size; size /= 2u) {
+    vixl::aarch64::Label skip;
+    __ Tbz(remaining, WhichPowerOf2(size), &skip);
+    __ Str(ScalarVRegisterOfSize(vtmp, size), MemOperand(ptr, size, PostIndex));
+    __ Bind(&skip);
+  }
+
+  if (slow_path != nullptr) {
+    __ Bind(slow_path->GetExitLabel());
+  }
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysFillByte(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysFillByte(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kInt8);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysFillChar(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysFillChar(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kUint16);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysFillShort(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysFillShort(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kInt16);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysFillInt(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysFillInt(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kInt32);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysFillLong(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysFillLong(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kInt64);
+}
+
+// The multiplier for one step of the polynomial hash, `h = 31 * h + element`.
+static constexpr int32_t kHashCodeMultiplier = 31;
+// The multiplier applied to each lane of the vector accumulator for every four elements.
+static constexpr int32_t kHashCodeMultiplierPow4 =
+    kHashCodeMultiplier * kHashCodeMultiplier * kHashCodeMultiplier * kHashCodeMultiplier;
+
+static void CreateHashCodeLocations(ArenaAllocator* allocator, HInvoke* invoke) {
+  LocationSummary* locations =
+      new (allocator) LocationSummary(invoke, LocationSummary::kNoCall, kIntrinsified);
+  locations->SetInAt(0, Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->SetOut(Location::RequiresRegister(), Location::kOutputOverlap);
+}
+
+// Updates `out` to `out * 31^n + data[0] * 31^(n-1) + ... + data[n-1]` for the `n` elements
+// of `type` starting at `ptr`, where `n` is held in `remaining`. The elements are accumulated
+// four at a time in the lanes of a vector register, so that lane `i` holds the hash of the
+// elements at indexes congruent to `i` modulo 4, with the initial value placed in the last lane.
+// The lanes are combined with a Horner step and the remaining elements are handled one by one.
+static void GenHashCodeLoop(MacroAssembler* masm,
+                            DataType::Type type,
+                            Register out,
+                            Register ptr,
+                            Register remaining,
+                            VRegister acc,
+                            VRegister multiplier,
+                            VRegister data) {
+  const size_t component_size = DataType::Size(type);
+  UseScratchRegisterScope temps(masm);
+  Register tmp = temps.AcquireW();
+  Register multiplier_scalar = temps.AcquireW();
+
+  vixl::aarch64::Label vector_loop;
+  vixl::aarch64::Label scalar_loop;
+  vixl::aarch64::Label tail;
+  vixl::aarch64::Label done;
+
+  __ Mov(multiplier_scalar, kHashCodeMultiplier);
+  __ Cmp(remaining, 4);
+  __ B(&tail, lo);
+
+  __ Movi(acc.V2D(), 0);
+  __ Ins(acc.V4S(), 3, out);
+  __ Mov(tmp, kHashCodeMultiplierPow4);
+  __ Dup(multiplier.V4S(), tmp);
+
+  __ Bind(&vector_loop);
+  switch (type) {
+    case DataType::Type::kUint8:
+      __ Ldr(data.S(), MemOperand(ptr, 4 * component_size, PostIndex));
+      __ Uxtl(data.V8H(), data.V8B());
+      __ Uxtl(data.V4S(), data.V4H());
+      break;
+    case DataType::Type::kInt8:
+      __ Ldr(data.S(), MemOperand(ptr, 4 * component_size, PostIndex));
+      __ Sxtl(data.V8H(), data.V8B());
+      __ Sxtl(data.V4S(), data.V4H());
+      break;
+    case DataType::Type::kUint16:
+      __ Ldr(data.D(), MemOperand(ptr, 4 * component_size, PostIndex));
+      __ Uxtl(data.V4S(), data.V4H());
+      break;
+    case DataType::Type::kInt16:
+      __ Ldr(data.D(), MemOperand(ptr, 4 * component_size, PostIndex));
+      __ Sxtl(data.V4S(), data.V4H());
+      break;
+    case DataType::Type::kInt32:
+      __ Ldr(data.Q(), MemOperand(ptr, 4 * component_size, PostIndex));
+      break;
+    default:
+      LOG(FATAL) << "Unexpected type " << type;
+      UNREACHABLE();
+  }
+  __ Sub(remaining, remaining, 4);
+  __ Mul(acc.V4S(), acc.V4S(), multiplier.V4S());
+  __ Add(acc.V4S(), acc.V4S(), data.V4S());
+  __ Cmp(remaining, 4);
+  __ B(&vector_loop, hs);
+
+  // out = acc[0] * 31^3 + acc[1] * 31^2 + acc[2] * 31 + acc[3].
+  __ Umov(out, acc.V4S(), 0);
+  for (int lane = 1; lane != 4; ++lane) {
+    __ Umov(tmp, acc.V4S(), lane);
+    __ Madd(out, out, multiplier_scalar, tmp);
+  }
+
+  __ Bind(&tail);
+  __ Cbz(remaining, &done);
+  __ Bind(&scalar_loop);
+  const MemOperand element(ptr, component_size, PostIndex);
+  switch (type) {
+    case DataType::Type::kUint8:
+      __ Ldrb(tmp, element);
+      break;
+    case DataType::Type::kInt8:
+      __ Ldrsb(tmp, element);
+      break;
+    case DataType::Type::kUint16:
+      __ Ldrh(tmp, element);
+      break;
+    case DataType::Type::kInt16:
+      __ Ldrsh(tmp, element);
+      break;
+    case DataType::Type::kInt32:
+      __ Ldr(tmp, element);
+      break;
+    default:
+      LOG(FATAL) << "Unexpected type " << type;
+      UNREACHABLE();
+  }
+  __ Madd(out, out, multiplier_scalar, tmp);
+  __ Sub(remaining, remaining, 1);
+  __ Cbnz(remaining, &scalar_loop);
+  __ Bind(&done);
+}
+
+static void GenArraysHashCode(HInvoke* invoke, MacroAssembler* masm, DataType::Type type) {
+  LocationSummary* locations = invoke->GetLocations();
+
+  Register array = WRegisterFrom(locations->InAt(0));
+  Register out = WRegisterFrom(locations->Out());
+  Register ptr = XRegisterFrom(locations->GetTemp(0));
+  Register remaining = XRegisterFrom(locations->GetTemp(1));
+
+  const uint32_t length_offset = mirror::Array::LengthOffset().Uint32Value();
+  const uint32_t data_offset = mirror::Array::DataOffset(DataType::Size(type)).Uint32Value();
+
+  // The hash code of a null array is 0.
+  vixl::aarch64::Label done;
+  if (invoke->InputAt(0)->CanBeNull()) {
+    __ Mov(out, 0);
+    __ Cbz(array, &done);
+  }
+
+  __ Ldr(remaining.W(), HeapOperand(array, length_offset));
+  __ Add(ptr, array.X(), data_offset);
+  __ Mov(out, 1);
+  GenHashCodeLoop(masm,
+                  type,
+                  out,
+                  ptr,
+                  remaining,
+                  VRegisterFrom(locations->GetTemp(2)),
+                  VRegisterFrom(locations->GetTemp(3)),
+                  VRegisterFrom(locations->GetTemp(4)));
+  __ Bind(&done);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysHashCodeByte(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysHashCodeByte(HInvoke* invoke) {
+  GenArraysHashCode(invoke, GetVIXLAssembler(), DataType::Type::kInt8);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysHashCodeChar(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysHashCodeChar(HInvoke* invoke) {
+  GenArraysHashCode(invoke, GetVIXLAssembler(), DataType::Type::kUint16);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysHashCodeShort(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysHashCodeShort(HInvoke* invoke) {
+  GenArraysHashCode(invoke, GetVIXLAssembler(), DataType::Type::kInt16);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitArraysHashCodeInt(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitArraysHashCodeInt(HInvoke* invoke) {
+  GenArraysHashCode(invoke, GetVIXLAssembler(), DataType::Type::kInt32);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitStringHashCode(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitStringHashCode(HInvoke* invoke) {
+  MacroAssembler* masm = GetVIXLAssembler();
+  LocationSummary* locations = invoke->GetLocations();
+
+  Register str = WRegisterFrom(locations->InAt(0));
+  Register out = WRegisterFrom(locations->Out());
+  Register ptr = XRegisterFrom(locations->GetTemp(0));
+  Register remaining = XRegisterFrom(locations->GetTemp(1));
+  VRegister acc = VRegisterFrom(locations->GetTemp(2));
+  VRegister multiplier = VRegisterFrom(locations->GetTemp(3));
+  VRegister data = VRegisterFrom(locations->GetTemp(4));
+
+  const int32_t count_offset = mirror::String::CountOffset().Int32Value();
+  const int32_t hash_offset = mirror::String::HashCodeOffset().Int32Value();
+  const int32_t value_offset = mirror::String::ValueOffset().Int32Value();
+
+  // Note that the null check must have been done earlier.
+  DCHECK(!invoke->CanDoImplicitNullCheckOn(invoke->InputAt(0)));
+
+  // Return the cached hash code if it has already been computed. Otherwise `out` is 0, which is
+  // the initial value of the hash computation.
+  vixl::aarch64::Label done;
+  __ Ldr(out, HeapOperand(str, hash_offset));
+  __ Cbnz(out, &done);
+
+  __ Ldr(remaining.W(), HeapOperand(str, count_offset));
+  __ Add(ptr, str.X(), value_offset);
+  if (mirror::kUseStringCompression) {
+    vixl::aarch64::Label uncompressed;
+    vixl::aarch64::Label store;
+    static_assert(static_cast<uint32_t>(mirror::StringCompressionFlag::kCompressed) == 0u,
+                  "Expecting 0=compressed, 1=uncompressed");
+    __ Tbnz(remaining, 0, &uncompressed);
+    __ Lsr(remaining, remaining, 1u);
+    GenHashCodeLoop(masm, DataType::Type::kUint8, out, ptr, remaining, acc, multiplier, data);
+    __ B(&store);
+    __ Bind(&uncompressed);
+    __ Lsr(remaining, remaining, 1u);
+    GenHashCodeLoop(masm, DataType::Type::kUint16, out, ptr, remaining, acc, multiplier, data);
+    __ Bind(&store);
+  } else {
+    GenHashCodeLoop(masm, DataType::Type::kUint16, out, ptr, remaining, acc, multiplier, data);
+  }
+
+  // Cache the computed value. The managed implementation does the same without synchronization
+  // as all threads compute the same value.
+  __ Str(out, HeapOperand(str, hash_offset));
+  __ Bind(&done);
+}
+
 // This value is greater than ARRAYCOPY_SHORT_CHAR_ARRAY_THRESHOLD in libcore,
 // so if we choose to jump to the slow path we will end up in the native implementation.
 static constexpr int32_t kSystemArrayCopyCharThreshold = 192;
@@ -4293,6 +4842,107 @@ void IntrinsicCodeGeneratorARM64::VisitMathMultiplyHigh(HInvoke* invoke) {
   __ Smulh(out, x, y);
 }
 
+enum class ExactArithmeticOp {
+  kAdd,
+  kSubtract,
+  kMultiply,
+};
+
+static void GenerateMathExact(HInvoke* invoke,
+                              CodeGeneratorARM64* codegen,
+                              ExactArithmeticOp op) {
+  LocationSummary* locations = invoke->GetLocations();
+  MacroAssembler* masm = codegen->GetVIXLAssembler();
+  DataType::Type type = invoke->GetType();
+  DCHECK(type == DataType::Type::kInt32 || type == DataType::Type::kInt64);
+
+  Register x = RegisterFrom(locations->InAt(0), type);
+  Register y = RegisterFrom(locations->InAt(1), type);
+  Register out = RegisterFrom(locations->Out(), type);
+
+  // On overflow, bail to the managed implementation to throw the ArithmeticException.
+  // The output does not overlap the inputs, so they are still intact in the slow path.
+  SlowPathCodeARM64* slow_path =
+      new (codegen->GetScopedAllocator()) IntrinsicSlowPathARM64(invoke);
+  codegen->AddSlowPath(slow_path);
+
+  switch (op) {
+    case ExactArithmeticOp::kAdd:
+      __ Adds(out, x, y);
+      __ B(vs, slow_path->GetEntryLabel());
+      break;
+    case ExactArithmeticOp::kSubtract:
+      __ Subs(out, x, y);
+      __ B(vs, slow_path->GetEntryLabel());
+      break;
+    case ExactArithmeticOp::kMultiply:
+      if (type == DataType::Type::kInt32) {
+        // The 64-bit product fits in 32 bits iff it is equal to its sign-extended low half.
+        __ Smull(out.X(), x, y);
+        __ Cmp(out.X(), Operand(out, SXTW));
+      } else {
+        // The 128-bit product fits in 64 bits iff the high half is the sign of the low half.
+        UseScratchRegisterScope temps(masm);
+        Register high = temps.AcquireX();
+        __ Smulh(high, x, y);
+        __ Mul(out, x, y);
+        __ Cmp(high, Operand(out, ASR, 63));
+      }
+      __ B(ne, slow_path->GetEntryLabel());
+      break;
+  }
+
+  __ Bind(slow_path->GetExitLabel());
+}
+
+void IntrinsicLocationsBuilderARM64::VisitMathAddExactInt(HInvoke* invoke) {
+  CreateIntIntToIntSlowPathCallLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitMathAddExactInt(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kAdd);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitMathAddExactLong(HInvoke* invoke) {
+  CreateIntIntToIntSlowPathCallLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitMathAddExactLong(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kAdd);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitMathSubtractExactInt(HInvoke* invoke) {
+  CreateIntIntToIntSlowPathCallLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitMathSubtractExactInt(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kSubtract);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitMathSubtractExactLong(HInvoke* invoke) {
+  CreateIntIntToIntSlowPathCallLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitMathSubtractExactLong(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kSubtract);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitMathMultiplyExactInt(HInvoke* invoke) {
+  CreateIntIntToIntSlowPathCallLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitMathMultiplyExactInt(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kMultiply);
+}
+
+void IntrinsicLocationsBuilderARM64::VisitMathMultiplyExactLong(HInvoke* invoke) {
+  CreateIntIntToIntSlowPathCallLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorARM64::VisitMathMultiplyExactLong(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kMultiply);
+}
+
 static void GenerateMathFma(HInvoke* invoke, CodeGeneratorARM64* codegen) {
   MacroAssembler* masm = codegen->GetVIXLAssembler();
 
@@ -1716,6 +1716,564 @@ void IntrinsicCodeGeneratorX86_64::VisitStringGetCharsNoCheck(HInvoke* invoke) {
   __ Bind(&done);
 }
 
+static void CreateArraysEqualsLocations(ArenaAllocator* allocator, HInvoke* invoke) {
+  LocationSummary* locations =
+      new (allocator) LocationSummary(invoke, LocationSummary::kNoCall, kIntrinsified);
+  locations->SetInAt(0, Location::RequiresRegister());
+  locations->SetInAt(1, Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->SetOut(Location::RequiresRegister(), Location::kOutputOverlap);
+}
+
+static void GenArraysEquals(HInvoke* invoke, X86_64Assembler* assembler, DataType::Type type) {
+  LocationSummary* locations = invoke->GetLocations();
+
+  CpuRegister array1 = locations->InAt(0).AsRegister<CpuRegister>();
+  CpuRegister array2 = locations->InAt(1).AsRegister<CpuRegister>();
+  CpuRegister out = locations->Out().AsRegister<CpuRegister>();
+  CpuRegister offset = locations->GetTemp(0).AsRegister<CpuRegister>();
+  CpuRegister remaining = locations->GetTemp(1).AsRegister<CpuRegister>();
+  XmmRegister xtmp1 = locations->GetTemp(2).AsFpuRegister<XmmRegister>();
+  XmmRegister xtmp2 = locations->GetTemp(3).AsFpuRegister<XmmRegister>();
+  CpuRegister tmp = CpuRegister(TMP);
+
+  const size_t component_size = DataType::Size(type);
+  const uint32_t length_offset = mirror::Array::LengthOffset().Uint32Value();
+  const uint32_t data_offset = mirror::Array::DataOffset(component_size).Uint32Value();
+  constexpr int32_t kVectorSize = 16;
+
+  NearLabel loop;
+  Label tail, end, return_true, return_false;
+
+  // Reference equality check, return true if same reference. This includes both being null.
+  __ cmpl(array1, array2);
+  __ j(kEqual, &return_true);
+
+  // At most one of the inputs is null, return false if it is.
+  if (invoke->InputAt(0)->CanBeNull()) {
+    __ testl(array1, array1);
+    __ j(kEqual, &return_false);
+  }
+  if (invoke->InputAt(1)->CanBeNull()) {
+    __ testl(array2, array2);
+    __ j(kEqual, &return_false);
+  }
+
+  // Return false if the lengths differ.
+  __ movl(remaining, Address(array1, length_offset));
+  __ cmpl(remaining, Address(array2, length_offset));
+  __ j(kNotEqual, &return_false);
+
+  // Compare the data as bytes. The byte count can exceed INT32_MAX for wide component types.
+  if (component_size != 1u) {
+    __ shlq(remaining, Immediate(DataType::SizeShift(type)));
+  }
+  __ xorl(offset, offset);
+  __ cmpq(remaining, Immediate(kVectorSize));
+  __ j(kBelow, &tail);
+
+  // Main loop comparing 16 bytes at a time. Unaligned accesses are acceptable here.
+  __ Bind(&loop);
+  __ movdqu(xtmp1, Address(array1, offset, TIMES_1, data_offset));
+  __ movdqu(xtmp2, Address(array2, offset, TIMES_1, data_offset));
+  __ pcmpeqb(xtmp1, xtmp2);
+  // All 16 bits of the byte mask are set if and only if all bytes are equal.
+  __ pmovmskb(out, xtmp1);
+  __ cmpl(out, Immediate(0xffff));
+  __ j(kNotEqual, &return_false);
+  __ addq(offset, Immediate(kVectorSize));
+  __ subq(remaining, Immediate(kVectorSize));
+  __ cmpq(remaining, Immediate(kVectorSize));
+  __ j(kAboveEqual, &loop);
+
+  // Compare the remaining 0-15 bytes. The remaining byte count is a multiple of the component
+  // size, so its bits below the component size are clear.
+  __ Bind(&tail);
+  for (size_t size = 8u; size >= component_size; size /= 2u) {
+    NearLabel skip;
+    __ testl(remaining, Immediate(size));
+    __ j(kZero, &skip);
+    Address address1(array1, offset, TIMES_1, data_offset);
+    Address address2(array2, offset, TIMES_1, data_offset);
+    switch (size) {
+      case 8u:
+        __ movq(tmp, address1);
+        __ cmpq(tmp, address2);
+        break;
+      case 4u:
+        __ movl(tmp, address1);
+        __ cmpl(tmp, address2);
+        break;
+      case 2u:
+        __ movzxw(tmp, address1);
+        __ movzxw(out, address2);
+        __ cmpl(tmp, out);
+        break;
+      default:
+        DCHECK_EQ(size, 1u);
+        __ movzxb(tmp, address1);
+        __ movzxb(out, address2);
+        __ cmpl(tmp, out);
+        break;
+    }
+    __ j(kNotEqual, &return_false);
+    __ addq(offset, Immediate(size));
+    __ Bind(&skip);
+  }
+
+  __ Bind(&return_true);
+  __ movl(out, Immediate(1));
+  __ jmp(&end);
+
+  __ Bind(&return_false);
+  __ xorl(out, out);
+  __ Bind(&end);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysEqualsByte(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysEqualsByte(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetAssembler(), DataType::Type::kInt8);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysEqualsChar(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysEqualsChar(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetAssembler(), DataType::Type::kUint16);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysEqualsShort(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysEqualsShort(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetAssembler(), DataType::Type::kInt16);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysEqualsInt(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysEqualsInt(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetAssembler(), DataType::Type::kInt32);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysEqualsLong(HInvoke* invoke) {
+  CreateArraysEqualsLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysEqualsLong(HInvoke* invoke) {
+  GenArraysEquals(invoke, GetAssembler(), DataType::Type::kInt64);
+}
+
+static void CreateArraysFillLocations(ArenaAllocator* allocator, HInvoke* invoke) {
+  LocationSummary* locations =
+      new (allocator) LocationSummary(invoke,
+                                      invoke->InputAt(0)->CanBeNull()
+                                          ? LocationSummary::kCallOnSlowPath
+                                          : LocationSummary::kNoCall,
+                                      kIntrinsified);
+  locations->SetInAt(0, Location::RequiresRegister());
+  locations->SetInAt(1, Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+}
+
+static void GenArraysFill(HInvoke* invoke, CodeGeneratorX86_64* codegen, DataType::Type type) {
+  X86_64Assembler* assembler = codegen->GetAssembler();
+  LocationSummary* locations = invoke->GetLocations();
+
+  CpuRegister array = locations->InAt(0).AsRegister<CpuRegister>();
+  CpuRegister value = locations->InAt(1).AsRegister<CpuRegister>();
+  CpuRegister offset = locations->GetTemp(0).AsRegister<CpuRegister>();
+  CpuRegister remaining = locations->GetTemp(1).AsRegister<CpuRegister>();
+  XmmRegister xtmp = locations->GetTemp(2).AsFpuRegister<XmmRegister>();
+  CpuRegister tmp = CpuRegister(TMP);
+
+  const size_t component_size = DataType::Size(type);
+  const uint32_t length_offset = mirror::Array::LengthOffset().Uint32Value();
+  const uint32_t data_offset = mirror::Array::DataOffset(component_size).Uint32Value();
+  constexpr int32_t kVectorSize = 16;
+
+  // Let the managed implementation throw the NullPointerException.
+  SlowPathCode* slow_path = nullptr;
+  if (invoke->InputAt(0)->CanBeNull()) {
+    slow_path = new (codegen->GetScopedAllocator()) IntrinsicSlowPathX86_64(invoke);
+    codegen->AddSlowPath(slow_path);
+    __ testl(array, array);
+    __ j(kEqual, slow_path->GetEntryLabel());
+  }
+
+  __ movl(remaining, Address(array, length_offset));
+  if (component_size != 1u) {
+    __ shlq(remaining, Immediate(DataType::SizeShift(type)));
+  }
+
+  // Replicate the value to all lanes.
+  if (type == DataType::Type::kInt64) {
+    __ movd(xtmp, value, /*is64bit=*/ true);
+    __ punpcklqdq(xtmp, xtmp);
+  } else {
+    __ movd(xtmp, value, /*is64bit=*/ false);
+    if (component_size == 1u) {
+      __ punpcklbw(xtmp, xtmp);
+    }
+    if (component_size <= 2u) {
+      __ punpcklwd(xtmp, xtmp);
+    }
+    __ pshufd(xtmp, xtmp, Immediate(0));
+  }
+
+  NearLabel loop;
+  Label tail;
+  __ xorl(offset, offset);
+  __ cmpq(remaining, Immediate(kVectorSize));
+  __ j(kBelow, &tail);
+
+  // Main loop storing 16 bytes at a time. Primitive arrays need no card marking.
+  __ Bind(&loop);
+  __ movdqu(Address(array, offset, TIMES_1, data_offset), xtmp);
+  __ addq(offset, Immediate(kVectorSize));
+  __ subq(remaining, Immediate(kVectorSize));
+  __ cmpq(remaining, Immediate(kVectorSize));
+  __ j(kAboveEqual, &loop);
+
+  // Store the remaining 0-15 bytes, see GenArraysEquals().
+  __ Bind(&tail);
+  __ movd(tmp, xtmp, /*is64bit=*/ true);
+  for (size_t size = 8u; size >= component_size; size /= 2u) {
+    NearLabel skip;
+    __ testl(remaining, Immediate(size));
+    __ j(kZero, &skip);
+    Address address(array, offset, TIMES_1, data_offset);
+    switch (size) {
+      case 8u:
+        __ movq(address, tmp);
+        break;
+      case 4u:
+        __ movl(address, tmp);
+        break;
+      case 2u:
+        __ movw(address, tmp);
+        break;
+      default:
+        DCHECK_EQ(size, 1u);
+        __ movb(address, tmp);
+        break;
+    }
+    __ addq(offset, Immediate(size));
+    __ Bind(&skip);
+  }
+
+  if (slow_path != nullptr) {
+    __ Bind(slow_path->GetExitLabel());
+  }
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysFillByte(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysFillByte(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kInt8);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysFillChar(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysFillChar(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kUint16);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysFillShort(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysFillShort(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kInt16);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysFillInt(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysFillInt(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kInt32);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysFillLong(HInvoke* invoke) {
+  CreateArraysFillLocations(allocator_, invoke);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysFillLong(HInvoke* invoke) {
+  GenArraysFill(invoke, codegen_, DataType::Type::kInt64);
+}
+
+// The multiplier for one step of the polynomial hash, `h = 31 * h + element`.
+static constexpr int32_t kHashCodeMultiplier = 31;
+// The multiplier applied to each lane of the vector accumulator for every four elements.
+static constexpr int32_t kHashCodeMultiplierPow4 =
+    kHashCodeMultiplier * kHashCodeMultiplier * kHashCodeMultiplier * kHashCodeMultiplier;
+
+static void CreateHashCodeLocations(ArenaAllocator* allocator,
+                                    HInvoke* invoke,
+                                    CodeGeneratorX86_64* codegen) {
+  // The vector loop needs PMULLD from SSE4.1.
+  if (!codegen->GetInstructionSetFeatures().HasSSE4_1()) {
+    return;
+  }
+
+  LocationSummary* locations =
+      new (allocator) LocationSummary(invoke, LocationSummary::kNoCall, kIntrinsified);
+  locations->SetInAt(0, Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->AddTemp(Location::RequiresFpuRegister());
+  locations->SetOut(Location::RequiresRegister(), Location::kOutputOverlap);
+}
+
+// Updates `out` to `out * 31^n + data[0] * 31^(n-1) + ... + data[n-1]` for the `n` elements
+// of `type` starting at `ptr`, where `n` is held in `remaining`. The elements are accumulated
+// four at a time in the lanes of a vector register, so that lane `i` holds the hash of the
+// elements at indexes congruent to `i` modulo 4, with the initial value placed in the last lane.
+// The lanes are combined with a Horner step and the remaining elements are handled one by one.
+static void GenHashCodeLoop(X86_64Assembler* assembler,
+                            DataType::Type type,
+                            CpuRegister out,
+                            CpuRegister ptr,
+                            CpuRegister remaining,
+                            XmmRegister acc,
+                            XmmRegister multiplier,
+                            XmmRegister data,
+                            XmmRegister zero) {
+  const size_t component_size = DataType::Size(type);
+  CpuRegister tmp = CpuRegister(TMP);
+
+  NearLabel vector_loop, scalar_loop;
+  Label tail, done;
+  __ cmpq(remaining, Immediate(4));
+  __ j(kBelow, &tail);
+
+  // acc = { 0, 0, 0, out }.
+  __ movd(acc, out, /*is64bit=*/ false);
+  __ pshufd(acc, acc, Immediate(0x15));
+  __ movl(tmp, Immediate(kHashCodeMultiplierPow4));
+  __ movd(multiplier, tmp, /*is64bit=*/ false);
+  __ pshufd(multiplier, multiplier, Immediate(0));
+  __ pxor(zero, zero);
+
+  __ Bind(&vector_loop);
+  switch (type) {
+    case DataType::Type::kUint8:
+      __ movss(data, Address(ptr, 0));
+      __ punpcklbw(data, zero);
+      __ punpcklwd(data, zero);
+      break;
+    case DataType::Type::kInt8:
+      __ movss(data, Address(ptr, 0));
+      __ punpcklbw(data, data);
+      __ punpcklwd(data, data);
+      __ psrad(data, Immediate(24));
+      break;
+    case DataType::Type::kUint16:
+      __ movsd(data, Address(ptr, 0));
+      __ punpcklwd(data, zero);
+      break;
+    case DataType::Type::kInt16:
+      __ movsd(data, Address(ptr, 0));
+      __ punpcklwd(data, data);
+      __ psrad(data, Immediate(16));
+      break;
+    case DataType::Type::kInt32:
+      __ movdqu(data, Address(ptr, 0));
+      break;
+    default:
+      LOG(FATAL) << "Unexpected type " << type;
+      UNREACHABLE();
+  }
+  __ pmulld(acc, multiplier);
+  __ paddd(acc, data);
+  __ addq(ptr, Immediate(4 * component_size));
+  __ subq(remaining, Immediate(4));
+  __ cmpq(remaining, Immediate(4));
+  __ j(kAboveEqual, &vector_loop);
+
+  // out = acc[0] * 31^3 + acc[1] * 31^2 + acc[2] * 31 + acc[3].
+  __ movd(out, acc, /*is64bit=*/ false);
+  for (int32_t lane = 1; lane != 4; ++lane) {
+    __ pshufd(data, acc, Immediate(lane));
+    __ movd(tmp, data, /*is64bit=*/ false);
+    __ imull(out, out, Immediate(kHashCodeMultiplier));
+    __ addl(out, tmp);
+  }
+
+  __ Bind(&tail);
+  __ testq(remaining, remaining);
+  __ j(kZero, &done);
+  __ Bind(&scalar_loop);
+  switch (type) {
+    case DataType::Type::kUint8:
+      __ movzxb(tmp, Address(ptr, 0));
+      break;
+    case DataType::Type::kInt8:
+      __ movsxb(tmp, Address(ptr, 0));
+      break;
+    case DataType::Type::kUint16:
+      __ movzxw(tmp, Address(ptr, 0));
+      break;
+    case DataType::Type::kInt16:
+      __ movsxw(tmp, Address(ptr, 0));
+      break;
+    case DataType::Type::kInt32:
+      __ movl(tmp, Address(ptr, 0));
+      break;
+    default:
+      LOG(FATAL) << "Unexpected type " << type;
+      UNREACHABLE();
+  }
+  __ imull(out, out, Immediate(kHashCodeMultiplier));
+  __ addl(out, tmp);
+  __ addq(ptr, Immediate(component_size));
+  __ subq(remaining, Immediate(1));
+  __ j(kNotZero, &scalar_loop);
+  __ Bind(&done);
+}
+
+static void GenArraysHashCode(HInvoke* invoke, X86_64Assembler* assembler, DataType::Type type) {
+  LocationSummary* locations = invoke->GetLocations();
+
+  CpuRegister array = locations->InAt(0).AsRegister<CpuRegister>();
+  CpuRegister out = locations->Out().AsRegister<CpuRegister>();
+  CpuRegister ptr = locations->GetTemp(0).AsRegister<CpuRegister>();
+  CpuRegister remaining = locations->GetTemp(1).AsRegister<CpuRegister>();
+
+  const uint32_t length_offset = mirror::Array::LengthOffset().Uint32Value();
+  const uint32_t data_offset = mirror::Array::DataOffset(DataType::Size(type)).Uint32Value();
+
+  // The hash code of a null array is 0.
+  Label done;
+  if (invoke->InputAt(0)->CanBeNull()) {
+    __ xorl(out, out);
+    __ testl(array, array);
+    __ j(kEqual, &done);
+  }
+
+  __ movl(remaining, Address(array, length_offset));
+  __ leaq(ptr, Address(array, data_offset));
+  __ movl(out, Immediate(1));
+  GenHashCodeLoop(assembler,
+                  type,
+                  out,
+                  ptr,
+                  remaining,
+                  locations->GetTemp(2).AsFpuRegister<XmmRegister>(),
+                  locations->GetTemp(3).AsFpuRegister<XmmRegister>(),
+                  locations->GetTemp(4).AsFpuRegister<XmmRegister>(),
+                  locations->GetTemp(5).AsFpuRegister<XmmRegister>());
+  __ Bind(&done);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysHashCodeByte(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke, codegen_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysHashCodeByte(HInvoke* invoke) {
+  GenArraysHashCode(invoke, GetAssembler(), DataType::Type::kInt8);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysHashCodeChar(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke, codegen_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysHashCodeChar(HInvoke* invoke) {
+  GenArraysHashCode(invoke, GetAssembler(), DataType::Type::kUint16);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysHashCodeShort(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke, codegen_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysHashCodeShort(HInvoke* invoke) {
+  GenArraysHashCode(invoke, GetAssembler(), DataType::Type::kInt16);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitArraysHashCodeInt(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke, codegen_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitArraysHashCodeInt(HInvoke* invoke) {
+  GenArraysHashCode(invoke, GetAssembler(), DataType::Type::kInt32);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitStringHashCode(HInvoke* invoke) {
+  CreateHashCodeLocations(allocator_, invoke, codegen_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitStringHashCode(HInvoke* invoke) {
+  X86_64Assembler* assembler = GetAssembler();
+  LocationSummary* locations = invoke->GetLocations();
+
+  CpuRegister str = locations->InAt(0).AsRegister<CpuRegister>();
+  CpuRegister out = locations->Out().AsRegister<CpuRegister>();
+  CpuRegister ptr = locations->GetTemp(0).AsRegister<CpuRegister>();
+  CpuRegister remaining = locations->GetTemp(1).AsRegister<CpuRegister>();
+  XmmRegister acc = locations->GetTemp(2).AsFpuRegister<XmmRegister>();
+  XmmRegister multiplier = locations->GetTemp(3).AsFpuRegister<XmmRegister>();
+  XmmRegister data = locations->GetTemp(4).AsFpuRegister<XmmRegister>();
+  XmmRegister zero = locations->GetTemp(5).AsFpuRegister<XmmRegister>();
+
+  const uint32_t count_offset = mirror::String::CountOffset().Uint32Value();
+  const uint32_t hash_offset = mirror::String::HashCodeOffset().Uint32Value();
+  const uint32_t value_offset = mirror::String::ValueOffset().Uint32Value();
+
+  // Note that the null check must have been done earlier.
+  DCHECK(!invoke->CanDoImplicitNullCheckOn(invoke->InputAt(0)));
+
+  // Return the cached hash code if it has already been computed. Otherwise `out` is 0, which is
+  // the initial value of the hash computation.
+  Label done;
+  __ movl(out, Address(str, hash_offset));
+  __ testl(out, out);
+  __ j(kNotZero, &done);
+
+  __ movl(remaining, Address(str, count_offset));
+  __ leaq(ptr, Address(str, value_offset));
+  if (mirror::kUseStringCompression) {
+    Label uncompressed, store;
+    static_assert(static_cast<uint32_t>(mirror::StringCompressionFlag::kCompressed) == 0u,
+                  "Expecting 0=compressed, 1=uncompressed");
+    __ shrl(remaining, Immediate(1));
+    __ j(kCarrySet, &uncompressed);
+    GenHashCodeLoop(
+        assembler, DataType::Type::kUint8, out, ptr, remaining, acc, multiplier, data, zero);
+    __ jmp(&store);
+    __ Bind(&uncompressed);
+    GenHashCodeLoop(
+        assembler, DataType::Type::kUint16, out, ptr, remaining, acc, multiplier, data, zero);
+    __ Bind(&store);
+  } else {
+    GenHashCodeLoop(
+        assembler, DataType::Type::kUint16, out, ptr, remaining, acc, multiplier, data, zero);
+  }
+
+  // Cache the computed value. The managed implementation does the same without synchronization
+  // as all threads compute the same value.
+  __ movl(Address(str, hash_offset), out);
+  __ Bind(&done);
+}
+
 static void GenPeek(LocationSummary* locations, DataType::Type size, X86_64Assembler* assembler) {
   CpuRegister address = locations->InAt(0).AsRegister<CpuRegister>();
   CpuRegister out = locations->Out().AsRegister<CpuRegister>();  // == address, here for clarity.
@@ -3332,6 +3890,115 @@ void IntrinsicCodeGeneratorX86_64::VisitMathMultiplyHigh(HInvoke* invoke) {
   __ imulq(y);
 }
 
+enum class ExactArithmeticOp {
+  kAdd,
+  kSubtract,
+  kMultiply,
+};
+
+static void CreateMathExactLocations(HInvoke* invoke, ArenaAllocator* allocator) {
+  LocationSummary* locations =
+      new (allocator) LocationSummary(invoke, LocationSummary::kCallOnSlowPath, kIntrinsified);
+  locations->SetInAt(0, Location::RequiresRegister());
+  locations->SetInAt(1, Location::RequiresRegister());
+  // Force kOutputOverlap; see comments in IntrinsicSlowPath::EmitNativeCode.
+  locations->SetOut(Location::RequiresRegister(), Location::kOutputOverlap);
+}
+
+static void GenerateMathExact(HInvoke* invoke,
+                              CodeGeneratorX86_64* codegen,
+                              ExactArithmeticOp op) {
+  LocationSummary* locations = invoke->GetLocations();
+  CpuRegister x = locations->InAt(0).AsRegister<CpuRegister>();
+  CpuRegister y = locations->InAt(1).AsRegister<CpuRegister>();
+  CpuRegister out = locations->Out().AsRegister<CpuRegister>();
+  bool is_long = invoke->GetType() == DataType::Type::kInt64;
+  DCHECK(is_long || invoke->GetType() == DataType::Type::kInt32);
+
+  // On overflow, bail to the managed implementation to throw the ArithmeticException.
+  auto* slow_path = new (codegen->GetScopedAllocator()) IntrinsicSlowPathX86_64(invoke);
+  codegen->AddSlowPath(slow_path);
+
+  X86_64Assembler* assembler = codegen->GetAssembler();
+  if (is_long) {
+    __ movq(out, x);
+    switch (op) {
+      case ExactArithmeticOp::kAdd:
+        __ addq(out, y);
+        break;
+      case ExactArithmeticOp::kSubtract:
+        __ subq(out, y);
+        break;
+      case ExactArithmeticOp::kMultiply:
+        __ imulq(out, y);
+        break;
+    }
+  } else {
+    __ movl(out, x);
+    switch (op) {
+      case ExactArithmeticOp::kAdd:
+        __ addl(out, y);
+        break;
+      case ExactArithmeticOp::kSubtract:
+        __ subl(out, y);
+        break;
+      case ExactArithmeticOp::kMultiply:
+        __ imull(out, y);
+        break;
+    }
+  }
+  __ j(kOverflow, slow_path->GetEntryLabel());
+  __ Bind(slow_path->GetExitLabel());
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitMathAddExactInt(HInvoke* invoke) {
+  CreateMathExactLocations(invoke, allocator_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitMathAddExactInt(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kAdd);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitMathAddExactLong(HInvoke* invoke) {
+  CreateMathExactLocations(invoke, allocator_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitMathAddExactLong(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kAdd);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitMathSubtractExactInt(HInvoke* invoke) {
+  CreateMathExactLocations(invoke, allocator_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitMathSubtractExactInt(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kSubtract);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitMathSubtractExactLong(HInvoke* invoke) {
+  CreateMathExactLocations(invoke, allocator_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitMathSubtractExactLong(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kSubtract);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitMathMultiplyExactInt(HInvoke* invoke) {
+  CreateMathExactLocations(invoke, allocator_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitMathMultiplyExactInt(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kMultiply);
+}
+
+void IntrinsicLocationsBuilderX86_64::VisitMathMultiplyExactLong(HInvoke* invoke) {
+  CreateMathExactLocations(invoke, allocator_);
+}
+
+void IntrinsicCodeGeneratorX86_64::VisitMathMultiplyExactLong(HInvoke* invoke) {
+  GenerateMathExact(invoke, codegen_, ExactArithmeticOp::kMultiply);
+}
+
 enum class GetAndUpdateOp {
   kSet,
   kAdd,
@@ -16,6 +16,7 @@
 
 #include "base/arena_allocator.h"
 #include "base/macros.h"
+#include "base/time_utils.h"
 #include "builder.h"
 #include "code_generator.h"
 #include "dex/dex_file.h"
@@ -23,7 +24,9 @@
 #include "driver/compiler_options.h"
 #include "nodes.h"
 #include "optimizing_unit_test.h"
+#include "pass_statistics.h"
 #include "prepare_for_register_allocation.h"
+#include "register_allocator.h"
 #include "ssa_liveness_analysis.h"
 
 namespace art HIDDEN {
@@ -31,6 +34,14 @@ namespace art HIDDEN {
 class LivenessTest : public CommonCompilerTest, public OptimizingUnitTestHelper {
  protected:
   void TestCode(const std::vector<uint16_t>& data, const char* expected);
+
+  // Allocates the registers of the method `data` in a new arena stack, with or without the
+  // block live sets, and records the liveness and register allocation time and arena growth
+  // in `stats`. Returns the live intervals after allocation and the arena stack peak.
+  std::string AllocateRegisters(const std::vector<uint16_t>& data,
+                                bool compute_block_live_sets,
+                                PassStatistics* stats,
+                                /*out*/ size_t* arena_peak_bytes);
 };
 
 static void DumpBitVector(BitVector* vector,
@@ -45,6 +56,15 @@ static void DumpBitVector(BitVector* vector,
   buffer << ")\n";
 }
 
+static std::string DumpLiveIntervals(const SsaLivenessAnalysis& liveness) {
+  std::ostringstream buffer;
+  for (size_t i = 0, e = liveness.GetNumberOfSsaValues(); i < e; ++i) {
+    liveness.GetInstructionFromSsaIndex(i)->GetLiveInterval()->Dump(buffer);
+    buffer << std::endl;
+  }
+  return buffer.str();
+}
+
 void LivenessTest::TestCode(const std::vector<uint16_t>& data, const char* expected) {
   HGraph* graph = CreateCFG(data);
   // `Inline` conditions into ifs.
@@ -55,6 +75,31 @@ void LivenessTest::TestCode(const std::vector<uint16_t>& data, const char* expec
   SsaLivenessAnalysis liveness(graph, codegen.get(), GetScopedAllocator());
   liveness.Analyze();
 
+  // Without the block live sets, the register allocation resolver finds the values live on
+  // entry to a block from the live intervals. Check that they agree with the live_in sets.
+  for (HBasicBlock* block : graph->GetLinearOrder()) {
+    BitVector* live_in = liveness.GetLiveInSet(*block);
+    for (size_t i = 0, e = liveness.GetNumberOfSsaValues(); i < e; ++i) {
+      HInstruction* instruction = liveness.GetInstructionFromSsaIndex(i);
+      bool covers = instruction->GetLiveInterval()->CoversSlow(block->GetLifetimeStart()) &&
+                    instruction->GetBlock() != block;
+      EXPECT_EQ(live_in->IsBitSet(i), covers) << "Block " << block->GetBlockId() << " v" << i;
+    }
+  }
+
+  // The live intervals must not depend on whether the block live sets are computed.
+  HGraph* fast_graph = CreateCFG(data);
+  PrepareForRegisterAllocation(fast_graph, *compiler_options).Run();
+  std::unique_ptr<CodeGenerator> fast_codegen =
+      CodeGenerator::Create(fast_graph, *compiler_options);
+  SsaLivenessAnalysis fast_liveness(fast_graph,
+                                    fast_codegen.get(),
+                                    GetScopedAllocator(),
+                                    /*compute_block_live_sets=*/ false);
+  fast_liveness.Analyze();
+  EXPECT_FALSE(fast_liveness.HasBlockLiveSets());
+  EXPECT_EQ(DumpLiveIntervals(liveness), DumpLiveIntervals(fast_liveness));
+
   std::ostringstream buffer;
   for (HBasicBlock* block : graph->GetBlocks()) {
     buffer << "Block " << block->GetBlockId() << std::endl;
@@ -69,6 +114,38 @@ void LivenessTest::TestCode(const std::vector<uint16_t>& data, const char* expec
   ASSERT_STREQ(expected, buffer.str().c_str());
 }
 
+std::string LivenessTest::AllocateRegisters(const std::vector<uint16_t>& data,
+                                            bool compute_block_live_sets,
+                                            PassStatistics* stats,
+                                            /*out*/ size_t* arena_peak_bytes) {
+  ResetPoolAndAllocator();
+  HGraph* graph = CreateCFG(data);
+  std::unique_ptr<CompilerOptions> compiler_options =
+      CommonCompilerTest::CreateCompilerOptions(kRuntimeISA, "default");
+  PrepareForRegisterAllocation(graph, *compiler_options).Run();
+  std::unique_ptr<CodeGenerator> codegen = CodeGenerator::Create(graph, *compiler_options);
+  auto get_method_name = []() { return "LargeMethod"; };
+
+  ScopedArenaAllocator allocator(GetArenaStack());
+  size_t start_bytes = GetArenaStack()->ApproximatePeakBytes();
+  uint64_t start_ns = NanoTime();
+  SsaLivenessAnalysis liveness(graph, codegen.get(), &allocator, compute_block_live_sets);
+  liveness.Analyze();
+  size_t liveness_bytes = GetArenaStack()->ApproximatePeakBytes();
+  uint64_t liveness_ns = NanoTime();
+  stats->RecordPass(SsaLivenessAnalysis::kLivenessPassName,
+                    liveness_ns - start_ns,
+                    liveness_bytes - start_bytes,
+                    get_method_name);
+  RegisterAllocator::Create(&allocator, codegen.get(), liveness)->AllocateRegisters();
+  *arena_peak_bytes = GetArenaStack()->ApproximatePeakBytes();
+  stats->RecordPass(RegisterAllocator::kRegisterAllocatorPassName,
+                    NanoTime() - liveness_ns,
+                    *arena_peak_bytes - liveness_bytes,
+                    get_method_name);
+  return DumpLiveIntervals(liveness);
+}
+
 TEST_F(LivenessTest, CFG1) {
   const char* expected =
     "Block 0\n"
@@ -589,4 +666,48 @@ TEST_F(LivenessTest, Loop8) {
   TestCode(data, expected);
 }
 
+// A method large enough for the block live sets to dominate the cost of liveness analysis:
+// `kNumberOfIfs` conditional updates of a rotating set of registers, each adding three blocks
+// and a phi that keeps one value live across the following blocks.
+TEST_F(LivenessTest, LargeMethod) {
+  constexpr uint16_t kNumberOfRegisters = 16u;
+  constexpr size_t kNumberOfIfs = 1000u;
+  std::vector<uint16_t> data = N_REGISTERS_CODE_ITEM(kNumberOfRegisters, Instruction::NOP);
+  data.pop_back();
+  for (uint16_t reg = 0; reg != kNumberOfRegisters; ++reg) {
+    data.push_back(Instruction::CONST_4 | (reg & 0x7) << 12 | reg << 8);
+  }
+  for (size_t i = 0; i != kNumberOfIfs; ++i) {
+    uint16_t dest = 1u + i % (kNumberOfRegisters - 1u);
+    uint16_t src = 1u + (i + 1u) % (kNumberOfRegisters - 1u);
+    data.push_back(Instruction::IF_EQZ | 0 << 8);
+    data.push_back(3);
+    data.push_back(Instruction::ADD_INT_2ADDR | src << 12 | dest << 8);
+  }
+  data.push_back(Instruction::RETURN | 1 << 8);
+  size_t code_units = data.size() - 8u;
+  data[6] = static_cast<uint16_t>(code_units & 0xffff);
+  data[7] = static_cast<uint16_t>(code_units >> 16);
+
+  PassStatistics full_stats;
+  size_t full_peak_bytes;
+  std::string full_intervals = AllocateRegisters(
+      data, /*compute_block_live_sets=*/ true, &full_stats, &full_peak_bytes);
+  PassStatistics fast_stats;
+  size_t fast_peak_bytes;
+  std::string fast_intervals = AllocateRegisters(
+      data, /*compute_block_live_sets=*/ false, &fast_stats, &fast_peak_bytes);
+
+  // The allocation is the same, with less memory.
+  EXPECT_EQ(full_intervals, fast_intervals);
+  EXPECT_LT(fast_peak_bytes, full_peak_bytes);
+
+  std::ostringstream oss;
+  oss << "With block live sets, arena peak " << PrettySize(full_peak_bytes) << ":\n";
+  full_stats.Dump(oss);
+  oss << "Without block live sets, arena peak " << PrettySize(fast_peak_bytes) << ":\n";
+  fast_stats.Dump(oss);
+  LOG(INFO) << oss.str();
+}
+
 }  // namespace art
@@ -650,6 +650,10 @@ class HeapLocationCollector : public HGraphVisitor {
 
 class LoadStoreAnalysis {
  public:
+  // A cap for the number of heap locations to prevent pathological time/space consumption.
+  // The number of heap locations for most of the methods stays below this threshold.
+  static constexpr size_t kMaxNumberOfHeapLocations = 32;
+
   // for_elimination controls whether we should keep track of escapes at a per-block level for
   // partial LSE.
   explicit LoadStoreAnalysis(HGraph* graph,
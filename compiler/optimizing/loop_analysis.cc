@@ -88,6 +88,9 @@ class ArchDefaultLoopHelper : public ArchNoOptsLoopHelper {
   static constexpr uint32_t kScalarHeuristicMaxBodySizeBlocks = 6;
   // Maximum number of instructions to be created as a result of full unrolling.
   static constexpr uint32_t kScalarHeuristicFullyUnrolledMaxInstrThreshold = 35;
+  // Maximum instruction count of the unrolled loop, including the peeled iterations, for loops
+  // in hot methods.
+  static constexpr uint32_t kScalarHeuristicUnrolledMaxBodySizeInstr = 48;
 
   bool IsLoopNonBeneficialForScalarOpts(LoopAnalysisInfo* analysis_info) const override {
     return analysis_info->HasLongTypeInstructions() ||
@@ -102,12 +105,28 @@ class ArchDefaultLoopHelper : public ArchNoOptsLoopHelper {
     if (trip_count == LoopAnalysisInfo::kUnknownTripCount) {
       return LoopAnalysisInfo::kNoUnrollingFactor;
     }
-    uint32_t desired_unrolling_factor = kScalarMaxUnrollFactor;
-    if (trip_count < desired_unrolling_factor || trip_count % desired_unrolling_factor != 0) {
-      return LoopAnalysisInfo::kNoUnrollingFactor;
+    if (!analysis_info->IsInHotMethod()) {
+      // Without evidence that the loop is hot, only unroll when no iterations need peeling.
+      uint32_t desired_unrolling_factor = kScalarMaxUnrollFactor;
+      if (trip_count < desired_unrolling_factor || trip_count % desired_unrolling_factor != 0) {
+        return LoopAnalysisInfo::kNoUnrollingFactor;
+      }
+      return desired_unrolling_factor;
     }
 
-    return desired_unrolling_factor;
+    // Find the largest factor for which the unrolled loop, together with the iterations peeled
+    // to make the trip count a multiple of the factor, still fits the target's size limit.
+    // At least two iterations of the unrolled loop should be executed; for shorter loops,
+    // full unrolling and peeling are the better options.
+    uint64_t body_size = GetScalarLoopBodySize(analysis_info);
+    for (uint32_t factor = GetScalarMaxUnrollFactorForHotLoops(); factor > 1u; factor /= 2u) {
+      uint32_t remainder = static_cast<uint32_t>(trip_count % factor);
+      if (trip_count >= 2 * factor &&
+          body_size * (factor + remainder) <= GetScalarUnrolledMaxBodySize()) {
+        return factor;
+      }
+    }
+    return LoopAnalysisInfo::kNoUnrollingFactor;
   }
 
   bool IsLoopPeelingEnabled() const override { return true; }
@@ -128,6 +147,24 @@ class ArchDefaultLoopHelper : public ArchNoOptsLoopHelper {
     size_t bb_num = loop_analysis_info->GetNumberOfBasicBlocks();
     return (instr_num >= instr_threshold || bb_num >= bb_threshold);
   }
+
+  // Scalar unrolling cost model for loops in hot methods; targets with more registers and
+  // larger instruction caches can afford larger unrolled loops.
+  //
+  // Maximum unrolling factor, a power of two.
+  virtual uint32_t GetScalarMaxUnrollFactorForHotLoops() const {
+    return kScalarMaxUnrollFactor;
+  }
+
+  // Maximum size of the unrolled loop in the units of `GetScalarLoopBodySize()`.
+  virtual uint64_t GetScalarUnrolledMaxBodySize() const {
+    return kScalarHeuristicUnrolledMaxBodySizeInstr;
+  }
+
+  // Estimated size of a single copy of the loop body.
+  virtual uint64_t GetScalarLoopBodySize(const LoopAnalysisInfo* analysis_info) const {
+    return analysis_info->GetNumberOfInstructions();
+  }
 };
 
 // Custom implementation of loop helper for arm64 target. Enables heuristics for scalar loop
@@ -146,6 +183,11 @@ class Arm64LoopHelper : public ArchDefaultLoopHelper {
   static constexpr uint32_t kArm64ScalarHeuristicMaxBodySizeInstr = 40;
   // Loop's maximum basic block count. Loops with higher count will not be peeled/unrolled.
   static constexpr uint32_t kArm64ScalarHeuristicMaxBodySizeBlocks = 8;
+  // Maximum scalar unrolling factor for loops in hot methods.
+  static constexpr uint32_t kArm64ScalarMaxUnrollFactorForHotLoops = 4;
+  // Maximum instruction count of the unrolled loop, including the peeled iterations, for loops
+  // in hot methods. Higher than the default as arm64 has 31 general purpose registers.
+  static constexpr uint32_t kArm64ScalarHeuristicUnrolledMaxBodySizeInstr = 96;
 
   bool IsLoopNonBeneficialForScalarOpts(LoopAnalysisInfo* loop_analysis_info) const override {
     return IsLoopTooBig(loop_analysis_info,
@@ -183,6 +225,15 @@ class Arm64LoopHelper : public ArchDefaultLoopHelper {
     DCHECK_GE(unroll_factor, 1u);
     return unroll_factor;
   }
+
+ protected:
+  uint32_t GetScalarMaxUnrollFactorForHotLoops() const override {
+    return kArm64ScalarMaxUnrollFactorForHotLoops;
+  }
+
+  uint64_t GetScalarUnrolledMaxBodySize() const override {
+    return kArm64ScalarHeuristicUnrolledMaxBodySizeInstr;
+  }
 };
 
 // Custom implementation of loop helper for X86_64 target. Enables heuristics for scalar loop
@@ -313,8 +364,19 @@ class X86_64LoopHelper : public ArchDefaultLoopHelper {
   // unrolled (unknown iterations).
   static constexpr uint32_t kX86_64UnknownIterMaxBodySizeBlocks = 2;
 
+  // Maximum scalar unrolling factor for loops in hot methods.
+  static constexpr uint32_t kX86_64ScalarMaxUnrollFactorForHotLoops = 4;
+  // Maximum machine instruction count of the unrolled scalar loop, including the peeled
+  // iterations, for loops in hot methods. With only 16 general purpose registers, larger
+  // unrolled loops tend to spill.
+  static constexpr uint32_t kX86_64ScalarUnrolledMaxBodySizeInstr = 64;
+
   uint32_t GetUnrollingFactor(HLoopInformation* loop_info, HBasicBlock* header) const;
 
+  // Returns the number of machine instructions generated for the loop, ignoring the suspend
+  // check and the back edge.
+  uint32_t GetMachineInstructionCount(HLoopInformation* loop_info) const;
+
  public:
   explicit X86_64LoopHelper(const CodeGenerator& codegen) : ArchDefaultLoopHelper(codegen) {}
 
@@ -357,8 +419,35 @@ class X86_64LoopHelper : public ArchDefaultLoopHelper {
 
     return unroll_factor;
   }
+
+ protected:
+  uint32_t GetScalarMaxUnrollFactorForHotLoops() const override {
+    return kX86_64ScalarMaxUnrollFactorForHotLoops;
+  }
+
+  uint64_t GetScalarUnrolledMaxBodySize() const override {
+    return kX86_64ScalarUnrolledMaxBodySizeInstr;
+  }
+
+  uint64_t GetScalarLoopBodySize(const LoopAnalysisInfo* analysis_info) const override {
+    return GetMachineInstructionCount(analysis_info->GetLoopInfo());
+  }
 };
 
+uint32_t X86_64LoopHelper::GetMachineInstructionCount(HLoopInformation* loop_info) const {
+  uint32_t num_inst = 0;
+  for (HBlocksInLoopIterator it(*loop_info); !it.Done(); it.Advance()) {
+    for (HInstructionIterator it1(it.Current()->GetInstructions()); !it1.Done(); it1.Advance()) {
+      HInstruction* inst = it1.Current();
+      if (inst->IsSuspendCheck() || inst->IsGoto()) {
+        continue;
+      }
+      num_inst += GetMachineInstructionCount(inst);
+    }
+  }
+  return num_inst;
+}
+
 uint32_t X86_64LoopHelper::GetUnrollingFactor(HLoopInformation* loop_info,
                                               HBasicBlock* header) const {
   uint32_t num_inst = 0, num_inst_header = 0, num_inst_loop_body = 0;
@@ -34,7 +34,7 @@ class LoopAnalysisInfo : public ValueObject {
   // Used for unknown and non-constant trip counts (see InductionVarRange::HasKnownTripCount).
   static constexpr int64_t kUnknownTripCount = -1;
 
-  explicit LoopAnalysisInfo(HLoopInformation* loop_info)
+  LoopAnalysisInfo(HLoopInformation* loop_info, bool is_in_hot_method)
       : trip_count_(kUnknownTripCount),
         bb_num_(0),
         instr_num_(0),
@@ -43,6 +43,7 @@ class LoopAnalysisInfo : public ValueObject {
         has_instructions_preventing_scalar_peeling_(false),
         has_instructions_preventing_scalar_unrolling_(false),
         has_long_type_instructions_(false),
+        is_in_hot_method_(is_in_hot_method),
         loop_info_(loop_info) {}
 
   int64_t GetTripCount() const { return trip_count_; }
@@ -67,6 +68,10 @@ class LoopAnalysisInfo : public ValueObject {
     return has_long_type_instructions_;
   }
 
+  bool IsInHotMethod() const {
+    return is_in_hot_method_;
+  }
+
   HLoopInformation* GetLoopInfo() const { return loop_info_; }
 
  private:
@@ -87,6 +92,9 @@ class LoopAnalysisInfo : public ValueObject {
   // Whether the loop has instructions of primitive long type; unrolling these loop will
   // likely introduce spill/fills on 32-bit targets.
   bool has_long_type_instructions_;
+  // Whether the loop is in a method known to be hot, either from the profile or because it is
+  // being compiled by the JIT. Loops in hot methods are optimized more aggressively.
+  bool is_in_hot_method_;
 
   // Corresponding HLoopInformation.
   HLoopInformation* loop_info_;
@@ -150,7 +158,8 @@ class ArchNoOptsLoopHelper : public ArenaObject<kArenaAllocOptimization> {
   virtual bool IsLoopNonBeneficialForScalarOpts(
       LoopAnalysisInfo* loop_analysis_info ATTRIBUTE_UNUSED) const { return true; }
 
-  // Returns optimal scalar unrolling factor for the loop.
+  // Returns optimal scalar unrolling factor for the loop, a power of two. If the trip count is
+  // not a multiple of the factor, the remaining iterations are peeled before unrolling.
   //
   // Returns kNoUnrollingFactor by default, should be overridden by particular target loop helper.
   virtual uint32_t GetScalarUnrollingFactor(
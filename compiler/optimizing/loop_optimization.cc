@@ -26,6 +26,7 @@
 #include "linear_order.h"
 #include "mirror/array-inl.h"
 #include "mirror/string.h"
+#include "profile/profile_compilation_info.h"
 
 namespace art HIDDEN {
 
@@ -882,19 +883,47 @@ bool HLoopOptimization::TryUnrollingForBranchPenaltyReduction(LoopAnalysisInfo*
   }
 
   if (generate_code) {
-    // TODO: support other unrolling factors.
-    DCHECK_EQ(unrolling_factor, 2u);
-
-    // Perform unrolling.
+    DCHECK(IsPowerOfTwo(unrolling_factor));
     HLoopInformation* loop_info = analysis_info->GetLoopInfo();
-    LoopClonerSimpleHelper helper(loop_info, &induction_range_);
-    helper.DoUnrolling();
+    int64_t trip_count = analysis_info->GetTripCount();
+    DCHECK_NE(trip_count, LoopAnalysisInfo::kUnknownTripCount);
+    DCHECK_GE(trip_count, unrolling_factor);
+
+    // The copies of the loop check keep the successor order of the original check; make them
+    // always continue with the next iteration where they are known not to exit.
+    HIf* loop_hif = loop_info->GetHeader()->GetLastInstruction()->AsIf();
+    HIntConstant* continue_constant =
+        graph_->GetIntConstant(loop_info->Contains(*loop_hif->IfTrueSuccessor()) ? 1 : 0);
+
+    // Peel the iterations which do not fill a whole unrolled iteration, so that the trip count
+    // of the remaining loop is a multiple of the unrolling factor. The loop checks of the peeled
+    // iterations never exit the loop.
+    int64_t remainder = trip_count % unrolling_factor;
+    for (int64_t i = 0; i < remainder; ++i) {
+      LoopClonerSimpleHelper helper(loop_info, &induction_range_);
+      helper.DoPeeling();
+      HIf* copy_hif =
+          helper.GetBasicBlockMap()->Get(loop_info->GetHeader())->GetLastInstruction()->AsIf();
+      copy_hif->ReplaceInput(continue_constant, 0u);
+    }
+
+    // Unroll by doubling the loop body; the loop check of each new copy is redundant as the trip
+    // count is a multiple of the unrolling factor. A loop with live-outs cannot be cloned again
+    // after the first unrolling as the redundant checks still count as loop exits until they
+    // are removed by dead code elimination; such loops are unrolled only by a factor of 2, which
+    // is still correct after peeling.
+    for (uint32_t factor = 1u; factor != unrolling_factor; factor *= 2u) {
+      if (factor != 1u && !LoopClonerHelper::IsLoopClonable(loop_info)) {
+        break;
+      }
+      LoopClonerSimpleHelper helper(loop_info, &induction_range_);
+      helper.DoUnrolling();
 
-    // Remove the redundant loop check after unrolling.
-    HIf* copy_hif =
-        helper.GetBasicBlockMap()->Get(loop_info->GetHeader())->GetLastInstruction()->AsIf();
-    int32_t constant = loop_info->Contains(*copy_hif->IfTrueSuccessor()) ? 1 : 0;
-    copy_hif->ReplaceInput(graph_->GetIntConstant(constant), 0u);
+      // Remove the redundant loop check after unrolling.
+      HIf* copy_hif =
+          helper.GetBasicBlockMap()->Get(loop_info->GetHeader())->GetLastInstruction()->AsIf();
+      copy_hif->ReplaceInput(continue_constant, 0u);
+    }
   }
   return true;
 }
@@ -967,10 +996,23 @@ bool HLoopOptimization::TryFullUnrolling(LoopAnalysisInfo* analysis_info, bool g
   return true;
 }
 
+bool HLoopOptimization::IsInHotMethod() const {
+  // The JIT compiles with optimizations only the methods found to be hot at runtime.
+  if (compiler_options_->IsJitCompiler()) {
+    return true;
+  }
+  const ProfileCompilationInfo* pci = compiler_options_->GetProfileCompilationInfo();
+  if (pci == nullptr) {
+    return false;
+  }
+  return pci->GetMethodHotness(MethodReference(&graph_->GetDexFile(), graph_->GetMethodIdx()))
+      .IsHot();
+}
+
 bool HLoopOptimization::TryLoopScalarOpts(LoopNode* node) {
   HLoopInformation* loop_info = node->loop_info;
   int64_t trip_count = LoopAnalysis::GetLoopTripCount(loop_info, &induction_range_);
-  LoopAnalysisInfo analysis_info(loop_info);
+  LoopAnalysisInfo analysis_info(loop_info, IsInHotMethod());
   LoopAnalysis::CalculateLoopBasicProperties(loop_info, &analysis_info, trip_count);
 
   if (analysis_info.HasInstructionsPreventingScalarOpts() ||
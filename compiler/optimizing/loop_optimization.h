@@ -196,6 +196,10 @@ class HLoopOptimization : public HOptimization {
   bool TryToRemoveSuspendCheckFromLoopHeader(LoopAnalysisInfo* analysis_info,
                                              bool generate_code = true);
 
+  // Returns whether the method being compiled is known to be hot, in which case its loops
+  // are optimized more aggressively.
+  bool IsInHotMethod() const;
+
   // Tries to apply scalar loop optimizations.
   bool TryLoopScalarOpts(LoopNode* node);
 
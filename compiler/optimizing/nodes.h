@@ -425,7 +425,8 @@ class HGraph : public ArenaObject<kArenaAllocGraph> {
         cached_current_method_(nullptr),
         art_method_(nullptr),
         compilation_kind_(compilation_kind),
-        cha_single_implementation_list_(allocator->Adapter(kArenaAllocCHA)) {
+        cha_single_implementation_list_(allocator->Adapter(kArenaAllocCHA)),
+        inlined_methods_(allocator->Adapter(kArenaAllocGraph)) {
     blocks_.reserve(kDefaultNumberOfBlocks);
   }
 
@@ -698,6 +699,16 @@ class HGraph : public ArenaObject<kArenaAllocGraph> {
     cha_single_implementation_list_.insert(method);
   }
 
+  const ArenaSet<MethodReference>& GetInlinedMethods() const {
+    return inlined_methods_;
+  }
+
+  // Records that the code of `method_ref` has been inlined into, or has otherwise influenced
+  // the code generated for, this graph.
+  void AddInlinedMethod(MethodReference method_ref) {
+    inlined_methods_.insert(method_ref);
+  }
+
   bool HasShouldDeoptimizeFlag() const {
     return number_of_cha_guards_ != 0 || debuggable_;
   }
@@ -903,6 +914,10 @@ class HGraph : public ArenaObject<kArenaAllocGraph> {
   // List of methods that are assumed to have single implementation.
   ArenaSet<ArtMethod*> cha_single_implementation_list_;
 
+  // Methods inlined into this graph, directly or transitively. Only maintained for the
+  // outermost graph.
+  ArenaSet<MethodReference> inlined_methods_;
+
   friend class SsaBuilder;           // For caching constants.
   friend class SsaLivenessAnalysis;  // For the linear order.
   friend class HInliner;             // For the reverse post order.
@@ -5022,7 +5037,9 @@ class HInvokeStaticOrDirect final : public HInvoke {
   }
 
   bool CanBeNull() const override {
-    return GetType() == DataType::Type::kReference && !IsStringInit();
+    return GetType() == DataType::Type::kReference &&
+           !IsStringInit() &&
+           GetIntrinsic() != Intrinsics::kIntegerValueOf;
   }
 
   MethodLoadKind GetMethodLoadKind() const { return dispatch_info_.method_load_kind; }
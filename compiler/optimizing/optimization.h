@@ -82,6 +82,7 @@ enum class OptimizationPass {
   kInvariantCodeMotion,
   kLoadStoreElimination,
   kLoopOptimization,
+  kScalarReplacement,
   kScheduling,
   kSelectGenerator,
   kSideEffectsAnalysis,
@@ -30,6 +30,7 @@
 #include "base/macros.h"
 #include "base/mutex.h"
 #include "base/scoped_arena_allocator.h"
+#include "base/time_utils.h"
 #include "base/timing_logger.h"
 #include "builder.h"
 #include "code_generator.h"
@@ -52,6 +53,7 @@
 #include "nodes.h"
 #include "oat_quick_method_header.h"
 #include "optimizing/write_barrier_elimination.h"
+#include "pass_statistics.h"
 #include "prepare_for_register_allocation.h"
 #include "reference_type_propagation.h"
 #include "register_allocator_linear_scan.h"
@@ -96,6 +98,27 @@ class CodeVectorAllocator final : public CodeAllocator {
  */
 static constexpr const char kStringFilter[] = "";
 
+// Returns whether `pass` may be skipped when a method exceeds the optimization budget.
+// These are the passes that are expensive on large methods and not needed for correctness.
+// Passes that depend on a skipped pass are skipped with it.
+static bool IsOptionalOptimization(OptimizationPass pass) {
+  switch (pass) {
+    case OptimizationPass::kInliner:
+    case OptimizationPass::kGlobalValueNumbering:
+    case OptimizationPass::kInvariantCodeMotion:
+    case OptimizationPass::kInductionVarAnalysis:
+    case OptimizationPass::kBoundsCheckElimination:
+    case OptimizationPass::kLoopOptimization:
+    case OptimizationPass::kScalarReplacement:
+    case OptimizationPass::kLoadStoreElimination:
+    case OptimizationPass::kCodeSinking:
+    case OptimizationPass::kScheduling:
+      return true;
+    default:
+      return false;
+  }
+}
+
 class PassScope;
 
 class PassObserver : public ValueObject {
@@ -103,7 +126,8 @@ class PassObserver : public ValueObject {
   PassObserver(HGraph* graph,
                CodeGenerator* codegen,
                std::ostream* visualizer_output,
-               const CompilerOptions& compiler_options)
+               const CompilerOptions& compiler_options,
+               PassStatistics* pass_stats)
       : graph_(graph),
         last_seen_graph_size_(0),
         cached_method_name_(),
@@ -115,7 +139,21 @@ class PassObserver : public ValueObject {
         visualizer_enabled_(!compiler_options.GetDumpCfgFileName().empty()),
         visualizer_(&visualizer_oss_, graph, codegen),
         codegen_(codegen),
-        graph_in_bad_state_(false) {
+        graph_in_bad_state_(false),
+        pass_stats_(pass_stats),
+        time_budget_ns_(MsToNs(compiler_options.GetOptimizationTimeBudgetMs())),
+        memory_budget_(compiler_options.GetOptimizationMemoryBudget()),
+        over_budget_(false),
+        method_start_ns_(0u),
+        method_start_arena_bytes_(0u),
+        pass_start_ns_(0u),
+        pass_start_arena_bytes_(0u) {
+    if (pass_stats_ != nullptr || time_budget_ns_ != 0u) {
+      method_start_ns_ = NanoTime();
+    }
+    if (pass_stats_ != nullptr) {
+      method_start_arena_bytes_ = GetArenaBytes();
+    }
     if (timing_logger_enabled_ || visualizer_enabled_) {
       if (!IsVerboseMethod(compiler_options, GetMethodName())) {
         timing_logger_enabled_ = visualizer_enabled_ = false;
@@ -128,6 +166,12 @@ class PassObserver : public ValueObject {
   }
 
   ~PassObserver() {
+    if (pass_stats_ != nullptr) {
+      pass_stats_->RecordPass(PassStatistics::kMethodTotalName,
+                              NanoTime() - method_start_ns_,
+                              GetArenaBytes() - method_start_arena_bytes_,
+                              [this]() { return GetMethodName(); });
+    }
     if (timing_logger_enabled_) {
       LOG(INFO) << "TIMINGS " << GetMethodName();
       LOG(INFO) << Dumpable<TimingLogger>(timing_logger_);
@@ -155,7 +199,30 @@ class PassObserver : public ValueObject {
     return cached_method_name_.c_str();
   }
 
+  // Returns whether the method exceeded the time or memory budget for optimizations. Once
+  // exceeded, the budget stays exceeded for the rest of the compilation of the method.
+  bool IsOverBudget() {
+    if (!over_budget_) {
+      over_budget_ =
+          (time_budget_ns_ != 0u && NanoTime() - method_start_ns_ > time_budget_ns_) ||
+          (memory_budget_ != 0u && GetArenaBytes() > memory_budget_);
+      if (over_budget_) {
+        VLOG(compiler) << "Optimization budget exceeded for " << GetMethodName();
+        if (pass_stats_ != nullptr) {
+          pass_stats_->RecordBudgetExceeded();
+        }
+      }
+    }
+    return over_budget_;
+  }
+
  private:
+  // Arena memory used by the compilation so far: the memory allocated for the graph and the
+  // high-water mark of the arena stack used for scoped allocations.
+  size_t GetArenaBytes() {
+    return graph_->GetAllocator()->BytesUsed() + graph_->GetArenaStack()->ApproximatePeakBytes();
+  }
+
   void StartPass(const char* pass_name) {
     VLOG(compiler) << "Starting pass: " << pass_name;
     // Dump graph first, then start timer.
@@ -166,6 +233,10 @@ class PassObserver : public ValueObject {
     if (timing_logger_enabled_) {
       timing_logger_.StartTiming(pass_name);
     }
+    if (pass_stats_ != nullptr) {
+      pass_start_arena_bytes_ = GetArenaBytes();
+      pass_start_ns_ = NanoTime();
+    }
   }
 
   void FlushVisualizer() {
@@ -177,6 +248,13 @@ class PassObserver : public ValueObject {
 
   void EndPass(const char* pass_name, bool pass_change) {
     // Pause timer first, then dump graph.
+    if (pass_stats_ != nullptr) {
+      uint64_t pass_time_ns = NanoTime() - pass_start_ns_;
+      pass_stats_->RecordPass(pass_name,
+                              pass_time_ns,
+                              GetArenaBytes() - pass_start_arena_bytes_,
+                              [this]() { return GetMethodName(); });
+    }
     if (timing_logger_enabled_) {
       timing_logger_.EndTiming();
     }
@@ -238,6 +316,19 @@ class PassObserver : public ValueObject {
   // expected to validate.
   bool graph_in_bad_state_;
 
+  // Per-pass compile time and memory statistics, null if not collected.
+  PassStatistics* const pass_stats_;
+
+  // Optimization budgets for the method, zero if unlimited.
+  const uint64_t time_budget_ns_;
+  const size_t memory_budget_;
+  bool over_budget_;
+
+  uint64_t method_start_ns_;
+  size_t method_start_arena_bytes_;
+  uint64_t pass_start_ns_;
+  size_t pass_start_arena_bytes_;
+
   friend PassScope;
 
   DISALLOW_COPY_AND_ASSIGN(PassObserver);
@@ -303,6 +394,8 @@ class OptimizingCompiler final : public Compiler {
       override
       REQUIRES_SHARED(Locks::mutator_lock_);
 
+  void DumpStats(std::ostream& os) const override;
+
  private:
   bool RunOptimizations(HGraph* graph,
                         CodeGenerator* codegen,
@@ -326,7 +419,17 @@ class OptimizingCompiler final : public Compiler {
     pass_changes[static_cast<size_t>(OptimizationPass::kNone)] = true;
     bool change = false;
     for (size_t i = 0; i < length; ++i) {
-      if (pass_changes[static_cast<size_t>(definitions[i].depends_on)]) {
+      // Scalar replacement leaves copies of the allocations it replaced, and relies on LSE to
+      // remove the originals. Once it changed the graph, LSE must run to finish the job.
+      bool optional = IsOptionalOptimization(definitions[i].pass) &&
+          !(definitions[i].pass == OptimizationPass::kLoadStoreElimination &&
+            pass_changes[static_cast<size_t>(OptimizationPass::kScalarReplacement)]);
+      if (optional && pass_observer->IsOverBudget()) {
+        // Skip expensive optional passes for methods over the optimization budget.
+        pass_changes[static_cast<size_t>(definitions[i].pass)] = false;
+        MaybeRecordStat(compilation_stats_.get(),
+                        MethodCompilationStat::kOptimizationSkippedOverBudget);
+      } else if (pass_changes[static_cast<size_t>(definitions[i].depends_on)]) {
         // Execute the pass and record whether it changed anything.
         PassScope scope(optimizations[i]->GetPassName(), pass_observer);
         bool pass_change = optimizations[i]->Run();
@@ -405,6 +508,8 @@ class OptimizingCompiler final : public Compiler {
 
   std::unique_ptr<OptimizingCompilerStats> compilation_stats_;
 
+  std::unique_ptr<PassStatistics> pass_stats_;
+
   std::unique_ptr<std::ostream> visualizer_output_;
 
   DISALLOW_COPY_AND_ASSIGN(OptimizingCompiler);
@@ -425,6 +530,7 @@ OptimizingCompiler::OptimizingCompiler(const CompilerOptions& compiler_options,
   }
   if (compiler_options.GetDumpStats()) {
     compilation_stats_.reset(new OptimizingCompilerStats());
+    pass_stats_.reset(new PassStatistics());
   }
 }
 
@@ -432,6 +538,17 @@ OptimizingCompiler::~OptimizingCompiler() {
   if (compilation_stats_.get() != nullptr) {
     compilation_stats_->Log();
   }
+  if (pass_stats_ != nullptr) {
+    std::ostringstream oss;
+    pass_stats_->DumpJson(oss);
+    LOG(INFO) << "PassStats: " << oss.str();
+  }
+}
+
+void OptimizingCompiler::DumpStats(std::ostream& os) const {
+  if (pass_stats_ != nullptr) {
+    pass_stats_->Dump(os);
+  }
 }
 
 void OptimizingCompiler::DumpInstructionSetFeaturesToCfg() const {
@@ -558,6 +675,9 @@ bool OptimizingCompiler::RunArchOptimizations(HGraph* graph,
         OptDef(OptimizationPass::kInstructionSimplifierX86_64),
         OptDef(OptimizationPass::kSideEffectsAnalysis),
         OptDef(OptimizationPass::kGlobalValueNumbering, "GVN$after_arch"),
+        // Schedule before the memory operand generation, which places some instructions
+        // right before their users.
+        OptDef(OptimizationPass::kScheduling),
         OptDef(OptimizationPass::kX86MemoryOperandGeneration)
       };
       return RunOptimizations(graph,
@@ -575,6 +695,29 @@ bool OptimizingCompiler::RunArchOptimizations(HGraph* graph,
   }
 }
 
+// Methods with more instructions than this skip the computation of the live_in, live_out and
+// kill sets of their blocks. The register allocation is the same, only faster to compute.
+static constexpr size_t kFastLivenessInstructionThreshold = 4000u;
+
+// Returns the number of instructions and phis left in the graph. The instruction id counter is
+// not a good measure, it also counts all the instructions that optimizations removed.
+static size_t CountInstructions(HGraph* graph) {
+  size_t count = 0u;
+  for (HBasicBlock* block : graph->GetReversePostOrder()) {
+    count += block->GetPhis().CountSize() + block->GetInstructions().CountSize();
+  }
+  return count;
+}
+
+static bool UseFastLiveness(HGraph* graph) {
+  if (graph->HasIrreducibleLoops()) {
+    // Irreducible loops need the live sets to find the values live across their headers.
+    return false;
+  }
+  return graph->IsCompilingBaseline() ||
+         CountInstructions(graph) > kFastLivenessInstructionThreshold;
+}
+
 NO_INLINE  // Avoid increasing caller's frame size by large stack-allocated objects.
 static void AllocateRegisters(HGraph* graph,
                               CodeGenerator* codegen,
@@ -589,7 +732,12 @@ static void AllocateRegisters(HGraph* graph,
   // Use local allocator shared by SSA liveness analysis and register allocator.
   // (Register allocator creates new objects in the liveness data.)
   ScopedArenaAllocator local_allocator(graph->GetArenaStack());
-  SsaLivenessAnalysis liveness(graph, codegen, &local_allocator);
+  bool fast_liveness = UseFastLiveness(graph);
+  if (fast_liveness) {
+    MaybeRecordStat(stats, MethodCompilationStat::kFastLiveness);
+  }
+  SsaLivenessAnalysis liveness(
+      graph, codegen, &local_allocator, /*compute_block_live_sets=*/ !fast_liveness);
   {
     PassScope scope(SsaLivenessAnalysis::kLivenessPassName, pass_observer);
     liveness.Analyze();
@@ -677,6 +825,7 @@ void OptimizingCompiler::RunOptimizations(HGraph* graph,
     OptDef(OptimizationPass::kDeadCodeElimination,
            "dead_code_elimination$after_loop_opt"),
     // Other high-level optimizations.
+    OptDef(OptimizationPass::kScalarReplacement),
     OptDef(OptimizationPass::kLoadStoreElimination),
     OptDef(OptimizationPass::kCHAGuardOptimization),
     OptDef(OptimizationPass::kCodeSinking),
@@ -735,6 +884,13 @@ CompiledMethod* OptimizingCompiler::Emit(ArenaAllocator* allocator,
       ArrayRef<const linker::LinkerPatch>(linker_patches),
       is_intrinsic);
 
+  const ArenaSet<MethodReference>& inlined_methods = codegen->GetGraph()->GetInlinedMethods();
+  if (!inlined_methods.empty()) {
+    ArenaVector<MethodReference> inlined(
+        inlined_methods.begin(), inlined_methods.end(), allocator->Adapter());
+    storage->SetInlinedMethods(compiled_method, ArrayRef<const MethodReference>(inlined));
+  }
+
   for (const linker::LinkerPatch& patch : linker_patches) {
     if (codegen->NeedsThunkCode(patch) && storage->GetThunkCode(patch).empty()) {
       ArenaVector<uint8_t> code(allocator->Adapter());
@@ -846,7 +1002,8 @@ CodeGenerator* OptimizingCompiler::TryCompile(ArenaAllocator* allocator,
   PassObserver pass_observer(graph,
                              codegen.get(),
                              visualizer_output_.get(),
-                             compiler_options);
+                             compiler_options,
+                             pass_stats_.get());
 
   {
     VLOG(compiler) << "Building " << pass_observer.GetMethodName();
@@ -971,7 +1128,8 @@ CodeGenerator* OptimizingCompiler::TryCompileIntrinsic(
   PassObserver pass_observer(graph,
                              codegen.get(),
                              visualizer_output_.get(),
-                             compiler_options);
+                             compiler_options,
+                             pass_stats_.get());
 
   {
     VLOG(compiler) << "Building intrinsic graph " << pass_observer.GetMethodName();
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "pass_statistics.h"
+
+#include <algorithm>
+#include <iomanip>
+#include <ostream>
+
+#include "base/globals.h"
+#include "base/histogram-inl.h"
+#include "base/time_utils.h"
+#include "base/utils.h"
+#include "thread-current-inl.h"
+
+namespace art HIDDEN {
+
+// Initial bucket widths of the histograms. The buckets grow as needed to cover the largest
+// recorded value.
+static constexpr uint64_t kTimeBucketWidthUs = 10u;
+static constexpr uint64_t kArenaBucketWidthKb = 4u;
+static constexpr size_t kMaxBuckets = 100u;
+
+// Percentiles reported for each histogram.
+static constexpr double kPercentiles[] = { 0.5, 0.9, 0.99 };
+static constexpr const char* kPercentileNames[] = { "p50", "p90", "p99" };
+static_assert(arraysize(kPercentiles) == arraysize(kPercentileNames));
+
+PassStatistics::PassData::PassData(const char* name)
+    : time_us(name, kTimeBucketWidthUs, kMaxBuckets),
+      arena_kb(name, kArenaBucketWidthKb, kMaxBuckets) {}
+
+PassStatistics::PassStatistics()
+    : lock_("Optimizing pass statistics lock"),
+      passes_(),
+      budget_exceeded_count_(0u) {}
+
+PassStatistics::~PassStatistics() {}
+
+PassStatistics::PassData* PassStatistics::GetOrCreatePassData(const char* pass_name) {
+  auto it = passes_.find(pass_name);
+  if (it == passes_.end()) {
+    it = passes_.emplace(pass_name, std::make_unique<PassData>(pass_name)).first;
+  }
+  return it->second.get();
+}
+
+void PassStatistics::RecordPass(const char* pass_name,
+                                uint64_t time_ns,
+                                size_t arena_bytes,
+                                const std::function<const char*()>& get_method_name) {
+  MutexLock mu(Thread::Current(), lock_);
+  PassData* data = GetOrCreatePassData(pass_name);
+  data->time_us.AddValue(time_ns / 1000u);
+  data->arena_kb.AddValue(arena_bytes / KB);
+  data->total_time_ns += time_ns;
+  if (time_ns > data->max_time_ns) {
+    data->max_time_ns = time_ns;
+    data->slowest_method = get_method_name();
+  }
+  data->max_arena_bytes = std::max(data->max_arena_bytes, arena_bytes);
+}
+
+void PassStatistics::RecordBudgetExceeded() {
+  MutexLock mu(Thread::Current(), lock_);
+  ++budget_exceeded_count_;
+}
+
+void PassStatistics::Dump(std::ostream& os) {
+  MutexLock mu(Thread::Current(), lock_);
+  if (passes_.empty()) {
+    return;
+  }
+  os << "Optimizing pass statistics:\n";
+  for (const auto& entry : passes_) {
+    const PassData& data = *entry.second;
+    Histogram<uint64_t>::CumulativeData cumulative;
+    data.time_us.CreateHistogram(&cumulative);
+    os << "  " << entry.first << ": runs=" << data.time_us.SampleSize()
+       << " total=" << PrettyDuration(data.total_time_ns);
+    for (size_t i = 0; i != arraysize(kPercentiles); ++i) {
+      double percentile_us = data.time_us.Percentile(kPercentiles[i], cumulative);
+      os << " " << kPercentileNames[i] << "="
+         << PrettyDuration(static_cast<uint64_t>(percentile_us * 1000.0));
+    }
+    os << " max=" << PrettyDuration(data.max_time_ns)
+       << " (" << data.slowest_method << ")"
+       << " max-arena=" << PrettySize(data.max_arena_bytes) << "\n";
+  }
+  if (budget_exceeded_count_ != 0u) {
+    os << "  Methods over compilation budget: " << budget_exceeded_count_ << "\n";
+  }
+}
+
+static void DumpJsonString(std::ostream& os, const std::string& str) {
+  os << '"';
+  for (char c : str) {
+    if (c == '"' || c == '\\') {
+      os << '\\' << c;
+    } else if (static_cast<unsigned char>(c) < 0x20u) {
+      os << "\\u" << std::hex << std::setw(4) << std::setfill('0') << static_cast<int>(c)
+         << std::dec << std::setfill(' ');
+    } else {
+      os << c;
+    }
+  }
+  os << '"';
+}
+
+static void DumpJsonHistogram(std::ostream& os, const Histogram<uint64_t>& histogram) {
+  Histogram<uint64_t>::CumulativeData cumulative;
+  histogram.CreateHistogram(&cumulative);
+  os << "{\"mean\":" << histogram.Mean();
+  for (size_t i = 0; i != arraysize(kPercentiles); ++i) {
+    os << ",\"" << kPercentileNames[i] << "\":"
+       << histogram.Percentile(kPercentiles[i], cumulative);
+  }
+  os << ",\"max\":" << histogram.Max() << "}";
+}
+
+void PassStatistics::DumpJson(std::ostream& os) {
+  MutexLock mu(Thread::Current(), lock_);
+  os << "{\"methods_over_budget\":" << budget_exceeded_count_ << ",\"passes\":[";
+  const char* separator = "";
+  for (const auto& entry : passes_) {
+    const PassData& data = *entry.second;
+    os << separator << "{\"name\":";
+    DumpJsonString(os, entry.first);
+    os << ",\"runs\":" << data.time_us.SampleSize()
+       << ",\"total_time_us\":" << data.total_time_ns / 1000u
+       << ",\"time_us\":";
+    DumpJsonHistogram(os, data.time_us);
+    os << ",\"arena_kb\":";
+    DumpJsonHistogram(os, data.arena_kb);
+    os << ",\"max_arena_bytes\":" << data.max_arena_bytes
+       << ",\"slowest_method\":";
+    DumpJsonString(os, data.slowest_method);
+    os << "}";
+    separator = ",";
+  }
+  os << "]}";
+}
+
+}  // namespace art
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef ART_COMPILER_OPTIMIZING_PASS_STATISTICS_H_
+#define ART_COMPILER_OPTIMIZING_PASS_STATISTICS_H_
+
+#include <functional>
+#include <iosfwd>
+#include <map>
+#include <memory>
+#include <string>
+
+#include "base/histogram.h"
+#include "base/locks.h"
+#include "base/macros.h"
+#include "base/mutex.h"
+
+namespace art HIDDEN {
+
+// Compile time and arena memory statistics of the optimizing compiler, aggregated over all
+// compiled methods. For each pass, we record the wall time spent in the pass and the arena
+// memory it allocated, with the latter approximated by the growth of the graph's arena plus
+// the growth of the high-water mark of the arena stack used for scoped allocations.
+// The same data is also recorded for whole methods under the name `kMethodTotalName`.
+class PassStatistics {
+ public:
+  static constexpr const char* kMethodTotalName = "<method>";
+
+  PassStatistics();
+  ~PassStatistics();
+
+  // Records a single run of `pass_name`. The `get_method_name` function is called only when
+  // the run is the slowest seen so far for this pass, so that the (expensive) method name is
+  // created only when needed.
+  void RecordPass(const char* pass_name,
+                  uint64_t time_ns,
+                  size_t arena_bytes,
+                  const std::function<const char*()>& get_method_name) REQUIRES(!lock_);
+
+  // Records that the remaining optional passes were skipped for a method because it exceeded
+  // the compilation budget.
+  void RecordBudgetExceeded() REQUIRES(!lock_);
+
+  // Dumps the statistics in a human readable form, for example for SIGQUIT dumps.
+  void Dump(std::ostream& os) REQUIRES(!lock_);
+
+  // Dumps the statistics as a single line of JSON for consumption by tools.
+  void DumpJson(std::ostream& os) REQUIRES(!lock_);
+
+ private:
+  struct PassData {
+    explicit PassData(const char* name);
+
+    Histogram<uint64_t> time_us;
+    Histogram<uint64_t> arena_kb;
+    uint64_t total_time_ns = 0u;
+    uint64_t max_time_ns = 0u;
+    size_t max_arena_bytes = 0u;
+    std::string slowest_method;
+  };
+
+  PassData* GetOrCreatePassData(const char* pass_name) REQUIRES(lock_);
+
+  Mutex lock_;
+  // Ordered by name so that the output is stable.
+  std::map<std::string, std::unique_ptr<PassData>> passes_ GUARDED_BY(lock_);
+  size_t budget_exceeded_count_ GUARDED_BY(lock_);
+
+  DISALLOW_COPY_AND_ASSIGN(PassStatistics);
+};
+
+}  // namespace art
+
+#endif  // ART_COMPILER_OPTIMIZING_PASS_STATISTICS_H_
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "pass_statistics.h"
+
+#include <sstream>
+
+#include <gtest/gtest.h>
+
+#include "base/globals.h"
+#include "base/macros.h"
+
+namespace art HIDDEN {
+
+TEST(PassStatisticsTest, DumpJson) {
+  PassStatistics stats;
+  size_t name_requests = 0u;
+  auto get_name = [&name_requests]() {
+    ++name_requests;
+    return name_requests == 1u ? "void Main.fast()" : "void Main.\"slow\"()";
+  };
+  stats.RecordPass("GVN", /* time_ns= */ 20000u, /* arena_bytes= */ 8 * KB, get_name);
+  // Only the slowest run of a pass asks for the method name.
+  stats.RecordPass("GVN", /* time_ns= */ 10000u, /* arena_bytes= */ 4 * KB, get_name);
+  EXPECT_EQ(1u, name_requests);
+  stats.RecordPass("GVN", /* time_ns= */ 30000u, /* arena_bytes= */ 2 * KB, get_name);
+  EXPECT_EQ(2u, name_requests);
+  stats.RecordBudgetExceeded();
+
+  std::ostringstream oss;
+  stats.DumpJson(oss);
+  std::string json = oss.str();
+  EXPECT_EQ(0u, json.find("{\"methods_over_budget\":1,\"passes\":[{\"name\":\"GVN\",\"runs\":3,"))
+      << json;
+  EXPECT_NE(std::string::npos, json.find("\"total_time_us\":60,")) << json;
+  EXPECT_NE(std::string::npos, json.find("\"max_arena_bytes\":8192,")) << json;
+  EXPECT_NE(std::string::npos, json.find("\"slowest_method\":\"void Main.\\\"slow\\\"()\"}]}"))
+      << json;
+}
+
+TEST(PassStatisticsTest, DumpEmpty) {
+  PassStatistics stats;
+  std::ostringstream oss;
+  stats.DumpJson(oss);
+  EXPECT_EQ("{\"methods_over_budget\":0,\"passes\":[]}", oss.str());
+  std::ostringstream text;
+  stats.Dump(text);
+  EXPECT_TRUE(text.str().empty());
+}
+
+}  // namespace art
@@ -16,6 +16,8 @@
 
 #include "register_allocation_resolver.h"
 
+#include <algorithm>
+
 #include "base/bit_vector-inl.h"
 #include "code_generator.h"
 #include "linear_order.h"
@@ -149,33 +151,10 @@ void RegisterAllocationResolver::Resolve(ArrayRef<HInstruction* const> safepoint
   }
 
   // Resolve non-linear control flow across branches. Order does not matter.
-  for (HBasicBlock* block : codegen_->GetGraph()->GetLinearOrder()) {
-    if (block->IsCatchBlock() ||
-        (block->IsLoopHeader() && block->GetLoopInformation()->IsIrreducible())) {
-      // Instructions live at the top of catch blocks or irreducible loop header
-      // were forced to spill.
-      if (kIsDebugBuild) {
-        BitVector* live = liveness_.GetLiveInSet(*block);
-        for (uint32_t idx : live->Indexes()) {
-          LiveInterval* interval = liveness_.GetInstructionFromSsaIndex(idx)->GetLiveInterval();
-          LiveInterval* sibling = interval->GetSiblingAt(block->GetLifetimeStart());
-          // `GetSiblingAt` returns the sibling that contains a position, but there could be
-          // a lifetime hole in it. `CoversSlow` returns whether the interval is live at that
-          // position.
-          if ((sibling != nullptr) && sibling->CoversSlow(block->GetLifetimeStart())) {
-            DCHECK(!sibling->HasRegister());
-          }
-        }
-      }
-    } else {
-      BitVector* live = liveness_.GetLiveInSet(*block);
-      for (uint32_t idx : live->Indexes()) {
-        LiveInterval* interval = liveness_.GetInstructionFromSsaIndex(idx)->GetLiveInterval();
-        for (HBasicBlock* predecessor : block->GetPredecessors()) {
-          ConnectSplitSiblings(interval, predecessor, block);
-        }
-      }
-    }
+  if (liveness_.HasBlockLiveSets()) {
+    ConnectSplitSiblingsWithLiveInSets();
+  } else {
+    ConnectSplitSiblingsWithLiveRanges();
   }
 
   // Resolve phi inputs. Order does not matter.
@@ -414,6 +393,76 @@ static bool IsMaterializableEntryBlockInstructionOfGraphWithIrreducibleLoop(
          (instruction->IsConstant() || instruction->IsCurrentMethod());
 }
 
+void RegisterAllocationResolver::ConnectSplitSiblingsWithLiveInSets() const {
+  for (HBasicBlock* block : codegen_->GetGraph()->GetLinearOrder()) {
+    if (block->IsCatchBlock() ||
+        (block->IsLoopHeader() && block->GetLoopInformation()->IsIrreducible())) {
+      // Instructions live at the top of catch blocks or irreducible loop header
+      // were forced to spill.
+      if (kIsDebugBuild) {
+        BitVector* live = liveness_.GetLiveInSet(*block);
+        for (uint32_t idx : live->Indexes()) {
+          LiveInterval* interval = liveness_.GetInstructionFromSsaIndex(idx)->GetLiveInterval();
+          LiveInterval* sibling = interval->GetSiblingAt(block->GetLifetimeStart());
+          // `GetSiblingAt` returns the sibling that contains a position, but there could be
+          // a lifetime hole in it. `CoversSlow` returns whether the interval is live at that
+          // position.
+          if ((sibling != nullptr) && sibling->CoversSlow(block->GetLifetimeStart())) {
+            DCHECK(!sibling->HasRegister());
+          }
+        }
+      }
+    } else {
+      BitVector* live = liveness_.GetLiveInSet(*block);
+      for (uint32_t idx : live->Indexes()) {
+        LiveInterval* interval = liveness_.GetInstructionFromSsaIndex(idx)->GetLiveInterval();
+        for (HBasicBlock* predecessor : block->GetPredecessors()) {
+          ConnectSplitSiblings(interval, predecessor, block);
+        }
+      }
+    }
+  }
+}
+
+void RegisterAllocationResolver::ConnectSplitSiblingsWithLiveRanges() const {
+  // Without live_in sets, the blocks where a value is live on entry are those whose start
+  // is covered by one of the ranges of its interval, except for phis at the start of their
+  // own block. Intervals that were not split need no moves.
+  DCHECK(!codegen_->GetGraph()->HasIrreducibleLoops());
+  const ArenaVector<HBasicBlock*>& linear_order = codegen_->GetGraph()->GetLinearOrder();
+  for (size_t i = 0, e = liveness_.GetNumberOfSsaValues(); i < e; ++i) {
+    HInstruction* instruction = liveness_.GetInstructionFromSsaIndex(i);
+    LiveInterval* interval = instruction->GetLiveInterval();
+    if (interval->GetNextSibling() == nullptr) {
+      continue;
+    }
+    for (LiveInterval* sibling = interval;
+         sibling != nullptr;
+         sibling = sibling->GetNextSibling()) {
+      for (LiveRange* range = sibling->GetFirstRange();
+           range != nullptr;
+           range = range->GetNext()) {
+        auto it = std::lower_bound(linear_order.begin(),
+                                   linear_order.end(),
+                                   range->GetStart(),
+                                   [](HBasicBlock* block, size_t position) {
+                                     return block->GetLifetimeStart() < position;
+                                   });
+        for (; it != linear_order.end() && (*it)->GetLifetimeStart() < range->GetEnd(); ++it) {
+          HBasicBlock* block = *it;
+          if (block == instruction->GetBlock() || block->IsCatchBlock()) {
+            // Instructions live at the top of catch blocks were forced to spill.
+            continue;
+          }
+          for (HBasicBlock* predecessor : block->GetPredecessors()) {
+            ConnectSplitSiblings(interval, predecessor, block);
+          }
+        }
+      }
+    }
+  }
+}
+
 void RegisterAllocationResolver::ConnectSplitSiblings(LiveInterval* interval,
                                                       HBasicBlock* from,
                                                       HBasicBlock* to) const {
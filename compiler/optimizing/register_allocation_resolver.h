@@ -61,6 +61,11 @@ class RegisterAllocationResolver : ValueObject {
   // Connect adjacent siblings within blocks, and resolve inputs along the way.
   void ConnectSiblings(LiveInterval* interval);
 
+  // Connect siblings between block entries and exits for all values live on entry to a block,
+  // as found from the live_in sets or from the live ranges when the sets were not computed.
+  void ConnectSplitSiblingsWithLiveInSets() const;
+  void ConnectSplitSiblingsWithLiveRanges() const;
+
   // Connect siblings between block entries and exits.
   void ConnectSplitSiblings(LiveInterval* interval, HBasicBlock* from, HBasicBlock* to) const;
 
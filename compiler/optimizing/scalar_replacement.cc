@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "scalar_replacement.h"
+
+#include <algorithm>
+
+#include "base/arena_bit_vector.h"
+#include "base/bit_vector-inl.h"
+#include "base/scoped_arena_allocator.h"
+#include "base/scoped_arena_containers.h"
+#include "base/stl_util.h"
+#include "load_store_analysis.h"
+#include "nodes.h"
+#include "optimizing_compiler_stats.h"
+
+namespace art HIDDEN {
+
+// Limits on the code size growth per allocation. Each copy consists of an allocation and
+// one store for each field written to the original allocation.
+static constexpr size_t kMaxMaterializationsPerAllocation = 3u;
+static constexpr size_t kMaxMaterializedFields = 8u;
+
+// Returns whether `user` accesses a field of `allocation` in a way that LSE can replace
+// with SSA values once `allocation` is a singleton.
+static bool IsScalarFieldAccess(HInstruction* user, HInstruction* allocation) {
+  if (user->IsInstanceFieldGet()) {
+    return !user->AsInstanceFieldGet()->IsVolatile();
+  } else if (user->IsInstanceFieldSet()) {
+    return user->InputAt(0) == allocation &&
+           user->InputAt(1) != allocation &&
+           !user->AsInstanceFieldSet()->IsVolatile();
+  }
+  return false;
+}
+
+// Returns whether `user` is an escape of `allocation` that can be preceded by a copy of
+// the allocation and then use the copy instead.
+static bool IsMaterializableEscape(HInstruction* user, HInstruction* allocation) {
+  if (user->IsInvoke() || user->IsReturn() || user->IsStaticFieldSet()) {
+    return true;
+  } else if (user->IsInstanceFieldSet()) {
+    // Storing the allocation into one of its own fields is not a simple escape.
+    return user->InputAt(0) != allocation;
+  } else if (user->IsArraySet()) {
+    return user->InputAt(2) == allocation;
+  }
+  return false;
+}
+
+static bool IsCandidate(HNewInstance* allocation) {
+  // Finalizable objects must be kept alive until they are finalized. Allocations that need
+  // access or initialization checks cannot be removed by LSE.
+  if (allocation->IsFinalizable() || allocation->NeedsChecks()) {
+    return false;
+  }
+  bool has_store = false;
+  bool has_escape = false;
+  for (const HUseListNode<HInstruction*>& use : allocation->GetUses()) {
+    HInstruction* user = use.GetUser();
+    if (IsScalarFieldAccess(user, allocation)) {
+      has_store = has_store || user->IsInstanceFieldSet();
+    } else if (IsMaterializableEscape(user, allocation)) {
+      has_escape = true;
+    } else if (!user->IsConstructorFence()) {
+      // Merged into a Phi or Select, compared, type-checked, locked, etc.
+      return false;
+    }
+  }
+  // The interpreter needs the original object after deoptimization. Other environment uses
+  // are removed by LSE together with the allocation.
+  for (const HUseListNode<HEnvironment*>& use : allocation->GetEnvUses()) {
+    if (use.GetUser()->GetHolder()->IsDeoptimize()) {
+      return false;
+    }
+  }
+  // Allocations that do not escape are left to LSE alone. Without stores, there is nothing
+  // to replace and LSE may not even run.
+  return has_store && has_escape;
+}
+
+// Marks the blocks that can be entered after executing `instruction` without executing
+// `allocation` again.
+static void MarkReachableBlocks(HInstruction* instruction,
+                                HInstruction* allocation,
+                                /*inout*/ ScopedArenaVector<HBasicBlock*>* worklist,
+                                /*out*/ ArenaBitVector* reachable) {
+  DCHECK(worklist->empty());
+  reachable->ClearAllBits();
+  const ArenaVector<HBasicBlock*>& successors = instruction->GetBlock()->GetSuccessors();
+  worklist->assign(successors.begin(), successors.end());
+  while (!worklist->empty()) {
+    HBasicBlock* block = worklist->back();
+    worklist->pop_back();
+    if (block == allocation->GetBlock() || reachable->IsBitSet(block->GetBlockId())) {
+      continue;
+    }
+    reachable->SetBit(block->GetBlockId());
+    worklist->insert(worklist->end(), block->GetSuccessors().begin(), block->GetSuccessors().end());
+  }
+}
+
+// Returns whether there is a path from `allocation` to the exit or to the next execution of
+// `allocation` that does not go through any of the `escapes`, so that materializing the
+// allocation only at the escapes avoids it on that path.
+static bool HasPathWithoutEscapes(HInstruction* allocation,
+                                  const ScopedArenaVector<HInstruction*>& escapes,
+                                  /*inout*/ ScopedArenaVector<HBasicBlock*>* worklist,
+                                  /*inout*/ ArenaBitVector* visited) {
+  DCHECK(worklist->empty());
+  visited->ClearAllBits();
+  // Blocks with an escape are never passed without executing the escape.
+  for (HInstruction* escape : escapes) {
+    visited->SetBit(escape->GetBlock()->GetBlockId());
+  }
+  if (visited->IsBitSet(allocation->GetBlock()->GetBlockId())) {
+    return false;
+  }
+  const ArenaVector<HBasicBlock*>& successors = allocation->GetBlock()->GetSuccessors();
+  worklist->assign(successors.begin(), successors.end());
+  while (!worklist->empty()) {
+    HBasicBlock* block = worklist->back();
+    worklist->pop_back();
+    if (block == allocation->GetBlock() || block->IsExitBlock()) {
+      worklist->clear();
+      return true;
+    }
+    if (visited->IsBitSet(block->GetBlockId())) {
+      continue;
+    }
+    visited->SetBit(block->GetBlockId());
+    worklist->insert(worklist->end(), block->GetSuccessors().begin(), block->GetSuccessors().end());
+  }
+  return false;
+}
+
+// Returns the closest instruction with an environment that dominates the position right
+// before `instruction`, possibly `instruction` itself. The environment of the allocation
+// being materialized is always found as a last resort.
+static HInstruction* FindDominatingEnvironmentHolder(HInstruction* instruction) {
+  HInstruction* current = instruction;
+  HBasicBlock* block = instruction->GetBlock();
+  while (!current->HasEnvironment()) {
+    current = current->GetPrevious();
+    while (current == nullptr) {
+      block = block->GetDominator();
+      DCHECK(block != nullptr);
+      current = block->GetLastInstruction();
+    }
+  }
+  return current;
+}
+
+// Tries to replace each escape of `allocation` with a copy materialized right before it.
+static bool TryMaterializeEscapes(HNewInstance* allocation,
+                                  /*inout*/ size_t* available_heap_locations,
+                                  OptimizingCompilerStats* stats) {
+  HGraph* graph = allocation->GetBlock()->GetGraph();
+  ScopedArenaAllocator allocator(graph->GetArenaStack());
+  ScopedArenaVector<HInstruction*> escapes(allocator.Adapter(kArenaAllocScalarReplacement));
+  ScopedArenaVector<const FieldInfo*> fields(allocator.Adapter(kArenaAllocScalarReplacement));
+  bool has_constructor_fence = false;
+  for (const HUseListNode<HInstruction*>& use : allocation->GetUses()) {
+    HInstruction* user = use.GetUser();
+    if (IsScalarFieldAccess(user, allocation)) {
+      if (user->IsInstanceFieldSet()) {
+        const FieldInfo& field = user->AsInstanceFieldSet()->GetFieldInfo();
+        auto same_offset = [&](const FieldInfo* other) {
+          return other->GetFieldOffset() == field.GetFieldOffset();
+        };
+        if (std::none_of(fields.begin(), fields.end(), same_offset)) {
+          fields.push_back(&field);
+        }
+      }
+    } else if (user->IsConstructorFence()) {
+      has_constructor_fence = true;
+    } else if (!ContainsElement(escapes, user)) {
+      escapes.push_back(user);
+    }
+  }
+
+  // Escapes dominated by another escape simply use the copy materialized for the latter.
+  ScopedArenaVector<HInstruction*> roots(allocator.Adapter(kArenaAllocScalarReplacement));
+  for (HInstruction* escape : escapes) {
+    auto dominates_escape = [&](HInstruction* other) { return other->StrictlyDominates(escape); };
+    if (std::none_of(escapes.begin(), escapes.end(), dominates_escape)) {
+      roots.push_back(escape);
+    }
+  }
+  if (roots.size() > kMaxMaterializationsPerAllocation ||
+      fields.size() > kMaxMaterializedFields ||
+      roots.size() * fields.size() > *available_heap_locations) {
+    return false;
+  }
+
+  // After an escape, the escaped object may be modified or compared by someone else, so each
+  // use that can follow the escape must be dominated by it and use the copy. The escape must
+  // not reach itself either, as each execution would then publish a different copy.
+  ScopedArenaVector<HBasicBlock*> worklist(allocator.Adapter(kArenaAllocScalarReplacement));
+  ArenaBitVector blocks(&allocator,
+                        graph->GetBlocks().size(),
+                        /*expandable=*/ false,
+                        kArenaAllocScalarReplacement);
+  for (HInstruction* root : roots) {
+    MarkReachableBlocks(root, allocation, &worklist, &blocks);
+    if (blocks.IsBitSet(root->GetBlock()->GetBlockId())) {
+      return false;
+    }
+    for (const HUseListNode<HInstruction*>& use : allocation->GetUses()) {
+      HInstruction* user = use.GetUser();
+      if (user != root &&
+          blocks.IsBitSet(user->GetBlock()->GetBlockId()) &&
+          !root->StrictlyDominates(user)) {
+        return false;
+      }
+    }
+  }
+  if (!HasPathWithoutEscapes(allocation, roots, &worklist, &blocks)) {
+    return false;
+  }
+
+  ArenaAllocator* graph_allocator = graph->GetAllocator();
+  ScopedArenaVector<HInstruction*> values(allocator.Adapter(kArenaAllocScalarReplacement));
+  for (HInstruction* root : roots) {
+    HBasicBlock* block = root->GetBlock();
+    uint32_t dex_pc = root->GetDexPc();
+    // Load the current field values before creating the copy, so that the loads are not
+    // redirected to the copy below. LSE replaces them with the stored values.
+    values.clear();
+    for (const FieldInfo* field : fields) {
+      HInstanceFieldGet* load = new (graph_allocator) HInstanceFieldGet(
+          allocation,
+          field->GetField(),
+          field->GetFieldType(),
+          field->GetFieldOffset(),
+          /*is_volatile=*/ false,
+          field->GetFieldIndex(),
+          field->GetDeclaringClassDefIndex(),
+          field->GetDexFile(),
+          dex_pc);
+      if (load->GetType() == DataType::Type::kReference) {
+        load->SetReferenceTypeInfo(graph->GetInexactObjectRti());
+      }
+      block->InsertInstructionBefore(load, root);
+      values.push_back(load);
+    }
+    // The copy is allocated at the escape, so it needs the dex pc and the environment of the
+    // escape, or of the closest point before it that has one, to deoptimize or throw there.
+    HInstruction* environment_holder = FindDominatingEnvironmentHolder(root);
+    HEnvironment* environment = environment_holder->GetEnvironment();
+    HNewInstance* copy = new (graph_allocator) HNewInstance(allocation->InputAt(0),
+                                                            environment->GetDexPc(),
+                                                            allocation->GetTypeIndex(),
+                                                            allocation->GetDexFile(),
+                                                            allocation->IsFinalizable(),
+                                                            allocation->GetEntrypoint());
+    copy->SetReferenceTypeInfo(allocation->GetReferenceTypeInfo());
+    block->InsertInstructionBefore(copy, root);
+    copy->CopyEnvironmentFrom(environment);
+    for (size_t i = 0; i != fields.size(); ++i) {
+      const FieldInfo* field = fields[i];
+      HInstanceFieldSet* store = new (graph_allocator) HInstanceFieldSet(
+          copy,
+          values[i],
+          field->GetField(),
+          field->GetFieldType(),
+          field->GetFieldOffset(),
+          /*is_volatile=*/ false,
+          field->GetFieldIndex(),
+          field->GetDeclaringClassDefIndex(),
+          field->GetDexFile(),
+          dex_pc);
+      block->InsertInstructionBefore(store, root);
+    }
+    if (has_constructor_fence) {
+      // Keep final fields of the copy safely published.
+      HConstructorFence* fence =
+          new (graph_allocator) HConstructorFence(copy, dex_pc, graph_allocator);
+      block->InsertInstructionBefore(fence, root);
+    }
+    allocation->ReplaceUsesDominatedBy(copy, copy);
+    allocation->ReplaceEnvUsesDominatedBy(copy, copy);
+    MaybeRecordStat(stats, MethodCompilationStat::kScalarReplacementAllocationMaterialized);
+  }
+  *available_heap_locations -= roots.size() * fields.size();
+  MaybeRecordStat(stats, MethodCompilationStat::kScalarReplacementCandidate);
+  return true;
+}
+
+bool ScalarReplacement::Run() {
+  if (graph_->IsDebuggable() ||
+      graph_->IsCompilingOsr() ||
+      graph_->HasTryCatch() ||
+      graph_->HasIrreducibleLoops()) {
+    // Debugger may set heap values. In the other cases, LSE may not be able to track the
+    // heap values of the original allocation and would keep it in addition to the copies.
+    return false;
+  }
+
+  ScopedArenaAllocator allocator(graph_->GetArenaStack());
+  ScopedArenaVector<HNewInstance*> candidates(allocator.Adapter(kArenaAllocScalarReplacement));
+  for (HBasicBlock* block : graph_->GetReversePostOrder()) {
+    for (HInstructionIterator it(block->GetInstructions()); !it.Done(); it.Advance()) {
+      HInstruction* instruction = it.Current();
+      if (instruction->IsNewInstance() && IsCandidate(instruction->AsNewInstance())) {
+        candidates.push_back(instruction->AsNewInstance());
+      }
+    }
+  }
+  if (candidates.empty()) {
+    return false;
+  }
+
+  // LSE gives up on methods with too many heap locations. Each field stored to a copy adds
+  // a heap location, so make sure we stay within the limit.
+  LoadStoreAnalysis lsa(graph_, /*stats=*/ nullptr, &allocator, LoadStoreAnalysisType::kBasic);
+  if (!lsa.Run()) {
+    return false;
+  }
+  size_t num_heap_locations = lsa.GetHeapLocationCollector().GetNumberOfHeapLocations();
+  DCHECK_LE(num_heap_locations, LoadStoreAnalysis::kMaxNumberOfHeapLocations);
+  size_t available_heap_locations =
+      LoadStoreAnalysis::kMaxNumberOfHeapLocations - num_heap_locations;
+
+  bool changed = false;
+  for (HNewInstance* allocation : candidates) {
+    if (TryMaterializeEscapes(allocation, &available_heap_locations, stats_)) {
+      changed = true;
+    }
+  }
+  return changed;
+}
+
+}  // namespace art
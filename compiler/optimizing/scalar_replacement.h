@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef ART_COMPILER_OPTIMIZING_SCALAR_REPLACEMENT_H_
+#define ART_COMPILER_OPTIMIZING_SCALAR_REPLACEMENT_H_
+
+#include "base/macros.h"
+#include "optimization.h"
+
+namespace art HIDDEN {
+
+/*
+ * Scalar replacement of allocations that escape only at the end of their lifetime.
+ *
+ * Load-store elimination (LSE) removes allocations that never escape the compiled method and
+ * replaces their field loads with SSA values. Many short-lived objects are however handed out
+ * only on some paths and only after the method is done with them, for example when they are
+ * returned, passed to a call that was not inlined or stored to the heap on a rarely taken path.
+ * LSE keeps such allocations on all paths.
+ *
+ * This pass looks for allocations where each escape E is the last use of the allocation on
+ * every path through E, i.e. all uses reachable from E without executing the allocation again
+ * are dominated by E. For each such escape, we materialize a copy of the object right before E,
+ * initialize its fields from loads of the original object, and redirect E and all the uses it
+ * dominates to the copy. The original allocation then no longer escapes and the subsequent LSE
+ * replaces its field accesses, including the loads added for the copies, by SSA values and
+ * removes it. The allocation is thus executed only on the escaping paths.
+ *
+ * We only transform allocations when there is a path from the allocation that does not reach
+ * any escape and when LSE is known to be able to remove the original allocation afterwards.
+ */
+class ScalarReplacement : public HOptimization {
+ public:
+  ScalarReplacement(HGraph* graph,
+                    OptimizingCompilerStats* stats,
+                    const char* name = kScalarReplacementPassName)
+      : HOptimization(graph, name, stats) {}
+
+  bool Run() override;
+
+  static constexpr const char* kScalarReplacementPassName = "scalar_replacement";
+
+ private:
+  DISALLOW_COPY_AND_ASSIGN(ScalarReplacement);
+};
+
+}  // namespace art
+
+#endif  // ART_COMPILER_OPTIMIZING_SCALAR_REPLACEMENT_H_
@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "scheduler_x86_64.h"
+
+#include "base/bit_utils.h"
+#include "code_generator_utils.h"
+#include "mirror/string.h"
+
+namespace art HIDDEN {
+namespace x86_64 {
+
+bool SchedulingLatencyVisitorX86_64::HasSSE4_1() const {
+  return codegen_ != nullptr && codegen_->GetInstructionSetFeatures().HasSSE4_1();
+}
+
+bool SchedulingLatencyVisitorX86_64::HasPopCnt() const {
+  return codegen_ != nullptr && codegen_->GetInstructionSetFeatures().HasPopCnt();
+}
+
+bool SchedulingLatencyVisitorX86_64::HasAVX2() const {
+  return codegen_ != nullptr && codegen_->GetInstructionSetFeatures().HasAVX2();
+}
+
+void SchedulingLatencyVisitorX86_64::VisitBinaryOperation(HBinaryOperation* instr) {
+  last_visited_latency_ = DataType::IsFloatingPointType(instr->GetResultType())
+      ? kX86_64FloatingPointOpLatency
+      : kX86_64IntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitX86AndNot(HX86AndNot* ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64IntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitX86MaskOrResetLeastSetBit(
+    HX86MaskOrResetLeastSetBit* ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64IntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitArrayGet(HArrayGet* instruction) {
+  if (instruction->IsStringCharAt() && mirror::kUseStringCompression) {
+    // Load the count field and test the compression flag before the load of the character.
+    last_visited_internal_latency_ = kX86_64MemoryLoadLatency + kX86_64BranchLatency;
+  }
+  // x86-64 addressing modes include the scaled index, so there is no address computation.
+  last_visited_latency_ = kX86_64MemoryLoadLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitArrayLength(HArrayLength* ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64MemoryLoadLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitArraySet(HArraySet* instruction) {
+  if (instruction->NeedsTypeCheck()) {
+    // Loads of the classes of the array and of the value to compare them.
+    last_visited_internal_latency_ = 3 * kX86_64MemoryLoadLatency + kX86_64BranchLatency;
+  }
+  last_visited_latency_ = kX86_64MemoryStoreLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitBoundsCheck(HBoundsCheck* ATTRIBUTE_UNUSED) {
+  last_visited_internal_latency_ = kX86_64IntegerOpLatency;
+  // Users do not use any data results.
+  last_visited_latency_ = 0;
+}
+
+void SchedulingLatencyVisitorX86_64::HandleDivRemConstantIntegralLatencies(int64_t imm,
+                                                                           bool is_rem) {
+  // Follow the code path used by code generation, see `GenerateDivRemIntegral()`.
+  if (imm == 0) {
+    last_visited_internal_latency_ = 0;
+    last_visited_latency_ = 0;
+  } else if (imm == 1 || imm == -1) {
+    last_visited_internal_latency_ = 0;
+    last_visited_latency_ = kX86_64IntegerOpLatency;
+  } else if (IsPowerOfTwo(AbsOrMin(imm))) {
+    last_visited_internal_latency_ = 3 * kX86_64IntegerOpLatency;
+    last_visited_latency_ = kX86_64IntegerOpLatency;
+  } else {
+    DCHECK(imm <= -2 || imm >= 2);
+    // Multiplication by the magic number followed by shifts and a sign correction. The remainder
+    // is then computed from the quotient with another multiplication and a subtraction.
+    last_visited_internal_latency_ = kX86_64MulIntegerLatency + 3 * kX86_64IntegerOpLatency;
+    if (is_rem) {
+      last_visited_internal_latency_ += kX86_64MulIntegerLatency;
+    }
+    last_visited_latency_ = kX86_64IntegerOpLatency;
+  }
+}
+
+void SchedulingLatencyVisitorX86_64::VisitDiv(HDiv* instr) {
+  DataType::Type type = instr->GetResultType();
+  switch (type) {
+    case DataType::Type::kFloat32:
+      last_visited_latency_ = kX86_64DivFloatLatency;
+      break;
+    case DataType::Type::kFloat64:
+      last_visited_latency_ = kX86_64DivDoubleLatency;
+      break;
+    default:
+      if (instr->GetRight()->IsConstant()) {
+        int64_t imm = Int64FromConstant(instr->GetRight()->AsConstant());
+        HandleDivRemConstantIntegralLatencies(imm, /* is_rem= */ false);
+      } else {
+        // Check for the -1 divisor and sign extension into RDX before the `idiv`.
+        last_visited_internal_latency_ = 2 * kX86_64IntegerOpLatency;
+        last_visited_latency_ =
+            (type == DataType::Type::kInt64) ? kX86_64DivLongLatency : kX86_64DivIntegerLatency;
+      }
+      break;
+  }
+}
+
+void SchedulingLatencyVisitorX86_64::VisitRem(HRem* instr) {
+  DataType::Type type = instr->GetResultType();
+  if (DataType::IsFloatingPointType(type)) {
+    last_visited_latency_ = kX86_64RemFloatingPointLatency;
+  } else if (instr->GetRight()->IsConstant()) {
+    int64_t imm = Int64FromConstant(instr->GetRight()->AsConstant());
+    HandleDivRemConstantIntegralLatencies(imm, /* is_rem= */ true);
+  } else {
+    last_visited_internal_latency_ = 2 * kX86_64IntegerOpLatency;
+    last_visited_latency_ =
+        (type == DataType::Type::kInt64) ? kX86_64DivLongLatency : kX86_64DivIntegerLatency;
+  }
+}
+
+void SchedulingLatencyVisitorX86_64::VisitMul(HMul* instr) {
+  last_visited_latency_ = DataType::IsFloatingPointType(instr->GetResultType())
+      ? kX86_64MulFloatingPointLatency
+      : kX86_64MulIntegerLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitSelect(HSelect* instr) {
+  if (DataType::IsFloatingPointType(instr->GetType())) {
+    // There is no conditional move for XMM registers, the code generator uses a branch.
+    last_visited_internal_latency_ = kX86_64BranchLatency;
+  }
+  // Integral selects use `cmov`.
+  last_visited_latency_ = kX86_64IntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitInstanceFieldGet(HInstanceFieldGet* ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64MemoryLoadLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitInstanceFieldSet(HInstanceFieldSet* ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64MemoryStoreLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitStaticFieldGet(HStaticFieldGet* ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64MemoryLoadLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitStaticFieldSet(HStaticFieldSet* ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64MemoryStoreLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitInstanceOf(HInstanceOf* ATTRIBUTE_UNUSED) {
+  last_visited_internal_latency_ = kX86_64CallInternalLatency;
+  last_visited_latency_ = kX86_64IntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::HandleIntrinsicLatencies(HInvoke* instruction) {
+  // Follow the code paths of `IntrinsicCodeGeneratorX86_64`. Intrinsics which need instruction
+  // set features that are not available are implemented as calls.
+  switch (instruction->GetIntrinsic()) {
+    case Intrinsics::kMathSqrt:
+      last_visited_latency_ = kX86_64SqrtDoubleLatency;
+      return;
+    case Intrinsics::kMathCeil:
+    case Intrinsics::kMathFloor:
+    case Intrinsics::kMathRint:
+      if (HasSSE4_1()) {
+        last_visited_latency_ = kX86_64RoundFloatingPointLatency;
+        return;
+      }
+      break;
+    case Intrinsics::kMathRoundFloat:
+    case Intrinsics::kMathRoundDouble:
+      if (HasSSE4_1()) {
+        // Round towards zero, then compare with the input to adjust and handle NaN.
+        last_visited_internal_latency_ = kX86_64RoundFloatingPointLatency +
+                                         2 * kX86_64FloatingPointOpLatency +
+                                         kX86_64BranchLatency;
+        last_visited_latency_ = kX86_64TypeConversionFloatingPointIntegerLatency;
+        return;
+      }
+      break;
+    case Intrinsics::kMathFmaDouble:
+    case Intrinsics::kMathFmaFloat:
+      if (HasAVX2()) {
+        last_visited_latency_ = kX86_64MulFloatingPointLatency;
+        return;
+      }
+      break;
+    case Intrinsics::kMathMultiplyHigh:
+      last_visited_latency_ = kX86_64MulIntegerLatency;
+      return;
+    case Intrinsics::kMathAddExactInt:
+    case Intrinsics::kMathAddExactLong:
+    case Intrinsics::kMathSubtractExactInt:
+    case Intrinsics::kMathSubtractExactLong:
+      // A `mov`, the operation and a branch on overflow.
+      last_visited_internal_latency_ = kX86_64IntegerOpLatency + kX86_64BranchLatency;
+      last_visited_latency_ = kX86_64IntegerOpLatency;
+      return;
+    case Intrinsics::kMathMultiplyExactInt:
+    case Intrinsics::kMathMultiplyExactLong:
+      // A `mov`, the multiplication and a branch on overflow.
+      last_visited_internal_latency_ = kX86_64IntegerOpLatency + kX86_64BranchLatency;
+      last_visited_latency_ = kX86_64MulIntegerLatency;
+      return;
+    case Intrinsics::kIntegerBitCount:
+    case Intrinsics::kLongBitCount:
+      if (HasPopCnt()) {
+        last_visited_latency_ = kX86_64BitScanLatency;
+        return;
+      }
+      break;
+    case Intrinsics::kIntegerHighestOneBit:
+    case Intrinsics::kLongHighestOneBit:
+    case Intrinsics::kIntegerLowestOneBit:
+    case Intrinsics::kLongLowestOneBit:
+    case Intrinsics::kIntegerNumberOfLeadingZeros:
+    case Intrinsics::kLongNumberOfLeadingZeros:
+    case Intrinsics::kIntegerNumberOfTrailingZeros:
+    case Intrinsics::kLongNumberOfTrailingZeros:
+      // A `bsr` or `bsf` and the handling of a zero input.
+      last_visited_internal_latency_ = kX86_64BitScanLatency + kX86_64IntegerOpLatency;
+      last_visited_latency_ = kX86_64IntegerOpLatency;
+      return;
+    case Intrinsics::kIntegerReverse:
+    case Intrinsics::kLongReverse:
+      // A byte swap followed by three rounds of mask, shift and or.
+      last_visited_internal_latency_ = 10 * kX86_64IntegerOpLatency;
+      last_visited_latency_ = kX86_64IntegerOpLatency;
+      return;
+    case Intrinsics::kIntegerReverseBytes:
+    case Intrinsics::kLongReverseBytes:
+    case Intrinsics::kShortReverseBytes:
+      last_visited_latency_ = kX86_64IntegerOpLatency;
+      return;
+    case Intrinsics::kFloatFloatToRawIntBits:
+    case Intrinsics::kFloatIntBitsToFloat:
+    case Intrinsics::kDoubleDoubleToRawLongBits:
+    case Intrinsics::kDoubleLongBitsToDouble:
+      // Moves between general purpose and XMM registers.
+      last_visited_latency_ = 2 * kX86_64IntegerOpLatency;
+      return;
+    default:
+      break;
+  }
+  last_visited_internal_latency_ = kX86_64CallInternalLatency;
+  last_visited_latency_ = kX86_64CallLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitInvoke(HInvoke* instruction) {
+  if (instruction->IsIntrinsic()) {
+    HandleIntrinsicLatencies(instruction);
+    return;
+  }
+  last_visited_internal_latency_ = kX86_64CallInternalLatency;
+  last_visited_latency_ = kX86_64CallLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitLoadString(HLoadString* ATTRIBUTE_UNUSED) {
+  last_visited_internal_latency_ = kX86_64LoadStringInternalLatency;
+  last_visited_latency_ = kX86_64MemoryLoadLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitNewArray(HNewArray* ATTRIBUTE_UNUSED) {
+  last_visited_internal_latency_ = kX86_64IntegerOpLatency + kX86_64CallInternalLatency;
+  last_visited_latency_ = kX86_64CallLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitNewInstance(HNewInstance* instruction) {
+  if (instruction->IsStringAlloc()) {
+    last_visited_internal_latency_ =
+        2 * kX86_64IntegerOpLatency + kX86_64MemoryLoadLatency + kX86_64CallInternalLatency;
+  } else {
+    last_visited_internal_latency_ = kX86_64CallInternalLatency;
+  }
+  last_visited_latency_ = kX86_64CallLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitSuspendCheck(HSuspendCheck* instruction) {
+  HBasicBlock* block = instruction->GetBlock();
+  DCHECK_IMPLIES(block->GetLoopInformation() == nullptr,
+                 block->IsEntryBlock() && instruction->GetNext()->IsGoto());
+  // Users do not use any data results.
+  last_visited_latency_ = 0;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitTypeConversion(HTypeConversion* instr) {
+  if (DataType::IsFloatingPointType(instr->GetResultType()) ||
+      DataType::IsFloatingPointType(instr->GetInputType())) {
+    if (DataType::IsIntegralType(instr->GetResultType())) {
+      // Java semantics for NaN and out of range values need a compare and branch.
+      last_visited_internal_latency_ = kX86_64FloatingPointOpLatency + kX86_64BranchLatency;
+    }
+    last_visited_latency_ = kX86_64TypeConversionFloatingPointIntegerLatency;
+  } else {
+    last_visited_latency_ = kX86_64IntegerOpLatency;
+  }
+}
+
+void SchedulingLatencyVisitorX86_64::HandleSimpleArithmeticSIMD(HVecOperation* instr) {
+  if (DataType::IsFloatingPointType(instr->GetPackedType())) {
+    last_visited_latency_ = kX86_64SIMDFloatingPointOpLatency;
+  } else {
+    last_visited_latency_ = kX86_64SIMDIntegerOpLatency;
+  }
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecReplicateScalar(
+    HVecReplicateScalar* instr ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64SIMDReplicateOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecExtractScalar(HVecExtractScalar* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecReduce(HVecReduce* instr) {
+  // The reduction is a sequence of shuffles and operations halving the number of lanes.
+  HandleSimpleArithmeticSIMD(instr);
+  size_t steps = WhichPowerOf2(instr->GetVectorLength());
+  last_visited_internal_latency_ = steps * (kX86_64SIMDShuffleLatency + last_visited_latency_);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecCnv(HVecCnv* instr ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64SIMDTypeConversionInt2FPLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecNeg(HVecNeg* instr) {
+  // Subtraction from a zeroed register.
+  last_visited_internal_latency_ = kX86_64SIMDIntegerOpLatency;
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecAbs(HVecAbs* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecNot(HVecNot* instr) {
+  // Xor with an all-ones register, and an and with ones for booleans.
+  last_visited_internal_latency_ = kX86_64SIMDIntegerOpLatency;
+  if (instr->GetPackedType() == DataType::Type::kBool) {
+    last_visited_internal_latency_ += kX86_64SIMDIntegerOpLatency;
+  }
+  last_visited_latency_ = kX86_64SIMDIntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecAdd(HVecAdd* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecHalvingAdd(HVecHalvingAdd* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecSub(HVecSub* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecMul(HVecMul* instr) {
+  switch (instr->GetPackedType()) {
+    case DataType::Type::kFloat32:
+    case DataType::Type::kFloat64:
+      last_visited_latency_ = kX86_64SIMDMulFloatingPointLatency;
+      break;
+    case DataType::Type::kInt32:
+      last_visited_latency_ = kX86_64SIMDMulInt32Latency;
+      break;
+    default:
+      last_visited_latency_ = kX86_64SIMDMulIntegerLatency;
+      break;
+  }
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecDiv(HVecDiv* instr) {
+  if (instr->GetPackedType() == DataType::Type::kFloat32) {
+    last_visited_latency_ = kX86_64SIMDDivFloatLatency;
+  } else {
+    DCHECK(instr->GetPackedType() == DataType::Type::kFloat64);
+    last_visited_latency_ = kX86_64SIMDDivDoubleLatency;
+  }
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecMin(HVecMin* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecMax(HVecMax* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecAnd(HVecAnd* instr ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64SIMDIntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecAndNot(HVecAndNot* instr ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64SIMDIntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecOr(HVecOr* instr ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64SIMDIntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecXor(HVecXor* instr ATTRIBUTE_UNUSED) {
+  last_visited_latency_ = kX86_64SIMDIntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecSaturationAdd(HVecSaturationAdd* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecSaturationSub(HVecSaturationSub* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecShl(HVecShl* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecShr(HVecShr* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecUShr(HVecUShr* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecSetScalars(HVecSetScalars* instr) {
+  HandleSimpleArithmeticSIMD(instr);
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecMultiplyAccumulate(HVecMultiplyAccumulate* instr) {
+  // There is no integral multiply-accumulate, so this is a multiplication and an addition.
+  last_visited_internal_latency_ = (instr->GetPackedType() == DataType::Type::kInt32)
+      ? kX86_64SIMDMulInt32Latency
+      : kX86_64SIMDMulIntegerLatency;
+  last_visited_latency_ = kX86_64SIMDIntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecSADAccumulate(
+    HVecSADAccumulate* instr ATTRIBUTE_UNUSED) {
+  // Unpacking, subtraction and absolute value of the differences before the accumulation.
+  last_visited_internal_latency_ = 4 * kX86_64SIMDIntegerOpLatency;
+  last_visited_latency_ = kX86_64SIMDIntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecDotProd(HVecDotProd* instr ATTRIBUTE_UNUSED) {
+  // Widening `pmaddwd` followed by the accumulation.
+  last_visited_internal_latency_ = kX86_64SIMDMulIntegerLatency;
+  last_visited_latency_ = kX86_64SIMDIntegerOpLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecLoad(HVecLoad* instr) {
+  last_visited_internal_latency_ = 0;
+  if (instr->GetPackedType() == DataType::Type::kUint16
+      && mirror::kUseStringCompression
+      && instr->IsStringCharAt()) {
+    // Set latencies for the uncompressed case.
+    last_visited_internal_latency_ += kX86_64MemoryLoadLatency + kX86_64BranchLatency;
+  }
+  // The scaled index is part of the addressing mode, so there is no address computation.
+  last_visited_latency_ = kX86_64SIMDMemoryLoadLatency;
+}
+
+void SchedulingLatencyVisitorX86_64::VisitVecStore(HVecStore* instr ATTRIBUTE_UNUSED) {
+  last_visited_internal_latency_ = 0;
+  last_visited_latency_ = kX86_64SIMDMemoryStoreLatency;
+}
+
+}  // namespace x86_64
+}  // namespace art
@@ -87,6 +87,12 @@ void SsaLivenessAnalysis::NumberInstructions() {
 }
 
 void SsaLivenessAnalysis::ComputeLiveness() {
+  if (!compute_block_live_sets_) {
+    // The live ranges already take backward branches into account, see ComputeLiveRanges().
+    ComputeLiveRangesWithoutBlockSets();
+    return;
+  }
+
   for (HBasicBlock* block : graph_->GetLinearOrder()) {
     block_infos_[block->GetBlockId()] =
         new (allocator_) BlockInfo(allocator_, *block, number_of_ssa_values_);
@@ -166,105 +172,184 @@ void SsaLivenessAnalysis::ProcessEnvironment(HInstruction* current,
 }
 
 void SsaLivenessAnalysis::ComputeLiveRanges() {
+  ScopedArenaVector<BitVector*> live_in_sets(graph_->GetBlocks().size(),
+                                             nullptr,
+                                             allocator_->Adapter(kArenaAllocSsaLiveness));
+  for (HBasicBlock* block : graph_->GetLinearOrder()) {
+    live_in_sets[block->GetBlockId()] = GetLiveInSet(*block);
+  }
+
   // Do a post order visit, adding inputs of instructions live in the block where
   // that instruction is defined, and killing instructions that are being visited.
   for (HBasicBlock* block : ReverseRange(graph_->GetLinearOrder())) {
-    BitVector* kill = GetKillSet(*block);
-    BitVector* live_in = GetLiveInSet(*block);
+    ComputeLiveRangesOfBlock(block,
+                             ArrayRef<BitVector* const>(live_in_sets),
+                             GetLiveInSet(*block),
+                             GetKillSet(*block));
+  }
+}
+
+void SsaLivenessAnalysis::ComputeLiveRangesWithoutBlockSets() {
+  const ArenaVector<HBasicBlock*>& linear_order = graph_->GetLinearOrder();
+  const size_t number_of_blocks = graph_->GetBlocks().size();
+  ScopedArenaVector<size_t> linear_index(
+      number_of_blocks, 0u, allocator_->Adapter(kArenaAllocSsaLiveness));
+  for (size_t i = 0, e = linear_order.size(); i != e; ++i) {
+    linear_index[linear_order[i]->GetBlockId()] = i;
+  }
+
+  // Blocks that follow their successor in the linear order see an empty live_in set for it,
+  // just like with ComputeLiveRanges(). So the live_in set of a block is only needed until
+  // its predecessors that precede it in the linear order have been processed.
+  ScopedArenaVector<size_t> pending_readers(
+      number_of_blocks, 0u, allocator_->Adapter(kArenaAllocSsaLiveness));
+  for (HBasicBlock* block : linear_order) {
+    for (HBasicBlock* predecessor : block->GetPredecessors()) {
+      if (linear_index[predecessor->GetBlockId()] < linear_index[block->GetBlockId()]) {
+        ++pending_readers[block->GetBlockId()];
+      }
+    }
+  }
+
+  ScopedArenaVector<BitVector*> live_in_sets(
+      number_of_blocks, nullptr, allocator_->Adapter(kArenaAllocSsaLiveness));
+  ScopedArenaVector<BitVector*> free_sets(allocator_->Adapter(kArenaAllocSsaLiveness));
+  auto release = [&](HBasicBlock* block) {
+    DCHECK(live_in_sets[block->GetBlockId()] != nullptr);
+    free_sets.push_back(live_in_sets[block->GetBlockId()]);
+    live_in_sets[block->GetBlockId()] = nullptr;
+  };
+  for (HBasicBlock* block : ReverseRange(linear_order)) {
+    BitVector* live_in = nullptr;
+    if (free_sets.empty()) {
+      live_in = new (allocator_) ArenaBitVector(
+          allocator_, number_of_ssa_values_, /*expandable=*/ false, kArenaAllocSsaLiveness);
+    } else {
+      live_in = free_sets.back();
+      free_sets.pop_back();
+    }
+    live_in->ClearAllBits();
+    ComputeLiveRangesOfBlock(
+        block, ArrayRef<BitVector* const>(live_in_sets), live_in, /*kill=*/ nullptr);
 
-    // Set phi inputs of successors of this block corresponding to this block
-    // as live_in.
+    live_in_sets[block->GetBlockId()] = live_in;
+    if (pending_readers[block->GetBlockId()] == 0u) {
+      release(block);
+    }
     for (HBasicBlock* successor : block->GetSuccessors()) {
-      live_in->Union(GetLiveInSet(*successor));
-      if (successor->IsCatchBlock()) {
-        // Inputs of catch phis will be kept alive through their environment
-        // uses, allowing the runtime to copy their values to the corresponding
-        // catch phi spill slots when an exception is thrown.
-        // The only instructions which may not be recorded in the environments
-        // are constants created by the SSA builder as typed equivalents of
-        // untyped constants from the bytecode, or phis with only such constants
-        // as inputs (verified by GraphChecker). Their raw binary value must
-        // therefore be the same and we only need to keep alive one.
-      } else {
-        size_t phi_input_index = successor->GetPredecessorIndexOf(block);
-        for (HInstructionIterator phi_it(successor->GetPhis()); !phi_it.Done(); phi_it.Advance()) {
-          HInstruction* phi = phi_it.Current();
-          HInstruction* input = phi->InputAt(phi_input_index);
-          input->GetLiveInterval()->AddPhiUse(phi, phi_input_index, block);
-          // A phi input whose last user is the phi dies at the end of the predecessor block,
-          // and not at the phi's lifetime position.
-          live_in->SetBit(input->GetSsaIndex());
+      if (linear_index[successor->GetBlockId()] > linear_index[block->GetBlockId()]) {
+        DCHECK_NE(pending_readers[successor->GetBlockId()], 0u);
+        if (--pending_readers[successor->GetBlockId()] == 0u) {
+          release(successor);
         }
       }
     }
+  }
+}
 
-    // Add a range that covers this block to all instructions live_in because of successors.
-    // Instructions defined in this block will have their start of the range adjusted.
-    for (uint32_t idx : live_in->Indexes()) {
-      HInstruction* current = GetInstructionFromSsaIndex(idx);
-      current->GetLiveInterval()->AddRange(block->GetLifetimeStart(), block->GetLifetimeEnd());
+void SsaLivenessAnalysis::ComputeLiveRangesOfBlock(HBasicBlock* block,
+                                                   ArrayRef<BitVector* const> live_in_sets,
+                                                   /*out*/ BitVector* live_in,
+                                                   /*out*/ BitVector* kill) {
+  // Set phi inputs of successors of this block corresponding to this block
+  // as live_in.
+  for (HBasicBlock* successor : block->GetSuccessors()) {
+    BitVector* successor_live_in = live_in_sets[successor->GetBlockId()];
+    if (successor_live_in != nullptr) {
+      live_in->Union(successor_live_in);
     }
+    if (successor->IsCatchBlock()) {
+      // Inputs of catch phis will be kept alive through their environment
+      // uses, allowing the runtime to copy their values to the corresponding
+      // catch phi spill slots when an exception is thrown.
+      // The only instructions which may not be recorded in the environments
+      // are constants created by the SSA builder as typed equivalents of
+      // untyped constants from the bytecode, or phis with only such constants
+      // as inputs (verified by GraphChecker). Their raw binary value must
+      // therefore be the same and we only need to keep alive one.
+    } else {
+      size_t phi_input_index = successor->GetPredecessorIndexOf(block);
+      for (HInstructionIterator phi_it(successor->GetPhis()); !phi_it.Done(); phi_it.Advance()) {
+        HInstruction* phi = phi_it.Current();
+        HInstruction* input = phi->InputAt(phi_input_index);
+        input->GetLiveInterval()->AddPhiUse(phi, phi_input_index, block);
+        // A phi input whose last user is the phi dies at the end of the predecessor block,
+        // and not at the phi's lifetime position.
+        live_in->SetBit(input->GetSsaIndex());
+      }
+    }
+  }
 
-    for (HBackwardInstructionIterator back_it(block->GetInstructions()); !back_it.Done();
-         back_it.Advance()) {
-      HInstruction* current = back_it.Current();
-      if (current->HasSsaIndex()) {
-        // Kill the instruction and shorten its interval.
+  // Add a range that covers this block to all instructions live_in because of successors.
+  // Instructions defined in this block will have their start of the range adjusted.
+  for (uint32_t idx : live_in->Indexes()) {
+    HInstruction* current = GetInstructionFromSsaIndex(idx);
+    current->GetLiveInterval()->AddRange(block->GetLifetimeStart(), block->GetLifetimeEnd());
+  }
+
+  for (HBackwardInstructionIterator back_it(block->GetInstructions()); !back_it.Done();
+       back_it.Advance()) {
+    HInstruction* current = back_it.Current();
+    if (current->HasSsaIndex()) {
+      // Kill the instruction and shorten its interval.
+      if (kill != nullptr) {
         kill->SetBit(current->GetSsaIndex());
-        live_in->ClearBit(current->GetSsaIndex());
-        current->GetLiveInterval()->SetFrom(current->GetLifetimePosition());
       }
+      live_in->ClearBit(current->GetSsaIndex());
+      current->GetLiveInterval()->SetFrom(current->GetLifetimePosition());
+    }
 
-      // Process inputs of instructions.
-      if (current->IsEmittedAtUseSite()) {
-        if (kIsDebugBuild) {
-          DCHECK(!current->GetLocations()->Out().IsValid());
-          for (const HUseListNode<HInstruction*>& use : current->GetUses()) {
-            HInstruction* user = use.GetUser();
-            size_t index = use.GetIndex();
-            DCHECK(!user->GetLocations()->InAt(index).IsValid());
-          }
-          DCHECK(!current->HasEnvironmentUses());
-        }
-      } else {
-        // Process the environment first, because we know their uses come after
-        // or at the same liveness position of inputs.
-        ProcessEnvironment(current, current, live_in);
-
-        // Special case implicit null checks. We want their environment uses to be
-        // emitted at the instruction doing the actual null check.
-        HNullCheck* check = current->GetImplicitNullCheck();
-        if (check != nullptr) {
-          ProcessEnvironment(check, current, live_in);
+    // Process inputs of instructions.
+    if (current->IsEmittedAtUseSite()) {
+      if (kIsDebugBuild) {
+        DCHECK(!current->GetLocations()->Out().IsValid());
+        for (const HUseListNode<HInstruction*>& use : current->GetUses()) {
+          HInstruction* user = use.GetUser();
+          size_t index = use.GetIndex();
+          DCHECK(!user->GetLocations()->InAt(index).IsValid());
         }
-        RecursivelyProcessInputs(current, current, live_in);
+        DCHECK(!current->HasEnvironmentUses());
       }
+    } else {
+      // Process the environment first, because we know their uses come after
+      // or at the same liveness position of inputs.
+      ProcessEnvironment(current, current, live_in);
+
+      // Special case implicit null checks. We want their environment uses to be
+      // emitted at the instruction doing the actual null check.
+      HNullCheck* check = current->GetImplicitNullCheck();
+      if (check != nullptr) {
+        ProcessEnvironment(check, current, live_in);
+      }
+      RecursivelyProcessInputs(current, current, live_in);
     }
+  }
 
-    // Kill phis defined in this block.
-    for (HInstructionIterator inst_it(block->GetPhis()); !inst_it.Done(); inst_it.Advance()) {
-      HInstruction* current = inst_it.Current();
-      if (current->HasSsaIndex()) {
+  // Kill phis defined in this block.
+  for (HInstructionIterator inst_it(block->GetPhis()); !inst_it.Done(); inst_it.Advance()) {
+    HInstruction* current = inst_it.Current();
+    if (current->HasSsaIndex()) {
+      if (kill != nullptr) {
         kill->SetBit(current->GetSsaIndex());
-        live_in->ClearBit(current->GetSsaIndex());
-        LiveInterval* interval = current->GetLiveInterval();
-        DCHECK((interval->GetFirstRange() == nullptr)
-               || (interval->GetStart() == current->GetLifetimePosition()));
-        interval->SetFrom(current->GetLifetimePosition());
       }
+      live_in->ClearBit(current->GetSsaIndex());
+      LiveInterval* interval = current->GetLiveInterval();
+      DCHECK((interval->GetFirstRange() == nullptr)
+             || (interval->GetStart() == current->GetLifetimePosition()));
+      interval->SetFrom(current->GetLifetimePosition());
     }
+  }
 
-    if (block->IsLoopHeader()) {
-      if (kIsDebugBuild) {
-        CheckNoLiveInIrreducibleLoop(*block);
-      }
-      size_t last_position = block->GetLoopInformation()->GetLifetimeEnd();
-      // For all live_in instructions at the loop header, we need to create a range
-      // that covers the full loop.
-      for (uint32_t idx : live_in->Indexes()) {
-        HInstruction* current = GetInstructionFromSsaIndex(idx);
-        current->GetLiveInterval()->AddLoopRange(block->GetLifetimeStart(), last_position);
-      }
+  if (block->IsLoopHeader()) {
+    if (kIsDebugBuild) {
+      CheckNoLiveInIrreducibleLoop(*block);
+    }
+    size_t last_position = block->GetLoopInformation()->GetLifetimeEnd();
+    // For all live_in instructions at the loop header, we need to create a range
+    // that covers the full loop.
+    for (uint32_t idx : live_in->Indexes()) {
+      HInstruction* current = GetInstructionFromSsaIndex(idx);
+      current->GetLiveInterval()->AddLoopRange(block->GetLifetimeStart(), last_position);
     }
   }
 }
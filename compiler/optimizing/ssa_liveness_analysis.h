@@ -1173,29 +1173,45 @@ class LiveInterval : public ArenaObject<kArenaAllocSsaLiveness> {
  */
 class SsaLivenessAnalysis : public ValueObject {
  public:
-  SsaLivenessAnalysis(HGraph* graph, CodeGenerator* codegen, ScopedArenaAllocator* allocator)
+  // When `compute_block_live_sets` is false, only the live intervals are computed. The
+  // live_in, live_out and kill sets of blocks are then not available, which saves the fixed
+  // point calculation and most of the memory for the sets. This is not supported for graphs
+  // with irreducible loops.
+  SsaLivenessAnalysis(HGraph* graph,
+                      CodeGenerator* codegen,
+                      ScopedArenaAllocator* allocator,
+                      bool compute_block_live_sets = true)
       : graph_(graph),
         codegen_(codegen),
         allocator_(allocator),
+        compute_block_live_sets_(compute_block_live_sets),
         block_infos_(graph->GetBlocks().size(),
                      nullptr,
                      allocator_->Adapter(kArenaAllocSsaLiveness)),
         instructions_from_ssa_index_(allocator_->Adapter(kArenaAllocSsaLiveness)),
         instructions_from_lifetime_position_(allocator_->Adapter(kArenaAllocSsaLiveness)),
         number_of_ssa_values_(0) {
+    DCHECK(compute_block_live_sets || !graph->HasIrreducibleLoops());
   }
 
   void Analyze();
 
+  bool HasBlockLiveSets() const {
+    return compute_block_live_sets_;
+  }
+
   BitVector* GetLiveInSet(const HBasicBlock& block) const {
+    DCHECK(HasBlockLiveSets());
     return &block_infos_[block.GetBlockId()]->live_in_;
   }
 
   BitVector* GetLiveOutSet(const HBasicBlock& block) const {
+    DCHECK(HasBlockLiveSets());
     return &block_infos_[block.GetBlockId()]->live_out_;
   }
 
   BitVector* GetKillSet(const HBasicBlock& block) const {
+    DCHECK(HasBlockLiveSets());
     return &block_infos_[block.GetBlockId()]->kill_;
   }
 
@@ -1256,6 +1272,19 @@ class SsaLivenessAnalysis : public ValueObject {
   // kill sets, that do not take into account backward branches.
   void ComputeLiveRanges();
 
+  // Variant of ComputeLiveRanges() that does not keep the block sets. The live_in set of
+  // a block is only kept until all its predecessors that precede it in the linear order
+  // have been processed, and is then reused for another block.
+  void ComputeLiveRangesWithoutBlockSets();
+
+  // Compute the live ranges of the instructions of `block` and the instructions
+  // live on entry to `block` in `live_in`, given the live_in sets of its successors
+  // that follow it in the linear order. `kill` may be null.
+  void ComputeLiveRangesOfBlock(HBasicBlock* block,
+                                ArrayRef<BitVector* const> live_in_sets,
+                                /*out*/ BitVector* live_in,
+                                /*out*/ BitVector* kill);
+
   // After computing the initial sets, this method does a fixed point
   // calculation over the live_in and live_out set to take into account
   // backwards branches.
@@ -1317,6 +1346,9 @@ class SsaLivenessAnalysis : public ValueObject {
   // This allocator must remain alive while doing register allocation.
   ScopedArenaAllocator* const allocator_;
 
+  // Whether to compute and keep the live_in, live_out and kill sets of blocks.
+  const bool compute_block_live_sets_;
+
   ScopedArenaVector<BlockInfo*> block_infos_;
 
   // Temporary array used when computing live_in, live_out, and kill sets.
@@ -35,10 +35,14 @@
 #include <sched.h>
 #if defined(__arm__)
 #include <sys/personality.h>
+#include <sys/resource.h>
+#include <sys/socket.h>
 #include <sys/utsname.h>
+#include <sys/wait.h>
 #endif  // __arm__
 #endif
 
+#include "android-base/cmsg.h"
 #include "android-base/parseint.h"
 #include "android-base/properties.h"
 #include "android-base/scopeguard.h"
@@ -78,8 +82,10 @@
 #include "dex/dex_file_loader.h"
 #include "dex/quick_compiler_callbacks.h"
 #include "dex/verification_results.h"
+#include "dex2oat/dex2oat_server.h"
 #include "dex2oat_options.h"
 #include "dexlayout.h"
+#include "driver/compiled_method_cache.h"
 #include "driver/compiler_driver.h"
 #include "driver/compiler_options.h"
 #include "driver/compiler_options_map-inl.h"
@@ -556,6 +562,11 @@ class Dex2Oat final {
     // the runtime.
     LogCompletionTime();
 
+    if (server_ != nullptr) {
+      // The runtime belongs to the dex2oat server that this job process was forked from.
+      runtime_.release();  // NOLINT
+    }
+
     if (!kIsDebugBuild && !(kRunningOnMemoryTool && kMemoryToolDetectsLeaks)) {
       // We want to just exit on non-debug builds, not bringing the runtime down
       // in an orderly fashion. So release the following fields.
@@ -654,6 +665,20 @@ class Dex2Oat final {
       boot_image_filename_ = parser_options->boot_image_filename;
     }
 
+    if (IsServer()) {
+      // A server only creates the runtime. The inputs and outputs come with each job.
+      if (!dex_filenames_.empty() || zip_fd_ != -1 || !oat_filenames_.empty() || oat_fd_ != -1 ||
+          !image_filenames_.empty() || image_fd_ != -1 || app_image_fd_ != -1 ||
+          !app_image_file_name_.empty()) {
+        Usage("--server-socket-fd should not be used with inputs or outputs");
+      }
+      if (boot_image_filename_.empty()) {
+        boot_image_filename_ =
+            GetDefaultBootImageLocation(android_root_, /*deny_art_apex_data_files=*/false);
+      }
+      return;
+    }
+
     DCHECK(compiler_options_->image_type_ == CompilerOptions::ImageType::kNone);
     if (!image_filenames_.empty() || image_fd_ != -1) {
       // If no boot image is provided, then dex2oat is compiling the primary boot image,
@@ -685,6 +710,12 @@ class Dex2Oat final {
       Usage("Can't have both --output-vdex-fd and --output-vdex");
     }
 
+    if ((input_compiled_method_cache_fd_ != -1 || output_compiled_method_cache_fd_ != -1) &&
+        !compiled_method_cache_file_name_.empty()) {
+      Usage("--compiled-method-cache should not be used with --input-compiled-method-cache-fd "
+            "or --output-compiled-method-cache-fd");
+    }
+
     if (!oat_filenames_.empty() && oat_fd_ != -1) {
       Usage("--oat-file should not be used with --oat-fd");
     }
@@ -1096,6 +1127,10 @@ class Dex2Oat final {
     AssignIfExists(args, M::ProfileFd, &profile_file_fds_);
     AssignIfExists(args, M::PreloadedClasses, &preloaded_classes_files_);
     AssignIfExists(args, M::PreloadedClassesFds, &preloaded_classes_fds_);
+    AssignIfExists(args, M::CompiledMethodCache, &compiled_method_cache_file_name_);
+    AssignIfExists(args, M::InputCompiledMethodCacheFd, &input_compiled_method_cache_fd_);
+    AssignIfExists(args, M::OutputCompiledMethodCacheFd, &output_compiled_method_cache_fd_);
+    AssignIfExists(args, M::ServerSocketFd, &server_socket_fd_);
     AssignIfExists(args, M::RuntimeOptions, &runtime_args_);
     AssignIfExists(args, M::SwapFile, &swap_file_name_);
     AssignIfExists(args, M::SwapFileFd, &swap_fd_);
@@ -1561,7 +1596,11 @@ class Dex2Oat final {
       // Note: Runtime acquires ownership of these dex files.
       runtime_options.Set(RuntimeArgumentMap::BootClassPathDexList, &opened_dex_files_);
     }
-    if (!CreateRuntime(std::move(runtime_options))) {
+    if (server_ != nullptr) {
+      if (!AdoptServerRuntime()) {
+        return dex2oat::ReturnCode::kCreateRuntime;
+      }
+    } else if (!CreateRuntime(std::move(runtime_options))) {
       return dex2oat::ReturnCode::kCreateRuntime;
     }
     if (runtime_->GetHeap()->GetBootImageSpaces().empty() &&
@@ -1932,6 +1971,12 @@ class Dex2Oat final {
       driver_->SetClasspathDexFiles(class_loader_context_->FlattenOpenedDexFiles());
     }
 
+    if (!compiled_method_cache_file_name_.empty() ||
+        input_compiled_method_cache_fd_ != -1 ||
+        output_compiled_method_cache_fd_ != -1) {
+      SetUpCompiledMethodCache();
+    }
+
     const bool compile_individually = ShouldCompileDexFilesIndividually();
     if (compile_individually) {
       // Set the compiler driver in the callbacks so that we can avoid re-verification.
@@ -1948,12 +1993,80 @@ class Dex2Oat final {
         /*apply=*/ !IsBootImage(), /*initial_value=*/ 123456789u ^ GetCombinedChecksums());
 
     // Invoke the compilation.
+    jobject class_loader = nullptr;
     if (compile_individually) {
       CompileDexFilesIndividually();
       // Return a null classloader since we already freed released it.
-      return nullptr;
+    } else {
+      class_loader = CompileDexFiles(dex_files);
+    }
+    if (compiled_method_cache_ != nullptr) {
+      SaveCompiledMethodCache();
+    }
+    return class_loader;
+  }
+
+  // Sets up the cache of compiled methods from a previous compilation, see
+  // `--compiled-method-cache` and `--input-compiled-method-cache-fd`. A missing or stale cache
+  // file only results in compiling all methods.
+  void SetUpCompiledMethodCache() {
+    TimingLogger::ScopedTiming t("dex2oat SetUpCompiledMethodCache", timings_);
+    // The oat header key-value store describes the compilation environment, such as the boot
+    // class path checksums and the class loader context. Leave out the entries that do not
+    // affect the generated code.
+    std::string environment_key;
+    for (const auto& [key, value] : *key_value_store_) {
+      if (key != OatHeader::kDex2OatCmdLineKey && key != OatHeader::kCompilationReasonKey) {
+        environment_key += key + "=" + value + ";";
+      }
+    }
+    compiled_method_cache_.reset(new CompiledMethodCache(*compiler_options_, environment_key));
+
+    ClassLinker* const class_linker = Runtime::Current()->GetClassLinker();
+    compiled_method_cache_->AddDexFiles(ArrayRef<const DexFile* const>(
+        class_linker->GetBootClassPath()));
+    if (!IsBootImage() && !IsBootImageExtension()) {
+      std::vector<const DexFile*> class_path_files =
+          class_loader_context_->FlattenOpenedDexFiles();
+      compiled_method_cache_->AddDexFiles(ArrayRef<const DexFile* const>(class_path_files));
+    }
+    compiled_method_cache_->AddDexFiles(
+        ArrayRef<const DexFile* const>(compiler_options_->GetDexFilesForOatFile()));
+
+    std::string error_msg;
+    if (input_compiled_method_cache_fd_ != -1) {
+      File file(DupCloexec(input_compiled_method_cache_fd_),
+                "compiled-method-cache",
+                /* check_usage= */ false,
+                /* read_only_mode= */ true);
+      if (!compiled_method_cache_->Load(&file, &error_msg)) {
+        LOG(WARNING) << "Ignoring compiled method cache: " << error_msg;
+      }
+    } else if (!compiled_method_cache_file_name_.empty() &&
+               OS::FileExists(compiled_method_cache_file_name_.c_str()) &&
+               !compiled_method_cache_->Load(compiled_method_cache_file_name_, &error_msg)) {
+      LOG(WARNING) << "Ignoring compiled method cache: " << error_msg;
+    }
+    driver_->SetCompiledMethodCache(compiled_method_cache_.get());
+  }
+
+  void SaveCompiledMethodCache() {
+    TimingLogger::ScopedTiming t("dex2oat SaveCompiledMethodCache", timings_);
+    VLOG(compiler) << "Compiled method cache: reused " << compiled_method_cache_->GetNumberOfHits()
+                   << " methods, compiled " << compiled_method_cache_->GetNumberOfMisses();
+    std::string error_msg;
+    if (output_compiled_method_cache_fd_ != -1) {
+      File file(DupCloexec(output_compiled_method_cache_fd_),
+                "compiled-method-cache",
+                /* check_usage= */ false,
+                /* read_only_mode= */ false);
+      if (!compiled_method_cache_->Save(&file, &error_msg)) {
+        LOG(WARNING) << "Failed to save compiled method cache: " << error_msg;
+      }
+    } else if (!compiled_method_cache_file_name_.empty() &&
+               !compiled_method_cache_->Save(compiled_method_cache_file_name_, &error_msg)) {
+      LOG(WARNING) << "Failed to save compiled method cache: " << error_msg;
     }
-    return CompileDexFiles(dex_files);
   }
 
   // Create the class loader, use it to compile, and return.
@@ -2352,6 +2465,34 @@ class Dex2Oat final {
     return is_host_;
   }
 
+  bool IsServer() const {
+    return server_socket_fd_ != -1;
+  }
+
+  int GetServerSocketFd() const {
+    return server_socket_fd_;
+  }
+
+  // Compile as a job of `server`, in a process forked from it, using its runtime.
+  void SetServer(const Dex2Oat* server) {
+    DCHECK(server->IsServer());
+    server_ = server;
+  }
+
+  // Create the runtime of a dex2oat server, before it forks a process for each job.
+  dex2oat::ReturnCode SetupServer() {
+    DCHECK(IsServer());
+    callbacks_.reset(new QuickCompilerCallbacks(CompilerCallbacks::CallbackMode::kCompileApp));
+    RuntimeArgumentMap runtime_options;
+    if (!PrepareRuntimeOptions(&runtime_options, callbacks_.get())) {
+      return dex2oat::ReturnCode::kOther;
+    }
+    if (!CreateRuntime(std::move(runtime_options))) {
+      return dex2oat::ReturnCode::kCreateRuntime;
+    }
+    return dex2oat::ReturnCode::kNoFailure;
+  }
+
   bool HasProfileInput() const { return !profile_file_fds_.empty() || !profile_files_.empty(); }
 
   // Must be called after the profile is loaded.
@@ -2741,12 +2882,42 @@ class Dex2Oat final {
     return true;
   }
 
-  // Create a runtime necessary for compilation.
-  bool CreateRuntime(RuntimeArgumentMap&& runtime_options) {
+  void SetHashCodeSeed() {
     // To make identity hashcode deterministic, set a seed based on the dex file checksums.
     // That makes the seed also most likely different for different inputs, for example
     // for primary boot image and different extensions that could be loaded together.
     mirror::Object::SetHashCodeSeed(987654321u ^ GetCombinedChecksums());
+  }
+
+  // Use the runtime of the dex2oat server that this job process was forked from.
+  bool AdoptServerRuntime() {
+    DCHECK(server_ != nullptr);
+    if (IsBootImage() || IsBootImageExtension()) {
+      LOG(ERROR) << "A dex2oat server cannot compile a boot image or a boot image extension";
+      return false;
+    }
+    std::vector<std::string_view> runtime_args(runtime_args_.begin(), runtime_args_.end());
+    std::vector<std::string_view> server_runtime_args(server_->runtime_args_.begin(),
+                                                      server_->runtime_args_.end());
+    if (boot_image_filename_ != server_->boot_image_filename_ ||
+        compiler_options_->GetInstructionSet() !=
+            server_->compiler_options_->GetInstructionSet() ||
+        runtime_args != server_runtime_args) {
+      LOG(ERROR) << "The boot image, instruction set or runtime arguments of the job do not match "
+                 << "those of the dex2oat server";
+      return false;
+    }
+
+    SetHashCodeSeed();
+    runtime_.reset(server_->runtime_.get());
+    runtime_->SetCompilerCallbacks(callbacks_.get());
+    WatchDog::SetRuntime(runtime_.get());
+    return true;
+  }
+
+  // Create a runtime necessary for compilation.
+  bool CreateRuntime(RuntimeArgumentMap&& runtime_options) {
+    SetHashCodeSeed();
 
     TimingLogger::ScopedTiming t_runtime("Create runtime", timings_);
     if (!Runtime::Create(std::move(runtime_options))) {
@@ -3008,6 +3179,10 @@ class Dex2Oat final {
   std::vector<int> profile_file_fds_;
   std::vector<std::string> preloaded_classes_files_;
   std::vector<int> preloaded_classes_fds_;
+  std::string compiled_method_cache_file_name_;
+  int input_compiled_method_cache_fd_ = -1;
+  int output_compiled_method_cache_fd_ = -1;
+  std::unique_ptr<CompiledMethodCache> compiled_method_cache_;
   std::unique_ptr<ProfileCompilationInfo> profile_compilation_info_;
   TimingLogger* timings_;
   std::vector<std::vector<const DexFile*>> dex_files_per_oat_file_;
@@ -3052,6 +3227,12 @@ class Dex2Oat final {
   // Whether PaletteNotify{Start,End}Dex2oatCompilation should be called.
   bool should_report_dex2oat_compilation_;
 
+  // The socket that a dex2oat server receives jobs on, see dex2oat/dex2oat_server.h.
+  int server_socket_fd_ = -1;
+
+  // The dex2oat server that this job process was forked from, if any.
+  const Dex2Oat* server_ = nullptr;
+
   DISALLOW_IMPLICIT_CONSTRUCTORS(Dex2Oat);
 };
 
@@ -3137,7 +3318,11 @@ static dex2oat::ReturnCode DoCompilation(Dex2Oat& dex2oat) REQUIRES(!Locks::muta
   return dex2oat::ReturnCode::kNoFailure;
 }
 
-static dex2oat::ReturnCode Dex2oat(int argc, char** argv) {
+static dex2oat::ReturnCode RunServer(const Dex2Oat& server);
+
+// Compile with the arguments `argv`. If `server` is not null, this is a job process forked from
+// that dex2oat server, and it uses the runtime of the server.
+static dex2oat::ReturnCode Dex2oat(int argc, char** argv, const Dex2Oat* server = nullptr) {
   b13564922();
 
   TimingLogger timings("compiler", false, false);
@@ -3153,6 +3338,16 @@ static dex2oat::ReturnCode Dex2oat(int argc, char** argv) {
 
   art::MemMap::Init();  // For ZipEntry::ExtractToMemMap, vdex and profiles.
 
+  if (server != nullptr) {
+    dex2oat->SetServer(server);
+  } else if (dex2oat->IsServer()) {
+    dex2oat::ReturnCode setup_code = dex2oat->SetupServer();
+    if (setup_code != dex2oat::ReturnCode::kNoFailure) {
+      return setup_code;
+    }
+    return RunServer(*dex2oat);
+  }
+
   // If needed, process profile information for profile guided compilation.
   // This operation involves I/O.
   if (dex2oat->HasProfileInput()) {
@@ -3228,6 +3423,115 @@ static dex2oat::ReturnCode Dex2oat(int argc, char** argv) {
 
   return result;
 }
+
+static bool SendServerReply(int socket_fd, const Dex2oatServer::Reply& reply) {
+  if (TEMP_FAILURE_RETRY(send(socket_fd, &reply, sizeof(reply), MSG_NOSIGNAL)) !=
+      static_cast<ssize_t>(sizeof(reply))) {
+    PLOG(ERROR) << "Failed to send a dex2oat server reply";
+    return false;
+  }
+  return true;
+}
+
+// Compile a job received by the dex2oat server `server`, in the process forked for it.
+static dex2oat::ReturnCode RunServerJob(const Dex2Oat& server, std::vector<std::string>& args) {
+  std::vector<char*> argv;
+  for (std::string& arg : args) {
+    argv.push_back(arg.data());
+  }
+  argv.push_back(nullptr);
+  return Dex2oat(static_cast<int>(args.size()), argv.data(), &server);
+}
+
+// Serve the jobs received on the socket of `server` one at a time, as described in
+// dex2oat/dex2oat_server.h, until the client closes the socket.
+static dex2oat::ReturnCode RunServer(const Dex2Oat& server) {
+  // Forking only keeps the calling thread. The runtime that dex2oat creates starts no threads of
+  // its own, and a server does not start the watchdog, so the job processes get all there is.
+  int socket_fd = server.GetServerSocketFd();
+  LOG(INFO) << "dex2oat server ready";
+  while (true) {
+    std::string data(Dex2oatServer::kMaxJobSize, '\0');
+    std::vector<android::base::unique_fd> fds;
+    ssize_t size = TEMP_FAILURE_RETRY(android::base::ReceiveFileDescriptorVector(
+        socket_fd, data.data(), data.size(), Dex2oatServer::kMaxJobFds, &fds));
+    if (size == 0) {
+      // The client closed the socket.
+      return dex2oat::ReturnCode::kNoFailure;
+    }
+    if (size < 0) {
+      PLOG(ERROR) << "Failed to receive a dex2oat server job";
+      return dex2oat::ReturnCode::kOther;
+    }
+    data.resize(size);
+
+    std::vector<int> client_fds;
+    std::vector<std::string> args;
+    if (!Dex2oatServer::DecodeJob(data, &client_fds, &args) || args.empty()) {
+      LOG(ERROR) << "Received a malformed dex2oat server job";
+      return dex2oat::ReturnCode::kOther;
+    }
+    std::vector<int> server_fds;
+    for (const android::base::unique_fd& fd : fds) {
+      server_fds.push_back(fd.get());
+    }
+    std::string error_msg;
+    if (!Dex2oatServer::RemapFdArgs(client_fds, server_fds, &args, &error_msg)) {
+      LOG(ERROR) << error_msg;
+      return dex2oat::ReturnCode::kOther;
+    }
+
+    pid_t pid = fork();
+    if (pid == -1) {
+      PLOG(ERROR) << "Failed to fork a dex2oat server job";
+      return dex2oat::ReturnCode::kOther;
+    }
+    if (pid == 0) {
+      close(socket_fd);
+      FastExit(static_cast<int>(RunServerJob(server, args)));
+    }
+    // Only the job process uses the files of the job.
+    fds.clear();
+
+    if (!SendServerReply(socket_fd, {Dex2oatServer::Reply::kStarted, pid, -1, 0, 0})) {
+      kill(pid, SIGKILL);
+      TEMP_FAILURE_RETRY(waitpid(pid, nullptr, 0));
+      return dex2oat::ReturnCode::kOther;
+    }
+
+    // Leave the process waitable until the client acknowledges that it is done with the pid.
+    siginfo_t info = {};
+    if (TEMP_FAILURE_RETRY(waitid(P_PID, pid, &info, WEXITED | WNOWAIT)) != 0) {
+      PLOG(ERROR) << "Failed to wait for dex2oat server job " << pid;
+      return dex2oat::ReturnCode::kOther;
+    }
+    bool exited = info.si_code == CLD_EXITED;
+    bool sent = SendServerReply(socket_fd,
+                                {Dex2oatServer::Reply::kExited,
+                                 pid,
+                                 exited ? info.si_status : -1,
+                                 exited ? 0 : info.si_status,
+                                 0});
+    char ack = 0;
+    sent = sent && TEMP_FAILURE_RETRY(recv(socket_fd, &ack, sizeof(ack), 0)) == sizeof(ack) &&
+           ack == Dex2oatServer::kAck;
+
+    struct rusage usage = {};
+    if (TEMP_FAILURE_RETRY(wait4(pid, nullptr, 0, &usage)) != pid) {
+      PLOG(ERROR) << "Failed to reap dex2oat server job " << pid;
+      return dex2oat::ReturnCode::kOther;
+    }
+    if (!sent) {
+      // The client is gone.
+      return dex2oat::ReturnCode::kNoFailure;
+    }
+    int64_t cpu_time_ms = (usage.ru_utime.tv_sec + usage.ru_stime.tv_sec) * INT64_C(1000) +
+                          (usage.ru_utime.tv_usec + usage.ru_stime.tv_usec) / 1000;
+    if (!SendServerReply(socket_fd, {Dex2oatServer::Reply::kReaped, pid, -1, 0, cpu_time_ms})) {
+      return dex2oat::ReturnCode::kOther;
+    }
+  }
+}
 }  // namespace art
 
 int main(int argc, char** argv) {
@@ -272,7 +272,33 @@ static void AddCompilerMappings(Builder& builder) {
       .Define("--preloaded-classes-fds=_")
           .WithType<std::vector<int>>().AppendValues()
           .WithHelp("Specify files containing list of classes preloaded in the zygote.")
-          .IntoKey(M::PreloadedClassesFds);
+          .IntoKey(M::PreloadedClassesFds)
+      .Define("--compiled-method-cache=_")
+          .WithType<std::string>()
+          .WithHelp("Specify a file used to cache compiled methods across compilations.\n"
+                    "Methods whose code and dependencies did not change since the compilation\n"
+                    "that wrote the file are reused instead of being recompiled. The file is\n"
+                    "created or replaced after the compilation.\n"
+                    "Eg: --compiled-method-cache=/data/local/tmp/app.cmc")
+          .IntoKey(M::CompiledMethodCache)
+      .Define("--input-compiled-method-cache-fd=_")
+          .WithType<int>()
+          .WithHelp("Same as --compiled-method-cache, but reads the cache from the given file\n"
+                    "descriptor. Use with --output-compiled-method-cache-fd.")
+          .IntoKey(M::InputCompiledMethodCacheFd)
+      .Define("--output-compiled-method-cache-fd=_")
+          .WithType<int>()
+          .WithHelp("Same as --compiled-method-cache, but writes the cache to the given file\n"
+                    "descriptor, which must refer to an empty file.")
+          .IntoKey(M::OutputCompiledMethodCacheFd)
+      .Define("--server-socket-fd=_")
+          .WithType<int>()
+          .WithHelp("Run as a server that creates the runtime once and compiles each job received\n"
+                    "on the given socket in a process forked from itself. Only the options that\n"
+                    "set up the runtime, such as --boot-image, --instruction-set and\n"
+                    "--runtime-arg, are accepted along with it; the rest come with each job.\n"
+                    "Eg: --server-socket-fd=3")
+          .IntoKey(M::ServerSocketFd);
   // clang-format on
 }
 
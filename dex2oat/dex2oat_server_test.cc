@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "dex2oat/dex2oat_server.h"
+
+#include <string>
+#include <vector>
+
+#include "gtest/gtest.h"
+
+namespace art {
+
+TEST(Dex2oatServer, EncodeDecodeJob) {
+  std::vector<int> fds = {5, 12};
+  std::vector<std::string> args = {"/apex/com.android.art/bin/dex2oat64",
+                                   "--zip-fd=5",
+                                   "--zip-location=/data/app/base.apk",
+                                   "--oat-fd=12",
+                                   "--comments="};
+  std::string data = Dex2oatServer::EncodeJob(fds, args);
+
+  std::vector<int> decoded_fds;
+  std::vector<std::string> decoded_args;
+  ASSERT_TRUE(Dex2oatServer::DecodeJob(data, &decoded_fds, &decoded_args));
+  EXPECT_EQ(decoded_fds, fds);
+  EXPECT_EQ(decoded_args, args);
+}
+
+TEST(Dex2oatServer, DecodeMalformedJob) {
+  std::vector<int> fds;
+  std::vector<std::string> args;
+  EXPECT_FALSE(Dex2oatServer::DecodeJob(std::string_view(), &fds, &args));
+  // Missing terminator.
+  EXPECT_FALSE(Dex2oatServer::DecodeJob("0", &fds, &args));
+  // Fewer file descriptors than announced.
+  EXPECT_FALSE(Dex2oatServer::DecodeJob(std::string_view("2\0" "5\0", 4), &fds, &args));
+  // Not a file descriptor.
+  EXPECT_FALSE(Dex2oatServer::DecodeJob(std::string_view("1\0" "x\0", 4), &fds, &args));
+}
+
+TEST(Dex2oatServer, GetServerArgs) {
+  std::vector<std::string> job_args = {"/apex/com.android.art/bin/dex2oat64",
+                                       "--zip-fd=5",
+                                       "--boot-image=/system/framework/boot.art",
+                                       "--runtime-arg",
+                                       "-Xms64m",
+                                       "--instruction-set=arm64",
+                                       "--instruction-set-variant=cortex-a76",
+                                       "--compiler-filter=speed-profile",
+                                       "--runtime-arg",
+                                       "-Xmx512m"};
+  EXPECT_EQ(Dex2oatServer::GetServerArgs(job_args),
+            std::vector<std::string>({"/apex/com.android.art/bin/dex2oat64",
+                                      "--boot-image=/system/framework/boot.art",
+                                      "--runtime-arg",
+                                      "-Xms64m",
+                                      "--instruction-set=arm64",
+                                      "--runtime-arg",
+                                      "-Xmx512m"}));
+}
+
+TEST(Dex2oatServer, RemapFdArgs) {
+  std::vector<std::string> args = {"dex2oat",
+                                   "--zip-fd=5",
+                                   "--zip-location=/data/app/base.apk",
+                                   "--class-loader-context-fds=7:9",
+                                   "--class-loader-context=PCL[a.apk:b.apk]",
+                                   "-j4"};
+  std::string error_msg;
+  ASSERT_TRUE(Dex2oatServer::RemapFdArgs({5, 7, 9}, {3, 4, 6}, &args, &error_msg)) << error_msg;
+  EXPECT_EQ(args,
+            std::vector<std::string>({"dex2oat",
+                                      "--zip-fd=3",
+                                      "--zip-location=/data/app/base.apk",
+                                      "--class-loader-context-fds=4:6",
+                                      "--class-loader-context=PCL[a.apk:b.apk]",
+                                      "-j4"}));
+}
+
+TEST(Dex2oatServer, RemapFdArgsNotSent) {
+  std::vector<std::string> args = {"dex2oat", "--zip-fd=5", "--oat-fd=8"};
+  std::string error_msg;
+  EXPECT_FALSE(Dex2oatServer::RemapFdArgs({5}, {3}, &args, &error_msg));
+  EXPECT_NE(error_msg.find("--oat-fd=8"), std::string::npos);
+}
+
+}  // namespace art
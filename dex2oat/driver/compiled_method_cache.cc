@@ -0,0 +1,995 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "compiled_method_cache.h"
+
+#include <stdio.h>
+#if defined(__linux__)
+#include <link.h>
+#endif
+
+#include <cstring>
+#include <memory>
+#include <set>
+#include <string_view>
+#include <tuple>
+#include <type_traits>
+
+#include <android-base/logging.h>
+#include <android-base/stringprintf.h>
+
+#include "arch/instruction_set.h"
+#include "arch/instruction_set_features.h"
+#include "art_field-inl.h"
+#include "art_method-inl.h"
+#include "base/bit_utils.h"
+#include "base/compiler_filter.h"
+#include "base/leb128.h"
+#include "base/os.h"
+#include "base/unix_file/fd_file.h"
+#include "class_linker-inl.h"
+#include "compiled_method.h"
+#include "compiled_method_storage.h"
+#include "dex/code_item_accessors-inl.h"
+#include "dex/dex_file-inl.h"
+#include "dex/dex_file_exception_helpers.h"
+#include "dex/dex_instruction-inl.h"
+#include "driver/compiler_options.h"
+#include "gc/heap.h"
+#include "linker/linker_patch.h"
+#include "mirror/class-inl.h"
+#include "mirror/class_loader.h"
+#include "mirror/dex_cache-inl.h"
+#include "mirror/iftable-inl.h"
+#include "oat.h"
+#include "profile/profile_compilation_info.h"
+#include "runtime.h"
+#include "thread-current-inl.h"
+
+namespace art {
+
+using android::base::StringPrintf;
+
+namespace {  // anonymous namespace
+
+static constexpr uint8_t kCacheMagic[] = { 'c', 'm', 'c', '\n' };
+// Bump the version whenever the file format or the method key computation changes.
+static constexpr uint32_t kCacheVersion = 2u;
+
+// Computes a 64-bit FNV-1a hash of the data passed to it.
+class KeyHasher {
+ public:
+  void Update(const void* data, size_t size) {
+    const uint8_t* bytes = reinterpret_cast<const uint8_t*>(data);
+    for (size_t i = 0; i != size; ++i) {
+      hash_ = (hash_ ^ bytes[i]) * kFnvPrime;
+    }
+  }
+
+  template <typename T>
+  void UpdateValue(T value) {
+    static_assert(std::is_integral_v<T> || std::is_enum_v<T>);
+    Update(&value, sizeof(value));
+  }
+
+  void UpdateString(std::string_view str) {
+    UpdateValue<uint32_t>(str.size());
+    Update(str.data(), str.size());
+  }
+
+  uint64_t GetKey() const {
+    // Make sure we do not return the reserved `kNoKey` value for a cacheable method.
+    return (hash_ != CompiledMethodCache::kNoKey) ? hash_ : hash_ + 1u;
+  }
+
+ private:
+  static constexpr uint64_t kFnvOffsetBasis = UINT64_C(0xcbf29ce484222325);
+  static constexpr uint64_t kFnvPrime = UINT64_C(0x100000001b3);
+
+  uint64_t hash_ = kFnvOffsetBasis;
+};
+
+void WriteU32(std::vector<uint8_t>* out, uint32_t value) {
+  EncodeUnsignedLeb128(out, value);
+}
+
+void WriteU64(std::vector<uint8_t>* out, uint64_t value) {
+  WriteU32(out, static_cast<uint32_t>(value));
+  WriteU32(out, static_cast<uint32_t>(value >> 32));
+}
+
+void WriteBytes(std::vector<uint8_t>* out, ArrayRef<const uint8_t> data) {
+  WriteU32(out, data.size());
+  out->insert(out->end(), data.begin(), data.end());
+}
+
+void WriteString(std::vector<uint8_t>* out, std::string_view str) {
+  WriteBytes(out, ArrayRef<const uint8_t>(reinterpret_cast<const uint8_t*>(str.data()),
+                                          str.size()));
+}
+
+// Reads data written with the functions above. All reads are bounds-checked, so that a corrupt
+// cache file results in a cache miss rather than a crash.
+class CacheReader {
+ public:
+  explicit CacheReader(ArrayRef<const uint8_t> data)
+      : ptr_(data.data()), end_(data.data() + data.size()) {}
+
+  bool ReadU32(/*out*/ uint32_t* value) {
+    return DecodeUnsignedLeb128Checked(&ptr_, end_, value);
+  }
+
+  bool ReadU64(/*out*/ uint64_t* value) {
+    uint32_t low;
+    uint32_t high;
+    if (!ReadU32(&low) || !ReadU32(&high)) {
+      return false;
+    }
+    *value = (static_cast<uint64_t>(high) << 32) | low;
+    return true;
+  }
+
+  bool ReadBytes(/*out*/ ArrayRef<const uint8_t>* data) {
+    uint32_t size;
+    if (!ReadU32(&size) || size > static_cast<size_t>(end_ - ptr_)) {
+      return false;
+    }
+    *data = ArrayRef<const uint8_t>(ptr_, size);
+    ptr_ += size;
+    return true;
+  }
+
+  bool ReadString(/*out*/ std::string* str) {
+    ArrayRef<const uint8_t> data;
+    if (!ReadBytes(&data)) {
+      return false;
+    }
+    str->assign(reinterpret_cast<const char*>(data.data()), data.size());
+    return true;
+  }
+
+  bool IsAtEnd() const {
+    return ptr_ == end_;
+  }
+
+ private:
+  const uint8_t* ptr_;
+  const uint8_t* const end_;
+};
+
+std::string GetMethodIdentity(MethodReference method_ref) {
+  const DexFile& dex_file = *method_ref.dex_file;
+  const dex::MethodId& method_id = dex_file.GetMethodId(method_ref.index);
+  return dex_file.GetLocation() + " " +
+         dex_file.GetMethodDeclaringClassDescriptor(method_id) + "->" +
+         dex_file.GetMethodName(method_id) +
+         dex_file.GetMethodSignature(method_id).ToString();
+}
+
+void HashClass(KeyHasher* hasher, ObjPtr<mirror::Class> klass, const CompilerOptions& options)
+    REQUIRES_SHARED(Locks::mutator_lock_) {
+  if (klass == nullptr) {
+    hasher->UpdateValue<uint8_t>(0u);
+    return;
+  }
+  std::string temp;
+  const char* descriptor = klass->GetDescriptor(&temp);
+  hasher->UpdateString(descriptor);
+  if (Runtime::Current()->GetHeap()->ObjectIsInBootImageSpace(klass)) {
+    // Boot image classes are covered by the boot class path checksums in the global key.
+    hasher->UpdateValue<uint8_t>(1u);
+    return;
+  }
+  hasher->UpdateValue<uint8_t>(2u);
+  hasher->UpdateValue(klass->GetStatus());
+  hasher->UpdateValue(klass->GetAccessFlags());
+  if (options.IsGeneratingImage()) {
+    hasher->UpdateValue<uint8_t>(options.IsImageClass(descriptor) ? 1u : 0u);
+  }
+  // The compiler can use the class hierarchy to remove or simplify type checks.
+  for (ObjPtr<mirror::Class> super_class = klass->GetSuperClass();
+       super_class != nullptr;
+       super_class = super_class->GetSuperClass()) {
+    hasher->UpdateString(super_class->GetDescriptor(&temp));
+  }
+  ObjPtr<mirror::IfTable> iftable = klass->GetIfTable();
+  for (int32_t i = 0, count = klass->GetIfTableCount(); i != count; ++i) {
+    hasher->UpdateString(iftable->GetInterface(i)->GetDescriptor(&temp));
+  }
+}
+
+void HashField(KeyHasher* hasher, ArtField* field, const CompilerOptions& options)
+    REQUIRES_SHARED(Locks::mutator_lock_) {
+  if (field == nullptr) {
+    hasher->UpdateValue<uint8_t>(0u);
+    return;
+  }
+  hasher->UpdateValue<uint8_t>(1u);
+  HashClass(hasher, field->GetDeclaringClass(), options);
+  hasher->UpdateString(field->GetName());
+  hasher->UpdateString(field->GetTypeDescriptor());
+  hasher->UpdateValue(field->GetAccessFlags());
+  hasher->UpdateValue(field->GetOffset().Uint32Value());
+  HashClass(hasher, field->LookupResolvedType(), options);
+}
+
+void HashMethod(KeyHasher* hasher, ArtMethod* method, const CompilerOptions& options)
+    REQUIRES_SHARED(Locks::mutator_lock_) {
+  if (method == nullptr) {
+    hasher->UpdateValue<uint8_t>(0u);
+    return;
+  }
+  hasher->UpdateValue<uint8_t>(1u);
+  HashClass(hasher, method->GetDeclaringClass(), options);
+  hasher->UpdateString(method->GetName());
+  hasher->UpdateString(method->GetSignature().ToString());
+  hasher->UpdateValue(method->GetAccessFlags() & kAccJavaFlagsMask);
+  hasher->UpdateValue<uint32_t>(method->IsIntrinsic() ? method->GetIntrinsic() : 0u);
+  hasher->UpdateValue(method->GetMethodIndexDuringLinking());
+  HashClass(hasher, method->LookupResolvedReturnType(), options);
+}
+
+bool NeedsThunk(linker::LinkerPatch::Type type) {
+  // These are the patch types that can have associated thunk code.
+  return type == linker::LinkerPatch::Type::kCallEntrypoint ||
+         type == linker::LinkerPatch::Type::kBakerReadBarrierBranch ||
+         type == linker::LinkerPatch::Type::kCallRelative;
+}
+
+void WriteMethodTarget(std::vector<uint8_t>* out, MethodReference target) {
+  const DexFile& dex_file = *target.dex_file;
+  const dex::MethodId& method_id = dex_file.GetMethodId(target.index);
+  WriteString(out, dex_file.GetLocation());
+  WriteString(out, dex_file.GetMethodDeclaringClassDescriptor(method_id));
+  WriteString(out, dex_file.GetMethodName(method_id));
+  WriteString(out, dex_file.GetMethodSignature(method_id).ToString());
+}
+
+void WritePatch(std::vector<uint8_t>* out, const linker::LinkerPatch& patch) {
+  using Type = linker::LinkerPatch::Type;
+  WriteU32(out, static_cast<uint32_t>(patch.GetType()));
+  WriteU32(out, patch.LiteralOffset());
+  switch (patch.GetType()) {
+    case Type::kIntrinsicReference:
+      WriteU32(out, patch.PcInsnOffset());
+      WriteU32(out, patch.IntrinsicData());
+      break;
+    case Type::kDataBimgRelRo:
+      WriteU32(out, patch.PcInsnOffset());
+      WriteU32(out, patch.BootImageOffset());
+      break;
+    case Type::kMethodRelative:
+    case Type::kMethodBssEntry:
+    case Type::kJniEntrypointRelative:
+      WriteU32(out, patch.PcInsnOffset());
+      WriteMethodTarget(out, patch.TargetMethod());
+      break;
+    case Type::kCallRelative:
+      WriteMethodTarget(out, patch.TargetMethod());
+      break;
+    case Type::kTypeRelative:
+    case Type::kTypeBssEntry:
+    case Type::kPublicTypeBssEntry:
+    case Type::kPackageTypeBssEntry:
+      WriteU32(out, patch.PcInsnOffset());
+      WriteString(out, patch.TargetTypeDexFile()->GetLocation());
+      WriteString(out, patch.TargetTypeDexFile()->StringByTypeIdx(patch.TargetTypeIndex()));
+      break;
+    case Type::kStringRelative:
+    case Type::kStringBssEntry:
+      WriteU32(out, patch.PcInsnOffset());
+      WriteString(out, patch.TargetStringDexFile()->GetLocation());
+      WriteString(out, patch.TargetStringDexFile()->GetStringView(patch.TargetStringIndex()));
+      break;
+    case Type::kCallEntrypoint:
+      WriteU32(out, patch.EntrypointOffset());
+      break;
+    case Type::kBakerReadBarrierBranch:
+      WriteU32(out, patch.GetBakerCustomValue1());
+      WriteU32(out, patch.GetBakerCustomValue2());
+      break;
+  }
+}
+
+// Returns the patch used to look up the thunk code of the given kind.
+linker::LinkerPatch GetThunkPatch(linker::LinkerPatch::Type type,
+                                  uint32_t value1,
+                                  uint32_t value2) {
+  using Type = linker::LinkerPatch::Type;
+  switch (type) {
+    case Type::kCallEntrypoint:
+      return linker::LinkerPatch::CallEntrypointPatch(/*literal_offset=*/ 0u, value1);
+    case Type::kBakerReadBarrierBranch:
+      return linker::LinkerPatch::BakerReadBarrierBranchPatch(
+          /*literal_offset=*/ 0u, value1, value2);
+    default:
+      DCHECK(type == Type::kCallRelative);
+      return linker::LinkerPatch::RelativeCodePatch(
+          /*literal_offset=*/ 0u, /*target_dex_file=*/ nullptr, /*target_method_idx=*/ 0u);
+  }
+}
+
+#if defined(__linux__)
+// Appends the GNU build IDs found in the notes of the loaded object described by `info`.
+int AppendBuildIds(dl_phdr_info* info, size_t size ATTRIBUTE_UNUSED, void* data) {
+  std::string* build_ids = reinterpret_cast<std::string*>(data);
+  for (ElfW(Half) i = 0; i != info->dlpi_phnum; ++i) {
+    const ElfW(Phdr)& phdr = info->dlpi_phdr[i];
+    if (phdr.p_type != PT_NOTE) {
+      continue;
+    }
+    const uint8_t* note = reinterpret_cast<const uint8_t*>(info->dlpi_addr + phdr.p_vaddr);
+    const uint8_t* end = note + phdr.p_memsz;
+    while (note + sizeof(ElfW(Nhdr)) <= end) {
+      const ElfW(Nhdr)* nhdr = reinterpret_cast<const ElfW(Nhdr)*>(note);
+      const uint8_t* name = note + sizeof(ElfW(Nhdr));
+      const uint8_t* desc = name + RoundUp(nhdr->n_namesz, 4u);
+      note = desc + RoundUp(nhdr->n_descsz, 4u);
+      if (note > end) {
+        break;
+      }
+      if (nhdr->n_type == NT_GNU_BUILD_ID &&
+          nhdr->n_namesz == 4u &&
+          memcmp(name, "GNU", 4u) == 0) {
+        for (size_t j = 0; j != nhdr->n_descsz; ++j) {
+          build_ids->append(StringPrintf("%02x", desc[j]));
+        }
+        build_ids->append(",");
+      }
+    }
+  }
+  return 0;
+}
+#endif
+
+// Returns the GNU build IDs of the loaded binaries, including the compiler and the runtime it
+// uses, or an empty string if they are not available. Code compiled by a different build of
+// the compiler is never reused, even if the oat version did not change.
+std::string GetCompilerBuildId() {
+  std::string build_ids;
+#if defined(__linux__)
+  dl_iterate_phdr(AppendBuildIds, &build_ids);
+#endif
+  return build_ids;
+}
+
+}  // anonymous namespace
+
+CompiledMethodCache::CompiledMethodCache(const CompilerOptions& compiler_options,
+                                         const std::string& environment_key)
+    : compiler_options_(compiler_options),
+      compiler_build_id_(GetCompilerBuildId()),
+      global_key_(StringPrintf("oat:%s build:%s options:%s %s",
+                               reinterpret_cast<const char*>(OatHeader::kOatVersion.data()),
+                               compiler_build_id_.c_str(),
+                               compiler_options.GetCodeGenerationKey().c_str(),
+                               environment_key.c_str())),
+      lock_("compiled method cache lock"),
+      hits_(0u),
+      misses_(0u) {}
+
+CompiledMethodCache::~CompiledMethodCache() {}
+
+void CompiledMethodCache::AddDexFiles(ArrayRef<const DexFile* const> dex_files) {
+  for (const DexFile* dex_file : dex_files) {
+    dex_files_.emplace(dex_file->GetLocation(), dex_file);
+  }
+}
+
+const DexFile* CompiledMethodCache::FindDexFile(const std::string& location) const {
+  auto it = dex_files_.find(location);
+  return (it != dex_files_.end()) ? it->second : nullptr;
+}
+
+bool CompiledMethodCache::Load(const std::string& filename, /*out*/ std::string* error_msg) {
+  std::unique_ptr<File> file(OS::OpenFileForReading(filename.c_str()));
+  if (file == nullptr) {
+    *error_msg = StringPrintf("Failed to open '%s'", filename.c_str());
+    return false;
+  }
+  return Load(file.get(), error_msg);
+}
+
+bool CompiledMethodCache::Load(File* file, /*out*/ std::string* error_msg) {
+  DCHECK(loaded_entries_.empty());
+  if (compiler_build_id_.empty()) {
+    // Without a build ID, we cannot tell whether the cache was created by this compiler.
+    *error_msg = "The compiler build cannot be identified";
+    return false;
+  }
+  const char* filename = file->GetPath().c_str();
+  int64_t length = file->GetLength();
+  if (length < 0) {
+    *error_msg = StringPrintf("Failed to get the length of '%s'", filename);
+    return false;
+  }
+  std::vector<uint8_t> data(static_cast<size_t>(length));
+  if (!file->PreadFully(data.data(), data.size(), /*offset=*/ 0)) {
+    *error_msg = StringPrintf("Failed to read '%s'", filename);
+    return false;
+  }
+
+  if (data.size() < sizeof(kCacheMagic) ||
+      memcmp(data.data(), kCacheMagic, sizeof(kCacheMagic)) != 0) {
+    *error_msg = StringPrintf("Invalid magic in '%s'", filename);
+    return false;
+  }
+  CacheReader reader(ArrayRef<const uint8_t>(data).SubArray(sizeof(kCacheMagic)));
+  uint32_t version;
+  std::string global_key;
+  uint32_t number_of_entries;
+  if (!reader.ReadU32(&version) || version != kCacheVersion) {
+    *error_msg = StringPrintf("Unsupported version of '%s'", filename);
+    return false;
+  }
+  if (!reader.ReadString(&global_key) || global_key != global_key_) {
+    *error_msg = StringPrintf("'%s' was created for a different configuration", filename);
+    return false;
+  }
+  if (!reader.ReadU32(&number_of_entries)) {
+    *error_msg = StringPrintf("Corrupt cache file '%s'", filename);
+    return false;
+  }
+  for (uint32_t i = 0; i != number_of_entries; ++i) {
+    std::string identity;
+    ArrayRef<const uint8_t> entry;
+    if (!reader.ReadString(&identity) || !reader.ReadBytes(&entry)) {
+      loaded_entries_.clear();
+      *error_msg = StringPrintf("Corrupt cache file '%s'", filename);
+      return false;
+    }
+    loaded_entries_.emplace(std::move(identity),
+                            std::vector<uint8_t>(entry.begin(), entry.end()));
+  }
+  if (!reader.IsAtEnd()) {
+    loaded_entries_.clear();
+    *error_msg = StringPrintf("Trailing data in cache file '%s'", filename);
+    return false;
+  }
+  return true;
+}
+
+std::vector<uint8_t> CompiledMethodCache::Serialize() {
+  std::vector<uint8_t> data(std::begin(kCacheMagic), std::end(kCacheMagic));
+  MutexLock mu(Thread::Current(), lock_);
+  WriteU32(&data, kCacheVersion);
+  WriteString(&data, global_key_);
+  WriteU32(&data, recorded_entries_.size());
+  for (const auto& [identity, entry] : recorded_entries_) {
+    WriteString(&data, identity);
+    WriteBytes(&data, ArrayRef<const uint8_t>(entry));
+  }
+  return data;
+}
+
+bool CompiledMethodCache::Save(const std::string& filename, /*out*/ std::string* error_msg) {
+  std::vector<uint8_t> data = Serialize();
+
+  // Write to a temporary file first, so that a failed write does not leave behind a truncated
+  // cache file.
+  std::string temp_filename = filename + ".tmp";
+  std::unique_ptr<File> file(OS::CreateEmptyFileWriteOnly(temp_filename.c_str()));
+  if (file == nullptr) {
+    *error_msg = StringPrintf("Failed to create '%s'", temp_filename.c_str());
+    return false;
+  }
+  if (!file->WriteFully(data.data(), data.size())) {
+    file->Erase(/*unlink=*/ true);
+    *error_msg = StringPrintf("Failed to write '%s'", temp_filename.c_str());
+    return false;
+  }
+  if (file->FlushCloseOrErase() != 0) {
+    *error_msg = StringPrintf("Failed to flush '%s'", temp_filename.c_str());
+    return false;
+  }
+  if (rename(temp_filename.c_str(), filename.c_str()) != 0) {
+    *error_msg = StringPrintf("Failed to rename '%s' to '%s': %s",
+                              temp_filename.c_str(),
+                              filename.c_str(),
+                              strerror(errno));
+    unlink(temp_filename.c_str());
+    return false;
+  }
+  return true;
+}
+
+bool CompiledMethodCache::Save(File* file, /*out*/ std::string* error_msg) {
+  std::vector<uint8_t> data = Serialize();
+  if (!file->WriteFully(data.data(), data.size()) || file->Flush() != 0) {
+    *error_msg = StringPrintf("Failed to write '%s'", file->GetPath().c_str());
+    return false;
+  }
+  return true;
+}
+
+uint64_t CompiledMethodCache::ComputeMethodKey(Thread* self, MethodReference method_ref) {
+  const DexFile& dex_file = *method_ref.dex_file;
+  ClassLinker* class_linker = Runtime::Current()->GetClassLinker();
+  if (!class_linker->IsDexFileRegistered(self, dex_file)) {
+    return kNoKey;
+  }
+  ObjPtr<mirror::DexCache> dex_cache = class_linker->FindDexCache(self, dex_file);
+  ObjPtr<mirror::ClassLoader> class_loader = dex_cache->GetClassLoader();
+  ArtMethod* method = class_linker->LookupResolvedMethod(method_ref.index, dex_cache, class_loader);
+  if (method == nullptr || method->IsNative() || method->IsAbstract()) {
+    return kNoKey;
+  }
+  CodeItemDataAccessor accessor(method->DexInstructionData());
+  if (!accessor.HasCodeItem()) {
+    return kNoKey;
+  }
+
+  KeyHasher hasher;
+  HashMethod(&hasher, method, compiler_options_);
+
+  hasher.UpdateValue(accessor.RegistersSize());
+  hasher.UpdateValue(accessor.InsSize());
+  hasher.UpdateValue(accessor.OutsSize());
+  hasher.UpdateValue(accessor.TriesSize());
+  hasher.UpdateValue(accessor.InsnsSizeInCodeUnits());
+  // The raw instructions include dex-file-wide indexes. This keeps the compiled code, which may
+  // embed some of these indexes, from being reused after the ids of the dex file changed.
+  hasher.Update(accessor.Insns(), accessor.InsnsSizeInCodeUnits() * sizeof(uint16_t));
+  for (const dex::TryItem& try_item : accessor.TryItems()) {
+    hasher.UpdateValue(try_item.start_addr_);
+    hasher.UpdateValue(try_item.insn_count_);
+    for (CatchHandlerIterator it(accessor, try_item); it.HasNext(); it.Next()) {
+      hasher.UpdateValue(it.GetHandlerAddress());
+      dex::TypeIndex type_index = it.GetHandlerTypeIndex();
+      if (type_index.IsValid()) {
+        hasher.UpdateString(dex_file.StringByTypeIdx(type_index));
+        HashClass(&hasher,
+                  class_linker->LookupResolvedType(type_index, dex_cache, class_loader),
+                  compiler_options_);
+      }
+    }
+  }
+
+  // Hash the identity of everything referenced by the instructions. The indexes hashed above do
+  // not cover what they refer to, which may be defined in other dex files and may have changed.
+  for (const DexInstructionPcPair& inst : accessor) {
+    Instruction::Code opcode = inst->Opcode();
+    if (Instruction::IndexTypeOf(opcode) == Instruction::kIndexNone) {
+      continue;
+    }
+    uint32_t index = (Instruction::FormatOf(opcode) == Instruction::k22c)
+        ? inst->VRegC()
+        : inst->VRegB();
+    switch (Instruction::IndexTypeOf(opcode)) {
+      case Instruction::kIndexTypeRef: {
+        dex::TypeIndex type_index(index);
+        hasher.UpdateString(dex_file.StringByTypeIdx(type_index));
+        HashClass(&hasher,
+                  class_linker->LookupResolvedType(type_index, dex_cache, class_loader),
+                  compiler_options_);
+        break;
+      }
+      case Instruction::kIndexStringRef:
+        hasher.UpdateString(dex_file.GetStringView(dex::StringIndex(index)));
+        break;
+      case Instruction::kIndexMethodRef:
+      case Instruction::kIndexMethodAndProtoRef: {
+        const dex::MethodId& method_id = dex_file.GetMethodId(index);
+        hasher.UpdateString(dex_file.GetMethodDeclaringClassDescriptor(method_id));
+        hasher.UpdateString(dex_file.GetMethodName(method_id));
+        hasher.UpdateString(dex_file.GetMethodSignature(method_id).ToString());
+        HashMethod(&hasher,
+                   class_linker->LookupResolvedMethod(index, dex_cache, class_loader),
+                   compiler_options_);
+        if (Instruction::IndexTypeOf(opcode) == Instruction::kIndexMethodAndProtoRef) {
+          const dex::ProtoId& proto_id = dex_file.GetProtoId(dex::ProtoIndex(inst->VRegH()));
+          hasher.UpdateString(dex_file.GetProtoSignature(proto_id).ToString());
+        }
+        break;
+      }
+      case Instruction::kIndexFieldRef: {
+        const dex::FieldId& field_id = dex_file.GetFieldId(index);
+        hasher.UpdateString(dex_file.GetFieldDeclaringClassDescriptor(field_id));
+        hasher.UpdateString(dex_file.GetFieldName(field_id));
+        hasher.UpdateString(dex_file.GetFieldTypeDescriptor(field_id));
+        bool is_static = (opcode >= Instruction::SGET && opcode <= Instruction::SPUT_SHORT);
+        HashField(&hasher,
+                  class_linker->LookupResolvedField(index, dex_cache, class_loader, is_static),
+                  compiler_options_);
+        break;
+      }
+      case Instruction::kIndexProtoRef: {
+        const dex::ProtoId& proto_id = dex_file.GetProtoId(dex::ProtoIndex(index));
+        hasher.UpdateString(dex_file.GetProtoSignature(proto_id).ToString());
+        break;
+      }
+      default:
+        // Call sites and method handles are not fingerprinted. Do not cache such methods.
+        return kNoKey;
+    }
+  }
+
+  const ProfileCompilationInfo* profile = compiler_options_.GetProfileCompilationInfo();
+  if (profile != nullptr) {
+    ProfileCompilationInfo::MethodHotness hotness = profile->GetMethodHotness(method_ref);
+    hasher.UpdateValue(hotness.GetFlags());
+    const ProfileCompilationInfo::InlineCacheMap* inline_caches = hotness.GetInlineCacheMap();
+    if (inline_caches != nullptr) {
+      for (const auto& [dex_pc, dex_pc_data] : *inline_caches) {
+        hasher.UpdateValue(dex_pc);
+        hasher.UpdateValue<uint8_t>(dex_pc_data.is_missing_types ? 1u : 0u);
+        hasher.UpdateValue<uint8_t>(dex_pc_data.is_megamorphic ? 1u : 0u);
+        for (dex::TypeIndex type_index : dex_pc_data.classes) {
+          hasher.UpdateString(profile->GetTypeDescriptor(&dex_file, type_index));
+        }
+      }
+    }
+  }
+  return hasher.GetKey();
+}
+
+CompiledMethod* CompiledMethodCache::Lookup(Thread* self,
+                                            MethodReference method_ref,
+                                            uint64_t key,
+                                            CompiledMethodStorage* storage,
+                                            /*out*/ std::vector<MethodReference>* inlined_methods) {
+  DCHECK(inlined_methods->empty());
+  auto it = (key != kNoKey) ? loaded_entries_.find(GetMethodIdentity(method_ref))
+                            : loaded_entries_.end();
+  if (it == loaded_entries_.end()) {
+    misses_.fetch_add(1u, std::memory_order_relaxed);
+    return nullptr;
+  }
+
+  auto miss = [&]() {
+    inlined_methods->clear();
+    misses_.fetch_add(1u, std::memory_order_relaxed);
+    return nullptr;
+  };
+
+  using Type = linker::LinkerPatch::Type;
+  CacheReader reader{ArrayRef<const uint8_t>(it->second)};
+  uint64_t cached_key;
+  uint32_t is_intrinsic;
+  ArrayRef<const uint8_t> code;
+  ArrayRef<const uint8_t> stack_map;
+  ArrayRef<const uint8_t> cfi;
+  uint32_t number_of_patches;
+  if (!reader.ReadU64(&cached_key) ||
+      cached_key != key ||
+      !reader.ReadU32(&is_intrinsic) ||
+      !reader.ReadBytes(&code) ||
+      !reader.ReadBytes(&stack_map) ||
+      !reader.ReadBytes(&cfi) ||
+      !reader.ReadU32(&number_of_patches)) {
+    return miss();
+  }
+
+  // Re-resolve the patch targets. The indexes may have changed if the dex files did.
+  auto read_method_target = [&](/*out*/ MethodReference* target) {
+    std::string location;
+    std::string descriptor;
+    std::string name;
+    std::string signature;
+    if (!reader.ReadString(&location) ||
+        !reader.ReadString(&descriptor) ||
+        !reader.ReadString(&name) ||
+        !reader.ReadString(&signature)) {
+      return false;
+    }
+    const DexFile* dex_file = FindDexFile(location);
+    if (dex_file == nullptr) {
+      return false;
+    }
+    const dex::TypeId* type_id = dex_file->FindTypeId(descriptor.c_str());
+    const dex::StringId* name_id = dex_file->FindStringId(name.c_str());
+    dex::TypeIndex return_type_idx;
+    std::vector<dex::TypeIndex> param_type_idxs;
+    if (type_id == nullptr ||
+        name_id == nullptr ||
+        !dex_file->CreateTypeList(signature, &return_type_idx, &param_type_idxs)) {
+      return false;
+    }
+    const dex::ProtoId* proto_id = dex_file->FindProtoId(return_type_idx, param_type_idxs);
+    if (proto_id == nullptr) {
+      return false;
+    }
+    const dex::MethodId* method_id = dex_file->FindMethodId(*type_id, *name_id, *proto_id);
+    if (method_id == nullptr) {
+      return false;
+    }
+    *target = MethodReference(dex_file, dex_file->GetIndexForMethodId(*method_id));
+    return true;
+  };
+  auto read_location_and_string = [&](/*out*/ const DexFile** dex_file,
+                                      /*out*/ std::string* str) {
+    std::string location;
+    if (!reader.ReadString(&location) || !reader.ReadString(str)) {
+      return false;
+    }
+    *dex_file = FindDexFile(location);
+    return *dex_file != nullptr;
+  };
+
+  std::vector<linker::LinkerPatch> patches;
+  patches.reserve(number_of_patches);
+  for (uint32_t i = 0; i != number_of_patches; ++i) {
+    uint32_t type;
+    uint32_t literal_offset;
+    if (!reader.ReadU32(&type) ||
+        type > static_cast<uint32_t>(Type::kBakerReadBarrierBranch) ||
+        !reader.ReadU32(&literal_offset) ||
+        literal_offset >= code.size()) {
+      return miss();
+    }
+    uint32_t pc_insn_offset = 0u;
+    uint32_t value = 0u;
+    MethodReference target_method(nullptr, 0u);
+    const DexFile* target_dex_file = nullptr;
+    std::string target_string;
+    switch (static_cast<Type>(type)) {
+      case Type::kIntrinsicReference:
+        if (!reader.ReadU32(&pc_insn_offset) || !reader.ReadU32(&value)) {
+          return miss();
+        }
+        patches.push_back(linker::LinkerPatch::IntrinsicReferencePatch(
+            literal_offset, pc_insn_offset, value));
+        break;
+      case Type::kDataBimgRelRo:
+        if (!reader.ReadU32(&pc_insn_offset) || !reader.ReadU32(&value)) {
+          return miss();
+        }
+        patches.push_back(linker::LinkerPatch::DataBimgRelRoPatch(
+            literal_offset, pc_insn_offset, value));
+        break;
+      case Type::kMethodRelative:
+      case Type::kMethodBssEntry:
+      case Type::kJniEntrypointRelative:
+        if (!reader.ReadU32(&pc_insn_offset) || !read_method_target(&target_method)) {
+          return miss();
+        }
+        if (static_cast<Type>(type) == Type::kMethodRelative) {
+          patches.push_back(linker::LinkerPatch::RelativeMethodPatch(
+              literal_offset, target_method.dex_file, pc_insn_offset, target_method.index));
+        } else if (static_cast<Type>(type) == Type::kMethodBssEntry) {
+          patches.push_back(linker::LinkerPatch::MethodBssEntryPatch(
+              literal_offset, target_method.dex_file, pc_insn_offset, target_method.index));
+        } else {
+          patches.push_back(linker::LinkerPatch::RelativeJniEntrypointPatch(
+              literal_offset, target_method.dex_file, pc_insn_offset, target_method.index));
+        }
+        break;
+      case Type::kCallRelative:
+        if (!read_method_target(&target_method)) {
+          return miss();
+        }
+        patches.push_back(linker::LinkerPatch::RelativeCodePatch(
+            literal_offset, target_method.dex_file, target_method.index));
+        break;
+      case Type::kTypeRelative:
+      case Type::kTypeBssEntry:
+      case Type::kPublicTypeBssEntry:
+      case Type::kPackageTypeBssEntry: {
+        if (!reader.ReadU32(&pc_insn_offset) ||
+            !read_location_and_string(&target_dex_file, &target_string)) {
+          return miss();
+        }
+        const dex::TypeId* type_id = target_dex_file->FindTypeId(target_string.c_str());
+        if (type_id == nullptr) {
+          return miss();
+        }
+        uint32_t type_idx = target_dex_file->GetIndexForTypeId(*type_id).index_;
+        if (static_cast<Type>(type) == Type::kTypeRelative) {
+          patches.push_back(linker::LinkerPatch::RelativeTypePatch(
+              literal_offset, target_dex_file, pc_insn_offset, type_idx));
+        } else if (static_cast<Type>(type) == Type::kTypeBssEntry) {
+          patches.push_back(linker::LinkerPatch::TypeBssEntryPatch(
+              literal_offset, target_dex_file, pc_insn_offset, type_idx));
+        } else if (static_cast<Type>(type) == Type::kPublicTypeBssEntry) {
+          patches.push_back(linker::LinkerPatch::PublicTypeBssEntryPatch(
+              literal_offset, target_dex_file, pc_insn_offset, type_idx));
+        } else {
+          patches.push_back(linker::LinkerPatch::PackageTypeBssEntryPatch(
+              literal_offset, target_dex_file, pc_insn_offset, type_idx));
+        }
+        break;
+      }
+      case Type::kStringRelative:
+      case Type::kStringBssEntry: {
+        if (!reader.ReadU32(&pc_insn_offset) ||
+            !read_location_and_string(&target_dex_file, &target_string)) {
+          return miss();
+        }
+        const dex::StringId* string_id = target_dex_file->FindStringId(target_string.c_str());
+        if (string_id == nullptr) {
+          return miss();
+        }
+        uint32_t string_idx = target_dex_file->GetIndexForStringId(*string_id).index_;
+        if (static_cast<Type>(type) == Type::kStringRelative) {
+          patches.push_back(linker::LinkerPatch::RelativeStringPatch(
+              literal_offset, target_dex_file, pc_insn_offset, string_idx));
+        } else {
+          patches.push_back(linker::LinkerPatch::StringBssEntryPatch(
+              literal_offset, target_dex_file, pc_insn_offset, string_idx));
+        }
+        break;
+      }
+      case Type::kCallEntrypoint:
+        if (!reader.ReadU32(&value)) {
+          return miss();
+        }
+        patches.push_back(linker::LinkerPatch::CallEntrypointPatch(literal_offset, value));
+        break;
+      case Type::kBakerReadBarrierBranch: {
+        uint32_t value2;
+        if (!reader.ReadU32(&value) || !reader.ReadU32(&value2)) {
+          return miss();
+        }
+        patches.push_back(
+            linker::LinkerPatch::BakerReadBarrierBranchPatch(literal_offset, value, value2));
+        break;
+      }
+    }
+  }
+
+  // The code info refers to inlined methods by their index, so the inlined methods must keep
+  // both their index and their key.
+  uint32_t number_of_inlined_methods;
+  if (!reader.ReadU32(&number_of_inlined_methods)) {
+    return miss();
+  }
+  for (uint32_t i = 0; i != number_of_inlined_methods; ++i) {
+    std::string location;
+    uint32_t method_index;
+    uint64_t inlined_key;
+    if (!reader.ReadString(&location) ||
+        !reader.ReadU32(&method_index) ||
+        !reader.ReadU64(&inlined_key)) {
+      return miss();
+    }
+    const DexFile* dex_file = FindDexFile(location);
+    if (dex_file == nullptr || method_index >= dex_file->NumMethodIds()) {
+      return miss();
+    }
+    MethodReference inlined_method(dex_file, method_index);
+    if (ComputeMethodKey(self, inlined_method) != inlined_key) {
+      return miss();
+    }
+    inlined_methods->push_back(inlined_method);
+  }
+
+  // Read the thunks before creating the compiled method, so that we do not need to release it
+  // if the data is corrupt.
+  struct Thunk {
+    linker::LinkerPatch patch;
+    std::string debug_name;
+    ArrayRef<const uint8_t> code;
+  };
+  std::vector<Thunk> thunks;
+  uint32_t number_of_thunks;
+  if (!reader.ReadU32(&number_of_thunks)) {
+    return miss();
+  }
+  for (uint32_t i = 0; i != number_of_thunks; ++i) {
+    uint32_t type;
+    uint32_t value1;
+    uint32_t value2;
+    std::string debug_name;
+    ArrayRef<const uint8_t> thunk_code;
+    if (!reader.ReadU32(&type) ||
+        type > static_cast<uint32_t>(Type::kBakerReadBarrierBranch) ||
+        !NeedsThunk(static_cast<Type>(type)) ||
+        !reader.ReadU32(&value1) ||
+        !reader.ReadU32(&value2) ||
+        !reader.ReadString(&debug_name) ||
+        !reader.ReadBytes(&thunk_code) ||
+        thunk_code.empty()) {
+      return miss();
+    }
+    thunks.push_back(
+        {GetThunkPatch(static_cast<Type>(type), value1, value2), debug_name, thunk_code});
+  }
+  if (!reader.IsAtEnd()) {
+    return miss();
+  }
+
+  for (const Thunk& thunk : thunks) {
+    if (storage->GetThunkCode(thunk.patch).empty()) {
+      storage->SetThunkCode(thunk.patch, thunk.code, thunk.debug_name);
+    }
+  }
+  hits_.fetch_add(1u, std::memory_order_relaxed);
+  return storage->CreateCompiledMethod(compiler_options_.GetInstructionSet(),
+                                       code,
+                                       stack_map,
+                                       cfi,
+                                       ArrayRef<const linker::LinkerPatch>(patches),
+                                       is_intrinsic != 0u);
+}
+
+void CompiledMethodCache::Record(Thread* self,
+                                 MethodReference method_ref,
+                                 uint64_t key,
+                                 const CompiledMethod* compiled_method,
+                                 ArrayRef<const MethodReference> inlined_methods,
+                                 CompiledMethodStorage* storage) {
+  if (key == kNoKey) {
+    return;
+  }
+  // Compute the inlined method keys now. When compiling dex files individually, their class
+  // loader is unloaded before the cache is saved.
+  std::vector<uint64_t> inlined_keys;
+  inlined_keys.reserve(inlined_methods.size());
+  for (MethodReference inlined_method : inlined_methods) {
+    uint64_t inlined_key = ComputeMethodKey(self, inlined_method);
+    if (inlined_key == kNoKey) {
+      return;
+    }
+    inlined_keys.push_back(inlined_key);
+  }
+
+  std::vector<uint8_t> entry;
+  WriteU64(&entry, key);
+  WriteU32(&entry, compiled_method->IsIntrinsic() ? 1u : 0u);
+  WriteBytes(&entry, compiled_method->GetQuickCode());
+  WriteBytes(&entry, compiled_method->GetVmapTable());
+  WriteBytes(&entry, compiled_method->GetCFIInfo());
+  ArrayRef<const linker::LinkerPatch> patches = compiled_method->GetPatches();
+  WriteU32(&entry, patches.size());
+  for (const linker::LinkerPatch& patch : patches) {
+    WritePatch(&entry, patch);
+  }
+  WriteU32(&entry, inlined_methods.size());
+  for (size_t i = 0; i != inlined_methods.size(); ++i) {
+    WriteString(&entry, inlined_methods[i].dex_file->GetLocation());
+    WriteU32(&entry, inlined_methods[i].index);
+    WriteU64(&entry, inlined_keys[i]);
+  }
+
+  // Record the thunks needed by the patches. The method may be reused by a compilation that
+  // does not compile any other method needing the same thunks.
+  std::vector<uint8_t> thunks;
+  uint32_t number_of_thunks = 0u;
+  std::set<std::tuple<linker::LinkerPatch::Type, uint32_t, uint32_t>> seen_thunks;
+  for (const linker::LinkerPatch& patch : patches) {
+    if (!NeedsThunk(patch.GetType())) {
+      continue;
+    }
+    uint32_t value1 = 0u;
+    uint32_t value2 = 0u;
+    if (patch.GetType() == linker::LinkerPatch::Type::kCallEntrypoint) {
+      value1 = patch.EntrypointOffset();
+    } else if (patch.GetType() == linker::LinkerPatch::Type::kBakerReadBarrierBranch) {
+      value1 = patch.GetBakerCustomValue1();
+      value2 = patch.GetBakerCustomValue2();
+    }
+    linker::LinkerPatch thunk_patch = GetThunkPatch(patch.GetType(), value1, value2);
+    std::string debug_name;
+    ArrayRef<const uint8_t> thunk_code = storage->GetThunkCode(thunk_patch, &debug_name);
+    if (thunk_code.empty() || !seen_thunks.emplace(patch.GetType(), value1, value2).second) {
+      continue;
+    }
+    WriteU32(&thunks, static_cast<uint32_t>(patch.GetType()));
+    WriteU32(&thunks, value1);
+    WriteU32(&thunks, value2);
+    WriteString(&thunks, debug_name);
+    WriteBytes(&thunks, thunk_code);
+    ++number_of_thunks;
+  }
+  WriteU32(&entry, number_of_thunks);
+  entry.insert(entry.end(), thunks.begin(), thunks.end());
+
+  std::string identity = GetMethodIdentity(method_ref);
+  MutexLock mu(self, lock_);
+  recorded_entries_.insert_or_assign(std::move(identity), std::move(entry));
+}
+
+}  // namespace art
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef ART_DEX2OAT_DRIVER_COMPILED_METHOD_CACHE_H_
+#define ART_DEX2OAT_DRIVER_COMPILED_METHOD_CACHE_H_
+
+#include <atomic>
+#include <map>
+#include <string>
+#include <unordered_map>
+#include <vector>
+
+#include "base/array_ref.h"
+#include "base/locks.h"
+#include "base/macros.h"
+#include "base/mutex.h"
+#include "base/os.h"
+#include "dex/method_reference.h"
+
+namespace art {
+
+class CompiledMethod;
+class CompiledMethodStorage;
+class CompilerOptions;
+class DexFile;
+class Thread;
+
+// A cache of compiled methods that is kept across dex2oat invocations, so that compiling a dex
+// file again only compiles the methods whose compiled code may have changed.
+//
+// Each cached method is keyed by a fingerprint of everything its compiled code depends on: the
+// code item, the resolved identity of every type, field, method and string it references, the
+// profile data for the method and the fingerprints of all methods inlined into it. Inputs that
+// affect all methods, such as the instruction set features, the compiler options and the boot
+// class path, are covered by a global key and a mismatch of the global key invalidates the whole
+// cache. The fingerprints are conservative; any change that may affect the generated code leads
+// to a recompilation of the method.
+//
+// The code item is fingerprinted with the raw type, string, field, method and proto indexes of
+// its instructions, since the compiled code embeds some of them too (for example, in the
+// arguments of runtime calls and in the inline info of stack maps). These indexes are assigned
+// dex-file-wide, so any change that adds or removes an id in a dex file usually changes the
+// fingerprint of most methods in it. In practice, methods are only reused from dex files whose
+// id tables did not change, such as the unchanged dex files of a multidex application; they
+// still see the changes to the other dex files through the resolved identities.
+class CompiledMethodCache {
+ public:
+  // Key value of methods that cannot be cached.
+  static constexpr uint64_t kNoKey = 0u;
+
+  // The `environment_key` describes the compilation environment not captured by the
+  // `compiler_options`, such as the boot class path checksums and the class loader context.
+  CompiledMethodCache(const CompilerOptions& compiler_options, const std::string& environment_key);
+  ~CompiledMethodCache();
+
+  // Makes the `dex_files` available for resolving method and patch targets found in the cache.
+  // Must be called before any lookup.
+  void AddDexFiles(ArrayRef<const DexFile* const> dex_files);
+
+  // Loads the cached methods from `filename`. Returns false and leaves the cache empty if the
+  // file cannot be read, is corrupt or was created with a different global key.
+  bool Load(const std::string& filename, /*out*/ std::string* error_msg);
+  bool Load(File* file, /*out*/ std::string* error_msg);
+
+  // Writes all methods passed to `Record()` to `filename`, replacing it atomically, or to the
+  // empty `file`.
+  bool Save(const std::string& filename, /*out*/ std::string* error_msg) REQUIRES(!lock_);
+  bool Save(File* file, /*out*/ std::string* error_msg) REQUIRES(!lock_);
+
+  // Computes the key of the given method. Returns `kNoKey` if the method cannot be cached.
+  uint64_t ComputeMethodKey(Thread* self, MethodReference method_ref)
+      REQUIRES_SHARED(Locks::mutator_lock_);
+
+  // Returns the compiled method re-created from the cached data for `method_ref` if the cached
+  // data is valid for the given `key`, null otherwise. On success, the methods inlined into the
+  // cached code are stored in `inlined_methods`.
+  CompiledMethod* Lookup(Thread* self,
+                         MethodReference method_ref,
+                         uint64_t key,
+                         CompiledMethodStorage* storage,
+                         /*out*/ std::vector<MethodReference>* inlined_methods)
+      REQUIRES_SHARED(Locks::mutator_lock_);
+
+  // Records the `compiled_method` produced for `method_ref` to be written by `Save()`.
+  void Record(Thread* self,
+              MethodReference method_ref,
+              uint64_t key,
+              const CompiledMethod* compiled_method,
+              ArrayRef<const MethodReference> inlined_methods,
+              CompiledMethodStorage* storage)
+      REQUIRES_SHARED(Locks::mutator_lock_) REQUIRES(!lock_);
+
+  size_t GetNumberOfHits() const {
+    return hits_.load(std::memory_order_relaxed);
+  }
+
+  size_t GetNumberOfMisses() const {
+    return misses_.load(std::memory_order_relaxed);
+  }
+
+ private:
+  std::vector<uint8_t> Serialize() REQUIRES(!lock_);
+
+  const DexFile* FindDexFile(const std::string& location) const;
+
+  const CompilerOptions& compiler_options_;
+
+  // Identifies the build of the compiler, see `GetCompilerBuildId()`. Empty if unknown, in which
+  // case no cache file is loaded.
+  const std::string compiler_build_id_;
+
+  // Describes everything that affects the code of all methods: the oat version, the compiler
+  // build, the compiler options and the compilation environment.
+  const std::string global_key_;
+
+  // Dex files available for resolving references, indexed by location.
+  std::unordered_map<std::string, const DexFile*> dex_files_;
+
+  // Serialized entries loaded from the cache file, indexed by method identity. Entries are only
+  // decoded on lookup. Not modified after `Load()`.
+  std::unordered_map<std::string, std::vector<uint8_t>> loaded_entries_;
+
+  // Serialized entries to write to the new cache file, indexed by method identity. Ordered so
+  // that the output does not depend on the order of compilation.
+  Mutex lock_;
+  std::map<std::string, std::vector<uint8_t>> recorded_entries_ GUARDED_BY(lock_);
+
+  std::atomic<size_t> hits_;
+  std::atomic<size_t> misses_;
+
+  DISALLOW_COPY_AND_ASSIGN(CompiledMethodCache);
+};
+
+}  // namespace art
+
+#endif  // ART_DEX2OAT_DRIVER_COMPILED_METHOD_CACHE_H_
@@ -154,7 +154,9 @@ CompiledMethodStorage::CompiledMethodStorage(int swap_fd)
       dedupe_linker_patches_("dedupe cfi info",
                              LengthPrefixedArrayAlloc<linker::LinkerPatch>(swap_space_.get())),
       thunk_map_lock_("thunk_map_lock"),
-      thunk_map_(std::less<ThunkMapKey>(), SwapAllocator<ThunkMapValueType>(swap_space_.get())) {
+      thunk_map_(std::less<ThunkMapKey>(), SwapAllocator<ThunkMapValueType>(swap_space_.get())),
+      record_inlined_methods_(false),
+      inlined_methods_lock_("inlined_methods_lock") {
 }
 
 CompiledMethodStorage::~CompiledMethodStorage() {
@@ -300,4 +302,26 @@ void CompiledMethodStorage::SetThunkCode(const linker::LinkerPatch& linker_patch
   thunk_map_.emplace(key, std::move(value));
 }
 
+void CompiledMethodStorage::SetInlinedMethods(CompiledMethod* compiled_method,
+                                              ArrayRef<const MethodReference> inlined_methods) {
+  if (!record_inlined_methods_) {
+    return;
+  }
+  DCHECK(compiled_method != nullptr);
+  MutexLock lock(Thread::Current(), inlined_methods_lock_);
+  inlined_methods_[compiled_method].assign(inlined_methods.begin(), inlined_methods.end());
+}
+
+std::vector<MethodReference> CompiledMethodStorage::TakeInlinedMethods(
+    CompiledMethod* compiled_method) {
+  std::vector<MethodReference> result;
+  MutexLock lock(Thread::Current(), inlined_methods_lock_);
+  auto it = inlined_methods_.find(compiled_method);
+  if (it != inlined_methods_.end()) {
+    result = std::move(it->second);
+    inlined_methods_.erase(it);
+  }
+  return result;
+}
+
 }  // namespace art
@@ -20,10 +20,14 @@
 #include <iosfwd>
 #include <map>
 #include <memory>
+#include <unordered_map>
+#include <vector>
 
 #include "base/array_ref.h"
 #include "base/length_prefixed_array.h"
 #include "base/macros.h"
+#include "base/mutex.h"
+#include "dex/method_reference.h"
 #include "driver/compiled_code_storage.h"
 #include "utils/dedupe_set.h"
 #include "utils/swap_space.h"
@@ -88,6 +92,17 @@ class CompiledMethodStorage final : public CompiledCodeStorage {
                     ArrayRef<const uint8_t> code,
                     const std::string& debug_name) override;
 
+  // Enables recording of the inlined methods reported by the compiler, see `TakeInlinedMethods()`.
+  void SetRecordInlinedMethods(bool record_inlined_methods) {
+    record_inlined_methods_ = record_inlined_methods;
+  }
+
+  void SetInlinedMethods(CompiledMethod* compiled_method,
+                         ArrayRef<const MethodReference> inlined_methods) override;
+
+  // Returns the inlined methods recorded for `compiled_method` and forgets them.
+  std::vector<MethodReference> TakeInlinedMethods(CompiledMethod* compiled_method);
+
  private:
   class ThunkMapKey;
   class ThunkMapValue;
@@ -136,6 +151,11 @@ class CompiledMethodStorage final : public CompiledCodeStorage {
   Mutex thunk_map_lock_;
   ThunkMap thunk_map_ GUARDED_BY(thunk_map_lock_);
 
+  bool record_inlined_methods_;
+  Mutex inlined_methods_lock_;
+  std::unordered_map<const CompiledMethod*, std::vector<MethodReference>> inlined_methods_
+      GUARDED_BY(inlined_methods_lock_);
+
   DISALLOW_COPY_AND_ASSIGN(CompiledMethodStorage);
 };
 
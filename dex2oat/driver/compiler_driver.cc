@@ -44,6 +44,7 @@
 #include "base/timing_logger.h"
 #include "class_linker-inl.h"
 #include "compiled_method-inl.h"
+#include "compiled_method_cache.h"
 #include "compiler.h"
 #include "compiler_callbacks.h"
 #include "compiler_driver-inl.h"
@@ -266,6 +267,7 @@ CompilerDriver::CompilerDriver(
       parallel_thread_count_(thread_count),
       stats_(new AOTCompilationStats),
       compiled_method_storage_(swap_fd),
+      compiled_method_cache_(nullptr),
       max_arena_alloc_(0) {
   DCHECK(compiler_options_ != nullptr);
 
@@ -460,7 +462,7 @@ static void CompileMethodQuick(
     Handle<mirror::DexCache> dex_cache,
     ProfileCompilationInfo::ProfileIndexType profile_index) {
   auto quick_fn = [profile_index](
-      Thread* self ATTRIBUTE_UNUSED,
+      Thread* self,
       CompilerDriver* driver,
       const dex::CodeItem* code_item,
       uint32_t access_flags,
@@ -508,15 +510,39 @@ static void CompileMethodQuick(
       compile = compile && ShouldCompileBasedOnProfile(compiler_options, profile_index, method_ref);
 
       if (compile) {
-        // NOTE: if compiler declines to compile this method, it will return null.
-        compiled_method = driver->GetCompiler()->Compile(code_item,
-                                                         access_flags,
-                                                         invoke_type,
-                                                         class_def_idx,
-                                                         method_idx,
-                                                         class_loader,
-                                                         dex_file,
-                                                         dex_cache);
+        CompiledMethodCache* cache = driver->GetCompiledMethodCache();
+        uint64_t cache_key = CompiledMethodCache::kNoKey;
+        std::vector<MethodReference> inlined_methods;
+        if (cache != nullptr) {
+          ScopedObjectAccess soa(self);
+          cache_key = cache->ComputeMethodKey(self, method_ref);
+          compiled_method = cache->Lookup(
+              self, method_ref, cache_key, driver->GetCompiledMethodStorage(), &inlined_methods);
+        }
+        if (compiled_method == nullptr) {
+          // NOTE: if compiler declines to compile this method, it will return null.
+          compiled_method = driver->GetCompiler()->Compile(code_item,
+                                                           access_flags,
+                                                           invoke_type,
+                                                           class_def_idx,
+                                                           method_idx,
+                                                           class_loader,
+                                                           dex_file,
+                                                           dex_cache);
+          if (cache != nullptr && compiled_method != nullptr) {
+            inlined_methods =
+                driver->GetCompiledMethodStorage()->TakeInlinedMethods(compiled_method);
+          }
+        }
+        if (cache != nullptr && compiled_method != nullptr) {
+          ScopedObjectAccess soa(self);
+          cache->Record(self,
+                        method_ref,
+                        cache_key,
+                        compiled_method,
+                        ArrayRef<const MethodReference>(inlined_methods),
+                        driver->GetCompiledMethodStorage());
+        }
         ProfileMethodsCheck check_type = compiler_options.CheckProfiledMethodsCompiled();
         if (UNLIKELY(check_type != ProfileMethodsCheck::kNone)) {
           DCHECK(ShouldCompileBasedOnProfile(compiler_options, profile_index, method_ref));
@@ -1430,8 +1456,7 @@ class ParallelCompilationManager {
                              const DexFile* dex_file,
                              const std::vector<const DexFile*>& dex_files,
                              ThreadPool* thread_pool)
-    : index_(0),
-      class_linker_(class_linker),
+    : class_linker_(class_linker),
       class_loader_(class_loader),
       compiler_(compiler),
       dex_file_(dex_file),
@@ -1473,9 +1498,10 @@ class ParallelCompilationManager {
     self->AssertNoPendingException();
     CHECK_GT(work_units, 0U);
 
-    index_.store(begin, std::memory_order_relaxed);
+    // Each task starts with its own slice of the range and steals from the others once done.
+    RangeSplitter range_splitter(begin, end, work_units);
     for (size_t i = 0; i < work_units; ++i) {
-      thread_pool_->AddTask(self, new ForAllClosureLambda<Fn>(this, end, fn));
+      thread_pool_->AddTask(self, new ForAllClosureLambda<Fn>(&range_splitter, i, fn));
     }
     thread_pool_->StartWorkers(self);
 
@@ -1490,25 +1516,18 @@ class ParallelCompilationManager {
     thread_pool_->StopWorkers(self);
   }
 
-  size_t NextIndex() {
-    return index_.fetch_add(1, std::memory_order_seq_cst);
-  }
-
  private:
   template <typename Fn>
   class ForAllClosureLambda : public Task {
    public:
-    ForAllClosureLambda(ParallelCompilationManager* manager, size_t end, Fn fn)
-        : manager_(manager),
-          end_(end),
+    ForAllClosureLambda(RangeSplitter* range_splitter, size_t participant, Fn fn)
+        : range_splitter_(range_splitter),
+          participant_(participant),
           fn_(fn) {}
 
     void Run(Thread* self) override {
-      while (true) {
-        const size_t index = manager_->NextIndex();
-        if (UNLIKELY(index >= end_)) {
-          break;
-        }
+      size_t index;
+      while (range_splitter_->Next(participant_, &index)) {
         fn_(index);
         self->AssertNoPendingException();
       }
@@ -1519,12 +1538,11 @@ class ParallelCompilationManager {
     }
 
    private:
-    ParallelCompilationManager* const manager_;
-    const size_t end_;
+    RangeSplitter* const range_splitter_;
+    const size_t participant_;
     Fn fn_;
   };
 
-  AtomicInteger index_;
   ClassLinker* const class_linker_;
   const jobject class_loader_;
   CompilerDriver* const compiler_;
@@ -2791,7 +2809,7 @@ std::string CompilerDriver::GetMemoryUsageString(bool extended) const {
 void CompilerDriver::InitializeThreadPools() {
   size_t parallel_count = parallel_thread_count_ > 0 ? parallel_thread_count_ - 1 : 0;
   parallel_thread_pool_.reset(
-      new ThreadPool("Compiler driver thread pool", parallel_count));
+      ThreadPool::CreateForParallelWork("Compiler driver thread pool", parallel_count));
   single_thread_pool_.reset(new ThreadPool("Single-threaded Compiler driver thread pool", 0));
 }
 
@@ -59,6 +59,7 @@ class VerifierDepsTest;
 class ArtField;
 class BitVector;
 class CompiledMethod;
+class CompiledMethodCache;
 class CompilerOptions;
 class DexCompilationUnit;
 class DexFile;
@@ -226,6 +227,17 @@ class CompilerDriver {
     return &compiled_method_storage_;
   }
 
+  // Sets the cache used to reuse methods compiled by a previous dex2oat invocation and to record
+  // the compiled methods for the next one. The cache is not owned by the driver.
+  void SetCompiledMethodCache(CompiledMethodCache* cache) {
+    compiled_method_cache_ = cache;
+    compiled_method_storage_.SetRecordInlinedMethods(cache != nullptr);
+  }
+
+  CompiledMethodCache* GetCompiledMethodCache() const {
+    return compiled_method_cache_;
+  }
+
  private:
   void LoadImageClasses(TimingLogger* timings, /*inout*/ HashSet<std::string>* image_classes)
       REQUIRES(!Locks::mutator_lock_);
@@ -332,6 +344,8 @@ class CompilerDriver {
 
   CompiledMethodStorage compiled_method_storage_;
 
+  CompiledMethodCache* compiled_method_cache_;
+
   size_t max_arena_alloc_;
 
   friend class CommonCompilerDriverTest;
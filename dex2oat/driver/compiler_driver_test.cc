@@ -19,14 +19,19 @@
 #include <limits>
 #include <stdint.h>
 #include <stdio.h>
+#include <map>
 #include <memory>
 
 #include "art_method-inl.h"
 #include "base/casts.h"
+#include "base/stl_util.h"
+#include "base/time_utils.h"
 #include "class_linker-inl.h"
 #include "common_compiler_driver_test.h"
 #include "compiled_method-inl.h"
+#include "compiled_method_cache.h"
 #include "compiler_callbacks.h"
+#include "dex/art_dex_file_loader.h"
 #include "dex/dex_file.h"
 #include "dex/dex_file_types.h"
 #include "gc/heap.h"
@@ -362,6 +367,275 @@ TEST_F(CompilerDriverVerifyTest, RetryVerifcationStatusCheckVerified) {
   }
 }
 
+class CompilerDriverCacheTest : public CompilerDriverTest {
+ protected:
+  std::map<MethodReference, std::vector<uint8_t>> GetCompiledCode(
+      const std::vector<const DexFile*>& dex_files) {
+    std::map<MethodReference, std::vector<uint8_t>> result;
+    for (const DexFile* dex_file : dex_files) {
+      for (uint32_t method_idx = 0; method_idx != dex_file->NumMethodIds(); ++method_idx) {
+        MethodReference method_ref(dex_file, method_idx);
+        const CompiledMethod* compiled_method = compiler_driver_->GetCompiledMethod(method_ref);
+        if (compiled_method != nullptr) {
+          ArrayRef<const uint8_t> code = compiled_method->GetQuickCode();
+          result.emplace(method_ref, std::vector<uint8_t>(code.begin(), code.end()));
+        }
+      }
+    }
+    return result;
+  }
+
+  // Compiles the `dex_files` with a new compiler driver that uses the `cache`, if any.
+  void CompileWithCache(jobject class_loader,
+                        const std::vector<const DexFile*>& dex_files,
+                        CompiledMethodCache* cache) {
+    CreateCompilerDriver();
+    compiler_driver_->SetCompiledMethodCache(cache);
+    TimingLogger timings("CompilerDriverCacheTest::CompileWithCache", false, false);
+    CompileAll(class_loader, dex_files, &timings);
+  }
+
+  // Compiles the `dex_files` and saves all compiled methods to the `cache_file`.
+  void CreateCache(jobject class_loader,
+                   const std::vector<const DexFile*>& dex_files,
+                   const ScratchFile& cache_file) {
+    CompiledMethodCache cache(*compiler_options_, /*environment_key=*/ "");
+    cache.AddDexFiles(ArrayRef<const DexFile* const>(dex_files));
+    CompileWithCache(class_loader, dex_files, &cache);
+    std::string error_msg;
+    ASSERT_TRUE(cache.Save(cache_file.GetFilename(), &error_msg)) << error_msg;
+  }
+
+  // Loads the dex files of the test dex `dex_name` as if they were at the location of the test
+  // dex `location_dex_name`, as they are after an app update.
+  jobject LoadDexAs(const char* dex_name, const char* location_dex_name) {
+    std::string filename = GetTestDexFileName(dex_name);
+    ArtDexFileLoader dex_file_loader(filename.c_str(), GetTestDexFileName(location_dex_name));
+    std::vector<std::unique_ptr<const DexFile>> dex_files;
+    std::string error_msg;
+    CHECK(dex_file_loader.Open(
+        /*verify=*/ true, /*verify_checksum=*/ true, &error_msg, &dex_files)) << error_msg;
+    std::vector<const DexFile*> class_path;
+    for (std::unique_ptr<const DexFile>& dex_file : dex_files) {
+      class_path.push_back(dex_file.get());
+      loaded_dex_files_.push_back(std::move(dex_file));
+    }
+    Thread* self = Thread::Current();
+    ScopedObjectAccess soa(self);
+    return Runtime::Current()->GetClassLinker()->CreatePathClassLoader(self, class_path);
+  }
+
+  MethodReference GetMethodReference(const DexFile* dex_file,
+                                     const char* class_descriptor,
+                                     const char* name) {
+    const dex::TypeId* type_id = dex_file->FindTypeId(class_descriptor);
+    const dex::StringId* name_id = dex_file->FindStringId(name);
+    CHECK(type_id != nullptr && name_id != nullptr);
+    for (uint32_t method_idx = 0; method_idx != dex_file->NumMethodIds(); ++method_idx) {
+      const dex::MethodId& method_id = dex_file->GetMethodId(method_idx);
+      if (method_id.class_idx_ == dex_file->GetIndexForTypeId(*type_id) &&
+          method_id.name_idx_ == dex_file->GetIndexForStringId(*name_id)) {
+        return MethodReference(dex_file, method_idx);
+      }
+    }
+    LOG(FATAL) << "Method not found: " << class_descriptor << "." << name;
+    UNREACHABLE();
+  }
+
+  // Returns whether the `cache` has valid compiled code for the method, and the methods inlined
+  // into that code.
+  bool IsReusable(CompiledMethodCache* cache,
+                  MethodReference method_ref,
+                  /*out*/ std::vector<MethodReference>* inlined_methods = nullptr) {
+    Thread* self = Thread::Current();
+    ScopedObjectAccess soa(self);
+    CompiledMethodStorage* storage = compiler_driver_->GetCompiledMethodStorage();
+    std::vector<MethodReference> inlined;
+    CompiledMethod* compiled_method = cache->Lookup(
+        self, method_ref, cache->ComputeMethodKey(self, method_ref), storage, &inlined);
+    if (compiled_method == nullptr) {
+      return false;
+    }
+    CompiledMethod::ReleaseSwapAllocatedCompiledMethod(storage, compiled_method);
+    if (inlined_methods != nullptr) {
+      *inlined_methods = std::move(inlined);
+    }
+    return true;
+  }
+};
+
+TEST_F(CompilerDriverCacheTest, ReuseCompiledMethods) {
+  jobject class_loader;
+  {
+    ScopedObjectAccess soa(Thread::Current());
+    class_loader = LoadDex("StaticLeafMethods");
+  }
+  ASSERT_NE(class_loader, nullptr);
+  std::vector<const DexFile*> dex_files = GetDexFiles(class_loader);
+  ScratchFile cache_file;
+  std::string error_msg;
+
+  // The first compilation has nothing to reuse and records all compiled methods.
+  CompiledMethodCache first_cache(*compiler_options_, /*environment_key=*/ "");
+  first_cache.AddDexFiles(ArrayRef<const DexFile* const>(dex_files));
+  compiler_driver_->SetCompiledMethodCache(&first_cache);
+  TimingLogger timings("CompilerDriverCacheTest::ReuseCompiledMethods", false, false);
+  CompileAll(class_loader, dex_files, &timings);
+  EXPECT_EQ(0u, first_cache.GetNumberOfHits());
+  ASSERT_NE(0u, first_cache.GetNumberOfMisses());
+  ASSERT_TRUE(first_cache.Save(cache_file.GetFilename(), &error_msg)) << error_msg;
+  std::map<MethodReference, std::vector<uint8_t>> first_code = GetCompiledCode(dex_files);
+
+  // Compiling the same dex files again reuses the methods and produces the same code.
+  compiler_driver_.reset(new CompilerDriver(compiler_options_.get(),
+                                            verification_results_.get(),
+                                            compiler_kind_,
+                                            number_of_threads_,
+                                            /* swap_fd= */ -1));
+  CompiledMethodCache second_cache(*compiler_options_, /*environment_key=*/ "");
+  second_cache.AddDexFiles(ArrayRef<const DexFile* const>(dex_files));
+  ASSERT_TRUE(second_cache.Load(cache_file.GetFilename(), &error_msg)) << error_msg;
+  compiler_driver_->SetCompiledMethodCache(&second_cache);
+  CompileAll(class_loader, dex_files, &timings);
+  EXPECT_NE(0u, second_cache.GetNumberOfHits());
+  EXPECT_EQ(first_code, GetCompiledCode(dex_files));
+
+  // A cache file created for a different compilation environment is rejected.
+  CompiledMethodCache other_cache(*compiler_options_, /*environment_key=*/ "other");
+  EXPECT_FALSE(other_cache.Load(cache_file.GetFilename(), &error_msg));
+}
+
+TEST_F(CompilerDriverCacheTest, ChangedInlinedMethodIsNotReused) {
+  jobject class_loader;
+  {
+    ScopedObjectAccess soa(Thread::Current());
+    class_loader = LoadDex("CompiledMethodCache");
+  }
+  ASSERT_NE(class_loader, nullptr);
+  std::vector<const DexFile*> dex_files = GetDexFiles(class_loader);
+  ASSERT_EQ(1u, dex_files.size());
+  ScratchFile cache_file;
+  CreateCache(class_loader, dex_files, cache_file);
+
+  CompiledMethodCache cache(*compiler_options_, /*environment_key=*/ "");
+  cache.AddDexFiles(ArrayRef<const DexFile* const>(dex_files));
+  std::string error_msg;
+  ASSERT_TRUE(cache.Load(cache_file.GetFilename(), &error_msg)) << error_msg;
+  MethodReference read_field =
+      GetMethodReference(dex_files[0], "LCompiledMethodCache;", "readField");
+  MethodReference call_inlined =
+      GetMethodReference(dex_files[0], "LCompiledMethodCache;", "callInlined");
+  std::vector<MethodReference> inlined_methods;
+  ASSERT_TRUE(IsReusable(&cache, read_field));
+  ASSERT_TRUE(IsReusable(&cache, call_inlined, &inlined_methods));
+  ASSERT_TRUE(ContainsElement(inlined_methods, read_field));
+
+  // Move the field, as a change to the fields of `Base` would. Neither the method that reads
+  // the field nor the method that it is inlined into may be reused, even though nothing that
+  // the latter references directly changed.
+  ScopedObjectAccess soa(Thread::Current());
+  StackHandleScope<1> hs(soa.Self());
+  Handle<mirror::ClassLoader> loader(hs.NewHandle(soa.Decode<mirror::ClassLoader>(class_loader)));
+  ObjPtr<mirror::Class> base =
+      Runtime::Current()->GetClassLinker()->FindClass(soa.Self(), "LBase;", loader);
+  ASSERT_NE(base, nullptr);
+  ArtField* field = base->FindDeclaredInstanceField("field", "I");
+  ASSERT_NE(field, nullptr);
+  MemberOffset offset = field->GetOffset();
+  field->SetOffset(MemberOffset(offset.Uint32Value() + sizeof(int32_t)));
+  {
+    ScopedThreadSuspension sts(soa.Self(), ThreadState::kNative);
+    EXPECT_FALSE(IsReusable(&cache, read_field));
+    EXPECT_FALSE(IsReusable(&cache, call_inlined));
+  }
+  field->SetOffset(offset);
+}
+
+TEST_F(CompilerDriverCacheTest, ChangedClassStatusIsNotReused) {
+  jobject class_loader;
+  {
+    ScopedObjectAccess soa(Thread::Current());
+    class_loader = LoadDex("CompiledMethodCache");
+  }
+  ASSERT_NE(class_loader, nullptr);
+  std::vector<const DexFile*> dex_files = GetDexFiles(class_loader);
+  ScratchFile cache_file;
+  CreateCache(class_loader, dex_files, cache_file);
+
+  CompiledMethodCache cache(*compiler_options_, /*environment_key=*/ "");
+  cache.AddDexFiles(ArrayRef<const DexFile* const>(dex_files));
+  std::string error_msg;
+  ASSERT_TRUE(cache.Load(cache_file.GetFilename(), &error_msg)) << error_msg;
+  MethodReference new_derived =
+      GetMethodReference(dex_files[0], "LCompiledMethodCache;", "newDerived");
+  ASSERT_TRUE(IsReusable(&cache, new_derived));
+
+  // The compiled code of `newDerived()` depends on whether `Derived` needs to be initialized.
+  ScopedObjectAccess soa(Thread::Current());
+  StackHandleScope<2> hs(soa.Self());
+  Handle<mirror::ClassLoader> loader(hs.NewHandle(soa.Decode<mirror::ClassLoader>(class_loader)));
+  ClassLinker* class_linker = Runtime::Current()->GetClassLinker();
+  Handle<mirror::Class> derived =
+      hs.NewHandle(class_linker->FindClass(soa.Self(), "LDerived;", loader));
+  ASSERT_NE(derived.Get(), nullptr);
+  ASSERT_FALSE(derived->IsInitialized());
+  ASSERT_TRUE(class_linker->EnsureInitialized(
+      soa.Self(), derived, /*can_init_fields=*/ true, /*can_init_parents=*/ true));
+  {
+    ScopedThreadSuspension sts(soa.Self(), ThreadState::kNative);
+    EXPECT_FALSE(IsReusable(&cache, new_derived));
+  }
+}
+
+// Recompiles MultiDex after an update that only changes its classes2.dex, as in
+// MultiDexModifiedSecondary. The method ids of classes2.dex change, so none of its methods is
+// reused, but the methods of the unchanged classes.dex are, unless they depend on something
+// that changed in classes2.dex.
+TEST_F(CompilerDriverCacheTest, UpdateSecondaryDexFile) {
+  jobject old_class_loader;
+  {
+    ScopedObjectAccess soa(Thread::Current());
+    old_class_loader = LoadDex("MultiDex");
+  }
+  ASSERT_NE(old_class_loader, nullptr);
+  std::vector<const DexFile*> old_dex_files = GetDexFiles(old_class_loader);
+  ScratchFile cache_file;
+  CreateCache(old_class_loader, old_dex_files, cache_file);
+
+  jobject class_loader = LoadDexAs("MultiDexModifiedSecondary", "MultiDex");
+  std::vector<const DexFile*> dex_files = GetDexFiles(class_loader);
+  ASSERT_EQ(2u, dex_files.size());
+  ASSERT_EQ(old_dex_files[0]->GetLocation(), dex_files[0]->GetLocation());
+  ASSERT_EQ(old_dex_files[0]->GetLocationChecksum(), dex_files[0]->GetLocationChecksum());
+  ASSERT_NE(old_dex_files[1]->GetLocationChecksum(), dex_files[1]->GetLocationChecksum());
+
+  uint64_t start_ns = NanoTime();
+  CompileWithCache(class_loader, dex_files, /*cache=*/ nullptr);
+  uint64_t uncached_ns = NanoTime() - start_ns;
+  std::map<MethodReference, std::vector<uint8_t>> expected_code = GetCompiledCode(dex_files);
+
+  CompiledMethodCache cache(*compiler_options_, /*environment_key=*/ "");
+  cache.AddDexFiles(ArrayRef<const DexFile* const>(dex_files));
+  std::string error_msg;
+  ASSERT_TRUE(cache.Load(cache_file.GetFilename(), &error_msg)) << error_msg;
+  start_ns = NanoTime();
+  CompileWithCache(class_loader, dex_files, &cache);
+  uint64_t cached_ns = NanoTime() - start_ns;
+  LOG(INFO) << "Recompiling after an update of classes2.dex reused " << cache.GetNumberOfHits()
+            << " of " << (cache.GetNumberOfHits() + cache.GetNumberOfMisses())
+            << " methods and took " << PrettyDuration(cached_ns) << " instead of "
+            << PrettyDuration(uncached_ns);
+  EXPECT_NE(0u, cache.GetNumberOfHits());
+  EXPECT_NE(0u, cache.GetNumberOfMisses());
+  EXPECT_EQ(expected_code, GetCompiledCode(dex_files));
+
+  EXPECT_TRUE(IsReusable(&cache, GetMethodReference(dex_files[0], "LMain;", "<init>")));
+  // `Main.main()` calls `Second.getSecond()`, whose vtable index changed.
+  EXPECT_FALSE(IsReusable(&cache, GetMethodReference(dex_files[0], "LMain;", "main")));
+  EXPECT_FALSE(IsReusable(&cache, GetMethodReference(dex_files[1], "LSecond;", "<init>")));
+  EXPECT_FALSE(IsReusable(&cache, GetMethodReference(dex_files[1], "LSecond;", "getSecond")));
+}
+
 // TODO: need check-cast test (when stub complete & we can throw/catch
 
 }  // namespace art
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef ART_DEX2OAT_INCLUDE_DEX2OAT_DEX2OAT_SERVER_H_
+#define ART_DEX2OAT_INCLUDE_DEX2OAT_DEX2OAT_SERVER_H_
+
+#include <ctype.h>
+#include <stddef.h>
+#include <stdint.h>
+#include <stdlib.h>
+
+#include <algorithm>
+#include <string>
+#include <string_view>
+#include <vector>
+
+namespace art {
+
+// The protocol between a client (artd) and `dex2oat --server-socket-fd=FD`.
+//
+// A dex2oat server creates the runtime and loads the boot image once, and then compiles each job
+// it receives in a process forked from itself, so that jobs don't pay for the runtime startup.
+// The server serves one job at a time over a SOCK_SEQPACKET socket:
+//   1. The client sends a job: a single message with the job's dex2oat arguments, encoded by
+//      `EncodeJob`, and the file descriptors that the arguments refer to, as SCM_RIGHTS.
+//   2. The server forks a process for the job and replies `kStarted` with its pid.
+//   3. When the job process exits, the server replies `kExited` with how it exited. The process
+//      is not reaped yet, so that the client can still kill the pid without racing with pid reuse.
+//   4. The client sends `kAck` once it no longer refers to the pid. The server reaps the process
+//      and replies `kReaped` with its CPU time.
+// The server exits when the client closes the socket.
+class Dex2oatServer {
+ public:
+  // The maximum size of an encoded job.
+  static constexpr size_t kMaxJobSize = 64 * 1024;
+  // The maximum number of file descriptors sent with a job.
+  static constexpr size_t kMaxJobFds = 64;
+  // The message that the client sends to acknowledge a `kExited` reply.
+  static constexpr char kAck = 'A';
+
+  struct Reply {
+    enum Kind : int32_t {
+      kStarted = 1,
+      kExited = 2,
+      kReaped = 3,
+    };
+
+    Kind kind;
+    // The pid of the job process.
+    int32_t pid;
+    // For `kExited`, the exit code of the job process, or -1 if it was terminated by a signal.
+    int32_t exit_code;
+    // For `kExited`, the signal that terminated the job process, or 0 if it exited normally.
+    int32_t signal;
+    // For `kReaped`, the CPU time that the job process spent, in milliseconds.
+    int64_t cpu_time_ms;
+  };
+
+  // Encodes a job with the dex2oat arguments `args`, which refer to the file descriptors `fds` by
+  // their numbers in the client.
+  static std::string EncodeJob(const std::vector<int>& fds, const std::vector<std::string>& args) {
+    std::string data = std::to_string(fds.size());
+    data.push_back('\0');
+    for (int fd : fds) {
+      data += std::to_string(fd);
+      data.push_back('\0');
+    }
+    for (const std::string& arg : args) {
+      data += arg;
+      data.push_back('\0');
+    }
+    return data;
+  }
+
+  // Decodes a job encoded by `EncodeJob`. Returns false if `data` is malformed.
+  static bool DecodeJob(std::string_view data,
+                        /*out*/ std::vector<int>* fds,
+                        /*out*/ std::vector<std::string>* args) {
+    std::vector<std::string> fields;
+    while (!data.empty()) {
+      size_t end = data.find('\0');
+      if (end == std::string_view::npos) {
+        return false;
+      }
+      fields.emplace_back(data.substr(0, end));
+      data.remove_prefix(end + 1);
+    }
+    size_t num_fds;
+    if (fields.empty() || !ParseNumber(fields[0], &num_fds) || fields.size() < 1 + num_fds) {
+      return false;
+    }
+    fds->clear();
+    for (size_t i = 1; i != 1 + num_fds; ++i) {
+      size_t fd;
+      if (!ParseNumber(fields[i], &fd)) {
+        return false;
+      }
+      fds->push_back(static_cast<int>(fd));
+    }
+    args->assign(fields.begin() + 1 + num_fds, fields.end());
+    return true;
+  }
+
+  // Returns the arguments, except `--server-socket-fd`, of a server that can run a job with the
+  // dex2oat arguments `job_args`. These are the dex2oat binary and the arguments that set up the
+  // runtime, which must be the same for the server and its jobs.
+  static std::vector<std::string> GetServerArgs(const std::vector<std::string>& job_args) {
+    std::vector<std::string> server_args;
+    for (size_t i = 0; i < job_args.size(); ++i) {
+      const std::string& arg = job_args[i];
+      if (i == 0 ||
+          arg.rfind("--boot-image=", 0) == 0 ||
+          arg.rfind("--instruction-set=", 0) == 0 ||
+          arg.rfind("--android-root=", 0) == 0) {
+        server_args.push_back(arg);
+      } else if (arg == "--runtime-arg" && i + 1 < job_args.size()) {
+        server_args.push_back(arg);
+        server_args.push_back(job_args[++i]);
+      }
+    }
+    return server_args;
+  }
+
+  // Rewrites the file descriptor numbers in the `--*-fd=` and `--*-fds=` arguments from the
+  // client's `client_fds` to the corresponding `server_fds` that the job was received with.
+  // Returns false if an argument refers to a file descriptor that was not sent with the job.
+  static bool RemapFdArgs(const std::vector<int>& client_fds,
+                          const std::vector<int>& server_fds,
+                          /*inout*/ std::vector<std::string>* args,
+                          /*out*/ std::string* error_msg) {
+    for (std::string& arg : *args) {
+      size_t equals = arg.find('=');
+      if (arg.rfind("--", 0) != 0 || equals == std::string::npos) {
+        continue;
+      }
+      std::string_view name = std::string_view(arg).substr(0, equals);
+      if (!EndsWith(name, "-fd") && !EndsWith(name, "-fds")) {
+        continue;
+      }
+      // Lists of file descriptors, as in `--class-loader-context-fds`, are separated by ':'.
+      std::string remapped(name);
+      remapped.push_back('=');
+      std::string_view values = std::string_view(arg).substr(equals + 1);
+      while (true) {
+        size_t end = std::min(values.find(':'), values.size());
+        size_t fd;
+        if (!ParseNumber(std::string(values.substr(0, end)), &fd)) {
+          *error_msg = "Invalid file descriptor in '" + arg + "'";
+          return false;
+        }
+        auto it = std::find(client_fds.begin(), client_fds.end(), static_cast<int>(fd));
+        if (it == client_fds.end() || server_fds.size() != client_fds.size()) {
+          *error_msg = "File descriptor in '" + arg + "' was not sent with the job";
+          return false;
+        }
+        remapped += std::to_string(server_fds[it - client_fds.begin()]);
+        if (end == values.size()) {
+          break;
+        }
+        remapped.push_back(':');
+        values.remove_prefix(end + 1);
+      }
+      arg = std::move(remapped);
+    }
+    return true;
+  }
+
+ private:
+  static bool ParseNumber(const std::string& str, /*out*/ size_t* value) {
+    if (str.empty() || str.size() > 9 || !std::all_of(str.begin(), str.end(), ::isdigit)) {
+      return false;
+    }
+    *value = strtoul(str.c_str(), nullptr, 10);
+    return true;
+  }
+
+  static bool EndsWith(std::string_view str, std::string_view suffix) {
+    return str.size() >= suffix.size() && str.substr(str.size() - suffix.size()) == suffix;
+  }
+};
+
+}  // namespace art
+
+#endif  // ART_DEX2OAT_INCLUDE_DEX2OAT_DEX2OAT_SERVER_H_
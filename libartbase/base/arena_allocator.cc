@@ -72,6 +72,7 @@ const char* const ArenaAllocatorStatsImpl<kCount>::kAllocNames[] = {
   "LSA          ",
   "LSE          ",
   "CFRE         ",
+  "ScalarRepl   ",
   "LICM         ",
   "WBE          ",
   "LoopOpt      ",
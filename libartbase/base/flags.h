@@ -311,6 +311,18 @@ struct Flags {
   // to logcat will be in human-readable text format.
   // Supported values are "text" and "xml".
   Flag<std::string> MetricsFormat{"metrics.format", "text", FlagType::kCmdlineOnly};
+
+  // Whether heap dumps requested through VMDebug.dumpHprofData are written by a forked child
+  // process. The threads are then only suspended for the fork instead of the whole dump.
+  Flag<bool> HprofFork{"hprof.fork", false, FlagType::kDeviceConfig};
+
+  // Whether heap dumps are compressed with gzip. Dumps to a file name ending with ".gz" are always
+  // compressed. This also covers dumps to a file descriptor, e.g. from `am dumpheap`.
+  Flag<bool> HprofCompress{"hprof.compress", false, FlagType::kDeviceConfig};
+
+  // Whether the heap and dex2oat compiler driver thread pools use per-worker task deques with
+  // work stealing instead of a single shared task queue. See WorkStealingThreadPool.
+  Flag<bool> WorkStealingThreadPool{"thread-pool.work-stealing", false, FlagType::kDeviceConfig};
 };
 
 // This is the actual instance of all the flags.
@@ -26,6 +26,7 @@ import static com.android.server.art.Utils.Abi;
 import static com.android.server.art.model.ArtFlags.GetStatusFlags;
 import static com.android.server.art.model.ArtFlags.ScheduleStatus;
 import static com.android.server.art.model.Config.Callback;
+import static com.android.server.art.model.DexoptResult.PackageDexoptResult;
 import static com.android.server.art.model.DexoptStatus.DexContainerFileDexoptStatus;
 
 import android.annotation.CallbackExecutor;
@@ -36,7 +37,10 @@ import android.annotation.SystemApi;
 import android.annotation.SystemService;
 import android.app.job.JobInfo;
 import android.apphibernation.AppHibernationManager;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Binder;
 import android.os.Build;
 import android.os.CancellationSignal;
@@ -54,6 +58,7 @@ import android.util.Pair;
 
 import androidx.annotation.RequiresApi;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.LocalManagerRegistry;
 import com.android.server.art.model.ArtFlags;
@@ -69,6 +74,7 @@ import com.android.server.pm.PackageManagerLocal;
 import com.android.server.pm.pkg.AndroidPackage;
 import com.android.server.pm.pkg.AndroidPackageSplit;
 import com.android.server.pm.pkg.PackageState;
+import com.android.server.pm.pkg.SharedLibrary;
 
 import dalvik.system.DexFile;
 
@@ -88,6 +94,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -118,8 +125,41 @@ public final class ArtManagerLocal {
     /** @hide */
     @VisibleForTesting public static final long DOWNGRADE_THRESHOLD_ABOVE_LOW_BYTES = 500_000_000;
 
+    /**
+     * The maximum number of profiles that a single profman invocation merges when snapshotting the
+     * boot image profile. If there are more profiles than this, they are split into shards that
+     * are merged concurrently, and the intermediate results are then merged into the final one.
+     */
+    @VisibleForTesting public static final int BOOT_IMAGE_PROFILE_MERGE_SHARD_SIZE = 64;
+
+    /** The maximum number of profman invocations to run at once when merging shards. */
+    private static final int BOOT_IMAGE_PROFILE_MERGE_CONCURRENCY = 4;
+
+    /** The maximum number of dependents of updated shared libraries to dexopt at once. */
+    private static final int LIBRARY_DEPENDENTS_DEXOPT_CONCURRENCY = 2;
+
     @NonNull private final Injector mInjector;
 
+    @NonNull private final Object mLock = new Object();
+
+    /**
+     * Dependents of updated shared libraries that are queued or being dexopted, so that they are
+     * not queued again by another library update in the meantime.
+     */
+    @GuardedBy("mLock")
+    @NonNull
+    private final Set<String> mPendingLibraryDependents = new HashSet<>();
+
+    /**
+     * Cancellation signals of the ongoing dexopt of dependents of updated shared libraries. They
+     * are cancelled by {@link #cleanup} and when the device is being shut down.
+     */
+    @GuardedBy("mLock")
+    @NonNull
+    private final Set<CancellationSignal> mLibraryDependentsCancellationSignals = new HashSet<>();
+
+    @GuardedBy("mLock") private boolean mShutdownReceiverRegistered = false;
+
     @Deprecated
     public ArtManagerLocal() {
         mInjector = new Injector(this, null /* context */);
@@ -381,8 +421,151 @@ public final class ArtManagerLocal {
     public DexoptResult dexoptPackage(@NonNull PackageManagerLocal.FilteredSnapshot snapshot,
             @NonNull String packageName, @NonNull DexoptParams params,
             @NonNull CancellationSignal cancellationSignal) {
-        return mInjector.getDexoptHelper().dexopt(
+        DexoptResult result = mInjector.getDexoptHelper().dexopt(
                 snapshot, List.of(packageName), params, cancellationSignal, Runnable::run);
+        maybeDexoptLibraryDependents(snapshot, params, result);
+        return result;
+    }
+
+    /**
+     * If an install updated the artifacts of shared library packages, queues the packages that
+     * depend on them for dexopt, because their class loader contexts have changed and their
+     * artifacts would otherwise be rejected on the next app launch.
+     *
+     * The dexopt runs asynchronously. Dependents whose artifacts are still up-to-date (e.g.,
+     * because they have already been dexopted against the new library) are skipped by {@link
+     * DexoptHelper} through {@code getDexoptNeeded}.
+     */
+    @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+    private void maybeDexoptLibraryDependents(
+            @NonNull PackageManagerLocal.FilteredSnapshot snapshot, @NonNull DexoptParams params,
+            @NonNull DexoptResult result) {
+        if (!ReasonMapping.REASONS_FOR_INSTALL.contains(params.getReason())) {
+            return;
+        }
+
+        Set<String> updatedPackages = result.getPackageDexoptResults()
+                                              .stream()
+                                              .filter(PackageDexoptResult::hasUpdatedArtifacts)
+                                              .map(PackageDexoptResult::getPackageName)
+                                              .collect(Collectors.toSet());
+        if (updatedPackages.isEmpty()) {
+            return;
+        }
+
+        List<String> dependents = getLibraryDependents(snapshot, updatedPackages);
+        synchronized (mLock) {
+            dependents = dependents.stream()
+                                 .filter(mPendingLibraryDependents::add)
+                                 .collect(Collectors.toList());
+            if (dependents.isEmpty()) {
+                return;
+            }
+            maybeRegisterShutdownReceiverLocked();
+        }
+
+        Log.i(TAG,
+                String.format("Queuing dexopt for %d dependents of updated libraries %s",
+                        dependents.size(), updatedPackages));
+        List<String> packageNames = dependents;
+        String reason = params.getReason();
+        mInjector.getLibraryDependentsDexoptExecutor().execute(
+                () -> dexoptLibraryDependents(packageNames, reason));
+    }
+
+    /**
+     * Registers a receiver that cancels the dexopt of dependents of updated shared libraries when
+     * the device is being shut down, if not registered yet.
+     */
+    @GuardedBy("mLock")
+    private void maybeRegisterShutdownReceiverLocked() {
+        if (mShutdownReceiverRegistered) {
+            return;
+        }
+        mInjector.getContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                context.unregisterReceiver(this);
+                cancelLibraryDependentsDexopt();
+            }
+        }, new IntentFilter(Intent.ACTION_SHUTDOWN));
+        mShutdownReceiverRegistered = true;
+    }
+
+    /** Cancels the ongoing dexopt of dependents of updated shared libraries, if any. */
+    private void cancelLibraryDependentsDexopt() {
+        synchronized (mLock) {
+            for (CancellationSignal cancellationSignal : mLibraryDependentsCancellationSignals) {
+                cancellationSignal.cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns the dexoptable packages that depend, directly or transitively, on a shared library
+     * provided by any of {@code libraryPackageNames}, excluding those packages themselves.
+     */
+    @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+    @NonNull
+    private List<String> getLibraryDependents(
+            @NonNull PackageManagerLocal.FilteredSnapshot snapshot,
+            @NonNull Set<String> libraryPackageNames) {
+        List<String> dependents = new ArrayList<>();
+        for (PackageState pkgState : snapshot.getPackageStates().values()) {
+            if (libraryPackageNames.contains(pkgState.getPackageName())
+                    || !Utils.canDexoptPackage(pkgState, mInjector.getAppHibernationManager())) {
+                continue;
+            }
+            // The same walk as `DexoptHelper.getPackageStates`, in the opposite direction.
+            Set<String> visitedLibraries = new HashSet<>();
+            List<SharedLibrary> queue = new ArrayList<>(pkgState.getSharedLibraryDependencies());
+            while (!queue.isEmpty()) {
+                SharedLibrary library = queue.remove(queue.size() - 1);
+                if (library.isNative() || !visitedLibraries.add(library.getName())) {
+                    continue;
+                }
+                if (library.getPackageName() != null
+                        && libraryPackageNames.contains(library.getPackageName())) {
+                    dependents.add(pkgState.getPackageName());
+                    break;
+                }
+                queue.addAll(library.getDependencies());
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Dexopts the given dependents of updated shared libraries for the install {@code reason} that
+     * updated the libraries, so that they get the same priority class as the install.
+     */
+    @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+    private void dexoptLibraryDependents(
+            @NonNull List<String> packageNames, @NonNull String reason) {
+        var cancellationSignal = new CancellationSignal();
+        synchronized (mLock) {
+            mLibraryDependentsCancellationSignals.add(cancellationSignal);
+        }
+        ExecutorService dexoptExecutor =
+                Executors.newFixedThreadPool(LIBRARY_DEPENDENTS_DEXOPT_CONCURRENCY);
+        try (var snapshot = mInjector.getPackageManagerLocal().withFilteredSnapshot()) {
+            // Packages may have been uninstalled since they were queued.
+            List<String> existingPackageNames =
+                    packageNames.stream()
+                            .filter(packageName -> snapshot.getPackageState(packageName) != null)
+                            .collect(Collectors.toList());
+            DexoptParams params = new DexoptParams.Builder(reason).build();
+            mInjector.getDexoptHelper().dexopt(snapshot, existingPackageNames, params,
+                    cancellationSignal, dexoptExecutor);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to dexopt dependents of updated libraries", e);
+        } finally {
+            dexoptExecutor.shutdown();
+            synchronized (mLock) {
+                mLibraryDependentsCancellationSignals.remove(cancellationSignal);
+                mPendingLibraryDependents.removeAll(packageNames);
+            }
+        }
     }
 
     /**
@@ -470,8 +653,28 @@ public final class ArtManagerLocal {
             @NonNull CancellationSignal cancellationSignal,
             @Nullable @CallbackExecutor Executor progressCallbackExecutor,
             @Nullable Consumer<OperationProgress> progressCallback) {
-        List<String> defaultPackages =
-                Collections.unmodifiableList(getDefaultPackages(snapshot, reason));
+        return dexoptPackages(snapshot, reason, cancellationSignal, progressCallbackExecutor,
+                progressCallback, Set.of() /* excludedPackages */);
+    }
+
+    /**
+     * Same as above, but leaves {@code excludedPackages} out of the default list of packages. This
+     * is used by {@link BackgroundDexoptJob} to skip the packages that an interrupted run has
+     * already processed.
+     */
+    @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+    @NonNull
+    DexoptResult dexoptPackages(@NonNull PackageManagerLocal.FilteredSnapshot snapshot,
+            @NonNull @BatchDexoptReason String reason,
+            @NonNull CancellationSignal cancellationSignal,
+            @Nullable @CallbackExecutor Executor progressCallbackExecutor,
+            @Nullable Consumer<OperationProgress> progressCallback,
+            @NonNull Set<String> excludedPackages) {
+        List<String> defaultPackages = Collections.unmodifiableList(
+                getDefaultPackages(snapshot, reason)
+                        .stream()
+                        .filter(pkg -> !excludedPackages.contains(pkg))
+                        .collect(Collectors.toList()));
         DexoptParams defaultDexoptParams = new DexoptParams.Builder(reason).build();
         var builder = new BatchDexoptParams.Builder(defaultPackages, defaultDexoptParams);
         Callback<BatchDexoptStartCallback, Void> callback =
@@ -831,7 +1034,102 @@ public final class ArtManagerLocal {
         var options = new MergeProfileOptions();
         options.forceMerge = true;
         options.forBootImage = true;
-        return mergeProfilesAndGetFd(profiles, output, dexPaths, options);
+
+        int shardSize = mInjector.getBootImageProfileMergeShardSize();
+        if (profiles.size() <= shardSize) {
+            return mergeProfilesAndGetFd(profiles, output, dexPaths, options);
+        }
+
+        List<ProfilePath> intermediateProfiles = new ArrayList<>();
+        try {
+            try {
+                intermediateProfiles.addAll(
+                        mergeProfilesInShards(profiles, shardSize, dexPaths, options));
+                return mergeProfilesAndGetFd(intermediateProfiles, output, dexPaths, options);
+            } finally {
+                deleteProfilesSafe(intermediateProfiles);
+            }
+        } catch (RemoteException e) {
+            throw new SnapshotProfileException(e);
+        }
+    }
+
+    /**
+     * Merges {@code profiles} in shards of {@code shardSize} profiles concurrently, and returns
+     * the temporary profiles that hold the results of the non-empty shards. The caller is
+     * responsible for deleting them.
+     */
+    @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+    @NonNull
+    private List<ProfilePath> mergeProfilesInShards(@NonNull List<ProfilePath> profiles,
+            int shardSize, @NonNull List<String> dexPaths, @NonNull MergeProfileOptions options)
+            throws SnapshotProfileException, RemoteException {
+        List<CompletableFuture<ProfilePath>> futures = new ArrayList<>();
+        ExecutorService executor =
+                Executors.newFixedThreadPool(BOOT_IMAGE_PROFILE_MERGE_CONCURRENCY);
+        try {
+            for (int i = 0; i < profiles.size(); i += shardSize) {
+                List<ProfilePath> shard =
+                        profiles.subList(i, Math.min(i + shardSize, profiles.size()));
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    // Every shard needs its own output because artd fills in the temporary path.
+                    OutputProfile output = AidlUtils.buildOutputProfileForPrimary(
+                            Utils.PLATFORM_PACKAGE_NAME, PrimaryDexUtils.PROFILE_PRIMARY,
+                            Process.SYSTEM_UID, Process.SYSTEM_UID, false /* isPublic */);
+                    try {
+                        if (mInjector.getArtd().mergeProfiles(shard, null /* referenceProfile */,
+                                    output, dexPaths, options)) {
+                            return ProfilePath.tmpProfilePath(output.profilePath);
+                        }
+                        return null;
+                    } catch (ServiceSpecificException | RemoteException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Wait for all the shards, even if some of them fail, so that every intermediate profile
+        // is collected for deletion.
+        List<ProfilePath> results = new ArrayList<>();
+        Throwable error = null;
+        for (CompletableFuture<ProfilePath> future : futures) {
+            try {
+                ProfilePath result = future.join();
+                if (result != null) {
+                    results.add(result);
+                }
+            } catch (CompletionException e) {
+                error = e.getCause();
+            }
+        }
+        if (error != null) {
+            deleteProfilesSafe(results);
+            // Handle the errors in the same way as `mergeProfilesAndGetFd`.
+            if (error instanceof ServiceSpecificException) {
+                throw new SnapshotProfileException(error);
+            }
+            if (error instanceof RemoteException) {
+                throw (RemoteException) error;
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            throw new IllegalStateException(error);
+        }
+        return results;
+    }
+
+    private void deleteProfilesSafe(@NonNull List<ProfilePath> profiles) throws RemoteException {
+        for (ProfilePath profile : profiles) {
+            try {
+                mInjector.getArtd().deleteProfile(profile);
+            } catch (ServiceSpecificException e) {
+                Log.e(TAG, "Failed to delete profile", e);
+            }
+        }
     }
 
     /**
@@ -894,6 +1192,9 @@ public final class ArtManagerLocal {
      */
     @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
     public long cleanup(@NonNull PackageManagerLocal.FilteredSnapshot snapshot) {
+        // The dexopt of dependents of updated shared libraries may be creating artifacts that the
+        // cleanup is about to sweep, so stop it first.
+        cancelLibraryDependentsDexopt();
         mInjector.getDexUseManager().cleanup();
 
         try {
@@ -1230,6 +1531,7 @@ public final class ArtManagerLocal {
         @Nullable private final PackageManagerLocal mPackageManagerLocal;
         @Nullable private final Config mConfig;
         @Nullable private BackgroundDexoptJob mBgDexoptJob = null;
+        @Nullable private ExecutorService mLibraryDependentsDexoptExecutor = null;
 
         // TODO(jiakaiz): Remove @SuppressLint and check `Build.VERSION.SDK_INT >=
         // Build.VERSION_CODES.UPSIDE_DOWN_CAKE` once the SDK is finalized.
@@ -1309,6 +1611,19 @@ public final class ArtManagerLocal {
             return mBgDexoptJob;
         }
 
+        /**
+         * Returns the executor that dexopts the dependents of updated shared libraries. Tasks run
+         * one at a time, in the order they are submitted.
+         */
+        @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+        @NonNull
+        public synchronized Executor getLibraryDependentsDexoptExecutor() {
+            if (mLibraryDependentsDexoptExecutor == null) {
+                mLibraryDependentsDexoptExecutor = Executors.newSingleThreadExecutor();
+            }
+            return mLibraryDependentsDexoptExecutor;
+        }
+
         @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
         @NonNull
         public UserManager getUserManager() {
@@ -1349,5 +1664,10 @@ public final class ArtManagerLocal {
             // This is a path that system_server is known to have full access to.
             return "/data/system";
         }
+
+        @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+        public int getBootImageProfileMergeShardSize() {
+            return BOOT_IMAGE_PROFILE_MERGE_SHARD_SIZE;
+        }
     }
 }
@@ -176,6 +176,9 @@ public final class ArtShellCommand extends BasicShellCommandHandler {
                 pw.println("Profiles cleared");
                 return 0;
             }
+            case "dexopt-metrics": {
+                return handleDexoptMetrics(pw);
+            }
             default:
                 pw.printf("Error: Unknown 'art' sub-command '%s'\n", subcmd);
                 pw.println("See 'pm help' for help");
@@ -183,6 +186,29 @@ public final class ArtShellCommand extends BasicShellCommandHandler {
         }
     }
 
+    private int handleDexoptMetrics(@NonNull PrintWriter pw) {
+        boolean reset = false;
+        String opt;
+        while ((opt = getNextOption()) != null) {
+            switch (opt) {
+                case "--reset":
+                    reset = true;
+                    break;
+                default:
+                    pw.println("Error: Unknown option: " + opt);
+                    return 1;
+            }
+        }
+
+        DexoptMetrics metrics = DexoptMetrics.getInstance();
+        metrics.dump(pw);
+        if (reset) {
+            metrics.reset();
+            pw.println("Dexopt metrics reset");
+        }
+        return 0;
+    }
+
     private int handleCompile(
             @NonNull PrintWriter pw, @NonNull PackageManagerLocal.FilteredSnapshot snapshot) {
         @DexoptFlags int scopeFlags = 0;
@@ -741,6 +767,13 @@ public final class ArtShellCommand extends BasicShellCommandHandler {
         pw.println("    If PACKAGE_NAME is empty, the command is for all packages. Otherwise, it");
         pw.println("    is for the given package.");
         pw.println();
+        pw.println("  dexopt-metrics [--reset]");
+        pw.println("    Dumps the latency of each phase of dexopt (e.g., getDexoptNeeded, profile");
+        pw.println("    merging, dex2oat) since the system server started, grouped by compilation");
+        pw.println("    reason and compiler filter.");
+        pw.println("    Options:");
+        pw.println("      --reset Clear the statistics after dumping them.");
+        pw.println();
         pw.println("  dexopt-packages -r REASON");
         pw.println("    Run batch dexopt for the given reason.");
         pw.println("    Valid values for REASON: 'first-boot', 'boot-after-ota',");
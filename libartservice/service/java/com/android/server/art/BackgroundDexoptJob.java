@@ -41,12 +41,23 @@ import com.android.server.LocalManagerRegistry;
 import com.android.server.art.model.ArtFlags;
 import com.android.server.art.model.Config;
 import com.android.server.art.model.DexoptResult;
+import com.android.server.art.proto.BackgroundDexoptCheckpointProto;
 import com.android.server.pm.PackageManagerLocal;
 
 import com.google.auto.value.AutoValue;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -65,6 +76,13 @@ public class BackgroundDexoptJob {
 
     @VisibleForTesting public static final long JOB_INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
 
+    /**
+     * The file that records the progress of an interrupted run, so that the next run in a later
+     * maintenance window can skip the packages that have already been processed instead of
+     * re-evaluating every package from scratch.
+     */
+    private static final String CHECKPOINT_FILENAME = "/data/system/art-bg-dexopt-checkpoint.pb";
+
     @NonNull private final Injector mInjector;
 
     @GuardedBy("this") @Nullable private CompletableFuture<Result> mRunningJob = null;
@@ -203,11 +221,14 @@ public class BackgroundDexoptJob {
     @NonNull
     private CompletedResult run(@NonNull CancellationSignal cancellationSignal) {
         long startTimeMs = SystemClock.uptimeMillis();
+        BackgroundDexoptCheckpointProto checkpoint = loadCheckpoint();
         DexoptResult dexoptResult;
         try (var snapshot = mInjector.getPackageManagerLocal().withFilteredSnapshot()) {
             dexoptResult = mInjector.getArtManagerLocal().dexoptPackages(snapshot,
                     ReasonMapping.REASON_BG_DEXOPT, cancellationSignal,
-                    null /* processCallbackExecutor */, null /* processCallback */);
+                    null /* processCallbackExecutor */, null /* processCallback */,
+                    Set.copyOf(checkpoint.getCompletedPackageNameList()) /* excludedPackages */);
+            updateCheckpoint(checkpoint, dexoptResult);
 
             // For simplicity, we don't support cancelling the following operation in the middle.
             // This is fine because it typically takes only a few seconds.
@@ -223,6 +244,74 @@ public class BackgroundDexoptJob {
         return CompletedResult.create(dexoptResult, SystemClock.uptimeMillis() - startTimeMs);
     }
 
+    /**
+     * Returns the checkpoint left by the last interrupted run, or an empty one if there is no such
+     * run or the checkpoint is too old to be trusted.
+     */
+    @NonNull
+    private BackgroundDexoptCheckpointProto loadCheckpoint() {
+        long currentTimeMs = mInjector.getCurrentTimeMillis();
+        try (InputStream in = new FileInputStream(mInjector.getCheckpointFilename())) {
+            var checkpoint = BackgroundDexoptCheckpointProto.parseFrom(in);
+            // A checkpoint from a previous interval is stale, as packages may have been used,
+            // updated, or had their profiles changed since then.
+            if (checkpoint.getStartedAtMs() <= currentTimeMs
+                    && currentTimeMs - checkpoint.getStartedAtMs() < JOB_INTERVAL_MS) {
+                Log.i(TAG,
+                        String.format("Resuming from checkpoint with %d completed packages",
+                                checkpoint.getCompletedPackageNameCount()));
+                return checkpoint;
+            }
+        } catch (IOException e) {
+            // The file does not exist if the last run was not interrupted.
+        }
+        return BackgroundDexoptCheckpointProto.newBuilder().setStartedAtMs(currentTimeMs).build();
+    }
+
+    /**
+     * Records the packages processed so far if the run is interrupted, or clears the checkpoint if
+     * the run has finished.
+     */
+    private void updateCheckpoint(@NonNull BackgroundDexoptCheckpointProto checkpoint,
+            @NonNull DexoptResult dexoptResult) {
+        var file = new File(mInjector.getCheckpointFilename());
+        if (dexoptResult.getFinalStatus() != DexoptResult.DEXOPT_CANCELLED) {
+            Utils.deleteIfExistsSafe(file);
+            return;
+        }
+
+        Set<String> completedPackages = new HashSet<>(checkpoint.getCompletedPackageNameList());
+        for (var packageResult : dexoptResult.getPackageDexoptResults()) {
+            // Failed packages are left out so that they are retried.
+            if (packageResult.getStatus() == DexoptResult.DEXOPT_SKIPPED
+                    || packageResult.getStatus() == DexoptResult.DEXOPT_PERFORMED) {
+                completedPackages.add(packageResult.getPackageName());
+            }
+        }
+        var newCheckpoint = checkpoint.toBuilder()
+                                    .clearCompletedPackageName()
+                                    .addAllCompletedPackageName(completedPackages)
+                                    .build();
+
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(file.getName(), null /* suffix */, file.getParentFile());
+            try (OutputStream out = new FileOutputStream(tempFile.getPath())) {
+                newCheckpoint.writeTo(out);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Log.i(TAG,
+                    String.format("Saved checkpoint with %d completed packages",
+                            completedPackages.size()));
+        } catch (IOException e) {
+            // Not fatal. The next run will just start from scratch.
+            Log.e(TAG, "Failed to save checkpoint", e);
+        } finally {
+            Utils.deleteIfExistsSafe(tempFile);
+        }
+    }
+
     private void writeStats(@NonNull Result result) {
         Optional<Integer> stopReason;
         synchronized (this) {
@@ -321,5 +410,14 @@ public class BackgroundDexoptJob {
         public JobScheduler getJobScheduler() {
             return Objects.requireNonNull(mContext.getSystemService(JobScheduler.class));
         }
+
+        @NonNull
+        public String getCheckpointFilename() {
+            return CHECKPOINT_FILENAME;
+        }
+
+        public long getCurrentTimeMillis() {
+            return System.currentTimeMillis();
+        }
     }
 }
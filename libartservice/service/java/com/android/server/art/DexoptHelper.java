@@ -30,6 +30,7 @@ import android.os.Build;
 import android.os.CancellationSignal;
 import android.os.PowerManager;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.WorkSource;
 
 import androidx.annotation.RequiresApi;
@@ -153,10 +154,14 @@ public class DexoptHelper {
                 }
             });
 
+            DexoptMetrics metrics = mInjector.getDexoptMetrics();
             for (int i = 0; i < pkgStates.size(); i++) {
                 PackageState pkgState = pkgStates.get(i);
                 CancellationSignal childCancellationSignal = childCancellationSignals.get(i);
+                long queuedAtMs = SystemClock.elapsedRealtime();
                 futures.add(CompletableFuture.supplyAsync(() -> {
+                    metrics.record(DexoptMetrics.PHASE_QUEUE_WAIT, params.getReason(),
+                            params.getCompilerFilter(), SystemClock.elapsedRealtime() - queuedAtMs);
                     return dexoptPackage(pkgState, params, childCancellationSignal);
                 }, dexoptExecutor));
             }
@@ -371,5 +376,10 @@ public class DexoptHelper {
         public Config getConfig() {
             return mConfig;
         }
+
+        @NonNull
+        public DexoptMetrics getDexoptMetrics() {
+            return DexoptMetrics.getInstance();
+        }
     }
 }
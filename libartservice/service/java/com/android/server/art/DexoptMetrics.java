@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.art;
+
+import android.annotation.NonNull;
+import android.annotation.StringDef;
+import android.os.Build;
+import android.os.SystemClock;
+
+import androidx.annotation.RequiresApi;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import com.google.auto.value.AutoValue;
+
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency statistics of the phases of dexopt, keyed by phase, compilation reason, and compiler
+ * filter, for finding out where the dexopt time goes. This class is thread-safe.
+ *
+ * The statistics are kept in memory for the lifetime of the system server, and can be dumped by
+ * {@code pm art dexopt-metrics} or {@code dumpsys package dexopt}.
+ *
+ * @hide
+ */
+@RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+public class DexoptMetrics {
+    /** The time between a package being queued for dexopt and a worker picking it up. */
+    public static final String PHASE_QUEUE_WAIT = "queue-wait";
+    /** The time spent in {@code IArtd.getDexoptNeeded}. */
+    public static final String PHASE_GET_DEXOPT_NEEDED = "get-dexopt-needed";
+    /** The time spent in initializing the reference profile (e.g., from a DM file). */
+    public static final String PHASE_INIT_REFERENCE_PROFILE = "init-reference-profile";
+    /** The time spent in {@code IArtd.mergeProfiles}. */
+    public static final String PHASE_MERGE_PROFILES = "merge-profiles";
+    /** The wall time of dex2oat, as reported by artd. */
+    public static final String PHASE_DEX2OAT = "dex2oat";
+    /**
+     * The time spent in {@code IArtd.dexopt} outside of dex2oat, which includes the binder round
+     * trip, file preparation, and restorecon.
+     */
+    public static final String PHASE_ARTD_OVERHEAD = "artd-overhead";
+
+    /** @hide */
+    // clang-format off
+    @StringDef(prefix = "PHASE_", value = {
+        PHASE_QUEUE_WAIT,
+        PHASE_GET_DEXOPT_NEEDED,
+        PHASE_INIT_REFERENCE_PROFILE,
+        PHASE_MERGE_PROFILES,
+        PHASE_DEX2OAT,
+        PHASE_ARTD_OVERHEAD,
+    })
+    // clang-format on
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Phase {}
+
+    /**
+     * The number of histogram buckets. Bucket i (i > 0) counts durations in [2^(i-1), 2^i) ms,
+     * bucket 0 counts durations under 1 ms, and the last bucket also counts everything above.
+     */
+    @VisibleForTesting public static final int NUM_BUCKETS = 20;
+
+    @NonNull private static final DexoptMetrics sInstance = new DexoptMetrics();
+
+    @GuardedBy("this")
+    @NonNull
+    private final Map<Key, Stats> mStatsByKey = new TreeMap<>(Comparator.comparing(Key::phase)
+                    .thenComparing(Key::reason)
+                    .thenComparing(Key::compilerFilter));
+
+    @NonNull
+    public static DexoptMetrics getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public DexoptMetrics() {}
+
+    /**
+     * Returns a timer that records the time between this call and {@link Timer#close()} for the
+     * given phase.
+     */
+    @NonNull
+    public Timer startTimer(@NonNull @Phase String phase, @NonNull String reason,
+            @NonNull String compilerFilter) {
+        return new Timer(this, Key.create(phase, reason, compilerFilter));
+    }
+
+    /** Records a duration for the given phase. Negative durations are ignored. */
+    public void record(@NonNull @Phase String phase, @NonNull String reason,
+            @NonNull String compilerFilter, long durationMs) {
+        record(Key.create(phase, reason, compilerFilter), durationMs);
+    }
+
+    private synchronized void record(@NonNull Key key, long durationMs) {
+        if (durationMs < 0) {
+            return;
+        }
+        mStatsByKey.computeIfAbsent(key, k -> new Stats()).add(durationMs);
+    }
+
+    /** Clears all the statistics recorded so far. */
+    public synchronized void reset() {
+        mStatsByKey.clear();
+    }
+
+    /** Dumps the statistics in text format. Prints nothing if nothing has been recorded. */
+    public synchronized void dump(@NonNull PrintWriter pw) {
+        if (mStatsByKey.isEmpty()) {
+            return;
+        }
+        var ipw = new IndentingPrintWriter(pw);
+        ipw.println("Dexopt metrics:");
+        ipw.increaseIndent();
+        for (Map.Entry<Key, Stats> entry : mStatsByKey.entrySet()) {
+            Key key = entry.getKey();
+            Stats stats = entry.getValue();
+            ipw.printf("%s: [reason=%s] [compiler-filter=%s]\n", key.phase(), key.reason(),
+                    key.compilerFilter());
+            ipw.increaseIndent();
+            ipw.printf("count=%d total=%dms max=%dms p50<%dms p90<%dms\n", stats.mCount,
+                    stats.mTotalMs, stats.mMaxMs, stats.getPercentileUpperBoundMs(50),
+                    stats.getPercentileUpperBoundMs(90));
+            ipw.printf("histogram: %s\n", stats.histogramToString());
+            ipw.decreaseIndent();
+        }
+        ipw.decreaseIndent();
+    }
+
+    @VisibleForTesting
+    public static int getBucket(long durationMs) {
+        // 64 - numberOfLeadingZeros(x) is the number of bits needed to represent x, which is 0 for
+        // 0, 1 for 1, 2 for [2, 4), and so on.
+        return Math.min(64 - Long.numberOfLeadingZeros(durationMs), NUM_BUCKETS - 1);
+    }
+
+    /** The exclusive upper bound of the given bucket, in milliseconds. */
+    private static long getBucketUpperBoundMs(int bucket) {
+        return 1L << bucket;
+    }
+
+    /** Records the time of a phase when closed. */
+    public static class Timer implements AutoCloseable {
+        @NonNull private final DexoptMetrics mMetrics;
+        @NonNull private final Key mKey;
+        private final long mStartTimeMs;
+
+        private Timer(@NonNull DexoptMetrics metrics, @NonNull Key key) {
+            mMetrics = metrics;
+            mKey = key;
+            mStartTimeMs = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void close() {
+            mMetrics.record(mKey, SystemClock.elapsedRealtime() - mStartTimeMs);
+        }
+    }
+
+    @AutoValue
+    abstract static class Key {
+        abstract @NonNull String phase();
+        abstract @NonNull String reason();
+        abstract @NonNull String compilerFilter();
+
+        static @NonNull Key create(@NonNull String phase, @NonNull String reason,
+                @NonNull String compilerFilter) {
+            return new AutoValue_DexoptMetrics_Key(phase, reason, compilerFilter);
+        }
+    }
+
+    private static class Stats {
+        private long mCount = 0;
+        private long mTotalMs = 0;
+        private long mMaxMs = 0;
+        @NonNull private final long[] mBuckets = new long[NUM_BUCKETS];
+
+        void add(long durationMs) {
+            mCount++;
+            mTotalMs += durationMs;
+            mMaxMs = Math.max(mMaxMs, durationMs);
+            mBuckets[getBucket(durationMs)]++;
+        }
+
+        long getPercentileUpperBoundMs(int percentile) {
+            long threshold = (mCount * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += mBuckets[i];
+                if (seen >= threshold) {
+                    return getBucketUpperBoundMs(i);
+                }
+            }
+            return getBucketUpperBoundMs(NUM_BUCKETS - 1);
+        }
+
+        @NonNull
+        String histogramToString() {
+            List<String> parts = new ArrayList<>();
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                if (mBuckets[i] == 0) {
+                    continue;
+                }
+                if (i < NUM_BUCKETS - 1) {
+                    parts.add(String.format("<%dms:%d", getBucketUpperBoundMs(i), mBuckets[i]));
+                } else {
+                    parts.add(String.format(
+                            ">=%dms:%d", getBucketUpperBoundMs(i - 1), mBuckets[i]));
+                }
+            }
+            return String.join(" ", parts);
+        }
+    }
+}
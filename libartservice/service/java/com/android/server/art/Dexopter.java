@@ -33,6 +33,7 @@ import android.os.Build;
 import android.os.CancellationSignal;
 import android.os.RemoteException;
 import android.os.ServiceSpecificException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserManager;
 import android.os.storage.StorageManager;
@@ -120,14 +121,25 @@ public abstract class Dexopter<DexInfoType extends DetailedDexInfo> {
                 boolean profileMerged = false;
                 if (DexFile.isProfileGuidedCompilerFilter(compilerFilter)) {
                     if (needsToBeShared) {
-                        profile = initReferenceProfile(dexInfo);
+                        try (var timer = startTimer(
+                                     DexoptMetrics.PHASE_INIT_REFERENCE_PROFILE, compilerFilter)) {
+                            profile = initReferenceProfile(dexInfo);
+                        }
                     } else {
-                        Pair<ProfilePath, Boolean> pair = getOrInitReferenceProfile(dexInfo);
+                        Pair<ProfilePath, Boolean> pair;
+                        try (var timer = startTimer(
+                                     DexoptMetrics.PHASE_INIT_REFERENCE_PROFILE, compilerFilter)) {
+                            pair = getOrInitReferenceProfile(dexInfo);
+                        }
                         if (pair != null) {
                             profile = pair.first;
                             isOtherReadable = pair.second;
                         }
-                        ProfilePath mergedProfile = mergeProfiles(dexInfo, profile);
+                        ProfilePath mergedProfile;
+                        try (var timer = startTimer(
+                                     DexoptMetrics.PHASE_MERGE_PROFILES, compilerFilter)) {
+                            mergedProfile = mergeProfiles(dexInfo, profile);
+                        }
                         if (mergedProfile != null) {
                             if (profile != null && profile.getTag() == ProfilePath.tmpProfilePath) {
                                 mInjector.getArtd().deleteProfile(profile);
@@ -179,8 +191,11 @@ public abstract class Dexopter<DexInfoType extends DetailedDexInfo> {
                                               .setNeedsToBePublic(needsToBeShared)
                                               .build();
 
-                        GetDexoptNeededResult getDexoptNeededResult =
-                                getDexoptNeeded(target, options);
+                        GetDexoptNeededResult getDexoptNeededResult;
+                        try (var timer = startTimer(
+                                     DexoptMetrics.PHASE_GET_DEXOPT_NEEDED, compilerFilter)) {
+                            getDexoptNeededResult = getDexoptNeeded(target, options);
+                        }
 
                         if (!getDexoptNeededResult.isDexoptNeeded) {
                             continue;
@@ -214,9 +229,12 @@ public abstract class Dexopter<DexInfoType extends DetailedDexInfo> {
                             }
                         });
 
+                        long dexoptStartTimeMs = SystemClock.elapsedRealtime();
                         ArtdDexoptResult dexoptResult = dexoptFile(target, profile,
                                 getDexoptNeededResult, permissionSettings,
                                 mParams.getPriorityClass(), dexoptOptions, artdCancellationSignal);
+                        recordDexoptFileMetrics(compilerFilter, dexoptResult,
+                                SystemClock.elapsedRealtime() - dexoptStartTimeMs);
                         status = dexoptResult.cancelled ? DexoptResult.DEXOPT_CANCELLED
                                                         : DexoptResult.DEXOPT_PERFORMED;
                         wallTimeMs = dexoptResult.wallTimeMs;
@@ -284,6 +302,24 @@ public abstract class Dexopter<DexInfoType extends DetailedDexInfo> {
         return results;
     }
 
+    @NonNull
+    private DexoptMetrics.Timer startTimer(
+            @NonNull @DexoptMetrics.Phase String phase, @NonNull String compilerFilter) {
+        return mInjector.getDexoptMetrics().startTimer(phase, mParams.getReason(), compilerFilter);
+    }
+
+    private void recordDexoptFileMetrics(@NonNull String compilerFilter,
+            @NonNull ArtdDexoptResult dexoptResult, long roundTripTimeMs) {
+        if (dexoptResult.cancelled) {
+            return;
+        }
+        DexoptMetrics metrics = mInjector.getDexoptMetrics();
+        metrics.record(DexoptMetrics.PHASE_DEX2OAT, mParams.getReason(), compilerFilter,
+                dexoptResult.wallTimeMs);
+        metrics.record(DexoptMetrics.PHASE_ARTD_OVERHEAD, mParams.getReason(), compilerFilter,
+                roundTripTimeMs - dexoptResult.wallTimeMs);
+    }
+
     @NonNull
     private String adjustCompilerFilter(
             @NonNull String targetCompilerFilter, @NonNull DexInfoType dexInfo) {
@@ -696,6 +732,11 @@ public abstract class Dexopter<DexInfoType extends DetailedDexInfo> {
                     LocalManagerRegistry.getManager(PackageManagerLocal.class));
         }
 
+        @NonNull
+        public DexoptMetrics getDexoptMetrics() {
+            return DexoptMetrics.getInstance();
+        }
+
         public long getArtVersion() {
             try (var snapshot = getPackageManagerLocal().withUnfilteredSnapshot()) {
                 Map<String, PackageState> packageStates = snapshot.getPackageStates();
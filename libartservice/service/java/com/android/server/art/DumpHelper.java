@@ -75,6 +75,7 @@ public class DumpHelper {
                 .stream()
                 .sorted(Comparator.comparing(PackageState::getPackageName))
                 .forEach(pkgState -> dumpPackage(pw, snapshot, pkgState));
+        mInjector.getDexoptMetrics().dump(pw);
     }
 
     /**
@@ -269,5 +270,10 @@ public class DumpHelper {
         public IArtd getArtd() {
             return Utils.getArtd();
         }
+
+        @NonNull
+        public DexoptMetrics getDexoptMetrics() {
+            return DexoptMetrics.getInstance();
+        }
     }
 }
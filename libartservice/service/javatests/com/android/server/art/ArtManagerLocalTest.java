@@ -19,6 +19,8 @@ package com.android.server.art;
 import static android.os.ParcelFileDescriptor.AutoCloseInputStream;
 
 import static com.android.server.art.DexUseManagerLocal.DetailedSecondaryDexInfo;
+import static com.android.server.art.model.DexoptResult.DexContainerFileDexoptResult;
+import static com.android.server.art.model.DexoptResult.PackageDexoptResult;
 import static com.android.server.art.model.DexoptStatus.DexContainerFileDexoptStatus;
 import static com.android.server.art.testing.TestingUtils.deepEq;
 import static com.android.server.art.testing.TestingUtils.inAnyOrder;
@@ -45,6 +47,9 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.apphibernation.AppHibernationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
 import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
 import android.os.Process;
@@ -57,6 +62,7 @@ import android.os.storage.StorageManager;
 import androidx.test.filters.SmallTest;
 
 import com.android.modules.utils.pm.PackageStateModulesUtils;
+import com.android.server.art.model.ArtFlags;
 import com.android.server.art.model.Config;
 import com.android.server.art.model.DeleteResult;
 import com.android.server.art.model.DexoptParams;
@@ -69,6 +75,7 @@ import com.android.server.pm.pkg.AndroidPackage;
 import com.android.server.pm.pkg.AndroidPackageSplit;
 import com.android.server.pm.pkg.PackageState;
 import com.android.server.pm.pkg.PackageUserState;
+import com.android.server.pm.pkg.SharedLibrary;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -77,6 +84,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 import java.io.File;
@@ -86,11 +94,14 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -120,6 +131,7 @@ public class ArtManagerLocalTest {
     @Mock private UserManager mUserManager;
     @Mock private DexUseManagerLocal mDexUseManager;
     @Mock private StorageManager mStorageManager;
+    @Mock private Context mContext;
     private PackageState mPkgState1;
     private AndroidPackage mPkg1;
     private List<DetailedSecondaryDexInfo> mSecondaryDexInfo1;
@@ -160,10 +172,15 @@ public class ArtManagerLocalTest {
         lenient().when(mInjector.getDexUseManager()).thenReturn(mDexUseManager);
         lenient().when(mInjector.getCurrentTimeMillis()).thenReturn(CURRENT_TIME_MS);
         lenient().when(mInjector.getStorageManager()).thenReturn(mStorageManager);
+        lenient().when(mInjector.getLibraryDependentsDexoptExecutor()).thenReturn(Runnable::run);
+        lenient().when(mInjector.getContext()).thenReturn(mContext);
 
         Path tempDir = Files.createTempDirectory("temp");
         tempDir.toFile().deleteOnExit();
         lenient().when(mInjector.getTempDir()).thenReturn(tempDir.toString());
+        lenient()
+                .when(mInjector.getBootImageProfileMergeShardSize())
+                .thenReturn(ArtManagerLocal.BOOT_IMAGE_PROFILE_MERGE_SHARD_SIZE);
 
         lenient().when(SystemProperties.get(eq("pm.dexopt.install"))).thenReturn("speed-profile");
         lenient().when(SystemProperties.get(eq("pm.dexopt.bg-dexopt"))).thenReturn("speed-profile");
@@ -427,6 +444,100 @@ public class ArtManagerLocalTest {
                 .isSameInstanceAs(result);
     }
 
+    @Test
+    public void testDexoptPackageDexoptsLibraryDependents() throws Exception {
+        var params = new DexoptParams.Builder("install").build();
+        mockLibraryUpdate(params);
+
+        mArtManagerLocal.dexoptPackage(mSnapshot, PKG_NAME_1, params, new CancellationSignal());
+
+        verify(mDexoptHelper)
+                .dexopt(any(), deepEq(List.of(PKG_NAME_2)),
+                        argThat(dependentParams
+                                -> dependentParams.getReason().equals("install")
+                                        && dependentParams.getPriorityClass()
+                                                == ArtFlags.PRIORITY_INTERACTIVE),
+                        argThat(cancellationSignal -> !cancellationSignal.isCanceled()), any());
+    }
+
+    @Test
+    public void testDexoptPackageLibraryDependentsBulkInstall() throws Exception {
+        var params = new DexoptParams.Builder("install-bulk").build();
+        mockLibraryUpdate(params);
+
+        mArtManagerLocal.dexoptPackage(mSnapshot, PKG_NAME_1, params, new CancellationSignal());
+
+        verify(mDexoptHelper)
+                .dexopt(any(), deepEq(List.of(PKG_NAME_2)),
+                        argThat(dependentParams
+                                -> dependentParams.getReason().equals("install-bulk")
+                                        && dependentParams.getPriorityClass()
+                                                == ArtFlags.PRIORITY_BACKGROUND),
+                        any(), any());
+    }
+
+    @Test
+    public void testCleanupCancelsLibraryDependentsDexopt() throws Exception {
+        var params = new DexoptParams.Builder("install").build();
+        mockLibraryUpdate(params);
+
+        var cancellationSignals = new ArrayList<CancellationSignal>();
+        when(mDexoptHelper.dexopt(any(), deepEq(List.of(PKG_NAME_2)), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    mArtManagerLocal.cleanup(mSnapshot);
+                    cancellationSignals.add(invocation.getArgument(3));
+                    return mock(DexoptResult.class);
+                });
+
+        mArtManagerLocal.dexoptPackage(mSnapshot, PKG_NAME_1, params, new CancellationSignal());
+
+        assertThat(cancellationSignals).hasSize(1);
+        assertThat(cancellationSignals.get(0).isCanceled()).isTrue();
+    }
+
+    @Test
+    public void testShutdownCancelsLibraryDependentsDexopt() throws Exception {
+        var params = new DexoptParams.Builder("install").build();
+        mockLibraryUpdate(params);
+
+        var cancellationSignals = new ArrayList<CancellationSignal>();
+        when(mDexoptHelper.dexopt(any(), deepEq(List.of(PKG_NAME_2)), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    var receiverCaptor = ArgumentCaptor.forClass(BroadcastReceiver.class);
+                    verify(mContext).registerReceiver(receiverCaptor.capture(),
+                            argThat(filter -> filter.hasAction(Intent.ACTION_SHUTDOWN)));
+                    receiverCaptor.getValue().onReceive(
+                            mContext, new Intent(Intent.ACTION_SHUTDOWN));
+                    cancellationSignals.add(invocation.getArgument(3));
+                    return mock(DexoptResult.class);
+                });
+
+        mArtManagerLocal.dexoptPackage(mSnapshot, PKG_NAME_1, params, new CancellationSignal());
+
+        assertThat(cancellationSignals).hasSize(1);
+        assertThat(cancellationSignals.get(0).isCanceled()).isTrue();
+    }
+
+    @Test
+    public void testDexoptPackageNoLibraryDependentsIfNotUpdated() throws Exception {
+        SharedLibrary library1 = createSharedLibrary("library1", PKG_NAME_1, List.of());
+        lenient()
+                .when(mSnapshot.getPackageState(PKG_NAME_2).getSharedLibraryDependencies())
+                .thenReturn(List.of(library1));
+
+        var params = new DexoptParams.Builder("install").build();
+        var result = DexoptResult.create("speed-profile", "install",
+                List.of(PackageDexoptResult.create(
+                        PKG_NAME_1, List.of(), null /* packageLevelStatus */)));
+        when(mDexoptHelper.dexopt(any(), deepEq(List.of(PKG_NAME_1)), same(params), any(), any()))
+                .thenReturn(result);
+
+        mArtManagerLocal.dexoptPackage(mSnapshot, PKG_NAME_1, params, new CancellationSignal());
+
+        verify(mDexoptHelper, never())
+                .dexopt(any(), deepEq(List.of(PKG_NAME_2)), any(), any(), any());
+    }
+
     @Test
     public void testResetDexoptStatus() throws Exception {
         var result = mock(DexoptResult.class);
@@ -905,6 +1016,80 @@ public class ArtManagerLocalTest {
         mArtManagerLocal.snapshotBootImageProfile(mSnapshot);
     }
 
+    @Test
+    public void testSnapshotBootImageProfileSharded() throws Exception {
+        lenient().when(Constants.getenv("BOOTCLASSPATH")).thenReturn("bcp0:bcp1");
+        lenient().when(Constants.getenv("SYSTEMSERVERCLASSPATH")).thenReturn("sscp0:sscp1");
+        lenient().when(Constants.getenv("STANDALONE_SYSTEMSERVER_JARS")).thenReturn("sssj0:sssj1");
+
+        // There are 15 profiles in total, so they are merged in shards of 6, 6 and 3 profiles.
+        when(mInjector.getBootImageProfileMergeShardSize()).thenReturn(6);
+
+        var options = new MergeProfileOptions();
+        options.forceMerge = true;
+        options.forBootImage = true;
+        List<String> dexPaths = List.of("bcp0", "bcp1", "sscp0", "sscp1", "sssj0", "sssj1");
+
+        List<List<ProfilePath>> shards = Collections.synchronizedList(new ArrayList<>());
+        List<ProfilePath> intermediateProfiles = Collections.synchronizedList(new ArrayList<>());
+        var nextTmpPath = new AtomicInteger();
+        when(mArtd.mergeProfiles(argThat(ArtManagerLocalTest::hasNoTmpProfiles), isNull(), any(),
+                     deepEq(dexPaths), deepEq(options)))
+                .thenAnswer(invocation -> {
+                    shards.add(List.copyOf(invocation.<List<ProfilePath>>getArgument(0)));
+                    var output = invocation.<OutputProfile>getArgument(2);
+                    output.profilePath.tmpPath = "/temp/path/" + nextTmpPath.getAndIncrement();
+                    intermediateProfiles.add(ProfilePath.tmpProfilePath(output.profilePath));
+                    return true;
+                });
+        when(mArtd.mergeProfiles(argThat(ArtManagerLocalTest::hasOnlyTmpProfiles), isNull(),
+                     deepEq(AidlUtils.buildOutputProfileForPrimary("android", "primary",
+                             Process.SYSTEM_UID, Process.SYSTEM_UID, false /* isPublic */)),
+                     deepEq(dexPaths), deepEq(options)))
+                .thenReturn(false);
+
+        mArtManagerLocal.snapshotBootImageProfile(mSnapshot);
+
+        assertThat(shards.stream().map(List::size).sorted().collect(Collectors.toList()))
+                .containsExactly(3, 6, 6)
+                .inOrder();
+        assertThat(shards.stream().flatMap(List::stream).collect(Collectors.toList()))
+                .comparingElementsUsing(TestingUtils.<ProfilePath>deepEquality())
+                .containsExactly(AidlUtils.buildProfilePathForPrimaryRef("android", "primary"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                0 /* userId */, "android", "primary"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                1 /* userId */, "android", "primary"),
+                        AidlUtils.buildProfilePathForPrimaryRef(PKG_NAME_1, "primary"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                0 /* userId */, PKG_NAME_1, "primary"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                1 /* userId */, PKG_NAME_1, "primary"),
+                        AidlUtils.buildProfilePathForPrimaryRef(PKG_NAME_1, "split_0.split"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                0 /* userId */, PKG_NAME_1, "split_0.split"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                1 /* userId */, PKG_NAME_1, "split_0.split"),
+                        AidlUtils.buildProfilePathForPrimaryRef(PKG_NAME_2, "primary"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                0 /* userId */, PKG_NAME_2, "primary"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                1 /* userId */, PKG_NAME_2, "primary"),
+                        AidlUtils.buildProfilePathForPrimaryRef(PKG_NAME_HIBERNATING, "primary"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                0 /* userId */, PKG_NAME_HIBERNATING, "primary"),
+                        AidlUtils.buildProfilePathForPrimaryCur(
+                                1 /* userId */, PKG_NAME_HIBERNATING, "primary"));
+
+        // The intermediate profiles are merged into the final one and then deleted.
+        verify(mArtd).mergeProfiles(
+                inAnyOrderDeepEquals(intermediateProfiles.toArray(new ProfilePath[0])), isNull(),
+                any(), deepEq(dexPaths), deepEq(options));
+        for (ProfilePath profile : intermediateProfiles) {
+            verify(mArtd).deleteProfile(deepEq(profile));
+        }
+    }
+
     @Test
     public void testCleanup() throws Exception {
         // It should keep all artifacts.
@@ -955,6 +1140,18 @@ public class ArtManagerLocalTest {
                                 "/data/app/foo/split_0.apk", "arm", mExpectedIsInDalvikCache))));
     }
 
+    private static boolean isTmpProfile(ProfilePath profile) {
+        return profile.getTag() == ProfilePath.tmpProfilePath;
+    }
+
+    private static boolean hasNoTmpProfiles(List<ProfilePath> profiles) {
+        return profiles.stream().noneMatch(ArtManagerLocalTest::isTmpProfile);
+    }
+
+    private static boolean hasOnlyTmpProfiles(List<ProfilePath> profiles) {
+        return profiles.stream().allMatch(ArtManagerLocalTest::isTmpProfile);
+    }
+
     private AndroidPackage createPackage(boolean multiSplit) {
         AndroidPackage pkg = mock(AndroidPackage.class);
 
@@ -1034,6 +1231,39 @@ public class ArtManagerLocalTest {
         return List.of(pkgState1, pkgState2, pkgHibernatingState, nonDexoptablePkgState);
     }
 
+    /**
+     * Makes PKG_NAME_2 depend on a library provided by PKG_NAME_1 through another library, and
+     * makes the dexopt of PKG_NAME_1 with {@code params} update its artifacts.
+     */
+    private void mockLibraryUpdate(DexoptParams params) throws Exception {
+        SharedLibrary library1 = createSharedLibrary("library1", PKG_NAME_1, List.of());
+        SharedLibrary library2 = createSharedLibrary("library2", null, List.of(library1));
+        lenient()
+                .when(mSnapshot.getPackageState(PKG_NAME_2).getSharedLibraryDependencies())
+                .thenReturn(List.of(library2));
+
+        var result = DexoptResult.create("speed-profile", params.getReason(),
+                List.of(PackageDexoptResult.create(PKG_NAME_1,
+                        List.of(DexContainerFileDexoptResult.create("/data/app/foo/base.apk",
+                                true /* isPrimaryAbi */, "arm64-v8a", "speed-profile",
+                                DexoptResult.DEXOPT_PERFORMED, 100 /* dex2oatWallTimeMillis */,
+                                400 /* dex2oatCpuTimeMillis */, 0 /* sizeBytes */,
+                                0 /* sizeBeforeBytes */, false /* isSkippedDueToStorageLow */)),
+                        null /* packageLevelStatus */)));
+        when(mDexoptHelper.dexopt(any(), deepEq(List.of(PKG_NAME_1)), same(params), any(), any()))
+                .thenReturn(result);
+    }
+
+    private SharedLibrary createSharedLibrary(
+            String name, String packageName, List<SharedLibrary> dependencies) {
+        SharedLibrary library = mock(SharedLibrary.class);
+        lenient().when(library.getName()).thenReturn(name);
+        lenient().when(library.getPackageName()).thenReturn(packageName);
+        lenient().when(library.isNative()).thenReturn(false);
+        lenient().when(library.getDependencies()).thenReturn(dependencies);
+        return library;
+    }
+
     private GetDexoptStatusResult createGetDexoptStatusResult(
             String compilerFilter, String compilationReason, String locationDebugString) {
         var getDexoptStatusResult = new GetDexoptStatusResult();
@@ -17,6 +17,7 @@
 package com.android.server.art;
 
 import static com.android.server.art.model.Config.Callback;
+import static com.android.server.art.model.DexoptResult.PackageDexoptResult;
 
 import static com.google.common.truth.Truth.assertThat;
 
@@ -56,6 +57,9 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
+import java.io.File;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -64,6 +68,11 @@ import java.util.concurrent.TimeUnit;
 @RunWith(AndroidJUnit4.class)
 public class BackgroundDexoptJobTest {
     private static final long TIMEOUT_SEC = 10;
+    private static final long CURRENT_TIME_MS = 10_000_000_000L;
+    private static final String PKG_NAME_FOO = "com.example.foo";
+    private static final String PKG_NAME_BAR = "com.example.bar";
+    private static final String PKG_NAME_BAZ = "com.example.baz";
+    private static final String PKG_NAME_QUX = "com.example.qux";
 
     @Rule
     public StaticMockitoRule mockitoRule =
@@ -80,6 +89,7 @@ public class BackgroundDexoptJobTest {
     private Config mConfig;
     private BackgroundDexoptJob mBackgroundDexoptJob;
     private Semaphore mJobFinishedCalled = new Semaphore(0);
+    private File mCheckpointFile;
 
     @Before
     public void setUp() throws Exception {
@@ -95,6 +105,12 @@ public class BackgroundDexoptJobTest {
         lenient().when(mInjector.getPackageManagerLocal()).thenReturn(mPackageManagerLocal);
         lenient().when(mInjector.getConfig()).thenReturn(mConfig);
         lenient().when(mInjector.getJobScheduler()).thenReturn(mJobScheduler);
+        lenient().when(mInjector.getCurrentTimeMillis()).thenReturn(CURRENT_TIME_MS);
+
+        mCheckpointFile = File.createTempFile("art-bg-dexopt-checkpoint", ".pb");
+        mCheckpointFile.delete();
+        mCheckpointFile.deleteOnExit();
+        lenient().when(mInjector.getCheckpointFilename()).thenReturn(mCheckpointFile.getPath());
 
         mBackgroundDexoptJob = new BackgroundDexoptJob(mInjector);
         lenient().when(BackgroundDexoptJobService.getJob()).thenReturn(mBackgroundDexoptJob);
@@ -114,8 +130,8 @@ public class BackgroundDexoptJobTest {
 
     @Test
     public void testStart() {
-        when(mArtManagerLocal.dexoptPackages(
-                     same(mSnapshot), eq(ReasonMapping.REASON_BG_DEXOPT), any(), any(), any()))
+        when(mArtManagerLocal.dexoptPackages(same(mSnapshot), eq(ReasonMapping.REASON_BG_DEXOPT),
+                     any(), any(), any(), eq(Set.of())))
                 .thenReturn(mDexoptResult);
 
         Result result = Utils.getFuture(mBackgroundDexoptJob.start());
@@ -125,10 +141,44 @@ public class BackgroundDexoptJobTest {
         verify(mArtManagerLocal).cleanup(same(mSnapshot));
     }
 
+    @Test
+    public void testStartResumesFromCheckpoint() {
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), eq(Set.of())))
+                .thenReturn(createCancelledResult());
+
+        Utils.getFuture(mBackgroundDexoptJob.start());
+
+        // The next run skips the packages that have been processed by the interrupted run.
+        when(mArtManagerLocal.dexoptPackages(
+                     any(), any(), any(), any(), any(), eq(Set.of(PKG_NAME_FOO, PKG_NAME_BAR))))
+                .thenReturn(mDexoptResult);
+
+        Result result = Utils.getFuture(mBackgroundDexoptJob.start());
+        assertThat(((CompletedResult) result).dexoptResult()).isSameInstanceAs(mDexoptResult);
+
+        // The checkpoint is cleared once the run has finished.
+        assertThat(mCheckpointFile.exists()).isFalse();
+    }
+
+    @Test
+    public void testStartIgnoresStaleCheckpoint() {
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), eq(Set.of())))
+                .thenReturn(createCancelledResult())
+                .thenReturn(mDexoptResult);
+
+        Utils.getFuture(mBackgroundDexoptJob.start());
+
+        when(mInjector.getCurrentTimeMillis())
+                .thenReturn(CURRENT_TIME_MS + BackgroundDexoptJob.JOB_INTERVAL_MS);
+
+        Result result = Utils.getFuture(mBackgroundDexoptJob.start());
+        assertThat(((CompletedResult) result).dexoptResult()).isSameInstanceAs(mDexoptResult);
+    }
+
     @Test
     public void testStartAlreadyRunning() {
         Semaphore dexoptDone = new Semaphore(0);
-        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any()))
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), any()))
                 .thenAnswer(invocation -> {
                     assertThat(dexoptDone.tryAcquire(TIMEOUT_SEC, TimeUnit.SECONDS)).isTrue();
                     return mDexoptResult;
@@ -141,12 +191,12 @@ public class BackgroundDexoptJobTest {
         dexoptDone.release();
         Utils.getFuture(future1);
 
-        verify(mArtManagerLocal, times(1)).dexoptPackages(any(), any(), any(), any(), any());
+        verify(mArtManagerLocal, times(1)).dexoptPackages(any(), any(), any(), any(), any(), any());
     }
 
     @Test
     public void testStartAnother() {
-        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any()))
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), any()))
                 .thenReturn(mDexoptResult);
 
         Future<Result> future1 = mBackgroundDexoptJob.start();
@@ -158,7 +208,7 @@ public class BackgroundDexoptJobTest {
 
     @Test
     public void testStartFatalError() {
-        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any()))
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), any()))
                 .thenThrow(IllegalStateException.class);
 
         Result result = Utils.getFuture(mBackgroundDexoptJob.start());
@@ -171,7 +221,7 @@ public class BackgroundDexoptJobTest {
                 .when(SystemProperties.getBoolean(eq("pm.dexopt.disable_bg_dexopt"), anyBoolean()))
                 .thenReturn(true);
 
-        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any()))
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), any()))
                 .thenReturn(mDexoptResult);
 
         // The `start` method should ignore the system property. The system property is for
@@ -182,7 +232,7 @@ public class BackgroundDexoptJobTest {
     @Test
     public void testCancel() {
         Semaphore dexoptCancelled = new Semaphore(0);
-        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any()))
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), any()))
                 .thenAnswer(invocation -> {
                     assertThat(dexoptCancelled.tryAcquire(TIMEOUT_SEC, TimeUnit.SECONDS)).isTrue();
                     var cancellationSignal = invocation.<CancellationSignal>getArgument(2);
@@ -274,7 +324,7 @@ public class BackgroundDexoptJobTest {
     @Test
     public void testWantsRescheduleFalsePerformed() throws Exception {
         when(mDexoptResult.getFinalStatus()).thenReturn(DexoptResult.DEXOPT_PERFORMED);
-        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any()))
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), any()))
                 .thenReturn(mDexoptResult);
 
         mBackgroundDexoptJob.onStartJob(mJobService, mJobParameters);
@@ -285,7 +335,7 @@ public class BackgroundDexoptJobTest {
 
     @Test
     public void testWantsRescheduleFalseFatalError() throws Exception {
-        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any()))
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), any()))
                 .thenThrow(RuntimeException.class);
 
         mBackgroundDexoptJob.onStartJob(mJobService, mJobParameters);
@@ -297,7 +347,7 @@ public class BackgroundDexoptJobTest {
     @Test
     public void testWantsRescheduleTrue() throws Exception {
         when(mDexoptResult.getFinalStatus()).thenReturn(DexoptResult.DEXOPT_CANCELLED);
-        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any()))
+        when(mArtManagerLocal.dexoptPackages(any(), any(), any(), any(), any(), any()))
                 .thenReturn(mDexoptResult);
 
         mBackgroundDexoptJob.onStartJob(mJobService, mJobParameters);
@@ -305,4 +355,16 @@ public class BackgroundDexoptJobTest {
 
         verify(mJobService).jobFinished(any(), eq(true) /* wantsReschedule */);
     }
+
+    private DexoptResult createCancelledResult() {
+        return DexoptResult.create("speed-profile", ReasonMapping.REASON_BG_DEXOPT,
+                List.of(PackageDexoptResult.create(
+                                PKG_NAME_FOO, List.of(), DexoptResult.DEXOPT_PERFORMED),
+                        PackageDexoptResult.create(
+                                PKG_NAME_BAR, List.of(), DexoptResult.DEXOPT_SKIPPED),
+                        PackageDexoptResult.create(
+                                PKG_NAME_BAZ, List.of(), DexoptResult.DEXOPT_FAILED),
+                        PackageDexoptResult.create(
+                                PKG_NAME_QUX, List.of(), DexoptResult.DEXOPT_CANCELLED)));
+    }
 }
@@ -163,6 +163,7 @@ public class DexoptHelperTest {
         lenient().when(mInjector.getAppHibernationManager()).thenReturn(mAhm);
         lenient().when(mInjector.getPowerManager()).thenReturn(mPowerManager);
         lenient().when(mInjector.getConfig()).thenReturn(mConfig);
+        lenient().when(mInjector.getDexoptMetrics()).thenReturn(new DexoptMetrics());
 
         mDexoptHelper = new DexoptHelper(mInjector);
     }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.art;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DexoptMetricsTest {
+    private DexoptMetrics mMetrics;
+
+    @Before
+    public void setUp() throws Exception {
+        mMetrics = new DexoptMetrics();
+    }
+
+    @Test
+    public void testGetBucket() {
+        assertThat(DexoptMetrics.getBucket(0)).isEqualTo(0);
+        assertThat(DexoptMetrics.getBucket(1)).isEqualTo(1);
+        assertThat(DexoptMetrics.getBucket(2)).isEqualTo(2);
+        assertThat(DexoptMetrics.getBucket(3)).isEqualTo(2);
+        assertThat(DexoptMetrics.getBucket(4)).isEqualTo(3);
+        assertThat(DexoptMetrics.getBucket(Long.MAX_VALUE))
+                .isEqualTo(DexoptMetrics.NUM_BUCKETS - 1);
+    }
+
+    @Test
+    public void testDump() {
+        mMetrics.record(DexoptMetrics.PHASE_DEX2OAT, "bg-dexopt", "speed-profile", 3);
+        mMetrics.record(DexoptMetrics.PHASE_DEX2OAT, "bg-dexopt", "speed-profile", 100);
+        mMetrics.record(DexoptMetrics.PHASE_DEX2OAT, "bg-dexopt", "speed-profile", -1);
+        mMetrics.record(DexoptMetrics.PHASE_GET_DEXOPT_NEEDED, "bg-dexopt", "speed-profile", 0);
+        mMetrics.record(DexoptMetrics.PHASE_DEX2OAT, "install", "verify", 10);
+
+        String expected = "Dexopt metrics:\n"
+                + "  dex2oat: [reason=bg-dexopt] [compiler-filter=speed-profile]\n"
+                + "    count=2 total=103ms max=100ms p50<4ms p90<128ms\n"
+                + "    histogram: <4ms:1 <128ms:1\n"
+                + "  dex2oat: [reason=install] [compiler-filter=verify]\n"
+                + "    count=1 total=10ms max=10ms p50<16ms p90<16ms\n"
+                + "    histogram: <16ms:1\n"
+                + "  get-dexopt-needed: [reason=bg-dexopt] [compiler-filter=speed-profile]\n"
+                + "    count=1 total=0ms max=0ms p50<1ms p90<1ms\n"
+                + "    histogram: <1ms:1\n";
+
+        assertThat(dump()).isEqualTo(expected);
+    }
+
+    @Test
+    public void testDumpEmpty() {
+        assertThat(dump()).isEmpty();
+    }
+
+    @Test
+    public void testTimer() {
+        try (var timer = mMetrics.startTimer(
+                     DexoptMetrics.PHASE_MERGE_PROFILES, "bg-dexopt", "speed-profile")) {
+        }
+
+        assertThat(dump()).contains(
+                "merge-profiles: [reason=bg-dexopt] [compiler-filter=speed-profile]\n"
+                + "    count=1 ");
+    }
+
+    @Test
+    public void testReset() {
+        mMetrics.record(DexoptMetrics.PHASE_DEX2OAT, "bg-dexopt", "speed-profile", 3);
+        mMetrics.reset();
+
+        assertThat(dump()).isEmpty();
+    }
+
+    private String dump() {
+        var stringWriter = new StringWriter();
+        mMetrics.dump(new PrintWriter(stringWriter));
+        return stringWriter.toString();
+    }
+}
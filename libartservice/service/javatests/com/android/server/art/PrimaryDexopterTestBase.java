@@ -80,6 +80,7 @@ public class PrimaryDexopterTestBase {
         lenient().when(mInjector.getDexUseManager()).thenReturn(mDexUseManager);
         lenient().when(mInjector.getStorageManager()).thenReturn(mStorageManager);
         lenient().when(mInjector.getArtVersion()).thenReturn(ART_VERSION);
+        lenient().when(mInjector.getDexoptMetrics()).thenReturn(new DexoptMetrics());
 
         lenient()
                 .when(SystemProperties.get("dalvik.vm.systemuicompilerfilter"))
@@ -130,6 +130,7 @@ public class SecondaryDexopterTest {
         lenient().when(mInjector.isSystemUiPackage(any())).thenReturn(false);
         lenient().when(mInjector.isLauncherPackage(any())).thenReturn(false);
         lenient().when(mInjector.getDexUseManager()).thenReturn(mDexUseManager);
+        lenient().when(mInjector.getDexoptMetrics()).thenReturn(new DexoptMetrics());
 
         List<DetailedSecondaryDexInfo> secondaryDexInfo = createSecondaryDexInfo();
         lenient()
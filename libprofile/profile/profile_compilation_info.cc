@@ -941,6 +941,78 @@ static bool WriteBuffer(int fd, const void* buffer, size_t byte_count) {
   return true;
 }
 
+// Deflates data written in pieces and writes the compressed data to a file as it goes, so that
+// a section does not need to be held in memory in both uncompressed and compressed form.
+// Produces the same stream format as `DeflateBuffer()`.
+class StreamingDeflateWriter {
+ public:
+  explicit StreamingDeflateWriter(int fd) : fd_(fd), compressed_size_(0u) {
+    strm_.zalloc = Z_NULL;
+    strm_.zfree = Z_NULL;
+    strm_.opaque = Z_NULL;
+    initialized_ = (deflateInit(&strm_, 1) == Z_OK);
+  }
+
+  ~StreamingDeflateWriter() {
+    if (initialized_) {
+      deflateEnd(&strm_);
+    }
+  }
+
+  // Compresses `data` and writes any compressed output that is ready.
+  bool Write(ArrayRef<const uint8_t> data) {
+    if (!initialized_) {
+      return false;
+    }
+    strm_.avail_in = data.size();
+    strm_.next_in = const_cast<uint8_t*>(data.data());
+    return Deflate(Z_NO_FLUSH);
+  }
+
+  // Flushes the remaining compressed output. On success, stores the total size of
+  // the compressed data in `*compressed_size`.
+  bool Finish(/*out*/ uint32_t* compressed_size) {
+    if (!initialized_) {
+      return false;
+    }
+    strm_.avail_in = 0u;
+    strm_.next_in = nullptr;
+    if (!Deflate(Z_FINISH)) {
+      return false;
+    }
+    *compressed_size = dchecked_integral_cast<uint32_t>(compressed_size_);
+    return true;
+  }
+
+ private:
+  bool Deflate(int flush) {
+    int ret;
+    do {
+      strm_.avail_out = sizeof(output_);
+      strm_.next_out = output_;
+      ret = deflate(&strm_, flush);
+      if (ret == Z_STREAM_ERROR) {
+        return false;
+      }
+      size_t output_size = sizeof(output_) - strm_.avail_out;
+      if (!WriteBuffer(fd_, output_, output_size)) {
+        return false;
+      }
+      compressed_size_ += output_size;
+    } while (strm_.avail_out == 0u || (flush == Z_FINISH && ret != Z_STREAM_END));
+    DCHECK_EQ(strm_.avail_in, 0u);
+    return true;
+  }
+
+  static constexpr size_t kOutputBufferSize = 16 * KB;
+
+  const int fd_;
+  bool initialized_;
+  uint64_t compressed_size_;
+  z_stream strm_;
+  uint8_t output_[kOutputBufferSize];
+};
+
 /**
  * Serialization format:
  *
@@ -1015,6 +1087,12 @@ bool ProfileCompilationInfo::Save(int fd) {
   uint64_t dex_files_section_size = sizeof(ProfileIndexType);  // Number of dex files.
   uint64_t classes_section_size = 0u;
   uint64_t methods_section_size = 0u;
+  // Remember the per-dex file sizes, the classes and methods sections are written one dex file
+  // at a time.
+  dchecked_vector<uint32_t> classes_data_sizes;
+  dchecked_vector<uint32_t> methods_data_sizes;
+  classes_data_sizes.reserve(info_.size());
+  methods_data_sizes.reserve(info_.size());
   DCHECK_LE(info_.size(), MaxProfileIndex());
   for (const std::unique_ptr<DexFileData>& dex_data : info_) {
     if (dex_data->profile_key.size() > kMaxDexFileKeyLength) {
@@ -1025,8 +1103,10 @@ bool ProfileCompilationInfo::Save(int fd) {
         3 * sizeof(uint32_t) +  // Checksum, num_type_ids, num_method_ids.
         // Length-prefixed string, the length is `uint16_t`.
         sizeof(uint16_t) + dex_data->profile_key.size();
-    classes_section_size += dex_data->ClassesDataSize();
-    methods_section_size += dex_data->MethodsDataSize();
+    classes_data_sizes.push_back(dex_data->ClassesDataSize());
+    methods_data_sizes.push_back(dex_data->MethodsDataSize());
+    classes_section_size += classes_data_sizes.back();
+    methods_section_size += methods_data_sizes.back();
   }
 
   const uint32_t file_section_count =
@@ -1113,34 +1193,47 @@ bool ProfileCompilationInfo::Save(int fd) {
         FileSectionType::kExtraDescriptors, buffer.Size(), extra_descriptors_section_size);
   }
 
-  // Write the classes section.
+  // Write the classes section. The data is serialized and compressed one dex file at a time
+  // to avoid holding the whole uncompressed section in memory.
   if (classes_section_size != 0u) {
-    SafeBuffer buffer(classes_section_size);
-    for (const std::unique_ptr<DexFileData>& dex_data : info_) {
-      dex_data->WriteClasses(buffer);
-    }
-    if (!buffer.Deflate()) {
-      return false;
+    StreamingDeflateWriter writer(fd);
+    for (size_t i = 0, size = info_.size(); i != size; ++i) {
+      if (classes_data_sizes[i] == 0u) {
+        continue;
+      }
+      SafeBuffer buffer(classes_data_sizes[i]);
+      info_[i]->WriteClasses(buffer);
+      DCHECK_EQ(buffer.GetAvailableBytes(), 0u);
+      if (!writer.Write(ArrayRef<const uint8_t>(buffer.Get(), buffer.Size()))) {
+        return false;
+      }
     }
-    if (!WriteBuffer(fd, buffer.Get(), buffer.Size())) {
+    uint32_t compressed_size;
+    if (!writer.Finish(&compressed_size)) {
       return false;
     }
-    add_section_info(FileSectionType::kClasses, buffer.Size(), classes_section_size);
+    add_section_info(FileSectionType::kClasses, compressed_size, classes_section_size);
   }
 
-  // Write the methods section.
+  // Write the methods section, one dex file at a time as for the classes section.
   if (methods_section_size != 0u) {
-    SafeBuffer buffer(methods_section_size);
-    for (const std::unique_ptr<DexFileData>& dex_data : info_) {
-      dex_data->WriteMethods(buffer);
-    }
-    if (!buffer.Deflate()) {
-      return false;
+    StreamingDeflateWriter writer(fd);
+    for (size_t i = 0, size = info_.size(); i != size; ++i) {
+      if (methods_data_sizes[i] == 0u) {
+        continue;
+      }
+      SafeBuffer buffer(methods_data_sizes[i]);
+      info_[i]->WriteMethods(buffer);
+      DCHECK_EQ(buffer.GetAvailableBytes(), 0u);
+      if (!writer.Write(ArrayRef<const uint8_t>(buffer.Get(), buffer.Size()))) {
+        return false;
+      }
     }
-    if (!WriteBuffer(fd, buffer.Get(), buffer.Size())) {
+    uint32_t compressed_size;
+    if (!writer.Finish(&compressed_size)) {
       return false;
     }
-    add_section_info(FileSectionType::kMethods, buffer.Size(), methods_section_size);
+    add_section_info(FileSectionType::kMethods, compressed_size, methods_section_size);
   }
 
   if (file_offset > GetSizeWarningThresholdBytes()) {
@@ -1321,8 +1414,8 @@ bool ProfileCompilationInfo::AddMethod(const ProfileMethodInfo& pmi,
   if (!data->AddMethod(flags, pmi.ref.index)) {
     return false;
   }
-  if ((flags & MethodHotness::kFlagHot) == 0) {
-    // The method is not hot, do not add inline caches.
+  if ((flags & MethodHotness::kFlagHot) == 0 || pmi.inline_caches.empty()) {
+    // The method is not hot or has no inline caches, do not add inline caches.
     return true;
   }
 
@@ -1409,11 +1502,11 @@ bool ProfileCompilationInfo::VerifyProfileData(const std::vector<const DexFile*>
     // Class and method data should be valid. Verify only in debug builds.
     if (kIsDebugBuild) {
       // Verify method_encoding.
-      for (const auto& method_it : dex_data->method_map) {
-        CHECK_LT(method_it.first, dex_data->num_method_ids);
+      dex_data->method_map.ForEachHotMethod([&](uint16_t method_index,
+                                                const InlineCacheMap& inline_cache_map) {
+        CHECK_LT(method_index, dex_data->num_method_ids);
 
         // Verify class indices of inline caches.
-        const InlineCacheMap &inline_cache_map = method_it.second;
         for (const auto& inline_cache_it : inline_cache_map) {
           const DexPcData& dex_pc_data = inline_cache_it.second;
           if (dex_pc_data.is_missing_types || dex_pc_data.is_megamorphic) {
@@ -1428,7 +1521,7 @@ bool ProfileCompilationInfo::VerifyProfileData(const std::vector<const DexFile*>
             }
           }
         }
-      }
+      });
       // Verify class_ids.
       for (const dex::TypeIndex& type_index : dex_data->class_set) {
         if (type_index.index_ >= dex_data->num_type_ids) {
@@ -1983,14 +2076,23 @@ bool ProfileCompilationInfo::MergeWith(const ProfileCompilationInfo& other,
       }
     }
 
-    // Merge the methods and the inline caches.
-    for (const auto& other_method_it : other_dex_data->method_map) {
-      uint16_t other_method_index = other_method_it.first;
+    // Merge the hot methods. The hot methods are merged as a whole and only the methods with
+    // inline caches need to be merged individually.
+    DCHECK_EQ(dex_data->num_method_ids, other_dex_data->num_method_ids);
+    dex_data->method_map.MergeHotMethods(other_dex_data->method_map);
+
+    // Merge the inline caches.
+    bool inline_caches_merged = true;
+    other_dex_data->method_map.ForEachInlineCache([&](uint16_t other_method_index,
+                                                      const InlineCacheMap& other_inline_cache) {
+      if (!inline_caches_merged) {
+        return;
+      }
       InlineCacheMap* inline_cache = dex_data->FindOrAddHotMethod(other_method_index);
       if (inline_cache == nullptr) {
-        return false;
+        inline_caches_merged = false;
+        return;
       }
-      const auto& other_inline_cache = other_method_it.second;
       for (const auto& other_ic_it : other_inline_cache) {
         uint16_t other_dex_pc = other_ic_it.first;
         const ArenaSet<dex::TypeIndex>& other_class_set = other_ic_it.second.classes;
@@ -2006,7 +2108,8 @@ bool ProfileCompilationInfo::MergeWith(const ProfileCompilationInfo& other,
                   extra_descriptors_remap[type_index.index_ - num_type_ids];
               if (new_extra_descriptor_index >= DexFile::kDexNoIndex16 - num_type_ids) {
                 // Cannot represent the type with new extra descriptor index.
-                return false;
+                inline_caches_merged = false;
+                return;
               }
               type_index = dex::TypeIndex(num_type_ids + new_extra_descriptor_index);
             }
@@ -2014,6 +2117,9 @@ bool ProfileCompilationInfo::MergeWith(const ProfileCompilationInfo& other,
           }
         }
       }
+    });
+    if (!inline_caches_merged) {
+      return false;
     }
 
     // Merge the method bitmaps.
@@ -2107,15 +2213,16 @@ std::string ProfileCompilationInfo::DumpInfo(const std::vector<const DexFile*>&
       }
     }
     os << "\n\thot methods: ";
-    for (const auto& method_it : dex_data->method_map) {
+    dex_data->method_map.ForEachHotMethod([&](uint16_t method_index,
+                                              const InlineCacheMap& inline_cache_map) {
       if (dex_file != nullptr) {
-        os << "\n\t\t" << dex_file->PrettyMethod(method_it.first, true);
+        os << "\n\t\t" << dex_file->PrettyMethod(method_index, true);
       } else {
-        os << method_it.first;
+        os << method_index;
       }
 
       os << "[";
-      for (const auto& inline_cache_it : method_it.second) {
+      for (const auto& inline_cache_it : inline_cache_map) {
         os << "{" << std::hex << inline_cache_it.first << std::dec << ":";
         if (inline_cache_it.second.is_missing_types) {
           os << "MT";
@@ -2131,7 +2238,7 @@ std::string ProfileCompilationInfo::DumpInfo(const std::vector<const DexFile*>&
         os << "}";
       }
       os << "], ";
-    }
+    });
     bool startup = true;
     while (true) {
       os << "\n\t" << (startup ? "startup methods: " : "post startup methods: ");
@@ -2174,9 +2281,10 @@ bool ProfileCompilationInfo::GetClassesAndMethods(
   if (dex_data == nullptr) {
     return false;
   }
-  for (const auto& it : dex_data->method_map) {
-    hot_method_set->insert(it.first);
-  }
+  dex_data->method_map.ForEachHotMethod(
+      [&](uint16_t method_index, const InlineCacheMap& inline_cache_map ATTRIBUTE_UNUSED) {
+        hot_method_set->insert(method_index);
+      });
   for (uint32_t method_idx = 0; method_idx < dex_data->num_method_ids; ++method_idx) {
     MethodHotness hotness = dex_data->GetHotnessInfo(method_idx);
     if (hotness.IsStartup()) {
@@ -2335,15 +2443,74 @@ bool ProfileCompilationInfo::IsEmpty() const {
   return GetNumberOfMethods() == 0 && GetNumberOfResolvedClasses() == 0;
 }
 
+ProfileCompilationInfo::MethodMap::MethodMap(uint32_t num_method_ids, ArenaAllocator* allocator)
+    : num_method_ids_(num_method_ids),
+      num_hot_methods_(0u),
+      hot_method_bits_(RoundUp(num_method_ids, kBitsPerWord) / kBitsPerWord,
+                       0u,
+                       allocator->Adapter(kArenaAllocProfile)),
+      inline_caches_(std::less<uint16_t>(), allocator->Adapter(kArenaAllocProfile)),
+      empty_inline_caches_(std::less<uint16_t>(), allocator->Adapter(kArenaAllocProfile)) {}
+
+void ProfileCompilationInfo::MethodMap::AddHotMethod(uint16_t method_index) {
+  DCHECK_LT(method_index, num_method_ids_);
+  uint32_t& word = hot_method_bits_[method_index / kBitsPerWord];
+  uint32_t mask = WordMask(method_index);
+  if ((word & mask) == 0u) {
+    word |= mask;
+    ++num_hot_methods_;
+  }
+}
+
+ProfileCompilationInfo::InlineCacheMap*
+ProfileCompilationInfo::MethodMap::FindOrAddInlineCaches(uint16_t method_index) {
+  AddHotMethod(method_index);
+  return &(inline_caches_.FindOrAdd(
+      method_index,
+      InlineCacheMap(std::less<uint16_t>(), inline_caches_.get_allocator()))->second);
+}
+
+const ProfileCompilationInfo::InlineCacheMap&
+ProfileCompilationInfo::MethodMap::GetInlineCaches(uint16_t method_index) const {
+  DCHECK(IsHot(method_index));
+  auto it = inline_caches_.find(method_index);
+  return (it != inline_caches_.end()) ? it->second : empty_inline_caches_;
+}
+
+void ProfileCompilationInfo::MethodMap::MergeHotMethods(const MethodMap& other) {
+  DCHECK_EQ(num_method_ids_, other.num_method_ids_);
+  size_t num_hot_methods = 0u;
+  for (size_t i = 0; i != hot_method_bits_.size(); ++i) {
+    hot_method_bits_[i] |= other.hot_method_bits_[i];
+    num_hot_methods += POPCOUNT(hot_method_bits_[i]);
+  }
+  num_hot_methods_ = num_hot_methods;
+}
+
+bool ProfileCompilationInfo::MethodMap::operator==(const MethodMap& other) const {
+  if (num_method_ids_ != other.num_method_ids_ ||
+      num_hot_methods_ != other.num_hot_methods_ ||
+      hot_method_bits_ != other.hot_method_bits_) {
+    return false;
+  }
+  // Methods may have an entry with empty inline caches in one map and no entry in the other.
+  auto inline_caches_contained_in = [](const MethodMap& lhs, const MethodMap& rhs) {
+    bool result = true;
+    lhs.ForEachInlineCache([&](uint16_t method_index, const InlineCacheMap& inline_caches) {
+      result = result && inline_caches == rhs.GetInlineCaches(method_index);
+    });
+    return result;
+  };
+  return inline_caches_contained_in(*this, other) && inline_caches_contained_in(other, *this);
+}
+
 ProfileCompilationInfo::InlineCacheMap*
 ProfileCompilationInfo::DexFileData::FindOrAddHotMethod(uint16_t method_index) {
   if (method_index >= num_method_ids) {
     LOG(ERROR) << "Invalid method index " << method_index << ". num_method_ids=" << num_method_ids;
     return nullptr;
   }
-  return &(method_map.FindOrAdd(
-      method_index,
-      InlineCacheMap(std::less<uint16_t>(), allocator_->Adapter(kArenaAllocProfile)))->second);
+  return method_map.FindOrAddInlineCaches(method_index);
 }
 
 // Mark a method as executed at least once.
@@ -2357,8 +2524,7 @@ bool ProfileCompilationInfo::DexFileData::AddMethod(MethodHotness::Flag flags, s
   SetMethodHotness(index, flags);
 
   if ((flags & MethodHotness::kFlagHot) != 0) {
-    ProfileCompilationInfo::InlineCacheMap* result = FindOrAddHotMethod(index);
-    DCHECK(result != nullptr);
+    method_map.AddHotMethod(dchecked_integral_cast<uint16_t>(index));
   }
   return true;
 }
@@ -2385,9 +2551,8 @@ ProfileCompilationInfo::MethodHotness ProfileCompilationInfo::DexFileData::GetHo
     }
     return true;
   });
-  auto it = method_map.find(dex_method_index);
-  if (it != method_map.end()) {
-    ret.SetInlineCacheMap(&it->second);
+  if (method_map.IsHot(dex_method_index)) {
+    ret.SetInlineCacheMap(&method_map.GetInlineCaches(dex_method_index));
     ret.AddFlag(MethodHotness::kFlagHot);
   }
   return ret;
@@ -2626,14 +2791,14 @@ uint32_t ProfileCompilationInfo::DexFileData::MethodsDataSize(
     size_t num_hot_methods = method_map.size();
     size_t num_dex_pc_entries = 0u;
     size_t num_class_entries = 0u;
-    for (const auto& method_entry : method_map) {
-      const InlineCacheMap& inline_cache_map = method_entry.second;
+    method_map.ForEachInlineCache([&](uint16_t method_index ATTRIBUTE_UNUSED,
+                                      const InlineCacheMap& inline_cache_map) {
       num_dex_pc_entries += inline_cache_map.size();
       for (const auto& inline_cache_entry : inline_cache_map) {
         const DexPcData& dex_pc_data = inline_cache_entry.second;
         num_class_entries += dex_pc_data.classes.size();
       }
-    }
+    });
 
     constexpr size_t kPerHotMethodSize =
         sizeof(uint16_t) +  // Method index diff.
@@ -2703,12 +2868,10 @@ void ProfileCompilationInfo::DexFileData::WriteMethods(SafeBuffer& buffer) const
   buffer.Advance(saved_bitmap_byte_size);
 
   uint16_t last_method_index = 0;
-  for (const auto& method_entry : method_map) {
-    uint16_t method_index = method_entry.first;
-    const InlineCacheMap& inline_cache_map = method_entry.second;
-
+  method_map.ForEachHotMethod([&](uint16_t method_index, const InlineCacheMap& inline_cache_map) {
     // Store the difference between the method indices for better compression.
-    // The SafeMap is ordered by method_id, so the difference will always be non negative.
+    // The hot methods are visited in method index order, so the difference will always be
+    // non negative.
     DCHECK_GE(method_index, last_method_index);
     uint16_t diff_with_last_method_index = method_index - last_method_index;
     last_method_index = method_index;
@@ -2751,7 +2914,7 @@ void ProfileCompilationInfo::DexFileData::WriteMethods(SafeBuffer& buffer) const
       // Store the class set.
       WriteClassSet(buffer, classes);
     }
-  }
+  });
 
   // Check if we've written the right number of bytes.
   DCHECK_EQ(buffer.GetAvailableBytes(), expected_available_bytes_at_end);
@@ -2829,8 +2992,7 @@ ProfileCompilationInfo::ProfileLoadStatus ProfileCompilationInfo::DexFileData::R
         return ProfileLoadStatus::kBadData;
       }
       method_index += diff_with_last_method_index;
-      InlineCacheMap* inline_cache = FindOrAddHotMethod(method_index);
-      DCHECK(inline_cache != nullptr);
+      method_map.AddHotMethod(method_index);
 
       // Load inline cache map size.
       uint16_t inline_cache_size;
@@ -2838,6 +3000,8 @@ ProfileCompilationInfo::ProfileLoadStatus ProfileCompilationInfo::DexFileData::R
         *error = "Error reading inline cache size.";
         return ProfileLoadStatus::kBadData;
       }
+      InlineCacheMap* inline_cache =
+          (inline_cache_size != 0u) ? FindOrAddHotMethod(method_index) : nullptr;
       for (uint16_t ic_index = 0; ic_index != inline_cache_size; ++ic_index) {
         // Load dex pc.
         uint16_t dex_pc;
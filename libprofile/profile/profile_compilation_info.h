@@ -28,6 +28,8 @@
 #include "base/array_ref.h"
 #include "base/atomic.h"
 #include "base/bit_memory_region.h"
+#include "base/bit_utils.h"
+#include "base/casts.h"
 #include "base/hash_map.h"
 #include "base/hash_set.h"
 #include "base/malloc_arena_pool.h"
@@ -168,7 +170,87 @@ class ProfileCompilationInfo {
   using InlineCacheMap = ArenaSafeMap<uint16_t, DexPcData>;
 
   // Maps a method dex index to its inline cache.
-  using MethodMap = ArenaSafeMap<uint16_t, InlineCacheMap>;
+  //
+  // The hot methods are recorded in a bitmap indexed by the method index and the inline caches
+  // are kept only for the hot methods that have any. Profiles often have many hot methods and
+  // few inline caches (e.g. boot image profiles), so this avoids a tree node per hot method and
+  // allows merging the hot methods of two profiles with a bitwise OR. The hot methods are
+  // visited in increasing method index order.
+  class MethodMap {
+   public:
+    MethodMap(uint32_t num_method_ids, ArenaAllocator* allocator);
+
+    // Returns the number of hot methods.
+    size_t size() const {
+      return num_hot_methods_;
+    }
+
+    bool empty() const {
+      return num_hot_methods_ == 0u;
+    }
+
+    bool IsHot(uint32_t method_index) const {
+      DCHECK_LT(method_index, num_method_ids_);
+      return (hot_method_bits_[method_index / kBitsPerWord] & WordMask(method_index)) != 0u;
+    }
+
+    // Marks the method as hot without adding inline caches.
+    void AddHotMethod(uint16_t method_index);
+
+    // Marks the method as hot and returns its inline caches for adding to them.
+    InlineCacheMap* FindOrAddInlineCaches(uint16_t method_index);
+
+    // Returns the inline caches of a hot method, which are empty if the method has none.
+    const InlineCacheMap& GetInlineCaches(uint16_t method_index) const;
+
+    // Marks all the hot methods of `other` as hot. Does not merge the inline caches.
+    void MergeHotMethods(const MethodMap& other);
+
+    // Calls `fn(method_index, inline_caches)` for each hot method in increasing method index
+    // order.
+    template <typename Fn>
+    void ForEachHotMethod(Fn fn) const {
+      auto ic_it = inline_caches_.begin();
+      for (size_t word_index = 0; word_index != hot_method_bits_.size(); ++word_index) {
+        for (uint32_t word = hot_method_bits_[word_index]; word != 0u; word &= word - 1u) {
+          uint16_t method_index =
+              dchecked_integral_cast<uint16_t>(word_index * kBitsPerWord + CTZ(word));
+          // The inline caches are ordered by method index as well, so we can walk them in step.
+          while (ic_it != inline_caches_.end() && ic_it->first < method_index) {
+            ++ic_it;
+          }
+          bool has_inline_caches = ic_it != inline_caches_.end() && ic_it->first == method_index;
+          fn(method_index, has_inline_caches ? ic_it->second : empty_inline_caches_);
+        }
+      }
+    }
+
+    // Calls `fn(method_index, inline_caches)` for each hot method with non-empty inline caches
+    // in increasing method index order.
+    template <typename Fn>
+    void ForEachInlineCache(Fn fn) const {
+      for (const auto& entry : inline_caches_) {
+        if (!entry.second.empty()) {
+          fn(entry.first, entry.second);
+        }
+      }
+    }
+
+    bool operator==(const MethodMap& other) const;
+
+   private:
+    static constexpr size_t kBitsPerWord = BitSizeOf<uint32_t>();
+
+    static uint32_t WordMask(uint32_t method_index) {
+      return 1u << (method_index % kBitsPerWord);
+    }
+
+    const uint32_t num_method_ids_;
+    size_t num_hot_methods_;
+    ArenaVector<uint32_t> hot_method_bits_;
+    ArenaSafeMap<uint16_t, InlineCacheMap> inline_caches_;
+    const InlineCacheMap empty_inline_caches_;
+  };
 
   // Profile method hotness information for a single method. Also includes a pointer to the inline
   // cache map.
@@ -786,7 +868,7 @@ class ProfileCompilationInfo {
           profile_key(key),
           profile_index(index),
           checksum(location_checksum),
-          method_map(std::less<uint16_t>(), allocator->Adapter(kArenaAllocProfile)),
+          method_map(num_methods, allocator),
           class_set(std::less<dex::TypeIndex>(), allocator->Adapter(kArenaAllocProfile)),
           num_type_ids(num_types),
           num_method_ids(num_methods),
@@ -849,7 +931,7 @@ class ProfileCompilationInfo {
 
     bool IsHotMethod(uint32_t method_index) const {
       DCHECK_LT(method_index, num_method_ids);
-      return method_map.find(method_index) != method_map.end();
+      return method_map.IsHot(method_index);
     }
 
     bool IsMethodInProfile(uint32_t method_index) const {
@@ -1744,6 +1744,60 @@ TEST_F(ProfileCompilationInfoTest, MergeWithInlineCaches) {
   }
 }
 
+TEST_F(ProfileCompilationInfoTest, MergeHotMethodsWithSparseInlineCaches) {
+  ScratchFile profile;
+  ProfileSampleAnnotation psa(ProfileSampleAnnotation::kNone);
+  std::vector<TypeReference> dex1_type_12 { TypeReference(dex1, dex::TypeIndex(1)),
+                                            TypeReference(dex1, dex::TypeIndex(2)) };
+  std::vector<ProfileInlineCache> ic { ProfileInlineCache(
+                                           /*pc=*/ 12,
+                                           /*missing_types=*/ false,
+                                           /*profile_classes=*/ dex1_type_12) };
+  constexpr uint16_t kNumMethods = 100;
+  constexpr uint16_t kMethodWithInlineCache1 = 3;
+  constexpr uint16_t kMethodWithInlineCache2 = 64;
+
+  // Even methods are hot in `info1`, odd methods in `info2`. Only two methods have inline
+  // caches, one of them is also hot without inline caches in the other profile.
+  ProfileCompilationInfo info1;
+  ProfileCompilationInfo info2;
+  for (uint16_t i = 0; i < kNumMethods; i++) {
+    ASSERT_TRUE(AddMethod((i % 2 == 0) ? &info1 : &info2, dex1, /*method_idx=*/ i));
+  }
+  ASSERT_TRUE(AddMethod(&info1, dex1, kMethodWithInlineCache1, ic, psa));
+  ASSERT_TRUE(AddMethod(&info2, dex1, kMethodWithInlineCache2, ic, psa));
+
+  ProfileCompilationInfo info_12;
+  ASSERT_TRUE(info_12.MergeWith(info1));
+  ASSERT_TRUE(info_12.MergeWith(info2));
+  EXPECT_EQ(kNumMethods, info_12.GetNumberOfMethods());
+
+  for (uint16_t i = 0; i < kNumMethods; i++) {
+    ProfileCompilationInfo::MethodHotness hotness = GetMethod(info_12, dex1, /*method_idx=*/ i);
+    ASSERT_TRUE(hotness.IsHot()) << i;
+    ASSERT_TRUE(hotness.GetInlineCacheMap() != nullptr) << i;
+    if (i == kMethodWithInlineCache1 || i == kMethodWithInlineCache2) {
+      EXPECT_TRUE(EqualInlineCaches(ic, dex1, hotness, info_12)) << i;
+    } else {
+      EXPECT_TRUE(hotness.GetInlineCacheMap()->empty()) << i;
+    }
+  }
+  EXPECT_FALSE(GetMethod(info_12, dex1, /*method_idx=*/ kNumMethods).IsHot());
+
+  // Merging in a different order yields the same profile.
+  ProfileCompilationInfo info_21;
+  ASSERT_TRUE(info_21.MergeWith(info2));
+  ASSERT_TRUE(info_21.MergeWith(info1));
+  EXPECT_TRUE(info_21.Equals(info_12));
+
+  // Check that we get back what we saved.
+  ASSERT_TRUE(info_12.Save(GetFd(profile)));
+  ASSERT_EQ(0, profile.GetFile()->Flush());
+  ProfileCompilationInfo loaded_info;
+  ASSERT_TRUE(loaded_info.Load(GetFd(profile)));
+  EXPECT_TRUE(loaded_info.Equals(info_12));
+}
+
 // Verify the bulk extraction API.
 TEST_F(ProfileCompilationInfoTest, ExtractInfoWithAnnations) {
   ProfileCompilationInfo info;
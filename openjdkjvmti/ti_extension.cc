@@ -281,6 +281,34 @@ jvmtiError ExtensionUtil::GetExtensionFunctions(jvmtiEnv* env,
     return error;
   }
 
+  // Monitor contention statistics.
+  error = add_extension(
+      reinterpret_cast<jvmtiExtensionFunction>(MonitorUtil::GetMonitorContentionStats),
+      "com.android.art.concurrent.get_monitor_contention_stats",
+      "Retrieves the contention statistics of the monitor of the given object, accumulated since"
+      " the monitor was last inflated: the number of acquisitions that had to block, the total"
+      " and longest time spent blocked in nanoseconds, and the largest number of threads"
+      " contending at once. 'owner_method' is set to the method the owner was executing at the"
+      " most recent contention, or null if that is unknown. The owner method is only recorded"
+      " while lock contention logging (-Xlockprofthreshold) or tracing is enabled. Statistics"
+      " are only collected when the runtime is started with -Xmonitorcontentionstats, otherwise"
+      " and for uncontended objects zeros are reported.",
+      {
+          { "object", JVMTI_KIND_IN, JVMTI_TYPE_JOBJECT, false },
+          { "contended_count", JVMTI_KIND_OUT, JVMTI_TYPE_JLONG, false },
+          { "total_wait_ns", JVMTI_KIND_OUT, JVMTI_TYPE_JLONG, false },
+          { "max_wait_ns", JVMTI_KIND_OUT, JVMTI_TYPE_JLONG, false },
+          { "max_waiters", JVMTI_KIND_OUT, JVMTI_TYPE_JINT, false },
+          { "owner_method", JVMTI_KIND_OUT, JVMTI_TYPE_JMETHODID, false },
+      },
+      {
+        ERR(NULL_POINTER),
+        ERR(INVALID_OBJECT),
+      });
+  if (error != ERR(NONE)) {
+    return error;
+  }
+
   // GetLastError extension
   error = add_extension(
       reinterpret_cast<jvmtiExtensionFunction>(LogUtil::GetLastError),
@@ -38,6 +38,7 @@
 
 #include "art_jvmti.h"
 #include "gc_root-inl.h"
+#include "jni/jni_internal.h"
 #include "mirror/object-inl.h"
 #include "monitor.h"
 #include "runtime.h"
@@ -437,4 +438,35 @@ jvmtiError MonitorUtil::GetCurrentContendedMonitor(jvmtiEnv* env ATTRIBUTE_UNUSE
   return OK;
 }
 
+jvmtiError MonitorUtil::GetMonitorContentionStats(jvmtiEnv* env ATTRIBUTE_UNUSED,
+                                                  jobject obj,
+                                                  jlong* contended_count,
+                                                  jlong* total_wait_ns,
+                                                  jlong* max_wait_ns,
+                                                  jint* max_waiters,
+                                                  jmethodID* owner_method) {
+  if (obj == nullptr) {
+    return ERR(INVALID_OBJECT);
+  }
+  if (contended_count == nullptr ||
+      total_wait_ns == nullptr ||
+      max_wait_ns == nullptr ||
+      max_waiters == nullptr ||
+      owner_method == nullptr) {
+    return ERR(NULL_POINTER);
+  }
+  art::ScopedObjectAccess soa(art::Thread::Current());
+  art::ObjPtr<art::mirror::Object> target = soa.Decode<art::mirror::Object>(obj);
+  // A monitor that is not inflated has not been contended since it was last deflated, so report
+  // zeros for it.
+  art::MonitorContentionStats stats;
+  art::Monitor::GetContentionStats(target, &stats);
+  *contended_count = static_cast<jlong>(stats.contended_count);
+  *total_wait_ns = static_cast<jlong>(stats.total_wait_ns);
+  *max_wait_ns = static_cast<jlong>(stats.max_wait_ns);
+  *max_waiters = static_cast<jint>(stats.max_waiters);
+  *owner_method = art::jni::EncodeArtMethod(stats.owner_method);
+  return OK;
+}
+
 }  // namespace openjdkjvmti
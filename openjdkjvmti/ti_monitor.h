@@ -56,6 +56,14 @@ class MonitorUtil {
   static jvmtiError RawMonitorNotifyAll(jvmtiEnv* env, jrawMonitorID monitor);
 
   static jvmtiError GetCurrentContendedMonitor(jvmtiEnv* env, jthread thr, jobject* monitor);
+
+  static jvmtiError GetMonitorContentionStats(jvmtiEnv* env,
+                                              jobject obj,
+                                              jlong* contended_count,
+                                              jlong* total_wait_ns,
+                                              jlong* max_wait_ns,
+                                              jint* max_waiters,
+                                              jmethodID* owner_method);
 };
 
 }  // namespace openjdkjvmti
@@ -174,6 +174,9 @@ class BaseMutex {
 std::ostream& operator<<(std::ostream& os, const Mutex& mu);
 class LOCKABLE Mutex : public BaseMutex {
  public:
+  // The default number of brief waits done by ExclusiveTryLockWithSpinning.
+  static constexpr uint32_t kDefaultMaxSpins = 5;
+
   explicit Mutex(const char* name, LockLevel level = kDefaultMutexLevel, bool recursive = false);
   ~Mutex();
 
@@ -186,8 +189,10 @@ class LOCKABLE Mutex : public BaseMutex {
   // Returns true if acquires exclusive access, false otherwise.
   bool ExclusiveTryLock(Thread* self) TRY_ACQUIRE(true);
   bool TryLock(Thread* self) TRY_ACQUIRE(true) { return ExclusiveTryLock(self); }
-  // Equivalent to ExclusiveTryLock, but retry for a short period before giving up.
-  bool ExclusiveTryLockWithSpinning(Thread* self) TRY_ACQUIRE(true);
+  // Equivalent to ExclusiveTryLock, but retry for a short period before giving up. Each of the
+  // max_spins retries waits briefly for the mutex to be released.
+  bool ExclusiveTryLockWithSpinning(Thread* self, uint32_t max_spins = kDefaultMaxSpins)
+      TRY_ACQUIRE(true);
 
   // Release exclusive access.
   void ExclusiveUnlock(Thread* self) RELEASE();
@@ -1116,7 +1116,7 @@ void Heap::CreateThreadPool(size_t num_threads) {
     num_threads = std::max(parallel_gc_threads_, conc_gc_threads_);
   }
   if (num_threads != 0) {
-    thread_pool_.reset(new ThreadPool("Heap thread pool", num_threads));
+    thread_pool_.reset(ThreadPool::CreateForParallelWork("Heap thread pool", num_threads));
   }
 }
 
@@ -1309,6 +1309,10 @@ void Heap::DumpGcPerformanceInfo(std::ostream& os) {
     rosalloc_space_->DumpStats(os);
   }
 
+  if (kUseAdaptiveTlabSizes) {
+    DumpTlabStats(os);
+  }
+
   os << "Native bytes total: " << GetNativeBytes()
      << " registered: " << native_bytes_registered_.load(std::memory_order_relaxed) << "\n";
 
@@ -1318,6 +1322,45 @@ void Heap::DumpGcPerformanceInfo(std::ostream& os) {
   BaseMutex::DumpAll(os);
 }
 
+void Heap::DumpTlabStats(std::ostream& os) {
+  ThreadList* thread_list = Runtime::Current()->GetThreadList();
+  if (thread_list == nullptr) {
+    return;
+  }
+  MutexLock mu(Thread::Current(), *Locks::thread_list_lock_);
+  uint64_t total_refills = 0;
+  uint64_t total_retired = 0;
+  uint64_t total_unused_bytes = 0;
+  std::ostringstream per_thread;
+  for (Thread* thread : thread_list->GetList()) {
+    const Thread::TlabStats& stats = thread->GetTlabStats();
+    uint64_t refills = stats.refills.load(std::memory_order_relaxed);
+    if (refills == 0) {
+      continue;
+    }
+    uint64_t retired = stats.retired.load(std::memory_order_relaxed);
+    uint64_t unused_bytes = stats.unused_bytes.load(std::memory_order_relaxed);
+    size_t average_used_bytes = stats.average_used_bytes.load(std::memory_order_relaxed);
+    total_refills += refills;
+    total_retired += retired;
+    total_unused_bytes += unused_bytes;
+    per_thread << "  tid=" << thread->GetTid()
+               << " refills=" << refills
+               << " retired=" << retired
+               << " unused=" << PrettySize(unused_bytes)
+               << " avg-used-per-gc=" << PrettySize(average_used_bytes)
+               << " refill-size="
+               << PrettySize(ComputeAdaptiveTlabSize(average_used_bytes, kPartialTlabSize))
+               << "\n";
+  }
+  if (total_refills == 0) {
+    return;
+  }
+  os << "TLAB refills " << total_refills << ", retired TLABs " << total_retired
+     << ", bytes left unused in retired TLABs " << PrettySize(total_unused_bytes) << "\n";
+  os << "TLAB stats per thread:\n" << per_thread.str();
+}
+
 void Heap::ResetGcPerformanceInfo() {
   for (auto* collector : garbage_collectors_) {
     collector->ResetMeasurements();
@@ -4385,6 +4428,53 @@ void Heap::AdjustSampleOffset(size_t adjustment) {
   GetHeapSampler().AdjustSampleOffset(adjustment);
 }
 
+static_assert(Heap::kMaxAdaptiveTlabSize == space::RegionSpace::kRegionSize,
+              "Adaptive TLAB refills must fit in a region");
+
+size_t Heap::GetAdaptiveTlabSize(Thread* self, size_t default_size) const {
+  if (!kUseAdaptiveTlabSizes) {
+    return default_size;
+  }
+  return ComputeAdaptiveTlabSize(
+      self->GetTlabStats().average_used_bytes.load(std::memory_order_relaxed), default_size);
+}
+
+size_t Heap::ComputeAdaptiveTlabSize(size_t average_used_bytes, size_t default_size) {
+  if (average_used_bytes == 0) {
+    return default_size;
+  }
+  // A thread gets refills about as large as what it allocates between two GCs. Threads that
+  // allocate a lot get larger refills, so that they take the slow path less often. Threads that
+  // allocate little get smaller ones, so that less is left unused when their TLAB is revoked.
+  size_t size = std::clamp(average_used_bytes, kMinAdaptiveTlabSize, kMaxAdaptiveTlabSize);
+  return RoundUp(size, kPageSize);
+}
+
+void Heap::RecordRetiredTlab(Thread* thread, size_t used_bytes, size_t unused_bytes) {
+  Thread::TlabStats& stats = thread->GetTlabStats();
+  stats.used_bytes_since_revoke.fetch_add(used_bytes, std::memory_order_relaxed);
+  stats.retired.fetch_add(1, std::memory_order_relaxed);
+  stats.unused_bytes.fetch_add(unused_bytes, std::memory_order_relaxed);
+}
+
+void Heap::UpdateAdaptiveTlabSize(Thread* thread) {
+  if (!kUseAdaptiveTlabSizes) {
+    return;
+  }
+  Thread::TlabStats& stats = thread->GetTlabStats();
+  size_t used_bytes = stats.used_bytes_since_revoke.exchange(0u, std::memory_order_relaxed);
+  if (used_bytes == 0) {
+    // Nothing was allocated since the last revocation, e.g. a collector revoking the TLABs
+    // twice in one cycle. Idle threads hold no TLAB, so their refill size does not matter.
+    return;
+  }
+  // Weigh the latest GC cycle by 1/4, so that the average follows changes of allocation rate
+  // within a few GC cycles.
+  size_t average = stats.average_used_bytes.load(std::memory_order_relaxed);
+  average = (average == 0) ? used_bytes : (3 * average + used_bytes) / 4;
+  stats.average_used_bytes.store(average, std::memory_order_relaxed);
+}
+
 void Heap::CheckGcStressMode(Thread* self, ObjPtr<mirror::Object>* obj) {
   DCHECK(gc_stress_mode_);
   auto* const runtime = Runtime::Current();
@@ -4484,7 +4574,7 @@ mirror::Object* Heap::AllocWithNewTLAB(Thread* self,
     // TLAB bytes.
     const size_t min_expand_size = alloc_size - self->TlabSize();
     size_t next_tlab_size = JHPCalculateNextTlabSize(self,
-                                                     kPartialTlabSize,
+                                                     GetAdaptiveTlabSize(self, kPartialTlabSize),
                                                      alloc_size,
                                                      &take_sample,
                                                      &bytes_until_sample);
@@ -4503,7 +4593,8 @@ mirror::Object* Heap::AllocWithNewTLAB(Thread* self,
     // TODO: for large allocations, which are rare, maybe we should allocate
     // that object and return. There is no need to revoke the current TLAB,
     // particularly if it's mostly unutilized.
-    size_t def_pr_tlab_size = RoundDown(alloc_size + kDefaultTLABSize, kPageSize) - alloc_size;
+    size_t def_pr_tlab_size =
+        RoundDown(alloc_size + GetAdaptiveTlabSize(self, kDefaultTLABSize), kPageSize) - alloc_size;
     size_t next_tlab_size = JHPCalculateNextTlabSize(self,
                                                      def_pr_tlab_size,
                                                      alloc_size,
@@ -4531,7 +4622,7 @@ mirror::Object* Heap::AllocWithNewTLAB(Thread* self,
                                             space::RegionSpace::kRegionSize,
                                             grow))) {
         size_t def_pr_tlab_size = kUsePartialTlabs
-                                      ? kPartialTlabSize
+                                      ? GetAdaptiveTlabSize(self, kPartialTlabSize)
                                       : gc::space::RegionSpace::kRegionSize;
         size_t next_pr_tlab_size = JHPCalculateNextTlabSize(self,
                                                             def_pr_tlab_size,
@@ -4579,6 +4670,7 @@ mirror::Object* Heap::AllocWithNewTLAB(Thread* self,
     }
   }
   // Refilled TLAB, return.
+  self->GetTlabStats().refills.fetch_add(1, std::memory_order_relaxed);
   ret = self->AllocTlab(alloc_size);
   DCHECK(ret != nullptr);
   *bytes_allocated = alloc_size;
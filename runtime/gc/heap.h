@@ -133,6 +133,12 @@ class Heap {
   // How much we grow the TLAB if we can do it.
   static constexpr size_t kPartialTlabSize = 16 * KB;
   static constexpr bool kUsePartialTlabs = true;
+  // If true, the size of TLAB refills is adapted per thread to how much the thread allocates
+  // between two GCs, instead of being kPartialTlabSize / kDefaultTLABSize.
+  static constexpr bool kUseAdaptiveTlabSizes = true;
+  // Bounds of the adaptive refill size. The upper bound is the region size.
+  static constexpr size_t kMinAdaptiveTlabSize = 4 * KB;
+  static constexpr size_t kMaxAdaptiveTlabSize = 256 * KB;
 
   static constexpr size_t kDefaultStartingSize = kPageSize;
   static constexpr size_t kDefaultInitialSize = 2 * MB;
@@ -637,7 +643,8 @@ class Heap {
   std::string DumpSpaceNameFromAddress(const void* addr) const
       REQUIRES_SHARED(Locks::mutator_lock_);
 
-  void DumpForSigQuit(std::ostream& os) REQUIRES(!*gc_complete_lock_);
+  void DumpForSigQuit(std::ostream& os)
+      REQUIRES(!*gc_complete_lock_, !Locks::thread_list_lock_);
 
   // Do a pending collector transition.
   void DoPendingCollectorTransition()
@@ -766,7 +773,8 @@ class Heap {
 
   // GC performance measuring
   void DumpGcPerformanceInfo(std::ostream& os)
-      REQUIRES(!*gc_complete_lock_);
+      REQUIRES(!*gc_complete_lock_, !Locks::thread_list_lock_);
+  void DumpTlabStats(std::ostream& os) REQUIRES(!Locks::thread_list_lock_);
   void ResetGcPerformanceInfo() REQUIRES(!*gc_complete_lock_);
 
   // Thread pool. Create either the given number of threads, or as per the
@@ -915,6 +923,20 @@ class Heap {
   // Reduce the number of bytes to the next sample position by this adjustment.
   void AdjustSampleOffset(size_t adjustment);
 
+  // Returns the number of bytes `self` should get when refilling or growing its TLAB. Returns
+  // `default_size` until the GC has revoked a TLAB that the thread used.
+  size_t GetAdaptiveTlabSize(Thread* self, size_t default_size) const;
+  // Returns the refill size for a thread that used `average_used_bytes` in TLABs per GC cycle
+  // on average.
+  static size_t ComputeAdaptiveTlabSize(size_t average_used_bytes, size_t default_size);
+  // Updates the TLAB statistics of `thread` when its TLAB is retired, either for a refill or
+  // because the GC revokes it.
+  void RecordRetiredTlab(Thread* thread, size_t used_bytes, size_t unused_bytes);
+  // Folds the bytes `thread` used in TLABs since the previous revocation into its average. Only
+  // called when the GC revokes the TLAB of `thread`, not when the thread refills it, so that the
+  // average does not depend on the refill size.
+  void UpdateAdaptiveTlabSize(Thread* thread);
+
   // Allocation tracking support
   // Callers to this function use double-checked locking to ensure safety on allocation_records_
   bool IsAllocTrackingEnabled() const {
@@ -21,12 +21,14 @@
 #include "common_runtime_test.h"
 #include "gc/accounting/card_table-inl.h"
 #include "gc/accounting/space_bitmap-inl.h"
+#include "gc/space/bump_pointer_space.h"
 #include "handle_scope-inl.h"
 #include "mirror/class-inl.h"
 #include "mirror/object-inl.h"
 #include "mirror/object_array-alloc-inl.h"
 #include "mirror/object_array-inl.h"
 #include "scoped_thread_state_change-inl.h"
+#include "thread-inl.h"
 
 namespace art {
 namespace gc {
@@ -106,6 +108,119 @@ TEST_F(HeapTest, DumpGCPerformanceOnShutdown) {
   Runtime::Current()->SetDumpGCPerformanceOnShutdown(true);
 }
 
+TEST_F(HeapTest, ComputeAdaptiveTlabSize) {
+  // No history yet.
+  EXPECT_EQ(Heap::ComputeAdaptiveTlabSize(0u, Heap::kPartialTlabSize), Heap::kPartialTlabSize);
+  // Idle threads get the smallest refills.
+  EXPECT_EQ(Heap::ComputeAdaptiveTlabSize(1u, Heap::kPartialTlabSize),
+            RoundUp(Heap::kMinAdaptiveTlabSize, kPageSize));
+  // Busy threads get refills about as large as what they allocate per GC cycle, up to a region.
+  EXPECT_EQ(Heap::ComputeAdaptiveTlabSize(128 * KB, Heap::kPartialTlabSize),
+            RoundUp(128 * KB, kPageSize));
+  EXPECT_EQ(Heap::ComputeAdaptiveTlabSize(64 * MB, Heap::kPartialTlabSize),
+            Heap::kMaxAdaptiveTlabSize);
+}
+
+// Simulates `num_cycles` GC cycles in which the current thread allocates `bytes_per_cycle` bytes
+// before its TLAB is revoked. Returns the number of refills and the number of bytes left unused
+// in the revoked TLABs.
+static std::pair<size_t, size_t> SimulateTlabUse(bool adaptive,
+                                                 size_t bytes_per_cycle,
+                                                 size_t num_cycles) {
+  Heap* heap = Runtime::Current()->GetHeap();
+  Thread* self = Thread::Current();
+  self->GetTlabStats().average_used_bytes.store(0u, std::memory_order_relaxed);
+  self->GetTlabStats().used_bytes_since_revoke.store(0u, std::memory_order_relaxed);
+  size_t refills = 0u;
+  size_t unused_bytes = 0u;
+  for (size_t i = 0; i < num_cycles; ++i) {
+    size_t tlab_size = 0u;
+    while (tlab_size < bytes_per_cycle) {
+      tlab_size += adaptive ? heap->GetAdaptiveTlabSize(self, Heap::kPartialTlabSize)
+                            : Heap::kPartialTlabSize;
+      ++refills;
+    }
+    unused_bytes += tlab_size - bytes_per_cycle;
+    heap->RecordRetiredTlab(self, bytes_per_cycle, tlab_size - bytes_per_cycle);
+    heap->UpdateAdaptiveTlabSize(self);
+  }
+  return {refills, unused_bytes};
+}
+
+// Allocates `bytes_per_cycle` bytes from TLABs of `space` in each of `num_cycles` GC cycles.
+// The TLAB is refilled like `Heap::AllocWithNewTLAB()` does for kAllocatorTypeTLAB, which
+// retires the old TLAB on every refill, and revoked at the end of each cycle like the GC does.
+// Returns the number of refills in the last cycle.
+static size_t SimulateBumpPointerTlabUse(space::BumpPointerSpace* space,
+                                         size_t bytes_per_cycle,
+                                         size_t num_cycles) {
+  static constexpr size_t kObjectSize = 64u;
+  Heap* heap = Runtime::Current()->GetHeap();
+  Thread* self = Thread::Current();
+  self->GetTlabStats().average_used_bytes.store(0u, std::memory_order_relaxed);
+  self->GetTlabStats().used_bytes_since_revoke.store(0u, std::memory_order_relaxed);
+  size_t refills = 0u;
+  for (size_t i = 0; i < num_cycles; ++i) {
+    refills = 0u;
+    for (size_t allocated = 0u; allocated < bytes_per_cycle; allocated += kObjectSize) {
+      if (self->TlabSize() < kObjectSize) {
+        CHECK(space->AllocNewTlab(self, heap->GetAdaptiveTlabSize(self, Heap::kDefaultTLABSize)));
+        ++refills;
+      }
+      self->AllocTlab(kObjectSize);
+    }
+    space->RevokeThreadLocalBuffers(self);
+  }
+  return refills;
+}
+
+TEST_F(HeapTest, AdaptiveTlabSizeWithBumpPointerRefills) {
+  if (!Heap::kUseAdaptiveTlabSizes) {
+    GTEST_SKIP() << "Adaptive TLAB sizes are disabled";
+  }
+  ScopedObjectAccess soa(Thread::Current());
+  Thread* self = soa.Self();
+  // Retire the TLAB of the test thread in the heap before using a space of our own.
+  Runtime::Current()->GetHeap()->RevokeThreadLocalBuffers(self);
+  std::unique_ptr<space::BumpPointerSpace> space(
+      space::BumpPointerSpace::Create("adaptive TLAB test space", 32 * MB));
+  ASSERT_TRUE(space != nullptr);
+  constexpr size_t kNumCycles = 8;
+
+  // Retiring a fully used TLAB on each refill must not shrink the refills of an
+  // allocation-heavy thread. It takes the slow path much less often than with fixed refills.
+  size_t refills = SimulateBumpPointerTlabUse(space.get(), 1 * MB, kNumCycles);
+  EXPECT_LT(refills * 4, 1 * MB / Heap::kDefaultTLABSize);
+  EXPECT_EQ(Runtime::Current()->GetHeap()->GetAdaptiveTlabSize(self, Heap::kDefaultTLABSize),
+            Heap::kMaxAdaptiveTlabSize);
+
+  // A mostly idle thread gets the smallest refills.
+  refills = SimulateBumpPointerTlabUse(space.get(), 2 * KB, kNumCycles);
+  EXPECT_EQ(refills, 1u);
+  EXPECT_EQ(Runtime::Current()->GetHeap()->GetAdaptiveTlabSize(self, Heap::kDefaultTLABSize),
+            RoundUp(Heap::kMinAdaptiveTlabSize, kPageSize));
+}
+
+TEST_F(HeapTest, AdaptiveTlabSizeReducesRefills) {
+  if (!Heap::kUseAdaptiveTlabSizes) {
+    GTEST_SKIP() << "Adaptive TLAB sizes are disabled";
+  }
+  constexpr size_t kNumCycles = 16;
+  // An allocation-heavy thread takes the slow path much less often.
+  auto [fixed_refills, fixed_unused] = SimulateTlabUse(/*adaptive=*/ false, 4 * MB, kNumCycles);
+  auto [adaptive_refills, adaptive_unused] =
+      SimulateTlabUse(/*adaptive=*/ true, 4 * MB, kNumCycles);
+  EXPECT_LT(adaptive_refills * 4, fixed_refills);
+
+  // A mostly idle thread leaves less unused when its TLAB is revoked.
+  std::tie(fixed_refills, fixed_unused) =
+      SimulateTlabUse(/*adaptive=*/ false, 2 * KB, kNumCycles);
+  std::tie(adaptive_refills, adaptive_unused) =
+      SimulateTlabUse(/*adaptive=*/ true, 2 * KB, kNumCycles);
+  EXPECT_LT(adaptive_unused, fixed_unused);
+  EXPECT_EQ(adaptive_refills, fixed_refills);
+}
+
 bool AnyIsFalse(bool x, bool y) { return !x || !y; }
 
 TEST_F(HeapTest, GCMetrics) {
@@ -16,6 +16,7 @@
 
 #include "bump_pointer_space.h"
 #include "bump_pointer_space-inl.h"
+#include "gc/heap.h"
 #include "mirror/class-inl.h"
 #include "mirror/object-inl.h"
 #include "thread_list.h"
@@ -104,6 +105,8 @@ void BumpPointerSpace::Dump(std::ostream& os) const {
 size_t BumpPointerSpace::RevokeThreadLocalBuffers(Thread* thread) {
   MutexLock mu(Thread::Current(), block_lock_);
   RevokeThreadLocalBuffersLocked(thread);
+  // Unlike the revocation in `AllocNewTlab()`, this ends a GC cycle of the thread.
+  Runtime::Current()->GetHeap()->UpdateAdaptiveTlabSize(thread);
   return 0U;
 }
 
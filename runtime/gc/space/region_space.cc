@@ -883,12 +883,15 @@ bool RegionSpace::AllocNewTlab(Thread* self,
 size_t RegionSpace::RevokeThreadLocalBuffers(Thread* thread) {
   MutexLock mu(Thread::Current(), region_lock_);
   RevokeThreadLocalBuffersLocked(thread, /*reuse=*/ gc::Heap::kUsePartialTlabs);
+  // Unlike the revocation in `AllocNewTlab()`, this ends a GC cycle of the thread.
+  Runtime::Current()->GetHeap()->UpdateAdaptiveTlabSize(thread);
   return 0U;
 }
 
 size_t RegionSpace::RevokeThreadLocalBuffers(Thread* thread, const bool reuse) {
   MutexLock mu(Thread::Current(), region_lock_);
   RevokeThreadLocalBuffersLocked(thread, reuse);
+  Runtime::Current()->GetHeap()->UpdateAdaptiveTlabSize(thread);
   return 0U;
 }
 
@@ -16,10 +16,11 @@
 
 /*
  * Preparation and completion of hprof data generation.  The output is
- * written into two files and then combined.  This is necessary because
- * we generate some of the data (strings and classes) while we dump the
- * heap, and some analysis tools require that the class and string data
- * appear first.
+ * written with a single walk of the heap.  The strings and classes are
+ * only discovered while we dump the heap, and some analysis tools require
+ * that the string and class data appear before the records that refer to
+ * them, so the STRING and LOAD CLASS records are written just ahead of the
+ * record in which they are first used.
  */
 
 #include "hprof.h"
@@ -27,21 +28,27 @@
 #include <errno.h>
 #include <fcntl.h>
 #include <stdio.h>
+#include <signal.h>
 #include <string.h>
 #include <sys/time.h>
 #include <sys/uio.h>
+#include <sys/wait.h>
 #include <time.h>
 #include <unistd.h>
+#include <zlib.h>
 
 #include <set>
 
 #include <android-base/logging.h>
 #include <android-base/stringprintf.h>
+#include <android-base/strings.h>
 
 #include "art_field-inl.h"
 #include "art_method-inl.h"
 #include "base/array_ref.h"
+#include "base/fast_exit.h"
 #include "base/file_utils.h"
+#include "base/flags.h"
 #include "base/logging.h"
 #include "base/macros.h"
 #include "base/mutex.h"
@@ -72,6 +79,8 @@ namespace art {
 
 namespace hprof {
 
+using android::base::StringPrintf;
+
 static constexpr bool kDirectStream = true;
 
 static constexpr uint32_t kHprofTime = 0;
@@ -80,6 +89,9 @@ static constexpr uint32_t kHprofNullThread = 0;
 static constexpr size_t kMaxObjectsPerSegment = 128;
 static constexpr size_t kMaxBytesPerSegment = 4096;
 
+// How long a forked heap dump process may run before it is killed.
+static constexpr unsigned int kForkedDumpTimeoutSeconds = 300;
+
 // The static field-name for the synthetic object generated to account for class static overhead.
 static constexpr const char* kClassOverheadName = "$classOverhead";
 
@@ -303,6 +315,12 @@ class EndianOutputBuffered : public EndianOutput {
   }
   virtual ~EndianOutputBuffered() {}
 
+  // Sets the records to flush ahead of each record as it ends, e.g. the STRING and LOAD CLASS
+  // records for the ids first used by that record. The records are consumed when flushed.
+  void SetPrecedingRecords(std::vector<uint8_t>* preceding_records) {
+    preceding_records_ = preceding_records;
+  }
+
   void UpdateU4(size_t offset, uint32_t new_value) override {
     DCHECK_LE(offset, length_ - 4);
     buffer_[offset + 0] = static_cast<uint8_t>((new_value >> 24) & 0xFF);
@@ -378,6 +396,10 @@ class EndianOutputBuffered : public EndianOutput {
           static_cast<uint32_t>(buffer_[8]);
       DCHECK_EQ(stored_length, length_ - sizeof(uint8_t) - 2 * sizeof(uint32_t));
     }
+    if (preceding_records_ != nullptr && !preceding_records_->empty()) {
+      HandleFlush(preceding_records_->data(), preceding_records_->size());
+      preceding_records_->clear();
+    }
     HandleFlush(buffer_.data(), length_);
     buffer_.clear();
   }
@@ -386,31 +408,94 @@ class EndianOutputBuffered : public EndianOutput {
   }
 
   std::vector<uint8_t> buffer_;
+  std::vector<uint8_t>* preceding_records_ = nullptr;
 };
 
+// Writes the records to a file as they are completed. If `compress` is set, the output is
+// compressed with gzip framing.
 class FileEndianOutput final : public EndianOutputBuffered {
  public:
-  FileEndianOutput(File* fp, size_t reserved_size)
-      : EndianOutputBuffered(reserved_size), fp_(fp), errors_(false) {
+  FileEndianOutput(File* fp, size_t reserved_size, bool compress = false)
+      : EndianOutputBuffered(reserved_size),
+        fp_(fp),
+        errors_(false),
+        compress_(compress),
+        bytes_written_(0u) {
     DCHECK(fp != nullptr);
+    if (compress_) {
+      strm_.zalloc = Z_NULL;
+      strm_.zfree = Z_NULL;
+      strm_.opaque = Z_NULL;
+      // Window bits above 15 select the gzip framing.
+      errors_ = deflateInit2(&strm_,
+                             Z_BEST_SPEED,
+                             Z_DEFLATED,
+                             /*windowBits=*/ 15 + 16,
+                             /*memLevel=*/ 8,
+                             Z_DEFAULT_STRATEGY) != Z_OK;
+      compress_ = !errors_;
+    }
   }
   ~FileEndianOutput() {
+    if (compress_) {
+      deflateEnd(&strm_);
+    }
   }
 
   bool Errors() {
     return errors_;
   }
 
+  // Writes out any data held back by the compressor. Must be called after the last record.
+  void Finish() {
+    DCHECK_EQ(length_, 0u);
+    if (compress_) {
+      Write(/*data=*/ nullptr, /*length=*/ 0u, Z_FINISH);
+    }
+  }
+
+  // Returns the number of bytes written to the file, after compression.
+  size_t BytesWritten() const {
+    return bytes_written_;
+  }
+
  protected:
   void HandleFlush(const uint8_t* buffer, size_t length) override {
-    if (!errors_) {
-      errors_ = !fp_->WriteFully(buffer, length);
-    }
+    Write(buffer, length, Z_NO_FLUSH);
   }
 
  private:
+  void Write(const uint8_t* data, size_t length, int flush) {
+    if (errors_) {
+      return;
+    }
+    if (!compress_) {
+      errors_ = !fp_->WriteFully(data, length);
+      bytes_written_ += length;
+      return;
+    }
+    strm_.next_in = const_cast<uint8_t*>(data);
+    strm_.avail_in = length;
+    int ret;
+    do {
+      strm_.next_out = compressed_;
+      strm_.avail_out = sizeof(compressed_);
+      ret = deflate(&strm_, flush);
+      size_t compressed_length = sizeof(compressed_) - strm_.avail_out;
+      if (ret == Z_STREAM_ERROR || !fp_->WriteFully(compressed_, compressed_length)) {
+        errors_ = true;
+        return;
+      }
+      bytes_written_ += compressed_length;
+    } while (strm_.avail_out == 0u || (flush == Z_FINISH && ret != Z_STREAM_END));
+  }
+
   File* fp_;
   bool errors_;
+  bool compress_;
+  size_t bytes_written_;
+  z_stream strm_;
+  uint8_t compressed_[kMaxBytesPerSegment];
 };
 
 class VectorEndianOuputput final : public EndianOutputBuffered {
@@ -437,7 +522,8 @@ class Hprof : public SingleRootVisitor {
   Hprof(const char* output_filename, int fd, bool direct_to_ddms)
       : filename_(output_filename),
         fd_(fd),
-        direct_to_ddms_(direct_to_ddms) {
+        direct_to_ddms_(direct_to_ddms),
+        preceding_output_(preceding_records_, kMaxBytesPerSegment) {
     LOG(INFO) << "hprof: heap dump \"" << filename_ << "\" starting...";
   }
 
@@ -451,39 +537,39 @@ class Hprof : public SingleRootVisitor {
       }
     }
 
-    // First pass to measure the size of the dump.
-    size_t overall_size;
-    size_t max_length;
-    {
-      EndianOutput count_output;
-      output_ = &count_output;
-      ProcessHeap(false);
-      overall_size = count_output.SumLength();
-      max_length = count_output.MaxLength();
-      output_ = nullptr;
-    }
-
-    bool okay;
-    visited_objects_.clear();
     if (direct_to_ddms_) {
       if (kDirectStream) {
-        okay = DumpToDdmsDirect(overall_size, max_length, CHUNK_TYPE("HPDS"));
+        DumpToDdmsDirect(CHUNK_TYPE("HPDS"));
       } else {
-        okay = DumpToDdmsBuffered(overall_size, max_length);
+        DumpToDdmsBuffered();
       }
     } else {
-      okay = DumpToFile(overall_size, max_length);
+      StartDumpToFile();
     }
+  }
 
-    if (okay) {
-      const uint64_t duration = NanoTime() - start_ns_;
-      LOG(INFO) << "hprof: heap dump completed (" << PrettySize(RoundUp(overall_size, KB))
-                << ") in " << PrettyDuration(duration)
-                << " objects " << total_objects_
-                << " objects with stack traces " << total_objects_with_stack_trace_;
+  // Completes the dump started by `Dump()`. Flushing and closing the output file can take a
+  // while, so this should be called after resuming the threads.
+  void FinishDump() {
+    if (output_file_ != nullptr) {
+      DCHECK(!direct_to_ddms_);
+      FinishDumpToFile();
+    }
+    if (error_.empty()) {
+      LogCompletion();
     }
   }
 
+  // Sets how long the threads were suspended for the dump, for logging.
+  void SetPauseDuration(uint64_t pause_ns) {
+    pause_ns_ = pause_ns;
+  }
+
+  // Returns the reason the dump failed, or an empty string if it succeeded.
+  const std::string& GetError() const {
+    return error_;
+  }
+
  private:
   void DumpHeapObject(mirror::Object* obj)
       REQUIRES_SHARED(Locks::mutator_lock_);
@@ -504,19 +590,21 @@ class Hprof : public SingleRootVisitor {
 
   bool AddRuntimeInternalObjectsField(mirror::Class* klass) REQUIRES_SHARED(Locks::mutator_lock_);
 
-  void ProcessHeap(bool header_first)
-      REQUIRES(Locks::mutator_lock_) {
+  // Writes the heap dump with a single walk of the heap. The STRING and LOAD CLASS records are
+  // written to `preceding_records_` when their ids are first used, and the output flushes them
+  // ahead of the record that uses them.
+  void ProcessHeap(EndianOutputBuffered* output) REQUIRES(Locks::mutator_lock_) {
     // Reset current heap and object count.
     current_heap_ = HPROF_HEAP_DEFAULT;
     objects_in_segment_ = 0;
 
-    if (header_first) {
-      ProcessHeader(true);
-      ProcessBody();
-    } else {
-      ProcessBody();
-      ProcessHeader(false);
-    }
+    output_ = output;
+    output->SetPrecedingRecords(&preceding_records_);
+    ProcessHeader();
+    ProcessBody();
+    DCHECK(preceding_records_.empty());
+    output->SetPrecedingRecords(nullptr);
+    output_ = nullptr;
   }
 
   void ProcessBody() REQUIRES(Locks::mutator_lock_) {
@@ -536,57 +624,41 @@ class Hprof : public SingleRootVisitor {
     output_->EndRecord();
   }
 
-  void ProcessHeader(bool string_first) REQUIRES(Locks::mutator_lock_) {
-    // Write the header.
+  void ProcessHeader() REQUIRES(Locks::mutator_lock_) {
+    // Write the header. End it before looking up any ids, so that their records follow it.
     WriteFixedHeader();
-    // Write the string and class tables, and any stack traces, to the header.
-    // (jhat requires that these appear before any of the data in the body that refers to them.)
-    // jhat also requires the string table appear before class table and stack traces.
-    // However, WriteStackTraces() can modify the string table, so it's necessary to call
-    // WriteStringTable() last in the first pass, to compute the correct length of the output.
-    if (string_first) {
-      WriteStringTable();
-    }
-    WriteClassTable();
+    output_->EndRecord();
+    // Analysis tools expect java.lang.Class to be defined before the first class dump.
+    LookupClassId(GetClassRoot<mirror::Class>().Ptr());
+    // The allocation stack traces are all known before walking the heap. Write them first.
     WriteStackTraces();
-    if (!string_first) {
-      WriteStringTable();
-    }
     output_->EndRecord();
   }
 
-  void WriteClassTable() REQUIRES_SHARED(Locks::mutator_lock_) {
-    for (const auto& p : classes_) {
-      mirror::Class* c = p.first;
-      HprofClassSerialNumber sn = p.second;
-      CHECK(c != nullptr);
-      output_->StartNewRecord(HPROF_TAG_LOAD_CLASS, kHprofTime);
-      // LOAD CLASS format:
-      // U4: class serial number (always > 0)
-      // ID: class object ID. We use the address of the class object structure as its ID.
-      // U4: stack trace serial number
-      // ID: class name string ID
-      __ AddU4(sn);
-      __ AddObjectId(c);
-      __ AddStackTraceSerialNumber(LookupStackTraceSerialNumber(c));
-      __ AddStringId(LookupClassNameId(c));
-    }
-  }
-
-  void WriteStringTable() {
-    for (const auto& p : strings_) {
-      const std::string& string = p.first;
-      const HprofStringId id = p.second;
-
-      output_->StartNewRecord(HPROF_TAG_STRING, kHprofTime);
-
-      // STRING format:
-      // ID:  ID for this string
-      // U1*: UTF8 characters for string (NOT null terminated)
-      //      (the record format encodes the length)
-      __ AddU4(id);
-      __ AddUtf8String(string.c_str());
-    }
+  void WriteLoadClass(mirror::Class* c, HprofClassSerialNumber sn, HprofStringId name_id)
+      REQUIRES_SHARED(Locks::mutator_lock_) {
+    preceding_output_.StartNewRecord(HPROF_TAG_LOAD_CLASS, kHprofTime);
+    // LOAD CLASS format:
+    // U4: class serial number (always > 0)
+    // ID: class object ID. We use the address of the class object structure as its ID.
+    // U4: stack trace serial number
+    // ID: class name string ID
+    preceding_output_.AddU4(sn);
+    preceding_output_.AddObjectId(c);
+    preceding_output_.AddStackTraceSerialNumber(LookupStackTraceSerialNumber(c));
+    preceding_output_.AddStringId(name_id);
+    preceding_output_.EndRecord();
+  }
+
+  void WriteString(const std::string& string, HprofStringId id) {
+    preceding_output_.StartNewRecord(HPROF_TAG_STRING, kHprofTime);
+    // STRING format:
+    // ID:  ID for this string
+    // U1*: UTF8 characters for string (NOT null terminated)
+    //      (the record format encodes the length)
+    preceding_output_.AddU4(id);
+    preceding_output_.AddUtf8String(string.c_str());
+    preceding_output_.EndRecord();
   }
 
   void StartNewHeapDumpSegment() {
@@ -610,18 +682,24 @@ class Hprof : public SingleRootVisitor {
 
   HprofClassObjectId LookupClassId(mirror::Class* c) REQUIRES_SHARED(Locks::mutator_lock_) {
     if (c != nullptr) {
-      auto it = classes_.find(c);
-      if (it == classes_.end()) {
-        // first time to see this class
-        HprofClassSerialNumber sn = next_class_serial_number_++;
-        classes_.Put(c, sn);
-        // Make sure that we've assigned a string ID for this class' name
-        LookupClassNameId(c);
-      }
+      LookupClassSerialNumber(c);
     }
     return PointerToLowMemUInt32(c);
   }
 
+  HprofClassSerialNumber LookupClassSerialNumber(mirror::Class* c)
+      REQUIRES_SHARED(Locks::mutator_lock_) {
+    auto it = classes_.find(c);
+    if (it != classes_.end()) {
+      return it->second;
+    }
+    // First time to see this class. Define it, and its name, before the current record.
+    HprofClassSerialNumber sn = next_class_serial_number_++;
+    classes_.Put(c, sn);
+    WriteLoadClass(c, sn, LookupClassNameId(c));
+    return sn;
+  }
+
   HprofStackTraceSerialNumber LookupStackTraceSerialNumber(const mirror::Object* obj)
       REQUIRES_SHARED(Locks::mutator_lock_) {
     auto r = allocation_records_.find(obj);
@@ -650,6 +728,7 @@ class Hprof : public SingleRootVisitor {
     }
     HprofStringId id = next_string_id_++;
     strings_.Put(string, id);
+    WriteString(string, id);
     return id;
   }
 
@@ -718,9 +797,7 @@ class Hprof : public SingleRootVisitor {
           source_file = "";
         }
         __ AddStringId(LookupStringId(source_file));
-        auto class_result = classes_.find(method->GetDeclaringClass().Ptr());
-        CHECK(class_result != classes_.end());
-        __ AddU4(class_result->second);
+        __ AddU4(LookupClassSerialNumber(method->GetDeclaringClass().Ptr()));
         __ AddU4(frame->ComputeLineNumber());
       }
 
@@ -743,8 +820,7 @@ class Hprof : public SingleRootVisitor {
     }
   }
 
-  bool DumpToDdmsBuffered(size_t overall_size ATTRIBUTE_UNUSED, size_t max_length ATTRIBUTE_UNUSED)
-      REQUIRES(Locks::mutator_lock_) {
+  bool DumpToDdmsBuffered() REQUIRES(Locks::mutator_lock_) {
     LOG(FATAL) << "Unimplemented";
     UNREACHABLE();
     //        // Send the data off to DDMS.
@@ -756,80 +832,105 @@ class Hprof : public SingleRootVisitor {
     //        Dbg::DdmSendChunkV(CHUNK_TYPE("HPDS"), iov, 2);
   }
 
-  bool DumpToFile(size_t overall_size, size_t max_length)
-      REQUIRES(Locks::mutator_lock_) {
+  // Walks the heap and writes the dump to the output file. The output is flushed and closed by
+  // `FinishDumpToFile()`.
+  bool StartDumpToFile() REQUIRES(Locks::mutator_lock_) {
     // Where exactly are we writing to?
     int out_fd;
     if (fd_ >= 0) {
       out_fd = DupCloexec(fd_);
       if (out_fd < 0) {
-        ThrowRuntimeException("Couldn't dump heap; dup(%d) failed: %s", fd_, strerror(errno));
+        SetError(StringPrintf("Couldn't dump heap; dup(%d) failed: %s", fd_, strerror(errno)));
         return false;
       }
     } else {
       out_fd = open(filename_.c_str(), O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0644);
       if (out_fd < 0) {
-        ThrowRuntimeException("Couldn't dump heap; open(\"%s\") failed: %s", filename_.c_str(),
-                              strerror(errno));
+        SetError(StringPrintf("Couldn't dump heap; open(\"%s\") failed: %s",
+                              filename_.c_str(),
+                              strerror(errno)));
         return false;
       }
     }
-
-    std::unique_ptr<File> file(new File(out_fd, filename_, true));
-    bool okay;
-    {
-      FileEndianOutput file_output(file.get(), max_length);
-      output_ = &file_output;
-      ProcessHeap(true);
-      okay = !file_output.Errors();
-
-      if (okay) {
-        // Check for expected size. Output is expected to be less-or-equal than first phase, see
-        // b/23521263.
-        DCHECK_LE(file_output.SumLength(), overall_size);
-      }
-      output_ = nullptr;
+    output_file_.reset(new File(out_fd, filename_, true));
+
+    // Compress the output if the file name asks for it, e.g. "heap.hprof.gz", or if the flag
+    // does. The latter also covers dumps to a file descriptor, e.g. from `am dumpheap`.
+    bool compress = android::base::EndsWith(filename_, ".gz") || gFlags.HprofCompress();
+    file_output_.reset(new FileEndianOutput(output_file_.get(), kMaxBytesPerSegment, compress));
+    ProcessHeap(file_output_.get());
+    if (file_output_->Errors()) {
+      SetWriteError();
+      output_file_->Erase();
+      Reset();
+      return false;
     }
+    return true;
+  }
+
+  bool FinishDumpToFile() {
+    file_output_->Finish();
+    bool okay = !file_output_->Errors();
+    uncompressed_size_ = file_output_->SumLength() + preceding_output_.SumLength();
+    output_size_ = file_output_->BytesWritten();
 
     if (okay) {
-      okay = file->FlushCloseOrErase() == 0;
+      okay = output_file_->FlushCloseOrErase() == 0;
     } else {
-      file->Erase();
+      output_file_->Erase();
     }
     if (!okay) {
-      std::string msg(android::base::StringPrintf("Couldn't dump heap; writing \"%s\" failed: %s",
-                                                  filename_.c_str(),
-                                                  strerror(errno)));
-      ThrowRuntimeException("%s", msg.c_str());
-      LOG(ERROR) << msg;
+      SetWriteError();
     }
-
+    Reset();
     return okay;
   }
 
-  bool DumpToDdmsDirect(size_t overall_size, size_t max_length, uint32_t chunk_type)
-      REQUIRES(Locks::mutator_lock_) {
+  void Reset() {
+    file_output_.reset();
+    output_file_.reset();
+  }
+
+  // Records why the dump failed. The exception is thrown by `DumpHeap()` once the threads are
+  // resumed, or reported by the exit status of the child process for a forked dump.
+  void SetError(const std::string& error) {
+    LOG(ERROR) << error;
+    error_ = error;
+  }
+
+  void SetWriteError() {
+    SetError(StringPrintf("Couldn't dump heap; writing \"%s\" failed: %s",
+                          filename_.c_str(),
+                          strerror(errno)));
+  }
+
+  bool DumpToDdmsDirect(uint32_t chunk_type) REQUIRES(Locks::mutator_lock_) {
     CHECK(direct_to_ddms_);
 
     std::vector<uint8_t> out_data;
 
     // TODO It would be really good to have some streaming thing again. b/73084059
-    VectorEndianOuputput output(out_data, max_length);
-    output_ = &output;
-
-    // Write the dump.
-    ProcessHeap(true);
+    VectorEndianOuputput output(out_data, kMaxBytesPerSegment);
+    ProcessHeap(&output);
+    uncompressed_size_ = out_data.size();
+    output_size_ = out_data.size();
 
     Runtime::Current()->GetRuntimeCallbacks()->DdmPublishChunk(
         chunk_type, ArrayRef<const uint8_t>(out_data.data(), out_data.size()));
 
-    // Check for expected size. See DumpToFile for comment.
-    DCHECK_LE(output.SumLength(), overall_size);
-    output_ = nullptr;
-
     return true;
   }
 
+  void LogCompletion() {
+    const uint64_t duration = NanoTime() - start_ns_;
+    LOG(INFO) << "hprof: heap dump completed (" << PrettySize(RoundUp(output_size_, KB))
+              << ", uncompressed " << PrettySize(RoundUp(uncompressed_size_, KB))
+              << ") in " << PrettyDuration(duration)
+              << " with a pause of " << PrettyDuration(pause_ns_)
+              << " objects " << total_objects_
+              << " objects with stack traces " << total_objects_with_stack_trace_;
+  }
+
   void PopulateAllocationTrackingTraces()
       REQUIRES(Locks::mutator_lock_, Locks::alloc_tracker_lock_) {
     gc::AllocRecordObjectMap* records = Runtime::Current()->GetHeap()->GetAllocationRecords();
@@ -878,9 +979,22 @@ class Hprof : public SingleRootVisitor {
   bool direct_to_ddms_;
 
   uint64_t start_ns_ = NanoTime();
+  uint64_t pause_ns_ = 0u;
+  std::string error_;
 
   EndianOutput* output_ = nullptr;
 
+  // The STRING and LOAD CLASS records to write ahead of the record that is being written.
+  std::vector<uint8_t> preceding_records_;
+  VectorEndianOuputput preceding_output_;
+
+  // The state of a dump to a file between `StartDumpToFile()` and `FinishDumpToFile()`.
+  std::unique_ptr<File> output_file_;
+  std::unique_ptr<FileEndianOutput> file_output_;
+
+  size_t uncompressed_size_ = 0u;
+  size_t output_size_ = 0u;
+
   HprofHeapId current_heap_ = HPROF_HEAP_DEFAULT;  // Which heap we're currently dumping.
   size_t objects_in_segment_ = 0;
 
@@ -1594,6 +1708,72 @@ void Hprof::VisitRoot(mirror::Object* obj, const RootInfo& info) {
   MarkRootObject(obj, nullptr, xlate[info.GetType()], info.GetThreadId());
 }
 
+// Dumps the heap to the file from a forked child process. The threads of this process are only
+// suspended for the fork and the child writes the dump from its copy-on-write image of the heap.
+// Returns false if the child process could not be created, and the heap was not dumped.
+static bool DumpHeapForked(const char* filename, int fd, /*out*/ std::string* error) {
+  Thread* self = Thread::Current();
+  const uint64_t start_ns = NanoTime();
+  pid_t pid;
+  {
+    gc::ScopedGCCriticalSection gcs(self,
+                                    gc::kGcCauseHprof,
+                                    gc::kCollectorTypeHprof);
+    ScopedSuspendAll ssa(__FUNCTION__, true /* long suspend */);
+    pid = fork();
+    if (pid == 0) {
+      // The child process only has this thread, which holds the mutator lock exclusively, so
+      // the heap cannot change. Do not let a stuck child block the parent forever, e.g. if
+      // another thread held a native lock at the time of the fork.
+      signal(SIGALRM, SIG_DFL);
+      alarm(kForkedDumpTimeoutSeconds);
+      Hprof hprof(filename, fd, /*direct_to_ddms=*/ false);
+      // The parent is resumed right after the fork.
+      hprof.SetPauseDuration(NanoTime() - start_ns);
+      hprof.Dump();
+      hprof.FinishDump();
+      // Do not run the destructors or the `atexit` handlers of the parent's state.
+      FastExit(hprof.GetError().empty() ? 0 : 1);
+    }
+  }
+  const uint64_t pause_ns = NanoTime() - start_ns;
+  if (pid == -1) {
+    PLOG(WARNING) << "hprof: fork failed, dumping the heap in this process";
+    return false;
+  }
+
+  int status;
+  if (TEMP_FAILURE_RETRY(waitpid(pid, &status, 0)) == -1) {
+    // Someone else reaped the child, e.g. a SIGCHLD handler. We cannot tell how it went.
+    PLOG(WARNING) << "hprof: waiting for heap dump process " << pid << " failed";
+    return true;
+  }
+  if (WIFSIGNALED(status)) {
+    if (WTERMSIG(status) == SIGALRM) {
+      *error = StringPrintf("Couldn't dump heap; heap dump process %d timed out after %us",
+                            pid,
+                            kForkedDumpTimeoutSeconds);
+    } else {
+      *error = StringPrintf("Couldn't dump heap; heap dump process %d was killed by signal %d",
+                            pid,
+                            WTERMSIG(status));
+    }
+    LOG(ERROR) << *error;
+    return true;
+  }
+  if (WEXITSTATUS(status) != 0) {
+    // The child exits with a non-zero code when it failed to write the dump. It logged why.
+    *error = StringPrintf("Couldn't dump heap; heap dump process %d exited with code %d",
+                          pid,
+                          WEXITSTATUS(status));
+    LOG(ERROR) << *error;
+    return true;
+  }
+  LOG(INFO) << "hprof: forked heap dump completed in " << PrettyDuration(NanoTime() - start_ns)
+            << " with a pause of " << PrettyDuration(pause_ns);
+  return true;
+}
+
 // If "direct_to_ddms" is true, the other arguments are ignored, and data is
 // sent directly to DDMS.
 // If "fd" is >= 0, the output will be written to that file descriptor.
@@ -1601,14 +1781,29 @@ void Hprof::VisitRoot(mirror::Object* obj, const RootInfo& info) {
 void DumpHeap(const char* filename, int fd, bool direct_to_ddms) {
   CHECK(filename != nullptr);
   Thread* self = Thread::Current();
-  // Need to take a heap dump while GC isn't running. See the comment in Heap::VisitObjects().
-  // Also we need the critical section to avoid visiting the same object twice. See b/34967844
-  gc::ScopedGCCriticalSection gcs(self,
-                                  gc::kGcCauseHprof,
-                                  gc::kCollectorTypeHprof);
-  ScopedSuspendAll ssa(__FUNCTION__, true /* long suspend */);
-  Hprof hprof(filename, fd, direct_to_ddms);
-  hprof.Dump();
+  std::string error;
+  if (direct_to_ddms || !gFlags.HprofFork() || !DumpHeapForked(filename, fd, &error)) {
+    Hprof hprof(filename, fd, direct_to_ddms);
+    const uint64_t start_ns = NanoTime();
+    {
+      // Need to take a heap dump while GC isn't running. See the comment in
+      // Heap::VisitObjects(). Also we need the critical section to avoid visiting the same
+      // object twice. See b/34967844
+      gc::ScopedGCCriticalSection gcs(self,
+                                      gc::kGcCauseHprof,
+                                      gc::kCollectorTypeHprof);
+      ScopedSuspendAll ssa(__FUNCTION__, true /* long suspend */);
+      hprof.Dump();
+    }
+    hprof.SetPauseDuration(NanoTime() - start_ns);
+    // Flush and close the output with the threads running again.
+    hprof.FinishDump();
+    error = hprof.GetError();
+  }
+  if (!error.empty()) {
+    ScopedObjectAccess soa(self);
+    ThrowRuntimeException("%s", error.c_str());
+  }
 }
 
 }  // namespace hprof
@@ -114,6 +114,9 @@ inline size_t InternTable::AddTableFromMemory(const uint8_t* ptr,
     visitor(set);
     if (!set.empty()) {
       strong_interns_.AddInternStrings(std::move(set), is_boot_image);
+      if (is_boot_image) {
+        PublishLockFreeTable(ptr);
+      }
     }
   }
   return read_count;
@@ -141,6 +144,22 @@ inline void InternTable::Table::AddInternStrings(UnorderedSet&& intern_strings,
   tables_.insert(tables_.end() - 1, InternalTable(std::move(intern_strings), is_boot_image));
 }
 
+template <typename Key>
+inline ObjPtr<mirror::String> InternTable::LookupStrongLockFree(
+    const Key& key, uint32_t hash, size_t* num_searched_strong_frozen_tables) {
+  // Pairs with the release-store in `PublishLockFreeTable()`.
+  size_t num_tables = num_lock_free_tables_.load(std::memory_order_acquire);
+  for (size_t i = 0; i != num_tables; ++i) {
+    const UnorderedSet& set = lock_free_tables_[i];
+    auto it = set.FindWithHash(key, hash);
+    if (it != set.end()) {
+      return it->Read();
+    }
+  }
+  *num_searched_strong_frozen_tables = num_tables;
+  return nullptr;
+}
+
 template <typename Visitor>
 inline void InternTable::VisitInterns(const Visitor& visitor,
                                       bool visit_boot_images,
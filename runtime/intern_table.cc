@@ -39,7 +39,8 @@ namespace art {
 InternTable::InternTable()
     : log_new_roots_(false),
       weak_intern_condition_("New intern condition", *Locks::intern_table_lock_),
-      weak_root_state_(gc::kWeakRootStateNormal) {
+      weak_root_state_(gc::kWeakRootStateNormal),
+      num_lock_free_tables_(0u) {
 }
 
 size_t InternTable::Size() const {
@@ -114,16 +115,29 @@ ObjPtr<mirror::String> InternTable::LookupStrong(Thread* self, ObjPtr<mirror::St
   DCHECK(s != nullptr);
   // `String::GetHashCode()` ensures that the stored hash is calculated.
   uint32_t hash = static_cast<uint32_t>(s->GetHashCode());
+  size_t num_searched_strong_frozen_tables;
+  ObjPtr<mirror::String> result =
+      LookupStrongLockFree(GcRoot<mirror::String>(s), hash, &num_searched_strong_frozen_tables);
+  if (result != nullptr) {
+    return result;
+  }
   MutexLock mu(self, *Locks::intern_table_lock_);
-  return strong_interns_.Find(s, hash);
+  return strong_interns_.Find(s, hash, num_searched_strong_frozen_tables);
 }
 
 ObjPtr<mirror::String> InternTable::LookupStrong(Thread* self,
                                                  uint32_t utf16_length,
                                                  const char* utf8_data) {
   uint32_t hash = Utf8String::Hash(utf16_length, utf8_data);
+  Utf8String string(utf16_length, utf8_data);
+  size_t num_searched_strong_frozen_tables;
+  ObjPtr<mirror::String> result =
+      LookupStrongLockFree(string, hash, &num_searched_strong_frozen_tables);
+  if (result != nullptr) {
+    return result;
+  }
   MutexLock mu(self, *Locks::intern_table_lock_);
-  return strong_interns_.Find(Utf8String(utf16_length, utf8_data), hash);
+  return strong_interns_.Find(string, hash, num_searched_strong_frozen_tables);
 }
 
 ObjPtr<mirror::String> InternTable::LookupWeakLocked(ObjPtr<mirror::String> s) {
@@ -140,6 +154,24 @@ ObjPtr<mirror::String> InternTable::LookupStrongLocked(ObjPtr<mirror::String> s)
   return strong_interns_.Find(s, hash);
 }
 
+void InternTable::PublishLockFreeTable(const uint8_t* ptr) {
+  // Only publish the table if it directly follows the already published tables, so that the
+  // published views always correspond to a prefix of `strong_interns_.tables_`. This holds for
+  // the boot image tables, which are added before any other table.
+  size_t num_tables = num_lock_free_tables_.load(std::memory_order_relaxed);
+  DCHECK_GE(strong_interns_.tables_.size(), 2u);
+  size_t index = strong_interns_.tables_.size() - 2u;  // The last table is not frozen.
+  DCHECK(strong_interns_.tables_[index].IsBootImage());
+  if (index != num_tables || num_tables == kMaxLockFreeTables) {
+    return;
+  }
+  size_t read_count = 0u;
+  lock_free_tables_[num_tables] = UnorderedSet(ptr, /*make_copy_of_data=*/ false, &read_count);
+  DCHECK_EQ(lock_free_tables_[num_tables].size(), strong_interns_.tables_[index].Size());
+  // Pairs with the acquire-load in `LookupStrongLockFree()`.
+  num_lock_free_tables_.store(num_tables + 1u, std::memory_order_release);
+}
+
 void InternTable::AddNewTable() {
   MutexLock mu(Thread::Current(), *Locks::intern_table_lock_);
   weak_interns_.AddNewTable();
@@ -205,6 +237,17 @@ ObjPtr<mirror::String> InternTable::Insert(ObjPtr<mirror::String> s,
   DCHECK(s != nullptr);
   DCHECK_EQ(hash, static_cast<uint32_t>(s->GetStoredHashCode()));
   DCHECK_IMPLIES(hash == 0u, s->ComputeHashCode() == 0);
+  {
+    // Boot image strings are the most common hits and can be found without the lock.
+    size_t num_searched_lock_free_tables;
+    ObjPtr<mirror::String> strong =
+        LookupStrongLockFree(GcRoot<mirror::String>(s), hash, &num_searched_lock_free_tables);
+    if (strong != nullptr) {
+      return strong;
+    }
+    num_searched_strong_frozen_tables =
+        std::max(num_searched_strong_frozen_tables, num_searched_lock_free_tables);
+  }
   Thread* const self = Thread::Current();
   MutexLock mu(self, *Locks::intern_table_lock_);
   if (kDebugLocking) {
@@ -253,14 +296,19 @@ ObjPtr<mirror::String> InternTable::InternStrong(uint32_t utf16_length, const ch
   DCHECK(utf8_data != nullptr);
   uint32_t hash = Utf8String::Hash(utf16_length, utf8_data);
   Thread* self = Thread::Current();
-  ObjPtr<mirror::String> s;
+  Utf8String string(utf16_length, utf8_data);
   size_t num_searched_strong_frozen_tables;
+  ObjPtr<mirror::String> s =
+      LookupStrongLockFree(string, hash, &num_searched_strong_frozen_tables);
+  if (s != nullptr) {
+    return s;
+  }
   {
     // Try to avoid allocation. If we need to allocate, release the mutex before the allocation.
     MutexLock mu(self, *Locks::intern_table_lock_);
     DCHECK(!strong_interns_.tables_.empty());
+    s = strong_interns_.Find(string, hash, num_searched_strong_frozen_tables);
     num_searched_strong_frozen_tables = strong_interns_.tables_.size() - 1u;
-    s = strong_interns_.Find(Utf8String(utf16_length, utf8_data), hash);
   }
   if (s != nullptr) {
     return s;
@@ -352,11 +400,17 @@ ObjPtr<mirror::String> InternTable::Table::Find(ObjPtr<mirror::String> s,
 }
 
 FLATTEN
-ObjPtr<mirror::String> InternTable::Table::Find(const Utf8String& string, uint32_t hash) {
+ObjPtr<mirror::String> InternTable::Table::Find(const Utf8String& string,
+                                                uint32_t hash,
+                                                size_t num_searched_frozen_tables) {
   Locks::intern_table_lock_->AssertHeld(Thread::Current());
+  auto mid = tables_.begin() + num_searched_frozen_tables;
+  for (Table::InternalTable& table : MakeIterationRange(tables_.begin(), mid)) {
+    DCHECK(table.set_.FindWithHash(string, hash) == table.set_.end());
+  }
   // Search from the last table, assuming that apps shall search for their own
   // strings more often than for boot image strings.
-  for (InternalTable& table : ReverseRange(tables_)) {
+  for (InternalTable& table : ReverseRange(MakeIterationRange(mid, tables_.end()))) {
     auto it = table.set_.FindWithHash(string, hash);
     if (it != table.set_.end()) {
       return it->Read();
@@ -17,6 +17,9 @@
 #ifndef ART_RUNTIME_INTERN_TABLE_H_
 #define ART_RUNTIME_INTERN_TABLE_H_
 
+#include <array>
+#include <atomic>
+
 #include "base/allocator.h"
 #include "base/dchecked_vector.h"
 #include "base/hash_set.h"
@@ -240,7 +243,9 @@ class InternTable {
                                 uint32_t hash,
                                 size_t num_searched_frozen_tables = 0u)
         REQUIRES_SHARED(Locks::mutator_lock_) REQUIRES(Locks::intern_table_lock_);
-    ObjPtr<mirror::String> Find(const Utf8String& string, uint32_t hash)
+    ObjPtr<mirror::String> Find(const Utf8String& string,
+                                uint32_t hash,
+                                size_t num_searched_frozen_tables = 0u)
         REQUIRES_SHARED(Locks::mutator_lock_) REQUIRES(Locks::intern_table_lock_);
     void Insert(ObjPtr<mirror::String> s, uint32_t hash)
         REQUIRES_SHARED(Locks::mutator_lock_) REQUIRES(Locks::intern_table_lock_);
@@ -285,6 +290,19 @@ class InternTable {
                                 size_t num_searched_strong_frozen_tables = 0u)
       REQUIRES(!Locks::intern_table_lock_) REQUIRES_SHARED(Locks::mutator_lock_);
 
+  // Search the boot image strong intern tables without holding `Locks::intern_table_lock_`.
+  // Returns the interned string if found, otherwise sets `*num_searched_strong_frozen_tables`
+  // to the number of frozen strong tables that have been searched and returns null.
+  template <typename Key>
+  ObjPtr<mirror::String> LookupStrongLockFree(const Key& key,
+                                              uint32_t hash,
+                                              size_t* num_searched_strong_frozen_tables)
+      REQUIRES_SHARED(Locks::mutator_lock_);
+
+  // Publish a read-only view of a boot image strong intern table for `LookupStrongLockFree()`.
+  void PublishLockFreeTable(const uint8_t* ptr)
+      REQUIRES(Locks::intern_table_lock_) REQUIRES_SHARED(Locks::mutator_lock_);
+
   // Add a table from memory to the strong interns.
   template <typename Visitor>
   size_t AddTableFromMemory(const uint8_t* ptr, const Visitor& visitor, bool is_boot_image)
@@ -324,10 +342,22 @@ class InternTable {
   // Weak root state, used for concurrent system weak processing and more.
   gc::WeakRootState weak_root_state_ GUARDED_BY(Locks::intern_table_lock_);
 
+  // Read-only views of the boot image strong intern tables, searched without holding
+  // `Locks::intern_table_lock_`. The boot image tables are never inserted into, their memory
+  // stays mapped for the lifetime of the runtime and the GC does not move boot image strings,
+  // so a published view stays valid and in sync with the corresponding `strong_interns_` table.
+  // The views correspond to the first `num_lock_free_tables_` tables of `strong_interns_`.
+  // A view is fully constructed before the release-store of `num_lock_free_tables_` that
+  // makes it visible to readers.
+  static constexpr size_t kMaxLockFreeTables = 32u;
+  std::array<UnorderedSet, kMaxLockFreeTables> lock_free_tables_;
+  std::atomic<size_t> num_lock_free_tables_;
+
   friend class gc::space::ImageSpace;
   friend class linker::ImageWriter;
   friend class Transaction;
   ART_FRIEND_TEST(InternTableTest, CrossHash);
+  ART_FRIEND_TEST(InternTableTest, LookupStrongLockFree);
   DISALLOW_COPY_AND_ASSIGN(InternTable);
 };
 
@@ -247,6 +247,32 @@ TEST_F(InternTableTest, LookupStrong) {
   EXPECT_TRUE(lookup_foobbS == nullptr);
 }
 
+TEST_F(InternTableTest, LookupStrongLockFree) {
+  ScopedObjectAccess soa(Thread::Current());
+  InternTable* intern_table = Runtime::Current()->GetInternTable();
+  // The boot image intern tables can be searched without the lock.
+  ASSERT_NE(intern_table->num_lock_free_tables_.load(), 0u);
+  const InternTable::UnorderedSet& set = intern_table->lock_free_tables_[0];
+  ASSERT_FALSE(set.empty());
+  StackHandleScope<2> hs(soa.Self());
+  Handle<mirror::String> image_string(hs.NewHandle(set.begin()->Read()));
+  std::string utf8 = image_string->ToModifiedUtf8();
+  Handle<mirror::String> copy(hs.NewHandle(
+      mirror::String::AllocFromModifiedUtf8(soa.Self(), utf8.c_str())));
+  ASSERT_TRUE(copy != nullptr);
+  ASSERT_NE(copy.Get(), image_string.Get());
+
+  EXPECT_OBJ_PTR_EQ(intern_table->LookupStrong(soa.Self(), copy.Get()), image_string.Get());
+  EXPECT_OBJ_PTR_EQ(
+      intern_table->LookupStrong(soa.Self(), image_string->GetLength(), utf8.c_str()),
+      image_string.Get());
+  EXPECT_OBJ_PTR_EQ(intern_table->InternStrong(image_string->GetLength(), utf8.c_str()),
+                    image_string.Get());
+  EXPECT_OBJ_PTR_EQ(intern_table->InternStrong(copy.Get()), image_string.Get());
+  EXPECT_OBJ_PTR_EQ(intern_table->InternWeak(copy.Get()), image_string.Get());
+  EXPECT_TRUE(intern_table->LookupWeak(soa.Self(), copy.Get()) == nullptr);
+}
+
 TEST_F(InternTableTest, InternStrongFrozenWeak) {
   ScopedObjectAccess soa(Thread::Current());
   InternTable intern_table;
@@ -46,6 +46,11 @@
 //
 // Note: Thread.interrupted is marked with kAllSideEffects due to the lack
 // of finer grain side effects representation.
+//
+// Note: String.hashCode says kReadSideEffects even though it stores the
+// computed value into the String.hash field. That field is only a cache of
+// a value that depends solely on the immutable string contents, so the
+// store is not observable and it is OK to GVN or remove the call.
 
 // Intrinsics for methods with signature polymorphic behaviours.
 #define SIGNATURE_POLYMORPHIC_INTRINSICS_LIST(V) \
@@ -159,6 +164,26 @@
   V(MathRoundDouble, kStatic, kNeedsEnvironment, kNoSideEffects, kNoThrow, "Ljava/lang/Math;", "round", "(D)J") \
   V(MathRoundFloat, kStatic, kNeedsEnvironment, kNoSideEffects, kNoThrow, "Ljava/lang/Math;", "round", "(F)I") \
   V(MathMultiplyHigh, kStatic, kNeedsEnvironment, kNoSideEffects, kNoThrow, "Ljava/lang/Math;", "multiplyHigh", "(JJ)J") \
+  V(MathAddExactInt, kStatic, kNeedsEnvironment, kNoSideEffects, kCanThrow, "Ljava/lang/Math;", "addExact", "(II)I") \
+  V(MathAddExactLong, kStatic, kNeedsEnvironment, kNoSideEffects, kCanThrow, "Ljava/lang/Math;", "addExact", "(JJ)J") \
+  V(MathSubtractExactInt, kStatic, kNeedsEnvironment, kNoSideEffects, kCanThrow, "Ljava/lang/Math;", "subtractExact", "(II)I") \
+  V(MathSubtractExactLong, kStatic, kNeedsEnvironment, kNoSideEffects, kCanThrow, "Ljava/lang/Math;", "subtractExact", "(JJ)J") \
+  V(MathMultiplyExactInt, kStatic, kNeedsEnvironment, kNoSideEffects, kCanThrow, "Ljava/lang/Math;", "multiplyExact", "(II)I") \
+  V(MathMultiplyExactLong, kStatic, kNeedsEnvironment, kNoSideEffects, kCanThrow, "Ljava/lang/Math;", "multiplyExact", "(JJ)J") \
+  V(ArraysEqualsByte, kStatic, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/util/Arrays;", "equals", "([B[B)Z") \
+  V(ArraysEqualsChar, kStatic, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/util/Arrays;", "equals", "([C[C)Z") \
+  V(ArraysEqualsShort, kStatic, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/util/Arrays;", "equals", "([S[S)Z") \
+  V(ArraysEqualsInt, kStatic, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/util/Arrays;", "equals", "([I[I)Z") \
+  V(ArraysEqualsLong, kStatic, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/util/Arrays;", "equals", "([J[J)Z") \
+  V(ArraysFillByte, kStatic, kNeedsEnvironment, kWriteSideEffects, kCanThrow, "Ljava/util/Arrays;", "fill", "([BB)V") \
+  V(ArraysFillChar, kStatic, kNeedsEnvironment, kWriteSideEffects, kCanThrow, "Ljava/util/Arrays;", "fill", "([CC)V") \
+  V(ArraysFillShort, kStatic, kNeedsEnvironment, kWriteSideEffects, kCanThrow, "Ljava/util/Arrays;", "fill", "([SS)V") \
+  V(ArraysFillInt, kStatic, kNeedsEnvironment, kWriteSideEffects, kCanThrow, "Ljava/util/Arrays;", "fill", "([II)V") \
+  V(ArraysFillLong, kStatic, kNeedsEnvironment, kWriteSideEffects, kCanThrow, "Ljava/util/Arrays;", "fill", "([JJ)V") \
+  V(ArraysHashCodeByte, kStatic, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/util/Arrays;", "hashCode", "([B)I") \
+  V(ArraysHashCodeChar, kStatic, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/util/Arrays;", "hashCode", "([C)I") \
+  V(ArraysHashCodeShort, kStatic, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/util/Arrays;", "hashCode", "([S)I") \
+  V(ArraysHashCodeInt, kStatic, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/util/Arrays;", "hashCode", "([I)I") \
   V(SystemArrayCopyByte, kStatic, kNeedsEnvironment, kAllSideEffects, kCanThrow, "Ljava/lang/System;", "arraycopy", "([BI[BII)V") \
   V(SystemArrayCopyChar, kStatic, kNeedsEnvironment, kAllSideEffects, kCanThrow, "Ljava/lang/System;", "arraycopy", "([CI[CII)V") \
   V(SystemArrayCopyInt, kStatic, kNeedsEnvironment, kAllSideEffects, kCanThrow, "Ljava/lang/System;", "arraycopy", "([II[III)V") \
@@ -188,6 +213,7 @@
   V(StringCompareTo, kVirtual, kNeedsEnvironment, kReadSideEffects, kCanThrow, "Ljava/lang/String;", "compareTo", "(Ljava/lang/String;)I") \
   V(StringEquals, kVirtual, kNeedsEnvironment, kReadSideEffects, kCanThrow, "Ljava/lang/String;", "equals", "(Ljava/lang/Object;)Z") \
   V(StringGetCharsNoCheck, kVirtual, kNeedsEnvironment, kReadSideEffects, kCanThrow, "Ljava/lang/String;", "getCharsNoCheck", "(II[CI)V") \
+  V(StringHashCode, kVirtual, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/lang/String;", "hashCode", "()I") \
   V(StringIndexOf, kVirtual, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/lang/String;", "indexOf", "(I)I") \
   V(StringIndexOfAfter, kVirtual, kNeedsEnvironment, kReadSideEffects, kNoThrow, "Ljava/lang/String;", "indexOf", "(II)I") \
   V(StringStringIndexOf, kVirtual, kNeedsEnvironment, kReadSideEffects, kCanThrow, "Ljava/lang/String;", "indexOf", "(Ljava/lang/String;)I") \
@@ -26,10 +26,12 @@
 #include "base/memory_tool.h"
 #include "base/runtime_debug.h"
 #include "base/scoped_flock.h"
+#include "base/stl_util.h"
 #include "base/utils.h"
 #include "class_root-inl.h"
 #include "compilation_kind.h"
 #include "debugger.h"
+#include "dex/dex_file_loader.h"
 #include "dex/type_lookup_table.h"
 #include "gc/space/image_space.h"
 #include "entrypoints/entrypoint_utils-inl.h"
@@ -39,6 +41,7 @@
 #include "jit-inl.h"
 #include "jit_code_cache.h"
 #include "jni/java_vm_ext.h"
+#include "mirror/dex_cache-inl.h"
 #include "mirror/method_handle_impl.h"
 #include "mirror/var_handle.h"
 #include "oat_file.h"
@@ -103,6 +106,8 @@ JitOptions* JitOptions::CreateFromRuntimeArguments(const RuntimeArgumentMap& opt
       options.GetOrDefault(RuntimeArgumentMap::JITPoolThreadPthreadPriority);
   jit_options->zygote_thread_pool_pthread_priority_ =
       options.GetOrDefault(RuntimeArgumentMap::JITZygotePoolThreadPthreadPriority);
+  jit_options->thread_pool_thread_count_ =
+      std::max(options.GetOrDefault(RuntimeArgumentMap::JITPoolThreadCount), 1u);
 
   // Set default optimize threshold to aid with checking defaults.
   jit_options->optimize_threshold_ =
@@ -169,6 +174,7 @@ void Jit::DumpInfo(std::ostream& os) {
 
 void Jit::DumpForSigQuit(std::ostream& os) {
   DumpInfo(os);
+  jit_compiler_->DumpForSigQuit(os);
   ProfileSaver::DumpInstanceInfo(os);
 }
 
@@ -180,6 +186,7 @@ Jit::Jit(JitCodeCache* code_cache, JitOptions* options)
     : code_cache_(code_cache),
       options_(options),
       boot_completed_lock_("Jit::boot_completed_lock_"),
+      compile_tasks_lock_("Jit::compile_tasks_lock_"),
       cumulative_timings_("JIT timings"),
       memory_use_("Memory used for compilation", 16),
       lock_("JIT memory use lock"),
@@ -835,6 +842,22 @@ class JitCompileTask final : public Task {
     delete this;
   }
 
+  CompilationKind GetCompilationKind() const {
+    return compilation_kind_;
+  }
+
+  // Returns whether this is a baseline compilation of a method for which an optimized
+  // compilation has been requested since. The optimized code would replace the baseline code
+  // right away, so there is no point in running this task.
+  bool IsStale(Thread* self) const {
+    if (compilation_kind_ != CompilationKind::kBaseline) {
+      return false;
+    }
+    MutexLock mu(self, *Locks::jit_lock_);
+    return Runtime::Current()->GetJit()->GetCodeCache()->IsMethodBeingCompiled(
+        method_, CompilationKind::kOptimized);
+  }
+
  private:
   ArtMethod* const method_;
   const TaskKind kind_;
@@ -844,6 +867,64 @@ class JitCompileTask final : public Task {
   DISALLOW_IMPLICIT_CONSTRUCTORS(JitCompileTask);
 };
 
+// The thread pool serves tasks in FIFO order. For compilations requested through
+// `Jit::AddCompileTask`, it holds this placeholder instead, and the worker that picks it up runs
+// whichever pending compilation has the highest priority at that point. There is exactly one
+// placeholder in the thread pool for each pending compilation.
+class JitCompileDispatchTask final : public Task {
+ public:
+  explicit JitCompileDispatchTask(Jit* jit) : jit_(jit), has_run_(false) {}
+
+  void Run(Thread* self) override {
+    has_run_ = true;
+    JitCompileTask* task = jit_->TakeCompileTask(self, /* highest_priority= */ true);
+    DCHECK(task != nullptr);
+    if (task->IsStale(self)) {
+      VLOG(jit) << "Dropping stale baseline compilation";
+    } else {
+      task->Run(self);
+    }
+    task->Finalize();
+  }
+
+  void Finalize() override {
+    if (!has_run_) {
+      // The placeholder is being removed from the thread pool without running, e.g. by
+      // `ThreadPool::RemoveAllTasks`. Drop the least urgent pending compilation with it.
+      JitCompileTask* task =
+          jit_->TakeCompileTask(Thread::Current(), /* highest_priority= */ false);
+      if (task != nullptr) {
+        task->Finalize();
+      }
+    }
+    delete this;
+  }
+
+ private:
+  Jit* const jit_;
+  bool has_run_;
+
+  DISALLOW_IMPLICIT_CONSTRUCTORS(JitCompileDispatchTask);
+};
+
+// Returns the rank of a compilation in the compile task queue. Lower ranks run first. OSR comes
+// first because the requesting thread is stuck in the interpreter in a loop until it is done,
+// then optimized code for hot methods, then baseline code for warm ones. Pre-compilations of
+// methods taken from a profile come last since no running code has asked for them yet.
+static uint32_t GetCompileTaskRank(CompilationKind compilation_kind, bool precompile) {
+  if (precompile) {
+    return 3u;
+  }
+  switch (compilation_kind) {
+    case CompilationKind::kOsr:
+      return 0u;
+    case CompilationKind::kOptimized:
+      return 1u;
+    case CompilationKind::kBaseline:
+      return 2u;
+  }
+}
+
 static std::string GetProfileFile(const std::string& dex_location) {
   // Hardcoded assumption where the profile file is.
   // TODO(ngeoffray): this is brittle and we would need to change change if we
@@ -1062,6 +1143,26 @@ class JitProfileTask final : public Task {
   DISALLOW_COPY_AND_ASSIGN(JitProfileTask);
 };
 
+class JitPersistedMethodsTask final : public Task {
+ public:
+  JitPersistedMethodsTask(const std::string& filename, const std::vector<std::string>& code_paths)
+      : filename_(filename), code_paths_(code_paths) {}
+
+  void Run(Thread* self) override {
+    Runtime::Current()->GetJit()->CompileMethodsFromPersistedFile(self, filename_, code_paths_);
+  }
+
+  void Finalize() override {
+    delete this;
+  }
+
+ private:
+  const std::string filename_;
+  const std::vector<std::string> code_paths_;
+
+  DISALLOW_COPY_AND_ASSIGN(JitPersistedMethodsTask);
+};
+
 static void CopyIfDifferent(void* s1, const void* s2, size_t n) {
   if (memcmp(s1, s2, n) != 0) {
     memcpy(s1, s2, n);
@@ -1203,7 +1304,8 @@ void Jit::CreateThreadPool() {
 
   // We need peers as we may report the JIT thread, e.g., in the debugger.
   constexpr bool kJitPoolNeedsPeers = true;
-  thread_pool_.reset(new ThreadPool("Jit thread pool", 1, kJitPoolNeedsPeers));
+  thread_pool_.reset(new ThreadPool(
+      "Jit thread pool", options_->GetThreadPoolThreadCount(), kJitPoolNeedsPeers));
 
   Runtime* runtime = Runtime::Current();
   thread_pool_->SetPthreadPriority(
@@ -1341,8 +1443,27 @@ void Jit::AddCompileTask(Thread* self,
   JitCompileTask::TaskKind task_kind = precompile
       ? JitCompileTask::TaskKind::kPreCompile
       : JitCompileTask::TaskKind::kCompile;
-  thread_pool_->AddTask(
-      self, new JitCompileTask(method, task_kind, compilation_kind, std::move(sc)));
+  {
+    MutexLock mu(self, compile_tasks_lock_);
+    // Tasks of the same kind run in the order they were requested.
+    pending_compile_tasks_.emplace(
+        std::make_pair(GetCompileTaskRank(compilation_kind, precompile),
+                       next_compile_task_sequence_number_++),
+        new JitCompileTask(method, task_kind, compilation_kind, std::move(sc)));
+  }
+  thread_pool_->AddTask(self, new JitCompileDispatchTask(this));
+}
+
+JitCompileTask* Jit::TakeCompileTask(Thread* self, bool highest_priority) {
+  MutexLock mu(self, compile_tasks_lock_);
+  if (pending_compile_tasks_.empty()) {
+    return nullptr;
+  }
+  auto it = highest_priority ? pending_compile_tasks_.begin()
+                             : std::prev(pending_compile_tasks_.end());
+  JitCompileTask* task = it->second;
+  pending_compile_tasks_.erase(it);
+  return task;
 }
 
 bool Jit::CompileMethodFromProfile(Thread* self,
@@ -1503,6 +1624,120 @@ uint32_t Jit::CompileMethodsFromProfile(
   return added_to_queue;
 }
 
+std::string Jit::GetPersistedMethodsFile(const std::string& profile_filename) {
+  return ReplaceFileExtension(profile_filename, "jitprof");
+}
+
+void Jit::CompilePersistedMethods(Thread* self,
+                                  const std::string& profile_filename,
+                                  const std::vector<std::string>& code_paths) {
+  if (!UseJitCompilation() || thread_pool_ == nullptr) {
+    return;
+  }
+  thread_pool_->AddTask(
+      self, new JitPersistedMethodsTask(GetPersistedMethodsFile(profile_filename), code_paths));
+}
+
+// Collects the dex caches of the dex files loaded from the given code paths.
+class CodePathDexCacheVisitor final : public DexCacheVisitor {
+ public:
+  CodePathDexCacheVisitor(const std::vector<std::string>& code_paths,
+                          VariableSizedHandleScope& handles)
+      : code_paths_(code_paths), handles_(handles) {}
+
+  void Visit(ObjPtr<mirror::DexCache> dex_cache)
+      REQUIRES_SHARED(Locks::dex_lock_, Locks::mutator_lock_) override {
+    const std::string& location = dex_cache->GetDexFile()->GetLocation();
+    if (ContainsElement(code_paths_, DexFileLoader::GetBaseLocation(location))) {
+      dex_caches_.push_back(handles_.NewHandle(dex_cache));
+    }
+  }
+
+  const std::vector<Handle<mirror::DexCache>>& GetDexCaches() const {
+    return dex_caches_;
+  }
+
+ private:
+  const std::vector<std::string>& code_paths_;
+  VariableSizedHandleScope& handles_;
+  std::vector<Handle<mirror::DexCache>> dex_caches_;
+};
+
+uint32_t Jit::CompileMethodsFromPersistedFile(Thread* self,
+                                              const std::string& filename,
+                                              const std::vector<std::string>& code_paths) {
+  unix_file::FdFile file(filename, O_RDONLY, true);
+  if (file.Fd() == -1) {
+    // This is expected on the first run of the application.
+    VLOG(jit) << "No persisted JIT methods: " << filename;
+    return 0u;
+  }
+
+  ProfileCompilationInfo info(/* for_boot_image= */ false);
+  if (!info.Load(file.Fd())) {
+    LOG(WARNING) << "Could not load persisted JIT methods: " << filename;
+    return 0u;
+  }
+
+  ScopedObjectAccess soa(self);
+  VariableSizedHandleScope handles(self);
+  CodePathDexCacheVisitor visitor(code_paths, handles);
+  ClassLinker* class_linker = Runtime::Current()->GetClassLinker();
+  {
+    ReaderMutexLock mu(self, *Locks::dex_lock_);
+    class_linker->VisitDexCaches(&visitor);
+  }
+
+  StackHandleScope<1> hs(self);
+  MutableHandle<mirror::ClassLoader> class_loader = hs.NewHandle<mirror::ClassLoader>(nullptr);
+  uint32_t added_to_queue = 0u;
+  for (Handle<mirror::DexCache> dex_cache : visitor.GetDexCaches()) {
+    if (added_to_queue == kMaxPersistedMethodsToCompile) {
+      break;
+    }
+    std::set<dex::TypeIndex> class_types;
+    std::set<uint16_t> hot_methods;
+    std::set<uint16_t> other_methods;
+    if (!info.GetClassesAndMethods(*dex_cache->GetDexFile(),
+                                   &class_types,
+                                   &hot_methods,
+                                   &other_methods,
+                                   &other_methods)) {
+      // The dex file is not in the file, or it changed since the methods were persisted.
+      continue;
+    }
+    class_loader.Assign(dex_cache->GetClassLoader());
+    for (uint16_t method_idx : hot_methods) {
+      ArtMethod* method =
+          class_linker->ResolveMethodWithoutInvokeType(method_idx, dex_cache, class_loader);
+      if (method == nullptr) {
+        self->ClearException();
+        continue;
+      }
+      if (!method->IsCompilable() || !method->IsInvokable() || method->IsNative()) {
+        continue;
+      }
+      const void* entry_point = method->GetEntryPointFromQuickCompiledCode();
+      if (!class_linker->IsQuickToInterpreterBridge(entry_point) &&
+          !class_linker->IsNterpEntryPoint(entry_point) &&
+          entry_point != GetQuickResolutionStub()) {
+        // The method already has AOT or JIT code.
+        continue;
+      }
+      // Queue the method behind all compilations requested by running code, so that the
+      // application's startup is not delayed. As a pre-compilation, its code is kept until the
+      // declaring class is initialized, see JitCodeCache::NotifyCompilationOf.
+      AddCompileTask(self, method, CompilationKind::kOptimized, /* precompile= */ true);
+      if (++added_to_queue == kMaxPersistedMethodsToCompile) {
+        VLOG(jit) << "Reached the limit of persisted JIT methods to compile from " << filename;
+        break;
+      }
+    }
+  }
+  VLOG(jit) << "Added " << added_to_queue << " persisted JIT methods from " << filename;
+  return added_to_queue;
+}
+
 bool Jit::IgnoreSamplesForMethod(ArtMethod* method) REQUIRES_SHARED(Locks::mutator_lock_) {
   if (method->IsClassInitializer() || !method->IsCompilable()) {
     // We do not want to compile such methods.
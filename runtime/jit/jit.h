@@ -53,6 +53,7 @@ class String;
 namespace jit {
 
 class JitCodeCache;
+class JitCompileDispatchTask;
 class JitCompileTask;
 class JitMemoryRegion;
 class JitOptions;
@@ -66,6 +67,8 @@ static constexpr int kJitPoolThreadPthreadDefaultPriority = 9;
 // 19 is the lowest background priority on device.
 // See android/os/Process.java.
 static constexpr int kJitZygotePoolThreadPthreadDefaultPriority = 19;
+// How many jit threads compile methods concurrently.
+static constexpr unsigned int kJitPoolThreadDefaultCount = 1;
 
 class JitOptions {
  public:
@@ -115,6 +118,10 @@ class JitOptions {
     return zygote_thread_pool_pthread_priority_;
   }
 
+  size_t GetThreadPoolThreadCount() const {
+    return thread_pool_thread_count_;
+  }
+
   bool UseJitCompilation() const {
     return use_jit_compilation_;
   }
@@ -165,6 +172,7 @@ class JitOptions {
   bool dump_info_on_shutdown_;
   int thread_pool_pthread_priority_;
   int zygote_thread_pool_pthread_priority_;
+  size_t thread_pool_thread_count_;
   ProfileSaverOptions profile_saver_options_;
 
   JitOptions()
@@ -179,7 +187,8 @@ class JitOptions {
         invoke_transition_weight_(0),
         dump_info_on_shutdown_(false),
         thread_pool_pthread_priority_(kJitPoolThreadPthreadDefaultPriority),
-        zygote_thread_pool_pthread_priority_(kJitZygotePoolThreadPthreadDefaultPriority) {}
+        zygote_thread_pool_pthread_priority_(kJitZygotePoolThreadPthreadDefaultPriority),
+        thread_pool_thread_count_(kJitPoolThreadDefaultCount) {}
 
   DISALLOW_COPY_AND_ASSIGN(JitOptions);
 };
@@ -197,6 +206,7 @@ class JitCompilerInterface {
   virtual void ParseCompilerOptions() = 0;
   virtual bool IsBaselineCompiler() const = 0;
   virtual void SetDebuggableCompilerOption(bool value) = 0;
+  virtual void DumpForSigQuit(std::ostream& os) = 0;
 
   virtual std::vector<uint8_t> PackElfFileForJIT(ArrayRef<const JITCodeEntry*> elf_files,
                                                  ArrayRef<const void*> removed_symbols,
@@ -415,6 +425,29 @@ class Jit {
                                          Handle<mirror::ClassLoader> class_loader,
                                          bool add_to_queue);
 
+  // Returns the file where the profile saver persists the methods with optimized JIT code
+  // for the profile `profile_filename`, see ProfileSaverOptions::GetPersistJitMethods().
+  static std::string GetPersistedMethodsFile(const std::string& profile_filename);
+
+  // Adds a task to compile the methods persisted for `profile_filename` by a previous run of
+  // the application, so that they get optimized code before they become hot again.
+  void CompilePersistedMethods(Thread* self,
+                               const std::string& profile_filename,
+                               const std::vector<std::string>& code_paths);
+
+  // Maximum number of methods queued by `CompileMethodsFromPersistedFile`. The methods are only
+  // compiled once the JIT has no other work, but each of them still takes code cache space that
+  // the application may never need.
+  static constexpr uint32_t kMaxPersistedMethodsToCompile = 500u;
+
+  // Adds to the JIT queue the methods listed in the persisted methods file `filename` that
+  // belong to dex files loaded from `code_paths` and have neither AOT nor JIT code, up to
+  // `kMaxPersistedMethodsToCompile`. Dex files whose checksum does not match the one in the file
+  // are skipped. Return the number of methods added to the queue.
+  uint32_t CompileMethodsFromPersistedFile(Thread* self,
+                                           const std::string& filename,
+                                           const std::vector<std::string>& code_paths);
+
   // Register the dex files to the JIT. This is to perform any compilation/optimization
   // at the point of loading the dex files.
   void RegisterDexFiles(const std::vector<std::unique_ptr<const DexFile>>& dex_files,
@@ -468,6 +501,11 @@ class Jit {
                       CompilationKind compilation_kind,
                       bool precompile = false);
 
+  // Removes and returns the pending compile task with the highest priority, or the lowest one if
+  // `highest_priority` is false. Returns null if there is no pending compile task.
+  JitCompileTask* TakeCompileTask(Thread* self, bool highest_priority)
+      REQUIRES(!compile_tasks_lock_);
+
   bool CompileMethodInternal(ArtMethod* method,
                              Thread* self,
                              CompilationKind compilation_kind,
@@ -491,6 +529,14 @@ class Jit {
   bool boot_completed_ GUARDED_BY(boot_completed_lock_) = false;
   std::deque<Task*> tasks_after_boot_ GUARDED_BY(boot_completed_lock_);
 
+  // Compile tasks added by `AddCompileTask` that are waiting for a thread pool worker, keyed by
+  // (rank of the compilation kind, sequence number), so that the first entry is the one to run
+  // next. The thread pool itself only holds a `JitCompileDispatchTask` for each of them.
+  Mutex compile_tasks_lock_ DEFAULT_MUTEX_ACQUIRED_AFTER;
+  std::map<std::pair<uint32_t, uint64_t>, JitCompileTask*> pending_compile_tasks_
+      GUARDED_BY(compile_tasks_lock_);
+  uint64_t next_compile_task_sequence_number_ GUARDED_BY(compile_tasks_lock_) = 0;
+
   // Performance monitoring.
   CumulativeLogger cumulative_timings_;
   Histogram<uint64_t> memory_use_ GUARDED_BY(lock_);
@@ -520,6 +566,7 @@ class Jit {
   // between the zygote and apps.
   std::map<ArtMethod*, uint16_t> shared_method_counters_;
 
+  friend class art::jit::JitCompileDispatchTask;
   friend class art::jit::JitCompileTask;
 
   DISALLOW_COPY_AND_ASSIGN(Jit);
@@ -315,6 +315,20 @@ bool JitCodeCache::ContainsMethod(ArtMethod* method) {
   return false;
 }
 
+size_t JitCodeCache::GetNumberOfCompiledCode(ArtMethod* method) {
+  DCHECK(!method->IsNative());
+  Thread* self = Thread::Current();
+  ScopedDebugDisallowReadBarriers sddrb(self);
+  MutexLock mu(self, *Locks::jit_lock_);
+  size_t count = 0u;
+  for (const auto& it : method_code_map_) {
+    if (it.second == method) {
+      ++count;
+    }
+  }
+  return count;
+}
+
 const void* JitCodeCache::GetJniStubCode(ArtMethod* method) {
   DCHECK(method->IsNative());
   Thread* self = Thread::Current();
@@ -455,6 +469,10 @@ void JitCodeCache::SweepRootTables(IsMarkedVisitor* visitor) {
           mirror::Class* new_klass = down_cast<mirror::Class*>(visitor->IsMarked(klass));
           if (new_klass != klass) {
             cache->classes_[j] = GcRoot<mirror::Class>(new_klass);
+            if (new_klass == nullptr) {
+              // The entry may be reused by another class, drop the count of the unloaded one.
+              cache->counts_[j] = 0u;
+            }
           }
         }
       }
@@ -613,17 +631,26 @@ void JitCodeCache::DisallowInlineCacheAccess() {
 
 void JitCodeCache::CopyInlineCacheInto(
     const InlineCache& ic,
-    /*out*/StackHandleScope<InlineCache::kIndividualCacheSize>* classes) {
+    /*out*/StackHandleScope<InlineCache::kIndividualCacheSize>* classes,
+    /*out*/std::array<uint32_t, InlineCache::kIndividualCacheSize>* counts) {
   static_assert(arraysize(ic.classes_) == InlineCache::kIndividualCacheSize);
+  static_assert(arraysize(ic.counts_) == InlineCache::kIndividualCacheSize);
   DCHECK_EQ(classes->NumberOfReferences(), InlineCache::kIndividualCacheSize);
   DCHECK_EQ(classes->RemainingSlots(), InlineCache::kIndividualCacheSize);
   WaitUntilInlineCacheAccessible(Thread::Current());
   // Note that we don't need to lock `lock_` here, the compiler calling
   // this method has already ensured the inline cache will not be deleted.
-  for (const GcRoot<mirror::Class>& root : ic.classes_) {
-    mirror::Class* object = root.Read();
+  if (counts != nullptr) {
+    counts->fill(0u);
+  }
+  for (size_t i = 0; i < InlineCache::kIndividualCacheSize; ++i) {
+    mirror::Class* object = ic.classes_[i].Read();
     if (object != nullptr) {
       DCHECK_NE(classes->RemainingSlots(), 0u);
+      if (counts != nullptr) {
+        // Keep the counts aligned with the compacted list of classes.
+        (*counts)[InlineCache::kIndividualCacheSize - classes->RemainingSlots()] = ic.counts_[i];
+      }
       classes->NewHandle(object);
     }
   }
@@ -1625,6 +1652,35 @@ void JitCodeCache::GetProfiledMethods(const std::set<std::string>& dex_base_loca
   }
 }
 
+void JitCodeCache::GetOptimizedMethods(const std::set<std::string>& dex_base_locations,
+                                       std::vector<ProfileMethodInfo>& methods) {
+  Thread* self = Thread::Current();
+  MutexLock mu(self, *Locks::jit_lock_);
+  ScopedTrace trace(__FUNCTION__);
+  for (const auto& entry : method_code_map_) {
+    const void* code_ptr = entry.first;
+    ArtMethod* method = entry.second;
+    if (CodeInfo::IsBaseline(
+            OatQuickMethodHeader::FromCodePointer(code_ptr)->GetOptimizedCodeInfoPtr())) {
+      continue;
+    }
+    auto osr_it = osr_code_map_.find(method);
+    if (osr_it != osr_code_map_.end() && osr_it->second == code_ptr) {
+      continue;
+    }
+    if (method->IsObsolete()) {
+      // The method index refers to the dex file before redefinition.
+      continue;
+    }
+    const DexFile* dex_file = method->GetDexFile();
+    const std::string base_location = DexFileLoader::GetBaseLocation(dex_file->GetLocation());
+    if (!ContainsElement(dex_base_locations, base_location)) {
+      continue;
+    }
+    methods.emplace_back(MethodReference(dex_file, method->GetDexMethodIndex()));
+  }
+}
+
 bool JitCodeCache::IsOsrCompiled(ArtMethod* method) {
   Thread* self = Thread::Current();
   ScopedDebugDisallowReadBarriers sddrb(self);
@@ -27,6 +27,7 @@
 #include "base/compiler_filter.h"
 #include "base/enums.h"
 #include "base/logging.h"  // For VLOG.
+#include "base/os.h"
 #include "base/scoped_arena_containers.h"
 #include "base/stl_util.h"
 #include "base/systrace.h"
@@ -57,6 +58,11 @@ static_assert(ProfileCompilationInfo::kIndividualInlineCacheSize ==
 // At what priority to schedule the saver threads. 9 is the lowest foreground priority on device.
 static constexpr int kProfileSaverPthreadPriority = 9;
 
+// After this many consecutive save cycles without new data for a profile, the in-memory copy of
+// the profile is dropped. Such a profile is likely done changing, and it would otherwise occupy
+// memory for the lifetime of the process. If new data shows up, the file is simply loaded again.
+static constexpr uint32_t kMaxIdleSaveCycles = 3;
+
 static void SetProfileSaverThreadPriority(pthread_t thread, int priority) {
 #if defined(ART_TARGET_ANDROID)
   int result = setpriority(PRIO_PROCESS, pthread_gettid_np(thread), priority);
@@ -92,6 +98,7 @@ ProfileSaver::ProfileSaver(const ProfileSaverOptions& options, jit::JitCodeCache
       total_number_of_writes_(0),
       total_number_of_code_cache_queries_(0),
       total_number_of_skipped_writes_(0),
+      total_number_of_skipped_loads_(0),
       total_number_of_failed_writes_(0),
       total_ms_of_sleep_(0),
       total_ns_of_work_(0),
@@ -820,6 +827,49 @@ void ProfileSaver::FetchAndCacheResolvedClassesAndMethods(bool startup) {
                  << " in " << PrettyDuration(NanoTime() - start_time);
 }
 
+bool ProfileSaver::GetProfileFileIdentity(const std::string& filename,
+                                          /*out*/ ProfileFileIdentity* identity) {
+  struct stat st;
+  if (stat(filename.c_str(), &st) != 0) {
+    return false;
+  }
+  identity->dev = st.st_dev;
+  identity->ino = st.st_ino;
+  identity->size = st.st_size;
+  identity->mtime = st.st_mtim;
+  return true;
+}
+
+std::optional<ProfileSaver::SavedProfile> ProfileSaver::TakeSavedProfile(
+    const std::string& filename) {
+  auto it = saved_profiles_.find(filename);
+  if (it == saved_profiles_.end()) {
+    return std::nullopt;
+  }
+  SavedProfile saved_profile = std::move(it->second);
+  saved_profiles_.erase(it);
+
+  // The file may have been cleared, replaced or merged into by another process since we saved
+  // it. In that case we need to load it again to avoid overwriting the changes.
+  ProfileFileIdentity identity;
+  if (!GetProfileFileIdentity(filename, &identity) ||
+      identity.dev != saved_profile.file_identity.dev ||
+      identity.ino != saved_profile.file_identity.ino ||
+      identity.size != saved_profile.file_identity.size ||
+      identity.mtime.tv_sec != saved_profile.file_identity.mtime.tv_sec ||
+      identity.mtime.tv_nsec != saved_profile.file_identity.mtime.tv_nsec) {
+    VLOG(profiler) << "Profile " << filename << " was modified since the last save";
+    return std::nullopt;
+  }
+  return saved_profile;
+}
+
+void ProfileSaver::PutSavedProfile(const std::string& filename, SavedProfile&& saved_profile) {
+  // Another thread may have saved the same profile in the meantime. The latest save wins.
+  saved_profiles_.erase(filename);
+  saved_profiles_.Put(filename, std::move(saved_profile));
+}
+
 bool ProfileSaver::ProcessProfilingInfo(
         bool force_save,
         bool skip_class_and_method_fetching,
@@ -860,6 +910,10 @@ bool ProfileSaver::ProcessProfilingInfo(
     VLOG(profiler) << "Tracked filename " << filename << " locations "
                    << android::base::Join(locations, ":");
 
+    if (options_.GetPersistJitMethods()) {
+      PersistJitMethods(filename, locations, force_save);
+    }
+
     std::vector<ProfileMethodInfo> profile_methods;
     {
       ScopedObjectAccess soa(Thread::Current());
@@ -867,20 +921,51 @@ bool ProfileSaver::ProcessProfilingInfo(
       total_number_of_code_cache_queries_++;
     }
     {
-      ProfileCompilationInfo info(Runtime::Current()->GetArenaPool(),
-                                  /*for_boot_image=*/options_.GetProfileBootClassPath());
-      // Load the existing profile before saving.
-      // If the file is updated between `Load` and `Save`, the update will be lost. This is
-      // acceptable. The main reason is that the lost entries will eventually come back if the user
-      // keeps using the same methods, or they won't be needed if the user doesn't use the same
-      // methods again.
-      if (!info.Load(filename, /*clear_if_invalid=*/true)) {
-        LOG(WARNING) << "Could not forcefully load profile " << filename;
-        continue;
+      // Reuse the profile we saved last time if the file has not changed since, so that a save
+      // cycle only needs to add the new data instead of loading the whole file again.
+      std::optional<SavedProfile> saved_profile;
+      {
+        MutexLock mu(Thread::Current(), *Locks::profiler_lock_);
+        saved_profile = TakeSavedProfile(filename);
+      }
+      std::unique_ptr<ProfileCompilationInfo> info;
+      uint64_t last_save_number_of_methods;
+      uint64_t last_save_number_of_classes;
+      if (saved_profile.has_value()) {
+        info = std::move(saved_profile->info);
+        last_save_number_of_methods = saved_profile->number_of_saved_methods;
+        last_save_number_of_classes = saved_profile->number_of_saved_classes;
+        total_number_of_skipped_loads_++;
+      } else {
+        info.reset(new ProfileCompilationInfo(
+            Runtime::Current()->GetArenaPool(),
+            /*for_boot_image=*/options_.GetProfileBootClassPath()));
+        // Get the identity before loading. If the file changes in between, the identity will
+        // not match on the next save cycle and the file will simply be loaded again.
+        ProfileFileIdentity file_identity;
+        bool has_file_identity = GetProfileFileIdentity(filename, &file_identity);
+        // Load the existing profile before saving.
+        // If the file is updated between `Load` and `Save`, the update will be lost. This is
+        // acceptable. The main reason is that the lost entries will eventually come back if the
+        // user keeps using the same methods, or they won't be needed if the user doesn't use the
+        // same methods again.
+        if (!info->Load(filename, /*clear_if_invalid=*/true)) {
+          LOG(WARNING) << "Could not forcefully load profile " << filename;
+          continue;
+        }
+        last_save_number_of_methods = info->GetNumberOfMethods();
+        last_save_number_of_classes = info->GetNumberOfResolvedClasses();
+        if (has_file_identity) {
+          saved_profile = SavedProfile{/*info=*/ nullptr,
+                                       file_identity,
+                                       last_save_number_of_methods,
+                                       last_save_number_of_classes,
+                                       /*idle_save_cycles=*/ 0u};
+        }
       }
+      uint64_t number_of_methods_before_cycle = info->GetNumberOfMethods();
+      uint64_t number_of_classes_before_cycle = info->GetNumberOfResolvedClasses();
 
-      uint64_t last_save_number_of_methods = info.GetNumberOfMethods();
-      uint64_t last_save_number_of_classes = info.GetNumberOfResolvedClasses();
       VLOG(profiler) << "last_save_number_of_methods=" << last_save_number_of_methods
                      << " last_save_number_of_classes=" << last_save_number_of_classes
                      << " number of profiled methods=" << profile_methods.size();
@@ -888,13 +973,13 @@ bool ProfileSaver::ProcessProfilingInfo(
       // Try to add the method data. Note this may fail is the profile loaded from disk contains
       // outdated data (e.g. the previous profiled dex files might have been updated).
       // If this happens we clear the profile data and for the save to ensure the file is cleared.
-      if (!info.AddMethods(
+      if (!info->AddMethods(
               profile_methods,
               AnnotateSampleFlags(Hotness::kFlagHot | Hotness::kFlagPostStartup),
               GetProfileSampleAnnotation())) {
         LOG(WARNING) << "Could not add methods to the existing profiler. "
             << "Clearing the profile data.";
-        info.ClearData();
+        info->ClearData();
         force_save = true;
       }
 
@@ -902,9 +987,9 @@ bool ProfileSaver::ProcessProfilingInfo(
         MutexLock mu(Thread::Current(), *Locks::profiler_lock_);
         auto profile_cache_it = profile_cache_.find(filename);
         if (profile_cache_it != profile_cache_.end()) {
-          if (!info.MergeWith(*(profile_cache_it->second))) {
+          if (!info->MergeWith(*(profile_cache_it->second))) {
             LOG(WARNING) << "Could not merge the profile. Clearing the profile data.";
-            info.ClearData();
+            info->ClearData();
             force_save = true;
           }
         } else if (VLOG_IS_ON(profiler)) {
@@ -915,9 +1000,9 @@ bool ProfileSaver::ProcessProfilingInfo(
         }
 
         int64_t delta_number_of_methods =
-            info.GetNumberOfMethods() - last_save_number_of_methods;
+            info->GetNumberOfMethods() - last_save_number_of_methods;
         int64_t delta_number_of_classes =
-            info.GetNumberOfResolvedClasses() - last_save_number_of_classes;
+            info->GetNumberOfResolvedClasses() - last_save_number_of_classes;
 
         if (!force_save &&
             delta_number_of_methods < options_.GetMinMethodsToSave() &&
@@ -926,6 +1011,25 @@ bool ProfileSaver::ProcessProfilingInfo(
                         << " Number of methods: " << delta_number_of_methods
                         << " Number of classes: " << delta_number_of_classes;
           total_number_of_skipped_writes_++;
+          // Keep the merged data in memory. The file still has the data of the last save, so
+          // the delta keeps accumulating until it is big enough to be written. Once the profile
+          // stops growing, drop it to free the memory. Any unsaved delta is then lost, just as
+          // it would be without the in-memory copy; the methods still in the code cache are
+          // added again on the next save cycle.
+          if (saved_profile.has_value()) {
+            if (info->GetNumberOfMethods() == number_of_methods_before_cycle &&
+                info->GetNumberOfResolvedClasses() == number_of_classes_before_cycle) {
+              saved_profile->idle_save_cycles++;
+            } else {
+              saved_profile->idle_save_cycles = 0u;
+            }
+            if (saved_profile->idle_save_cycles < kMaxIdleSaveCycles) {
+              saved_profile->info = std::move(info);
+              PutSavedProfile(filename, std::move(*saved_profile));
+            } else {
+              VLOG(profiler) << "Dropping the in-memory profile for idle " << filename;
+            }
+          }
           continue;
         }
 
@@ -937,7 +1041,7 @@ bool ProfileSaver::ProcessProfilingInfo(
         uint64_t bytes_written;
         // Force the save. In case the profile data is corrupted or the profile
         // has the wrong version this will "fix" the file to the correct format.
-        if (info.Save(filename, &bytes_written)) {
+        if (info->Save(filename, &bytes_written)) {
           // We managed to save the profile. Clear the cache stored during startup.
           if (profile_cache_it != profile_cache_.end()) {
             ProfileCompilationInfo *cached_info = profile_cache_it->second;
@@ -955,6 +1059,18 @@ bool ProfileSaver::ProcessProfilingInfo(
             // in the file.
             total_number_of_skipped_writes_++;
           }
+          // Remember what we saved for the next save cycle.
+          ProfileFileIdentity file_identity;
+          if (GetProfileFileIdentity(filename, &file_identity)) {
+            uint64_t number_of_saved_methods = info->GetNumberOfMethods();
+            uint64_t number_of_saved_classes = info->GetNumberOfResolvedClasses();
+            PutSavedProfile(filename,
+                            SavedProfile{std::move(info),
+                                         file_identity,
+                                         number_of_saved_methods,
+                                         number_of_saved_classes,
+                                         /*idle_save_cycles=*/ 0u});
+          }
         } else {
           LOG(WARNING) << "Could not save profiling info to " << filename;
           total_number_of_failed_writes_++;
@@ -970,6 +1086,60 @@ bool ProfileSaver::ProcessProfilingInfo(
   return profile_file_saved;
 }
 
+void ProfileSaver::PersistJitMethods(const std::string& filename,
+                                     const std::set<std::string>& locations,
+                                     bool force_save) {
+  std::vector<ProfileMethodInfo> methods;
+  {
+    ScopedObjectAccess soa(Thread::Current());
+    jit_code_cache_->GetOptimizedMethods(locations, methods);
+  }
+  if (!force_save) {
+    // Code is rarely collected, so the same number of methods most likely means the same
+    // methods. The file is written anyway on the final save when the saver is stopped.
+    MutexLock mu(Thread::Current(), *Locks::profiler_lock_);
+    auto count_it = persisted_jit_methods_counts_.find(filename);
+    if (count_it != persisted_jit_methods_counts_.end() && count_it->second == methods.size()) {
+      return;
+    }
+  }
+
+  ProfileCompilationInfo info(Runtime::Current()->GetArenaPool(), /*for_boot_image=*/ false);
+  if (!info.AddMethods(methods, Hotness::kFlagHot)) {
+    LOG(WARNING) << "Could not add JIT methods to persist for " << filename;
+    return;
+  }
+
+  // Write to a temporary file first so that a concurrent start of the application never sees
+  // a partially written file.
+  const std::string persisted_filename = jit::Jit::GetPersistedMethodsFile(filename);
+  const std::string temp_filename = persisted_filename + ".tmp";
+  std::unique_ptr<File> file(OS::CreateEmptyFileWriteOnly(temp_filename.c_str()));
+  if (file == nullptr) {
+    PLOG(WARNING) << "Could not create " << temp_filename;
+    return;
+  }
+  if (!info.Save(file->Fd())) {
+    LOG(WARNING) << "Could not write persisted JIT methods to " << temp_filename;
+    file->Erase(/*unlink=*/ true);
+    return;
+  }
+  if (file->FlushCloseOrErase() != 0) {
+    PLOG(WARNING) << "Could not flush " << temp_filename;
+    unlink(temp_filename.c_str());
+    return;
+  }
+  if (rename(temp_filename.c_str(), persisted_filename.c_str()) != 0) {
+    PLOG(WARNING) << "Could not rename " << temp_filename << " to " << persisted_filename;
+    unlink(temp_filename.c_str());
+    return;
+  }
+  VLOG(profiler) << "Persisted " << methods.size() << " JIT methods to " << persisted_filename;
+
+  MutexLock mu(Thread::Current(), *Locks::profiler_lock_);
+  persisted_jit_methods_counts_.Overwrite(filename, methods.size());
+}
+
 void* ProfileSaver::RunProfileSaverThread(void* arg) {
   Runtime* runtime = Runtime::Current();
 
@@ -1038,6 +1208,12 @@ void  ProfileSaver::Start(const ProfileSaverOptions& options,
     }
   }
 
+  if (options.GetPersistJitMethods() && !code_paths_to_profile.empty()) {
+    // Compile the methods that had optimized code when the application last ran.
+    runtime->GetJit()->CompilePersistedMethods(
+        Thread::Current(), output_filename, code_paths_to_profile);
+  }
+
   MutexLock mu(Thread::Current(), *Locks::profiler_lock_);
   // Support getting profile samples for the boot class path. This will be used to generate the boot
   // image profile. The intention is to use this code to generate to boot image but not use it in
@@ -1228,6 +1404,7 @@ void ProfileSaver::DumpInfo(std::ostream& os) {
      << "ProfileSaver total_number_of_code_cache_queries="
      << total_number_of_code_cache_queries_ << '\n'
      << "ProfileSaver total_number_of_skipped_writes=" << total_number_of_skipped_writes_ << '\n'
+     << "ProfileSaver total_number_of_skipped_loads=" << total_number_of_skipped_loads_ << '\n'
      << "ProfileSaver total_number_of_failed_writes=" << total_number_of_failed_writes_ << '\n'
      << "ProfileSaver total_ms_of_sleep=" << total_ms_of_sleep_ << '\n'
      << "ProfileSaver total_ms_of_work=" << NsToMs(total_ns_of_work_) << '\n'
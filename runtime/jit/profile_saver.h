@@ -17,6 +17,11 @@
 #ifndef ART_RUNTIME_JIT_PROFILE_SAVER_H_
 #define ART_RUNTIME_JIT_PROFILE_SAVER_H_
 
+#include <sys/stat.h>
+
+#include <memory>
+#include <optional>
+
 #include "base/mutex.h"
 #include "base/safe_map.h"
 #include "dex/method_reference.h"
@@ -98,6 +103,15 @@ class ProfileSaver {
                            const std::string& ref_profile_filename)
       REQUIRES(Locks::profiler_lock_);
 
+  // Writes the methods of `locations` that have optimized JIT code to the persisted methods file
+  // of `filename`, see Jit::GetPersistedMethodsFile(). Unless `force_save` is true, the file is
+  // only written if the number of methods changed since the last write.
+  void PersistJitMethods(const std::string& filename,
+                         const std::set<std::string>& locations,
+                         bool force_save)
+      REQUIRES(!Locks::profiler_lock_)
+      REQUIRES(!Locks::mutator_lock_);
+
   // Fetches the current resolved classes and methods from the ClassLinker and stores them in the
   // profile_cache_ for later save.
   void FetchAndCacheResolvedClassesAndMethods(bool startup) REQUIRES(!Locks::profiler_lock_);
@@ -154,6 +168,47 @@ class ProfileSaver {
   // to just a few hundreds entries in the ProfileCompilationInfo objects.
   SafeMap<std::string, ProfileCompilationInfo*> profile_cache_ GUARDED_BY(Locks::profiler_lock_);
 
+  // The identity of a profile file on disk, used to detect changes made by other processes.
+  struct ProfileFileIdentity {
+    dev_t dev;
+    ino_t ino;
+    off_t size;
+    timespec mtime;
+  };
+
+  // A profile as last saved to disk by this saver, kept so that the following saves do not need
+  // to load the file again. The in-memory profile may be a superset of the file content if
+  // the data added since the last save was not enough to warrant a write. Each of these holds
+  // a full copy of the profile, about as large as the file, so it is dropped after
+  // kMaxIdleSaveCycles save cycles that added nothing to it.
+  struct SavedProfile {
+    std::unique_ptr<ProfileCompilationInfo> info;
+    ProfileFileIdentity file_identity;
+    uint64_t number_of_saved_methods;
+    uint64_t number_of_saved_classes;
+    // Number of consecutive save cycles that did not add any method or class.
+    uint32_t idle_save_cycles;
+  };
+
+  // Gets the identity of the file. Returns false if the file cannot be stat-ed.
+  static bool GetProfileFileIdentity(const std::string& filename,
+                                     /*out*/ ProfileFileIdentity* identity);
+
+  // Removes the saved profile for `filename` from `saved_profiles_` and returns it. Returns
+  // nothing if there is no saved profile or if the file was modified since it was saved.
+  std::optional<SavedProfile> TakeSavedProfile(const std::string& filename)
+      REQUIRES(Locks::profiler_lock_);
+
+  // Records `saved_profile` as the saved profile for `filename`, replacing any existing one.
+  void PutSavedProfile(const std::string& filename, SavedProfile&& saved_profile)
+      REQUIRES(Locks::profiler_lock_);
+
+  // The profiles last saved by this saver. Maps each tracked file to its saved profile.
+  SafeMap<std::string, SavedProfile> saved_profiles_ GUARDED_BY(Locks::profiler_lock_);
+
+  // The number of methods last written to the persisted methods file of each tracked file.
+  SafeMap<std::string, size_t> persisted_jit_methods_counts_ GUARDED_BY(Locks::profiler_lock_);
+
   // Whether or not this is the first ever profile save.
   // Note this is an approximation and is not 100% precise. It relies on checking
   // whether or not the profiles are empty which is not a precise indication
@@ -168,6 +223,7 @@ class ProfileSaver {
   uint64_t total_number_of_writes_;
   uint64_t total_number_of_code_cache_queries_;
   uint64_t total_number_of_skipped_writes_;
+  uint64_t total_number_of_skipped_loads_;
   uint64_t total_number_of_failed_writes_;
   uint64_t total_ms_of_sleep_;
   uint64_t total_ns_of_work_;
@@ -47,7 +47,8 @@ struct ProfileSaverOptions {
     profile_path_(""),
     profile_boot_class_path_(false),
     profile_aot_code_(false),
-    wait_for_jit_notifications_to_save_(true) {}
+    wait_for_jit_notifications_to_save_(true),
+    persist_jit_methods_(false) {}
 
   ProfileSaverOptions(
       bool enabled,
@@ -62,7 +63,8 @@ struct ProfileSaverOptions {
       const std::string& profile_path,
       bool profile_boot_class_path,
       bool profile_aot_code = false,
-      bool wait_for_jit_notifications_to_save = true)
+      bool wait_for_jit_notifications_to_save = true,
+      bool persist_jit_methods = false)
   : enabled_(enabled),
     min_save_period_ms_(min_save_period_ms),
     min_first_save_ms_(min_first_save_ms),
@@ -75,7 +77,8 @@ struct ProfileSaverOptions {
     profile_path_(profile_path),
     profile_boot_class_path_(profile_boot_class_path),
     profile_aot_code_(profile_aot_code),
-    wait_for_jit_notifications_to_save_(wait_for_jit_notifications_to_save) {}
+    wait_for_jit_notifications_to_save_(wait_for_jit_notifications_to_save),
+    persist_jit_methods_(persist_jit_methods) {}
 
   bool IsEnabled() const {
     return enabled_;
@@ -127,6 +130,9 @@ struct ProfileSaverOptions {
   void SetWaitForJitNotificationsToSave(bool value) {
     wait_for_jit_notifications_to_save_ = value;
   }
+  bool GetPersistJitMethods() const {
+    return persist_jit_methods_;
+  }
 
   friend std::ostream & operator<<(std::ostream &os, const ProfileSaverOptions& pso) {
     os << "enabled_" << pso.enabled_
@@ -140,7 +146,8 @@ struct ProfileSaverOptions {
         << ", max_notification_before_wake_" << pso.max_notification_before_wake_
         << ", profile_boot_class_path_" << pso.profile_boot_class_path_
         << ", profile_aot_code_" << pso.profile_aot_code_
-        << ", wait_for_jit_notifications_to_save_" << pso.wait_for_jit_notifications_to_save_;
+        << ", wait_for_jit_notifications_to_save_" << pso.wait_for_jit_notifications_to_save_
+        << ", persist_jit_methods_" << pso.persist_jit_methods_;
     return os;
   }
 
@@ -159,6 +166,9 @@ struct ProfileSaverOptions {
   bool profile_boot_class_path_;
   bool profile_aot_code_;
   bool wait_for_jit_notifications_to_save_;
+  // Whether to persist the methods that have optimized JIT code next to the profile, and to
+  // compile them again early in the next run of the application.
+  bool persist_jit_methods_;
 };
 
 }  // namespace art
@@ -80,13 +80,30 @@ InlineCache* ProfilingInfo::GetInlineCache(uint32_t dex_pc) {
   UNREACHABLE();
 }
 
+uint32_t InlineCache::GetTotalCount() const {
+  uint64_t total = 0u;
+  for (size_t i = 0; i < kIndividualCacheSize; ++i) {
+    total += counts_[i];
+  }
+  return static_cast<uint32_t>(std::min<uint64_t>(total, std::numeric_limits<uint32_t>::max()));
+}
+
+uint32_t ProfilingInfo::GetMaxInlineCacheTotalCount() const {
+  uint32_t max_count = 0u;
+  for (size_t i = 0; i < number_of_inline_caches_; ++i) {
+    max_count = std::max(max_count, cache_[i].GetTotalCount());
+  }
+  return max_count;
+}
+
 void ProfilingInfo::AddInvokeInfo(uint32_t dex_pc, mirror::Class* cls) {
   InlineCache* cache = GetInlineCache(dex_pc);
   for (size_t i = 0; i < InlineCache::kIndividualCacheSize; ++i) {
     mirror::Class* existing = cache->classes_[i].Read<kWithoutReadBarrier>();
     mirror::Class* marked = ReadBarrier::IsMarked(existing);
     if (marked == cls) {
-      // Receiver type is already in the cache, nothing else to do.
+      // Receiver type is already in the cache, just record that we have seen it.
+      cache->IncrementCount(i);
       return;
     } else if (marked == nullptr) {
       // Cache entry is empty, try to put `cls` in it.
@@ -101,13 +118,16 @@ void ProfilingInfo::AddInvokeInfo(uint32_t dex_pc, mirror::Class* cls) {
         // entry in case the entry contains `cls`.
         --i;
       } else {
-        // We successfully set `cls`, just return.
+        // We successfully set `cls`, record that we have seen it and return.
+        cache->IncrementCount(i);
         return;
       }
     }
   }
   // Unsuccessfull - cache is full, making it megamorphic. We do not DCHECK it though,
-  // as the garbage collector might clear the entries concurrently.
+  // as the garbage collector might clear the entries concurrently. Account for the
+  // receiver in the last entry, like the assembly stub does.
+  cache->IncrementCount(InlineCache::kIndividualCacheSize - 1);
 }
 
 ScopedProfilingInfoUse::ScopedProfilingInfoUse(jit::Jit* jit, ArtMethod* method, Thread* self)
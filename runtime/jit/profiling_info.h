@@ -19,6 +19,7 @@
 
 #include <vector>
 
+#include "base/bit_utils.h"
 #include "base/macros.h"
 #include "base/value_object.h"
 #include "gc_root.h"
@@ -41,18 +42,49 @@ class Class;
 
 // Structure to store the classes seen at runtime for a specific instruction.
 // Once the classes_ array is full, we consider the INVOKE to be megamorphic.
+//
+// Next to each class, we record an approximate number of times that class was seen as the
+// receiver. Once the cache is megamorphic, receivers of classes not in the cache are accounted
+// in the count of the last entry. The counts are updated without synchronization and are only
+// meant to guide compiler heuristics.
+//
+// The counts are only complete on arm64 and x86-64, where both the baseline compiled code and
+// art_quick_update_inline_cache update them. On other architectures, receivers seen by
+// baseline compiled code are not counted, so the compiler does not use the counts there.
 class InlineCache {
  public:
   // This is hard coded in the assembly stub art_quick_update_inline_cache.
   static constexpr uint8_t kIndividualCacheSize = 5;
 
+  // To avoid a memory update on every execution of the monomorphic fast path of baseline
+  // compiled code, that fast path only adds this amount to the count when the low bits of
+  // the baseline hotness count of the method are zero, i.e. about once every this many
+  // executions. Must be a power of two below 256.
+  static constexpr uint32_t kCountSamplingRate = 16u;
+  static_assert(IsPowerOfTwo(kCountSamplingRate) && kCountSamplingRate < 256u);
+
   static constexpr MemberOffset ClassesOffset() {
     return MemberOffset(OFFSETOF_MEMBER(InlineCache, classes_));
   }
 
+  static constexpr MemberOffset CountsOffset() {
+    return MemberOffset(OFFSETOF_MEMBER(InlineCache, counts_));
+  }
+
+  // Returns the sum of the receiver counts of this inline cache.
+  uint32_t GetTotalCount() const;
+
  private:
+  // Increment the count of entry `index`, saturating at the maximum value.
+  void IncrementCount(size_t index) {
+    if (counts_[index] != std::numeric_limits<uint32_t>::max()) {
+      counts_[index]++;
+    }
+  }
+
   uint32_t dex_pc_;
   GcRoot<mirror::Class> classes_[kIndividualCacheSize];
+  uint32_t counts_[kIndividualCacheSize];
 
   friend class jit::JitCodeCache;
   friend class ProfilingInfo;
@@ -83,6 +115,10 @@ class ProfilingInfo {
 
   InlineCache* GetInlineCache(uint32_t dex_pc);
 
+  // Returns the largest receiver count sum over the inline caches of this method. Used
+  // by the compiler to compare the hotness of call sites within the method.
+  uint32_t GetMaxInlineCacheTotalCount() const;
+
   // Increments the number of times this method is currently being inlined.
   // Returns whether it was successful, that is it could increment without
   // overflowing.
@@ -16,11 +16,13 @@
 
 #include "monitor-inl.h"
 
+#include <algorithm>
 #include <vector>
 
 #include "android-base/stringprintf.h"
 
 #include "art_method-inl.h"
+#include "base/casts.h"
 #include "base/logging.h"  // For VLOG.
 #include "base/mutex.h"
 #include "base/quasi_atomic.h"
@@ -83,15 +85,18 @@ static constexpr uint64_t kLongWaitMs = 100 * kDebugThresholdFudgeFactor;
 
 uint32_t Monitor::lock_profiling_threshold_ = 0;
 uint32_t Monitor::stack_dump_lock_profiling_threshold_ = 0;
+bool Monitor::collect_contention_stats_ = false;
 
 void Monitor::Init(uint32_t lock_profiling_threshold,
-                   uint32_t stack_dump_lock_profiling_threshold) {
+                   uint32_t stack_dump_lock_profiling_threshold,
+                   bool collect_contention_stats) {
   // It isn't great to always include the debug build fudge factor for command-
   // line driven arguments, but it's easier to adjust here than in the build.
   lock_profiling_threshold_ =
       lock_profiling_threshold * kDebugThresholdFudgeFactor;
   stack_dump_lock_profiling_threshold_ =
       stack_dump_lock_profiling_threshold * kDebugThresholdFudgeFactor;
+  collect_contention_stats_ = collect_contention_stats;
 }
 
 Monitor::Monitor(Thread* self, Thread* owner, ObjPtr<mirror::Object> obj, int32_t hash_code)
@@ -108,6 +113,14 @@ Monitor::Monitor(Thread* self, Thread* owner, ObjPtr<mirror::Object> obj, int32_
       lock_owner_dex_pc_(0),
       lock_owner_sum_(0),
       lock_owner_request_(nullptr),
+      spin_budget_(Mutex::kDefaultMaxSpins),
+      skipped_spins_(0),
+      contended_count_(0),
+      contended_wait_ns_(0),
+      max_contended_wait_ns_(0),
+      max_contended_waiters_(0),
+      contended_owner_method_(nullptr),
+      contended_owner_dex_pc_(0),
       monitor_id_(MonitorPool::ComputeMonitorId(this, self)) {
 #ifdef __LP64__
   DCHECK(false) << "Should not be reached in 64b";
@@ -142,6 +155,14 @@ Monitor::Monitor(Thread* self,
       lock_owner_dex_pc_(0),
       lock_owner_sum_(0),
       lock_owner_request_(nullptr),
+      spin_budget_(Mutex::kDefaultMaxSpins),
+      skipped_spins_(0),
+      contended_count_(0),
+      contended_wait_ns_(0),
+      max_contended_wait_ns_(0),
+      max_contended_waiters_(0),
+      contended_owner_method_(nullptr),
+      contended_owner_dex_pc_(0),
       monitor_id_(id) {
 #ifdef __LP64__
   next_free_ = nullptr;
@@ -420,13 +441,111 @@ std::string Monitor::PrettyContentionInfo(const std::string& owner_name,
   return oss.str();
 }
 
+bool Monitor::TryLockWithAdaptiveSpinning(Thread* self) {
+  if (monitor_lock_.ExclusiveTryLock(self)) {
+    // Uncontended, leave the spin budget alone.
+    return true;
+  }
+  uint32_t spin_budget = spin_budget_.load(std::memory_order_relaxed);
+  if (spin_budget == 0) {
+    // Spinning has not paid off lately, but the hold times may have changed since. Probe with a
+    // single brief wait now and then so that the budget can grow again; nothing else raises it
+    // from zero when the contention statistics are off.
+    uint32_t skipped_spins = skipped_spins_.load(std::memory_order_relaxed) + 1;
+    if (skipped_spins < kSpinProbeInterval) {
+      skipped_spins_.store(skipped_spins, std::memory_order_relaxed);
+      return false;
+    }
+    skipped_spins_.store(0, std::memory_order_relaxed);
+    spin_budget = 1;
+  }
+  if (!monitor_lock_.ExclusiveTryLockWithSpinning(self, spin_budget)) {
+    return false;
+  }
+  if (spin_budget < kMaxSpinBudget) {
+    spin_budget_.store(spin_budget + 1, std::memory_order_relaxed);
+  }
+  return true;
+}
+
+// Rough duration of one Mutex::ExclusiveTryLockWithSpinning iteration. A contending thread that
+// blocked for less than kMaxSpinBudget of these would likely have acquired the monitor by
+// spinning longer.
+static constexpr uint64_t kApproximateSpinNs = 2000;
+
+void Monitor::UpdateSpinBudget(uint64_t wait_ns) {
+  uint32_t spin_budget = spin_budget_.load(std::memory_order_relaxed);
+  uint32_t new_spin_budget;
+  if (wait_ns <= kMaxSpinBudget * kApproximateSpinNs) {
+    // Short hold times. Spin a little longer next time.
+    new_spin_budget = std::min(spin_budget + 1, kMaxSpinBudget);
+  } else {
+    // Long hold times. Spinning only burns CPU, so back off quickly.
+    new_spin_budget = spin_budget / 2;
+  }
+  if (new_spin_budget != spin_budget) {
+    spin_budget_.store(new_spin_budget, std::memory_order_relaxed);
+  }
+}
+
+void Monitor::UpdateSpinBudgetAfterBlocking() {
+  uint32_t spin_budget = spin_budget_.load(std::memory_order_relaxed);
+  if (spin_budget != 0) {
+    spin_budget_.store(spin_budget - 1, std::memory_order_relaxed);
+  }
+}
+
+void Monitor::RecordContention(uint64_t wait_ns,
+                               size_t num_waiters,
+                               ArtMethod* owner_method,
+                               uint32_t owner_dex_pc) {
+  // We hold the monitor, so plain loads and stores do not lose updates.
+  contended_count_.store(contended_count_.load(std::memory_order_relaxed) + 1,
+                         std::memory_order_relaxed);
+  contended_wait_ns_.store(contended_wait_ns_.load(std::memory_order_relaxed) + wait_ns,
+                           std::memory_order_relaxed);
+  if (wait_ns > max_contended_wait_ns_.load(std::memory_order_relaxed)) {
+    max_contended_wait_ns_.store(wait_ns, std::memory_order_relaxed);
+  }
+  if (num_waiters > max_contended_waiters_.load(std::memory_order_relaxed)) {
+    max_contended_waiters_.store(dchecked_integral_cast<uint32_t>(num_waiters),
+                                 std::memory_order_relaxed);
+  }
+  if (owner_method != nullptr) {
+    contended_owner_method_.store(owner_method, std::memory_order_relaxed);
+    contended_owner_dex_pc_.store(owner_dex_pc, std::memory_order_relaxed);
+  }
+}
+
+void Monitor::GetContentionStats(/*out*/ MonitorContentionStats* stats) const {
+  stats->contended_count = contended_count_.load(std::memory_order_relaxed);
+  stats->total_wait_ns = contended_wait_ns_.load(std::memory_order_relaxed);
+  stats->max_wait_ns = max_contended_wait_ns_.load(std::memory_order_relaxed);
+  stats->max_waiters = max_contended_waiters_.load(std::memory_order_relaxed);
+  stats->owner_method = contended_owner_method_.load(std::memory_order_relaxed);
+  stats->owner_dex_pc = contended_owner_dex_pc_.load(std::memory_order_relaxed);
+  stats->spin_budget = spin_budget_.load(std::memory_order_relaxed);
+}
+
+bool Monitor::GetContentionStats(ObjPtr<mirror::Object> obj,
+                                 /*out*/ MonitorContentionStats* stats) {
+  DCHECK(obj != nullptr);
+  LockWord lock_word = obj->GetLockWord(true);
+  if (lock_word.GetState() != LockWord::kFatLocked) {
+    return false;
+  }
+  // The monitor cannot be deflated while we hold the mutator lock.
+  lock_word.FatLockMonitor()->GetContentionStats(stats);
+  return true;
+}
+
 bool Monitor::TryLock(Thread* self, bool spin) {
   Thread *owner = owner_.load(std::memory_order_relaxed);
   if (owner == self) {
     lock_count_++;
     CHECK_NE(lock_count_, 0u);  // Abort on overflow.
   } else {
-    bool success = spin ? monitor_lock_.ExclusiveTryLockWithSpinning(self)
+    bool success = spin ? TryLockWithAdaptiveSpinning(self)
         : monitor_lock_.ExclusiveTryLock(self);
     if (!success) {
       return false;
@@ -457,10 +576,13 @@ void Monitor::Lock(Thread* self) {
   // Contended; not reentrant. We hold no locks, so tread carefully.
   const bool log_contention = (lock_profiling_threshold_ != 0);
   uint64_t wait_start_ms = log_contention ? MilliTime() : 0;
+  // Blocking time is only measured for the contention statistics.
+  const bool collect_stats = collect_contention_stats_;
+  uint64_t wait_start_ns = collect_stats ? NanoTime() : 0;
 
   Thread *orig_owner = nullptr;
-  ArtMethod* owners_method;
-  uint32_t owners_dex_pc;
+  ArtMethod* owners_method = nullptr;
+  uint32_t owners_dex_pc = 0;
 
   // Do this before releasing the mutator lock so that we don't get deflated.
   size_t num_waiters = num_waiters_.fetch_add(1, std::memory_order_relaxed);
@@ -514,6 +636,7 @@ void Monitor::Lock(Thread* self) {
     Runtime::Current()->GetRuntimeCallbacks()->MonitorContendedLocking(this);
   }
   self->SetMonitorEnterObject(GetObject().Ptr());
+  uint64_t wait_ns = 0;
   {
     // Change to blocked and give up mutator_lock_.
     ScopedThreadSuspension tsc(self, ThreadState::kBlocked);
@@ -522,6 +645,9 @@ void Monitor::Lock(Thread* self) {
     // We already tried spinning above. The shutdown procedure currently assumes we stop
     // touching monitors shortly after we suspend, so don't spin again here.
     monitor_lock_.ExclusiveLock(self);
+    if (collect_stats) {
+      wait_ns = NanoTime() - wait_start_ns;
+    }
 
     if (log_contention && orig_owner != nullptr) {
       // Woken from contention.
@@ -627,6 +753,13 @@ void Monitor::Lock(Thread* self) {
   // We avoided touching monitor fields while suspended, so set owner_ here.
   owner_.store(self, std::memory_order_relaxed);
   DCHECK_EQ(lock_count_, 0u);
+  if (collect_stats) {
+    UpdateSpinBudget(wait_ns);
+    RecordContention(wait_ns, num_waiters + 1, owners_method, owners_dex_pc);
+  } else {
+    // Without the wait time, only note that spinning was not enough this time.
+    UpdateSpinBudgetAfterBlocking();
+  }
 
   if (ATraceEnabled()) {
     SetLockingMethodNoProxy(self);
@@ -1674,6 +1807,63 @@ size_t MonitorList::Size() {
   return list_.size();
 }
 
+void MonitorList::DumpForSigQuit(std::ostream& os) {
+  // Only list the monitors with the longest total wait time, to keep the output short.
+  static constexpr size_t kMaxDumpedMonitors = 10;
+  ScopedObjectAccess soa(Thread::Current());
+  MutexLock mu(soa.Self(), monitor_list_lock_);
+  if (!Monitor::CollectsContentionStats()) {
+    os << "Monitors: " << list_.size() << "\n";
+    return;
+  }
+  std::vector<std::pair<Monitor*, MonitorContentionStats>> contended;
+  uint64_t total_contended_count = 0;
+  uint64_t total_wait_ns = 0;
+  for (Monitor* m : list_) {
+    MonitorContentionStats stats;
+    m->GetContentionStats(&stats);
+    if (stats.contended_count != 0) {
+      total_contended_count += stats.contended_count;
+      total_wait_ns += stats.total_wait_ns;
+      contended.emplace_back(m, stats);
+    }
+  }
+  os << "Monitors: " << list_.size() << " contended=" << contended.size()
+     << " contended acquisitions=" << total_contended_count
+     << " total wait=" << PrettyDuration(total_wait_ns) << "\n";
+  size_t num_dumped = std::min(contended.size(), kMaxDumpedMonitors);
+  std::partial_sort(contended.begin(),
+                    contended.begin() + num_dumped,
+                    contended.end(),
+                    [](const auto& lhs, const auto& rhs) {
+                      return lhs.second.total_wait_ns > rhs.second.total_wait_ns;
+                    });
+  for (size_t i = 0; i != num_dumped; ++i) {
+    Monitor* m = contended[i].first;
+    const MonitorContentionStats& stats = contended[i].second;
+    ObjPtr<mirror::Object> obj = m->GetObject();
+    // Do not use the identity hash code, computing it may suspend.
+    os << "  " << (obj != nullptr
+                       ? StringPrintf("<@addr=0x%" PRIxPTR "> (a %s)",
+                                      reinterpret_cast<intptr_t>(obj.Ptr()),
+                                      obj->PrettyTypeOf().c_str())
+                       : std::string("a deflated monitor"))
+       << ": contended=" << stats.contended_count
+       << " total wait=" << PrettyDuration(stats.total_wait_ns)
+       << " max wait=" << PrettyDuration(stats.max_wait_ns)
+       << " max waiters=" << stats.max_waiters
+       << " spin budget=" << stats.spin_budget;
+    if (stats.owner_method != nullptr) {
+      const char* filename;
+      int32_t line_number;
+      Monitor::TranslateLocation(stats.owner_method, stats.owner_dex_pc, &filename, &line_number);
+      os << " owner at " << stats.owner_method->PrettyMethod()
+         << "(" << filename << ":" << line_number << ")";
+    }
+    os << "\n";
+  }
+}
+
 class MonitorDeflateVisitor : public IsMarkedVisitor {
  public:
   MonitorDeflateVisitor() : self_(Thread::Current()), deflate_count_(0) {}
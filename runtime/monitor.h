@@ -55,6 +55,26 @@ enum class LockReason {
   kForLock,
 };
 
+// Contention statistics of a monitor, accumulated since the monitor was inflated. They only cover
+// acquisitions that had to block; uncontended and successfully spinning acquisitions are free.
+// They are only collected with -Xmonitorcontentionstats, since timing each contended acquisition
+// is not free either.
+struct MonitorContentionStats {
+  // Number of acquisitions that blocked.
+  uint64_t contended_count = 0;
+  // Total and longest time spent blocked in those acquisitions.
+  uint64_t total_wait_ns = 0;
+  uint64_t max_wait_ns = 0;
+  // Largest number of threads that were contending for the monitor at once.
+  uint32_t max_waiters = 0;
+  // Where the owner held the monitor at the most recent contention, if known. This is only
+  // recorded when lock contention logging samples the contention, or tracing is enabled.
+  ArtMethod* owner_method = nullptr;
+  uint32_t owner_dex_pc = 0;
+  // Current number of brief waits a contending thread makes before blocking.
+  uint32_t spin_budget = 0;
+};
+
 class Monitor {
  public:
   // The default number of spins that are done before thread suspension is used to forcibly inflate
@@ -67,9 +87,24 @@ class Monitor {
 
   static constexpr int kMonitorTimeoutMaxMs = 1000;  // 1 second
 
+  // Bounds of the per-monitor adaptive spin budget, in Mutex::ExclusiveTryLockWithSpinning
+  // iterations. A budget of zero makes contending threads block right away.
+  static constexpr uint32_t kMaxSpinBudget = 16;
+
+  // With a spin budget of zero, contending threads still spin once every this many contentions,
+  // so that the budget can grow again once the monitor is held only briefly.
+  static constexpr uint32_t kSpinProbeInterval = 8;
+
   ~Monitor();
 
-  static void Init(uint32_t lock_profiling_threshold, uint32_t stack_dump_lock_profiling_threshold);
+  static void Init(uint32_t lock_profiling_threshold,
+                   uint32_t stack_dump_lock_profiling_threshold,
+                   bool collect_contention_stats);
+
+  // Whether contended acquisitions are timed and recorded in the contention statistics.
+  static bool CollectsContentionStats() {
+    return collect_contention_stats_;
+  }
 
   // Return the thread id of the lock owner or 0 when there is no owner.
   static uint32_t GetLockOwnerThreadId(ObjPtr<mirror::Object> obj)
@@ -154,6 +189,15 @@ class Monitor {
     return monitor_id_;
   }
 
+  // Provides no memory ordering guarantees; the fields may be slightly inconsistent.
+  void GetContentionStats(/*out*/ MonitorContentionStats* stats) const;
+
+  // Returns false if obj is not fat-locked, in which case it has not been contended since it was
+  // last inflated.
+  static bool GetContentionStats(ObjPtr<mirror::Object> obj,
+                                 /*out*/ MonitorContentionStats* stats)
+      REQUIRES_SHARED(Locks::mutator_lock_);
+
   // Inflate the lock on obj. May fail to inflate for spurious reasons, always re-check.
   static void InflateThinLocked(Thread* self, Handle<mirror::Object> obj, LockWord lock_word,
                                 uint32_t hash_code) REQUIRES_SHARED(Locks::mutator_lock_);
@@ -231,6 +275,23 @@ class Monitor {
       TRY_ACQUIRE(true, monitor_lock_)
       REQUIRES_SHARED(Locks::mutator_lock_);
 
+  // Try to acquire monitor_lock_, spinning for up to spin_budget_ brief waits if it is held.
+  // With a zero budget, spins for a single brief wait every kSpinProbeInterval calls.
+  bool TryLockWithAdaptiveSpinning(Thread* self) TRY_ACQUIRE(true, monitor_lock_);
+
+  // Adjust spin_budget_ after a contending thread had to block for wait_ns.
+  void UpdateSpinBudget(uint64_t wait_ns);
+
+  // Adjust spin_budget_ after a contending thread had to block, when the wait was not timed.
+  void UpdateSpinBudgetAfterBlocking();
+
+  // Record an acquisition that blocked for wait_ns. Called with the monitor just acquired.
+  void RecordContention(uint64_t wait_ns,
+                        size_t num_waiters,
+                        ArtMethod* owner_method,
+                        uint32_t owner_dex_pc)
+      REQUIRES(monitor_lock_);
+
   template<LockReason reason = LockReason::kForLock>
   void Lock(Thread* self)
       ACQUIRE(monitor_lock_)
@@ -312,6 +373,7 @@ class Monitor {
 
   static uint32_t lock_profiling_threshold_;
   static uint32_t stack_dump_lock_profiling_threshold_;
+  static bool collect_contention_stats_;
   static bool capture_method_eagerly_;
 
   // Holding the monitor N times is represented by holding monitor_lock_ N times.
@@ -419,6 +481,26 @@ class Monitor {
   void CheckLockOwnerRequest(Thread* self)
       REQUIRES(monitor_lock_) REQUIRES_SHARED(Locks::mutator_lock_);
 
+  // Number of brief waits a thread that finds the monitor held makes before blocking. Learned
+  // from how long contending threads end up blocked, i.e. from how long the monitor tends to be
+  // held: it grows while the monitor is released soon after contenders give up spinning, and
+  // shrinks when they block for much longer than spinning could cover. When the contention
+  // statistics are off the wait is not timed, so the budget shrinks whenever a contender blocks
+  // and grows whenever spinning acquires the monitor. Updates are racy; this is only a heuristic.
+  std::atomic<uint32_t> spin_budget_;
+
+  // Contentions that did not spin because spin_budget_ was zero, since the last probing spin.
+  std::atomic<uint32_t> skipped_spins_;
+
+  // Contention statistics, see MonitorContentionStats. Written while holding the monitor, read
+  // without it.
+  std::atomic<uint64_t> contended_count_;
+  std::atomic<uint64_t> contended_wait_ns_;
+  std::atomic<uint64_t> max_contended_wait_ns_;
+  std::atomic<uint32_t> max_contended_waiters_;
+  std::atomic<ArtMethod*> contended_owner_method_;
+  std::atomic<uint32_t> contended_owner_dex_pc_;
+
   void MaybeEnableTimeout() REQUIRES(Locks::mutator_lock_);
 
   // The denser encoded version of this monitor as stored in the lock word.
@@ -433,6 +515,7 @@ class Monitor {
   friend class MonitorList;
   friend class MonitorPool;
   friend class mirror::Object;
+  ART_FRIEND_TEST(MonitorTest, SpinBudgetRecovers);
   DISALLOW_COPY_AND_ASSIGN(Monitor);
 };
 
@@ -452,6 +535,9 @@ class MonitorList {
   size_t DeflateMonitors() REQUIRES(!monitor_list_lock_) REQUIRES(Locks::mutator_lock_);
   size_t Size() REQUIRES(!monitor_list_lock_);
 
+  // Dump the contention statistics of the most contended monitors.
+  void DumpForSigQuit(std::ostream& os) REQUIRES(!monitor_list_lock_);
+
   using Monitors = std::list<Monitor*, TrackingAllocator<Monitor*, kAllocatorTagMonitorList>>;
 
  private:
@@ -391,5 +391,163 @@ TEST_F(MonitorTest, TestTryLock) {
   thread_pool.StopWorkers(self);
 }
 
+class ContendedLockTask : public Task {
+ public:
+  ContendedLockTask(jobject obj, std::atomic<bool>* started) : obj_(obj), started_(started) {}
+
+  void Run(Thread* self) override {
+    ScopedObjectAccess soa(self);
+    StackHandleScope<1u> hs(self);
+    Handle<mirror::Object> obj = hs.NewHandle(soa.Decode<mirror::Object>(obj_));
+    started_->store(true);
+    // Blocks until the main thread releases the lock.
+    ObjectLock<mirror::Object> lock(self, obj);
+  }
+
+  void Finalize() override {
+    delete this;
+  }
+
+ private:
+  jobject obj_;
+  std::atomic<bool>* started_;
+};
+
+// Repeatedly holds the lock briefly, taking turns with the main thread.
+class ShortHoldTask : public Task {
+ public:
+  ShortHoldTask(jobject obj, std::atomic<bool>* held, std::atomic<bool>* stop)
+      : obj_(obj), held_(held), stop_(stop) {}
+
+  void Run(Thread* self) override {
+    ScopedObjectAccess soa(self);
+    StackHandleScope<1u> hs(self);
+    Handle<mirror::Object> obj = hs.NewHandle(soa.Decode<mirror::Object>(obj_));
+    while (!stop_->load()) {
+      {
+        ObjectLock<mirror::Object> lock(self, obj);
+        held_->store(true);
+        // Release the lock soon after the main thread starts contending for it.
+        uint64_t start_ns = NanoTime();
+        while (NanoTime() - start_ns < 2000) {}
+      }
+      // Wait for the main thread to take its turn.
+      while (held_->load() && !stop_->load()) {}
+    }
+  }
+
+  void Finalize() override {
+    delete this;
+  }
+
+ private:
+  jobject obj_;
+  std::atomic<bool>* held_;
+  std::atomic<bool>* stop_;
+};
+
+// Without contention statistics, a monitor that stopped spinning starts again once it is only
+// held briefly.
+TEST_F(MonitorTest, SpinBudgetRecovers) {
+  Thread* const self = Thread::Current();
+  ThreadPool thread_pool("the pool", 1);
+  ScopedObjectAccess soa(self);
+  StackHandleScope<1> hs(self);
+  Handle<mirror::Object> obj(
+      hs.NewHandle<mirror::Object>(mirror::String::AllocFromModifiedUtf8(self, "hello, world!")));
+  jobject g_obj = soa.Vm()->AddGlobalRef(self, obj.Get());
+  ASSERT_TRUE(g_obj != nullptr);
+
+  // Install a hash code so that locking inflates the monitor right away.
+  obj->IdentityHashCode();
+  {
+    ObjectLock<mirror::Object> lock(self, obj);
+  }
+  LockWord lock_word = obj->GetLockWord(false);
+  ASSERT_EQ(lock_word.GetState(), LockWord::kFatLocked);
+  Monitor* monitor = lock_word.FatLockMonitor();
+  // As after long hold times.
+  monitor->spin_budget_.store(0u);
+
+  std::atomic<bool> held(false);
+  std::atomic<bool> stop(false);
+  thread_pool.AddTask(self, new ShortHoldTask(g_obj, &held, &stop));
+  thread_pool.StartWorkers(self);
+  MonitorContentionStats stats;
+  // Contentions do not always happen, and neither do probing spins always succeed, so allow
+  // for many more rounds than the kSpinProbeInterval that are needed at best.
+  for (size_t i = 0; i != 100 * Monitor::kSpinProbeInterval; ++i) {
+    while (!held.load()) {}
+    {
+      ObjectLock<mirror::Object> lock(self, obj);
+    }
+    ASSERT_TRUE(Monitor::GetContentionStats(obj.Get(), &stats));
+    if (stats.spin_budget != 0u) {
+      break;
+    }
+    held.store(false);
+  }
+  stop.store(true);
+  {
+    ScopedThreadSuspension sts(self, ThreadState::kSuspended);
+    thread_pool.Wait(self, /*do_work=*/false, /*may_hold_locks=*/false);
+  }
+  thread_pool.StopWorkers(self);
+
+  EXPECT_NE(stats.spin_budget, 0u);
+  soa.Vm()->DeleteGlobalRef(self, g_obj);
+}
+
+class MonitorContentionStatsTest : public MonitorTest {
+ protected:
+  void SetUpRuntimeOptions(RuntimeOptions *options) override {
+    MonitorTest::SetUpRuntimeOptions(options);
+    options->push_back(std::make_pair("-Xmonitorcontentionstats", nullptr));
+  }
+};
+
+TEST_F(MonitorContentionStatsTest, ContentionStats) {
+  Thread* const self = Thread::Current();
+  ThreadPool thread_pool("the pool", 1);
+  ScopedObjectAccess soa(self);
+  StackHandleScope<1> hs(self);
+  Handle<mirror::Object> obj(
+      hs.NewHandle<mirror::Object>(mirror::String::AllocFromModifiedUtf8(self, "hello, world!")));
+  jobject g_obj = soa.Vm()->AddGlobalRef(self, obj.Get());
+  ASSERT_TRUE(g_obj != nullptr);
+
+  // Not inflated, so there are no statistics.
+  MonitorContentionStats stats;
+  EXPECT_FALSE(Monitor::GetContentionStats(obj.Get(), &stats));
+
+  // Install a hash code so that locking inflates the monitor right away.
+  obj->IdentityHashCode();
+  std::atomic<bool> started(false);
+  {
+    ObjectLock<mirror::Object> lock(self, obj);
+    thread_pool.AddTask(self, new ContendedLockTask(g_obj, &started));
+    thread_pool.StartWorkers(self);
+    while (!started.load()) {
+      sched_yield();
+    }
+    // Hold the lock long enough for the other thread to give up spinning and block.
+    ScopedThreadSuspension sts(self, ThreadState::kSuspended);
+    usleep(50 * 1000);
+  }
+  {
+    ScopedThreadSuspension sts(self, ThreadState::kSuspended);
+    thread_pool.Wait(self, /*do_work=*/false, /*may_hold_locks=*/false);
+  }
+  thread_pool.StopWorkers(self);
+
+  ASSERT_TRUE(Monitor::GetContentionStats(obj.Get(), &stats));
+  EXPECT_EQ(stats.contended_count, 1u);
+  EXPECT_GE(stats.total_wait_ns, MsToNs(10));
+  EXPECT_EQ(stats.max_wait_ns, stats.total_wait_ns);
+  EXPECT_EQ(stats.max_waiters, 1u);
+  // The long hold time makes the monitor spin less.
+  EXPECT_LT(stats.spin_budget, Mutex::kDefaultMaxSpins);
+  soa.Vm()->DeleteGlobalRef(self, g_obj);
+}
 
 }  // namespace art
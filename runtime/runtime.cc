@@ -1465,7 +1465,8 @@ bool Runtime::Init(RuntimeArgumentMap&& runtime_options_in) {
 
   Thread::SetSensitiveThreadHook(runtime_options.GetOrDefault(Opt::HookIsSensitiveThread));
   Monitor::Init(runtime_options.GetOrDefault(Opt::LockProfThreshold),
-                runtime_options.GetOrDefault(Opt::StackDumpLockProfThreshold));
+                runtime_options.GetOrDefault(Opt::StackDumpLockProfThreshold),
+                runtime_options.Exists(Opt::MonitorContentionStats));
 
   image_locations_ = runtime_options.ReleaseOrDefault(Opt::Image);
 
@@ -2325,6 +2326,7 @@ void Runtime::DumpForSigQuit(std::ostream& os) {
   GetInternTable()->DumpForSigQuit(os);
   GetJavaVM()->DumpForSigQuit(os);
   GetHeap()->DumpForSigQuit(os);
+  GetMonitorList()->DumpForSigQuit(os);
   oat_file_manager_->DumpForSigQuit(os);
   if (GetJit() != nullptr) {
     GetJit()->DumpForSigQuit(os);
@@ -4599,6 +4599,11 @@ void Thread::ResetTlab() {
                << " adjustment = "
                << (tlsPtr_.thread_local_pos - tlsPtr_.thread_local_start);
   }
+  if (tlsPtr_.thread_local_start != nullptr) {
+    heap->RecordRetiredTlab(this,
+                            tlsPtr_.thread_local_pos - tlsPtr_.thread_local_start,
+                            tlsPtr_.thread_local_end - tlsPtr_.thread_local_pos);
+  }
   SetTlab(nullptr, nullptr, nullptr);
 }
 
@@ -1291,6 +1291,31 @@ class Thread {
   uint8_t* GetTlabEnd() {
     return tlsPtr_.thread_local_end;
   }
+
+  // Statistics of the TLABs of this thread, used to adapt the size of its TLAB refills (see
+  // Heap::GetAdaptiveTlabSize). They are only updated by the thread itself or while it is
+  // suspended, and may be read concurrently for dumping.
+  struct TlabStats {
+    // Exponential moving average of the number of bytes the thread used in TLABs between two
+    // GCs revoking its TLAB. Zero until the GC first revokes a TLAB that the thread used.
+    std::atomic<size_t> average_used_bytes{0};
+    // Number of bytes used in TLABs retired since the GC last revoked the TLAB of the thread.
+    std::atomic<size_t> used_bytes_since_revoke{0};
+    // Number of times the thread refilled or grew its TLAB.
+    std::atomic<uint64_t> refills{0};
+    // Number of TLABs retired, either to get a new one or because the GC revoked them.
+    std::atomic<uint64_t> retired{0};
+    // Total number of bytes that were left unused at the end of retired TLABs.
+    std::atomic<uint64_t> unused_bytes{0};
+  };
+
+  TlabStats& GetTlabStats() {
+    return tlab_stats_;
+  }
+
+  const TlabStats& GetTlabStats() const {
+    return tlab_stats_;
+  }
   // Remove the suspend trigger for this thread by making the suspend_trigger_ TLS value
   // equal to a valid pointer.
   // TODO: does this need to atomic?  I don't think so.
@@ -2165,6 +2190,9 @@ class Thread {
   // the caller is allowed to access all fields and methods in the Core Platform API.
   uint32_t core_platform_api_cookie_ = 0;
 
+  // Not accessed by compiled code or entrypoints.
+  TlabStats tlab_stats_;
+
   friend class gc::collector::SemiSpace;  // For getting stack traces.
   friend class Runtime;  // For CreatePeer.
   friend class QuickExceptionHandler;  // For dumping the stack.
@@ -23,11 +23,14 @@
 
 #include <pthread.h>
 
+#include <algorithm>
+
 #include <android-base/logging.h>
 #include <android-base/stringprintf.h>
 
 #include "base/bit_utils.h"
 #include "base/casts.h"
+#include "base/flags.h"
 #include "base/stl_util.h"
 #include "base/time_utils.h"
 #include "base/utils.h"
@@ -140,6 +143,11 @@ void* ThreadPoolWorker::Callback(void* arg) {
   worker->thread_ = Thread::Current();
   // Mark thread pool workers as runtime-threads.
   worker->thread_->SetIsRuntimeThread(true);
+  // CreateThreads() holds the lock while creating the workers. Wait for it to finish, so that
+  // Run() is dispatched to a fully constructed worker.
+  {
+    MutexLock mu(worker->thread_, worker->thread_pool_->task_queue_lock_);
+  }
   // Do work until its time to shut down.
   worker->Run();
   runtime->DetachCurrentThread(/* should_run_callbacks= */ false);
@@ -170,6 +178,13 @@ ThreadPool::ThreadPool(const char* name,
                        size_t num_threads,
                        bool create_peers,
                        size_t worker_stack_size)
+  : ThreadPool(name, num_threads, create_peers, worker_stack_size, /*create_threads=*/ true) {}
+
+ThreadPool::ThreadPool(const char* name,
+                       size_t num_threads,
+                       bool create_peers,
+                       size_t worker_stack_size,
+                       bool create_threads)
   : name_(name),
     task_queue_lock_("task queue lock", kGenericBottomLock),
     task_queue_condition_("task queue condition", task_queue_lock_),
@@ -183,7 +198,20 @@ ThreadPool::ThreadPool(const char* name,
     max_active_workers_(num_threads),
     create_peers_(create_peers),
     worker_stack_size_(worker_stack_size) {
-  CreateThreads();
+  if (create_threads) {
+    CreateThreads();
+  }
+}
+
+ThreadPool* ThreadPool::CreateForParallelWork(const char* name, size_t num_threads) {
+  if (gFlags.WorkStealingThreadPool()) {
+    return new WorkStealingThreadPool(name, num_threads);
+  }
+  return new ThreadPool(name, num_threads);
+}
+
+ThreadPoolWorker* ThreadPool::CreateWorker(const std::string& name, size_t index ATTRIBUTE_UNUSED) {
+  return new ThreadPoolWorker(this, name, worker_stack_size_);
 }
 
 void ThreadPool::CreateThreads() {
@@ -197,8 +225,7 @@ void ThreadPool::CreateThreads() {
     while (GetThreadCount() < max_active_workers_) {
       const std::string worker_name = StringPrintf("%s worker thread %zu", name_.c_str(),
                                                    GetThreadCount());
-      threads_.push_back(
-          new ThreadPoolWorker(this, worker_name, worker_stack_size_));
+      threads_.push_back(CreateWorker(worker_name, GetThreadCount()));
     }
   }
 }
@@ -329,6 +356,249 @@ size_t ThreadPool::GetTaskCount(Thread* self) {
   return tasks_.size();
 }
 
+WorkStealingWorker::WorkStealingWorker(WorkStealingThreadPool* thread_pool,
+                                       const std::string& name,
+                                       size_t stack_size,
+                                       size_t index)
+    : ThreadPoolWorker(thread_pool, name, stack_size),
+      index_(index) {}
+
+void WorkStealingWorker::Run() {
+  Thread* self = Thread::Current();
+  WorkStealingThreadPool* thread_pool = down_cast<WorkStealingThreadPool*>(thread_pool_);
+  thread_pool->creation_barier_.Pass(self);
+  Task* task = nullptr;
+  while ((task = thread_pool->GetTaskForWorker(self, index_)) != nullptr) {
+    task->Run(self);
+    task->Finalize();
+  }
+}
+
+WorkStealingThreadPool::WorkStealingThreadPool(const char* name,
+                                               size_t num_threads,
+                                               bool create_peers,
+                                               size_t worker_stack_size)
+    : ThreadPool(name, num_threads, create_peers, worker_stack_size, /*create_threads=*/ false),
+      num_deques_(num_threads),
+      deques_(new WorkerDeque[num_threads]),
+      num_queued_tasks_(0),
+      num_sleeping_workers_(0),
+      next_worker_(0) {
+  CreateThreads();
+}
+
+WorkStealingThreadPool::~WorkStealingThreadPool() {
+  // Join the workers while the deques still exist. The ThreadPool destructor would be too late.
+  DeleteThreads();
+  RemoveAllTasks(Thread::Current());
+}
+
+ThreadPoolWorker* WorkStealingThreadPool::CreateWorker(const std::string& name, size_t index) {
+  DCHECK_LT(index, num_deques_);
+  WorkStealingWorker* worker = new WorkStealingWorker(this, name, worker_stack_size_, index);
+  // The worker cannot look at the deques yet, it waits for CreateThreads() to release
+  // task_queue_lock_ first.
+  deques_[index].pthread = worker->pthread_;
+  return worker;
+}
+
+bool WorkStealingThreadPool::FindCurrentWorker(/*out*/ size_t* index) const {
+  const pthread_t current = pthread_self();
+  for (size_t i = 0; i != num_deques_; ++i) {
+    if (pthread_equal(deques_[i].pthread, current)) {
+      *index = i;
+      return true;
+    }
+  }
+  return false;
+}
+
+void WorkStealingThreadPool::AddTask(Thread* self, Task* task) {
+  const size_t thread_count = GetThreadCount();
+  if (thread_count == 0) {
+    // Only Wait() runs tasks, use the shared queue.
+    ThreadPool::AddTask(self, task);
+    return;
+  }
+  size_t index;
+  if (!FindCurrentWorker(&index)) {
+    const size_t num_active = std::clamp<size_t>(GetMaxActiveWorkersRacy(), 1u, thread_count);
+    index = next_worker_.fetch_add(1, std::memory_order_relaxed) % num_active;
+  }
+  {
+    WorkerDeque& deque = deques_[index];
+    MutexLock mu(self, deque.lock);
+    deque.tasks.push_back(task);
+  }
+  // Pairs with the sleeping path of GetTaskForWorker(): either we see the worker that is about
+  // to sleep and wake it up, or it sees our task and does not sleep.
+  num_queued_tasks_.fetch_add(1, std::memory_order_seq_cst);
+  if (num_sleeping_workers_.load(std::memory_order_seq_cst) != 0) {
+    MutexLock mu(self, task_queue_lock_);
+    if (started_ && waiting_count_ != 0) {
+      if (max_active_workers_ < thread_count) {
+        // A signal could wake an inactive worker, which would go back to sleep.
+        task_queue_condition_.Broadcast(self);
+      } else {
+        task_queue_condition_.Signal(self);
+      }
+    }
+  }
+}
+
+Task* WorkStealingThreadPool::PopOrSteal(Thread* self, size_t index) {
+  if (num_queued_tasks_.load(std::memory_order_relaxed) == 0) {
+    return nullptr;
+  }
+  for (size_t i = 0; i != num_deques_; ++i) {
+    WorkerDeque& deque = deques_[(index + i) % num_deques_];
+    Task* task = nullptr;
+    {
+      MutexLock mu(self, deque.lock);
+      if (deque.tasks.empty()) {
+        continue;
+      }
+      if (i == 0) {
+        // Our own newest task, its data is most likely still in the cache.
+        task = deque.tasks.back();
+        deque.tasks.pop_back();
+      } else {
+        task = deque.tasks.front();
+        deque.tasks.pop_front();
+      }
+    }
+    num_queued_tasks_.fetch_sub(1, std::memory_order_seq_cst);
+    return task;
+  }
+  return nullptr;
+}
+
+Task* WorkStealingThreadPool::GetTaskForWorker(Thread* self, size_t index) {
+  while (true) {
+    if (IsStartedRacy() && index < GetMaxActiveWorkersRacy()) {
+      Task* task = PopOrSteal(self, index);
+      if (task != nullptr) {
+        return task;
+      }
+    }
+
+    MutexLock mu(self, task_queue_lock_);
+    if (IsShuttingDown()) {
+      break;
+    }
+    // Announce that we are about to sleep before checking for tasks, see AddTask().
+    num_sleeping_workers_.fetch_add(1, std::memory_order_seq_cst);
+    if (index < max_active_workers_ && HasOutstandingTasks()) {
+      num_sleeping_workers_.fetch_sub(1, std::memory_order_seq_cst);
+      continue;
+    }
+    ++waiting_count_;
+    if (waiting_count_ == GetThreadCount() && !HasOutstandingTasks()) {
+      // We may be done, lets broadcast to the completion condition.
+      completion_condition_.Broadcast(self);
+    }
+    const uint64_t wait_start = kMeasureWaitTime ? NanoTime() : 0;
+    task_queue_condition_.Wait(self);
+    if (kMeasureWaitTime) {
+      const uint64_t wait_end = NanoTime();
+      total_wait_time_ += wait_end - std::max(wait_start, start_time_);
+    }
+    --waiting_count_;
+    num_sleeping_workers_.fetch_sub(1, std::memory_order_seq_cst);
+  }
+
+  // We are shutting down, return null to tell the worker thread to stop looping.
+  return nullptr;
+}
+
+Task* WorkStealingThreadPool::TryGetTask(Thread* self) {
+  if (!IsStartedRacy()) {
+    return nullptr;
+  }
+  size_t index = 0u;  // Threads that are not workers start with the first deque.
+  FindCurrentWorker(&index);
+  Task* task = PopOrSteal(self, index);
+  return task != nullptr ? task : ThreadPool::TryGetTask(self);
+}
+
+void WorkStealingThreadPool::RemoveAllTasks(Thread* self) {
+  // Unlike ThreadPool, also finalize the tasks of a stopped pool, so that they are not leaked.
+  for (size_t i = 0; i != num_deques_; ++i) {
+    std::deque<Task*> tasks;
+    {
+      MutexLock mu(self, deques_[i].lock);
+      tasks.swap(deques_[i].tasks);
+    }
+    num_queued_tasks_.fetch_sub(tasks.size(), std::memory_order_seq_cst);
+    for (Task* task : tasks) {
+      task->Finalize();
+    }
+  }
+  ThreadPool::RemoveAllTasks(self);
+}
+
+size_t WorkStealingThreadPool::GetTaskCount(Thread* self) {
+  return num_queued_tasks_.load(std::memory_order_relaxed) + ThreadPool::GetTaskCount(self);
+}
+
+RangeSplitter::RangeSplitter(size_t begin, size_t end, size_t num_participants)
+    : begin_(begin),
+      num_participants_(num_participants),
+      slices_(new Slice[num_participants]) {
+  DCHECK_LE(begin, end);
+  DCHECK_NE(num_participants, 0u);
+  // Slices are packed as 32-bit offsets, but the products below need 64 bits, also where
+  // size_t is only 32 bits wide.
+  const uint64_t size = dchecked_integral_cast<uint32_t>(end - begin);
+  for (size_t i = 0; i != num_participants; ++i) {
+    // Distribute the remainder over the first slices.
+    uint32_t slice_begin = dchecked_integral_cast<uint32_t>(size * i / num_participants);
+    uint32_t slice_end = dchecked_integral_cast<uint32_t>(size * (i + 1u) / num_participants);
+    slices_[i].range.store(Pack(slice_begin, slice_end), std::memory_order_relaxed);
+  }
+}
+
+bool RangeSplitter::Next(size_t participant, /*out*/ size_t* index) {
+  DCHECK_LT(participant, num_participants_);
+  std::atomic<uint64_t>& own = slices_[participant].range;
+  uint64_t range = own.load(std::memory_order_relaxed);
+  while (Begin(range) < End(range)) {
+    if (own.compare_exchange_weak(range,
+                                  Pack(Begin(range) + 1u, End(range)),
+                                  std::memory_order_relaxed)) {
+      *index = begin_ + Begin(range);
+      return true;
+    }
+  }
+  // Our slice is empty. Steal the back half of the largest remaining one.
+  while (true) {
+    size_t victim = participant;
+    uint64_t victim_range = 0u;
+    uint32_t largest_size = 0u;
+    for (size_t i = 0; i != num_participants_; ++i) {
+      uint64_t r = slices_[i].range.load(std::memory_order_relaxed);
+      if (Begin(r) < End(r) && End(r) - Begin(r) > largest_size) {
+        victim = i;
+        victim_range = r;
+        largest_size = End(r) - Begin(r);
+      }
+    }
+    if (largest_size == 0u) {
+      return false;
+    }
+    // Leave the front half to the victim. If it has a single index left, take it.
+    uint32_t middle = Begin(victim_range) + largest_size / 2u;
+    if (slices_[victim].range.compare_exchange_strong(victim_range,
+                                                      Pack(Begin(victim_range), middle),
+                                                      std::memory_order_relaxed)) {
+      // Nobody steals from an empty slice, so we can publish the rest of the stolen range.
+      own.store(Pack(middle + 1u, End(victim_range)), std::memory_order_relaxed);
+      *index = begin_ + middle;
+      return true;
+    }
+  }
+}
+
 void ThreadPool::SetPthreadPriority(int priority) {
   for (ThreadPoolWorker* worker : threads_) {
     worker->SetPthreadPriority(priority);
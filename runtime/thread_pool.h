@@ -17,8 +17,10 @@
 #ifndef ART_RUNTIME_THREAD_POOL_H_
 #define ART_RUNTIME_THREAD_POOL_H_
 
+#include <atomic>
 #include <deque>
 #include <functional>
+#include <memory>
 #include <vector>
 
 #include "barrier.h"
@@ -28,6 +30,7 @@
 namespace art {
 
 class ThreadPool;
+class WorkStealingThreadPool;
 
 class Closure {
  public:
@@ -107,6 +110,27 @@ class ThreadPoolWorker {
   DISALLOW_COPY_AND_ASSIGN(ThreadPoolWorker);
 };
 
+// A worker of a WorkStealingThreadPool. It runs the tasks of its own deque, newest first, and
+// steals the oldest tasks of the other workers when its deque is empty.
+class WorkStealingWorker : public ThreadPoolWorker {
+ public:
+  ~WorkStealingWorker() override {}
+
+ protected:
+  WorkStealingWorker(WorkStealingThreadPool* thread_pool,
+                     const std::string& name,
+                     size_t stack_size,
+                     size_t index);
+  void Run() override;
+
+ private:
+  // Index of this worker's deque in the pool.
+  const size_t index_;
+
+  friend class WorkStealingThreadPool;
+  DISALLOW_COPY_AND_ASSIGN(WorkStealingWorker);
+};
+
 // Note that thread pool workers will set Thread#setCanCallIntoJava to false.
 class ThreadPool {
  public:
@@ -128,10 +152,10 @@ class ThreadPool {
 
   // Add a new task, the first available started worker will process it. Does not delete the task
   // after running it, it is the caller's responsibility.
-  void AddTask(Thread* self, Task* task) REQUIRES(!task_queue_lock_);
+  virtual void AddTask(Thread* self, Task* task) REQUIRES(!task_queue_lock_);
 
   // Remove all tasks in the queue.
-  void RemoveAllTasks(Thread* self) REQUIRES(!task_queue_lock_);
+  virtual void RemoveAllTasks(Thread* self) REQUIRES(!task_queue_lock_);
 
   // Create a named thread pool with the given number of threads.
   //
@@ -144,6 +168,11 @@ class ThreadPool {
              size_t worker_stack_size = ThreadPoolWorker::kDefaultStackSize);
   virtual ~ThreadPool();
 
+  // Create a pool for running many fine-grained tasks, such as the parallel phases of the GC and
+  // the compiler driver. This is a WorkStealingThreadPool if the thread-pool.work-stealing flag is
+  // set, and a plain ThreadPool otherwise.
+  static ThreadPool* CreateForParallelWork(const char* name, size_t num_threads);
+
   // Create the threads of this pool.
   void CreateThreads();
 
@@ -155,7 +184,7 @@ class ThreadPool {
   // When the pool was created with peers for workers, do_work must not be true (see ThreadPool()).
   void Wait(Thread* self, bool do_work, bool may_hold_locks) REQUIRES(!task_queue_lock_);
 
-  size_t GetTaskCount(Thread* self) REQUIRES(!task_queue_lock_);
+  virtual size_t GetTaskCount(Thread* self) REQUIRES(!task_queue_lock_);
 
   // Returns the total amount of workers waited for tasks.
   uint64_t GetWaitTime() const {
@@ -177,11 +206,22 @@ class ThreadPool {
   void WaitForWorkersToBeCreated();
 
  protected:
+  // For subclasses, which call CreateThreads() once they are fully constructed so that
+  // CreateWorker() is dispatched to them.
+  ThreadPool(const char* name,
+             size_t num_threads,
+             bool create_peers,
+             size_t worker_stack_size,
+             bool create_threads);
+
+  // Create the worker with the given name and position in the thread list.
+  virtual ThreadPoolWorker* CreateWorker(const std::string& name, size_t index);
+
   // get a task to run, blocks if there are no tasks left
   virtual Task* GetTask(Thread* self) REQUIRES(!task_queue_lock_);
 
   // Try to get a task, returning null if there is none available.
-  Task* TryGetTask(Thread* self) REQUIRES(!task_queue_lock_);
+  virtual Task* TryGetTask(Thread* self) REQUIRES(!task_queue_lock_);
   Task* TryGetTaskLocked() REQUIRES(task_queue_lock_);
 
   // Are we shutting down?
@@ -189,7 +229,7 @@ class ThreadPool {
     return shutting_down_;
   }
 
-  bool HasOutstandingTasks() const REQUIRES(task_queue_lock_) {
+  virtual bool HasOutstandingTasks() const REQUIRES(task_queue_lock_) {
     return started_ && !tasks_.empty();
   }
 
@@ -217,6 +257,120 @@ class ThreadPool {
   DISALLOW_COPY_AND_ASSIGN(ThreadPool);
 };
 
+// A thread pool with one task deque per worker instead of a single shared queue, so that workers
+// mostly do not contend with each other. Tasks added by a worker go to its own deque, other tasks
+// are spread over the active workers. An idle worker steals from the others before sleeping.
+// task_queue_lock_ is only taken to sleep, to wake sleeping workers, and to start and stop the
+// pool.
+//
+// Unlike ThreadPool, tasks are not run in the order they were added.
+class WorkStealingThreadPool : public ThreadPool {
+ public:
+  WorkStealingThreadPool(const char* name,
+                         size_t num_threads,
+                         bool create_peers = false,
+                         size_t worker_stack_size = ThreadPoolWorker::kDefaultStackSize);
+  ~WorkStealingThreadPool() override;
+
+  void AddTask(Thread* self, Task* task) override REQUIRES(!task_queue_lock_);
+  void RemoveAllTasks(Thread* self) override REQUIRES(!task_queue_lock_);
+  size_t GetTaskCount(Thread* self) override REQUIRES(!task_queue_lock_);
+
+ protected:
+  ThreadPoolWorker* CreateWorker(const std::string& name, size_t index) override;
+  Task* TryGetTask(Thread* self) override REQUIRES(!task_queue_lock_);
+  bool HasOutstandingTasks() const override REQUIRES(task_queue_lock_) {
+    // The shared queue is only used by pools without workers.
+    return started_ &&
+        (num_queued_tasks_.load(std::memory_order_seq_cst) != 0 || !tasks_.empty());
+  }
+
+ private:
+  // The task deque of a worker. The deques belong to the pool rather than to the workers, so
+  // that they stay valid while DeleteThreads() deletes the workers one at a time.
+  struct WorkerDeque {
+    WorkerDeque() : lock("work-stealing task deque lock", kGenericBottomLock) {}
+
+    Mutex lock;
+    std::deque<Task*> tasks GUARDED_BY(lock);
+    // The thread of the worker owning this deque. Written in CreateWorker().
+    pthread_t pthread = {};
+  };
+
+  // Returns false if the calling thread is not a worker of this pool.
+  bool FindCurrentWorker(/*out*/ size_t* index) const;
+
+  // Get a task for the given worker, blocking if there is none. Returns null when shutting down.
+  Task* GetTaskForWorker(Thread* self, size_t index) REQUIRES(!task_queue_lock_);
+
+  // Pop the newest task of the deque at the given index, or steal the oldest task of another
+  // deque, starting with the next one. Returns null if all deques are empty.
+  Task* PopOrSteal(Thread* self, size_t index);
+
+  // Racy reads for the paths that do not take task_queue_lock_. The sleeping path re-checks
+  // under the lock.
+  bool IsStartedRacy() const NO_THREAD_SAFETY_ANALYSIS {
+    return started_;
+  }
+  size_t GetMaxActiveWorkersRacy() const NO_THREAD_SAFETY_ANALYSIS {
+    return max_active_workers_;
+  }
+
+  // One deque for each of the num_threads workers the pool was created with.
+  const size_t num_deques_;
+  std::unique_ptr<WorkerDeque[]> deques_;
+  // Number of tasks in the worker deques. Updated after pushing and after popping a task, so it
+  // may briefly lag behind.
+  std::atomic<size_t> num_queued_tasks_;
+  // Number of workers that are about to sleep or sleeping on task_queue_condition_. Together
+  // with num_queued_tasks_, lets AddTask skip task_queue_lock_ when nobody needs to be woken.
+  std::atomic<size_t> num_sleeping_workers_;
+  // Round-robin position for tasks added by threads that are not workers of this pool.
+  std::atomic<size_t> next_worker_;
+
+  friend class WorkStealingWorker;
+  DISALLOW_COPY_AND_ASSIGN(WorkStealingThreadPool);
+};
+
+// Hands out the indices of [begin, end) to a fixed number of participants, for splitting a loop
+// over tasks running on different threads. Each participant starts with its own contiguous slice
+// and takes indices from its front. Once its slice is empty, it steals the back half of the
+// largest remaining slice. Unlike a single shared counter, the participants mostly only touch
+// their own cache line.
+class RangeSplitter {
+ public:
+  RangeSplitter(size_t begin, size_t end, size_t num_participants);
+
+  // Get the next index for the given participant. Returns false once all indices have been
+  // handed out. Every index is handed out exactly once.
+  bool Next(size_t participant, /*out*/ size_t* index);
+
+ private:
+  static constexpr size_t kSliceAlignment = 64;  // Avoid false sharing between participants.
+
+  // A slice [begin, end) relative to begin_, packed as begin in the low 32 bits and end in the
+  // high 32 bits so that it can be updated with a single CAS.
+  struct alignas(kSliceAlignment) Slice {
+    std::atomic<uint64_t> range;
+  };
+
+  static uint64_t Pack(uint32_t begin, uint32_t end) {
+    return (static_cast<uint64_t>(end) << 32) | begin;
+  }
+  static uint32_t Begin(uint64_t range) {
+    return static_cast<uint32_t>(range);
+  }
+  static uint32_t End(uint64_t range) {
+    return static_cast<uint32_t>(range >> 32);
+  }
+
+  const size_t begin_;
+  const size_t num_participants_;
+  std::unique_ptr<Slice[]> slices_;
+
+  DISALLOW_COPY_AND_ASSIGN(RangeSplitter);
+};
+
 }  // namespace art
 
 #endif  // ART_RUNTIME_THREAD_POOL_H_
@@ -16,9 +16,12 @@
 
 #include "thread_pool.h"
 
+#include <algorithm>
 #include <string>
+#include <vector>
 
 #include "base/atomic.h"
+#include "base/time_utils.h"
 #include "common_runtime_test.h"
 #include "scoped_thread_state_change-inl.h"
 #include "thread-inl.h"
@@ -188,6 +191,174 @@ class NoPeerTask : public Task {
   }
 };
 
+// Check that the work-stealing thread pool runs tasks added from outside and from its workers.
+TEST_F(ThreadPoolTest, WorkStealingCheckRun) {
+  Thread* self = Thread::Current();
+  WorkStealingThreadPool thread_pool("Thread pool test thread pool", num_threads);
+  AtomicInteger count(0);
+  static const int32_t num_tasks = num_threads * 4;
+  for (int32_t i = 0; i < num_tasks; ++i) {
+    thread_pool.AddTask(self, new CountTask(&count));
+  }
+  thread_pool.StartWorkers(self);
+  thread_pool.Wait(self, true, false);
+  EXPECT_EQ(num_tasks, count.load(std::memory_order_seq_cst));
+  EXPECT_EQ(0u, thread_pool.GetTaskCount(self));
+}
+
+TEST_F(ThreadPoolTest, WorkStealingStopStart) {
+  Thread* self = Thread::Current();
+  WorkStealingThreadPool thread_pool("Thread pool test thread pool", num_threads);
+  AtomicInteger count(0);
+  static const int32_t num_tasks = num_threads * 4;
+  for (int32_t i = 0; i < num_tasks; ++i) {
+    thread_pool.AddTask(self, new CountTask(&count));
+  }
+  usleep(200);
+  // Check that no threads started prematurely.
+  EXPECT_EQ(0, count.load(std::memory_order_seq_cst));
+  thread_pool.StartWorkers(self);
+  thread_pool.Wait(self, false, false);
+  thread_pool.StopWorkers(self);
+  AtomicInteger bad_count(0);
+  thread_pool.AddTask(self, new CountTask(&bad_count));
+  usleep(200);
+  // Ensure that the task added after the workers were stopped doesn't get run.
+  EXPECT_EQ(0, bad_count.load(std::memory_order_seq_cst));
+  thread_pool.StartWorkers(self);
+  thread_pool.Wait(self, false, false);
+  EXPECT_EQ(num_tasks, count.load(std::memory_order_seq_cst));
+  EXPECT_EQ(1, bad_count.load(std::memory_order_seq_cst));
+}
+
+TEST_F(ThreadPoolTest, WorkStealingRecursiveTest) {
+  Thread* self = Thread::Current();
+  WorkStealingThreadPool thread_pool("Thread pool test thread pool", num_threads);
+  AtomicInteger count(0);
+  static const int depth = 8;
+  thread_pool.AddTask(self, new TreeTask(&thread_pool, &count, depth));
+  thread_pool.StartWorkers(self);
+  thread_pool.Wait(self, true, false);
+  EXPECT_EQ((1 << depth) - 1, count.load(std::memory_order_seq_cst));
+}
+
+TEST_F(ThreadPoolTest, WorkStealingMaxActiveWorkers) {
+  Thread* self = Thread::Current();
+  WorkStealingThreadPool thread_pool("Thread pool test thread pool", num_threads);
+  thread_pool.SetMaxActiveWorkers(1);
+  AtomicInteger count(0);
+  static const int32_t num_tasks = num_threads * 4;
+  for (int32_t i = 0; i < num_tasks; ++i) {
+    thread_pool.AddTask(self, new CountTask(&count));
+  }
+  thread_pool.StartWorkers(self);
+  thread_pool.Wait(self, false, false);
+  EXPECT_EQ(num_tasks, count.load(std::memory_order_seq_cst));
+}
+
+// A pool without workers only runs tasks on the thread calling Wait.
+TEST_F(ThreadPoolTest, WorkStealingNoWorkers) {
+  Thread* self = Thread::Current();
+  WorkStealingThreadPool thread_pool("Thread pool test thread pool", 0);
+  AtomicInteger count(0);
+  thread_pool.AddTask(self, new CountTask(&count));
+  thread_pool.StartWorkers(self);
+  thread_pool.Wait(self, true, false);
+  EXPECT_EQ(1, count.load(std::memory_order_seq_cst));
+}
+
+class RangeTask : public Task {
+ public:
+  RangeTask(RangeSplitter* range_splitter, size_t participant, std::vector<AtomicInteger>* seen)
+      : range_splitter_(range_splitter), participant_(participant), seen_(seen) {}
+
+  void Run(Thread* self ATTRIBUTE_UNUSED) override {
+    size_t index;
+    while (range_splitter_->Next(participant_, &index)) {
+      ++(*seen_)[index];
+    }
+  }
+
+  void Finalize() override {
+    delete this;
+  }
+
+ private:
+  RangeSplitter* const range_splitter_;
+  const size_t participant_;
+  std::vector<AtomicInteger>* const seen_;
+};
+
+// Check that every index is handed out exactly once, including with more participants than
+// indices and with participants that start late and have to steal everything.
+TEST_F(ThreadPoolTest, RangeSplitter) {
+  Thread* self = Thread::Current();
+  WorkStealingThreadPool thread_pool("Thread pool test thread pool", num_threads);
+  thread_pool.StartWorkers(self);
+  for (size_t size : {0u, 1u, 3u, 1000u}) {
+    for (size_t num_participants : {1u, 4u, 16u}) {
+      static constexpr size_t kBegin = 10u;
+      std::vector<AtomicInteger> seen(kBegin + size);
+      RangeSplitter range_splitter(kBegin, kBegin + size, num_participants);
+      for (size_t i = 0; i < num_participants; ++i) {
+        thread_pool.AddTask(self, new RangeTask(&range_splitter, i, &seen));
+      }
+      thread_pool.Wait(self, true, false);
+      for (size_t i = 0; i < kBegin + size; ++i) {
+        EXPECT_EQ(i < kBegin ? 0 : 1, seen[i].load(std::memory_order_seq_cst))
+            << "index " << i << " size " << size << " participants " << num_participants;
+      }
+    }
+  }
+}
+
+class IncrementTask : public Task {
+ public:
+  IncrementTask() : count_(nullptr) {}
+
+  void SetCount(AtomicInteger* count) {
+    count_ = count;
+  }
+
+  void Run(Thread* self ATTRIBUTE_UNUSED) override {
+    ++*count_;
+  }
+
+ private:
+  AtomicInteger* count_;
+};
+
+// Check that both pools run every task, whether it is added from outside or from the workers,
+// with one and with several threads.
+TEST_F(ThreadPoolTest, ManySmallTasks) {
+  Thread* self = Thread::Current();
+  static constexpr int32_t kNumTasks = 1000;
+  static constexpr int kDepth = 8;
+  std::vector<IncrementTask> tasks(kNumTasks);
+  for (size_t threads : {1u, 4u}) {
+    for (bool work_stealing : {false, true}) {
+      std::unique_ptr<ThreadPool> thread_pool(work_stealing
+          ? new WorkStealingThreadPool("Thread pool test thread pool", threads)
+          : new ThreadPool("Thread pool test thread pool", threads));
+      AtomicInteger flat_count(0);
+      for (IncrementTask& task : tasks) {
+        task.SetCount(&flat_count);
+        thread_pool->AddTask(self, &task);
+      }
+      thread_pool->StartWorkers(self);
+      thread_pool->Wait(self, false, false);
+      EXPECT_EQ(kNumTasks, flat_count.load(std::memory_order_seq_cst))
+          << "threads " << threads << " work stealing " << work_stealing;
+
+      AtomicInteger tree_count(0);
+      thread_pool->AddTask(self, new TreeTask(thread_pool.get(), &tree_count, kDepth));
+      thread_pool->Wait(self, false, false);
+      EXPECT_EQ((1 << kDepth) - 1, tree_count.load(std::memory_order_seq_cst))
+          << "threads " << threads << " work stealing " << work_stealing;
+    }
+  }
+}
+
 // Tests for create_peer functionality.
 TEST_F(ThreadPoolTest, PeerTest) {
   Thread* self = Thread::Current();
@@ -211,4 +382,58 @@ TEST_F(ThreadPoolTest, PeerTest) {
   }
 }
 
+// Logs how long the pools take to run many tiny tasks, added both from outside and from the
+// workers, and to hand out a large range with RangeSplitter, to compare how they scale with the
+// number of threads. The timings are only logged; the counts are checked.
+TEST_F(ThreadPoolTest, ScalingBenchmark) {
+  Thread* self = Thread::Current();
+  static constexpr int32_t kNumTasks = 100000;
+  static constexpr int kDepth = 14;
+  static constexpr size_t kRangeSize = 1000000u;
+  std::vector<IncrementTask> tasks(kNumTasks);
+  for (size_t threads : {1u, 2u, 4u, 8u}) {
+    for (bool work_stealing : {false, true}) {
+      std::unique_ptr<ThreadPool> thread_pool(work_stealing
+          ? new WorkStealingThreadPool("Thread pool test thread pool", threads)
+          : new ThreadPool("Thread pool test thread pool", threads));
+      AtomicInteger flat_count(0);
+      uint64_t start = NanoTime();
+      for (IncrementTask& task : tasks) {
+        task.SetCount(&flat_count);
+        thread_pool->AddTask(self, &task);
+      }
+      thread_pool->StartWorkers(self);
+      thread_pool->Wait(self, false, false);
+      uint64_t flat_ns = NanoTime() - start;
+      EXPECT_EQ(kNumTasks, flat_count.load(std::memory_order_seq_cst));
+
+      AtomicInteger tree_count(0);
+      start = NanoTime();
+      thread_pool->AddTask(self, new TreeTask(thread_pool.get(), &tree_count, kDepth));
+      thread_pool->Wait(self, false, false);
+      uint64_t tree_ns = NanoTime() - start;
+      EXPECT_EQ((1 << kDepth) - 1, tree_count.load(std::memory_order_seq_cst));
+
+      std::vector<AtomicInteger> seen(kRangeSize);
+      start = NanoTime();
+      RangeSplitter range_splitter(0u, kRangeSize, threads);
+      for (size_t i = 0; i < threads; ++i) {
+        thread_pool->AddTask(self, new RangeTask(&range_splitter, i, &seen));
+      }
+      thread_pool->Wait(self, false, false);
+      uint64_t range_ns = NanoTime() - start;
+      EXPECT_EQ(kRangeSize,
+                static_cast<size_t>(std::count_if(seen.begin(), seen.end(), [](auto& value) {
+                  return value.load(std::memory_order_relaxed) == 1;
+                })));
+
+      LOG(INFO) << (work_stealing ? "Work-stealing" : "Shared queue") << " pool, " << threads
+                << " threads: " << kNumTasks << " tasks in " << PrettyDuration(flat_ns)
+                << ", tree of " << tree_count.load(std::memory_order_seq_cst) << " tasks in "
+                << PrettyDuration(tree_ns) << ", range of " << kRangeSize << " indices in "
+                << PrettyDuration(range_ns);
+    }
+  }
+}
+
 }  // namespace art
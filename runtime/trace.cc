@@ -50,6 +50,7 @@
 #include "stack.h"
 #include "thread.h"
 #include "thread_list.h"
+#include "thread_pool.h"
 
 namespace art {
 
@@ -643,7 +644,7 @@ void Trace::StopTracing(bool finish_tracing, bool flush_file) {
       MutexLock tl_lock(Thread::Current(), *Locks::thread_list_lock_);
       for (Thread* thread : Runtime::Current()->GetThreadList()->GetList()) {
         if (thread->GetMethodTraceBuffer() != nullptr) {
-          the_trace_->FlushStreamingBuffer(thread);
+          the_trace_->FlushStreamingBuffer(thread, /*needs_new_buffer=*/ false);
           thread->ResetMethodTraceBuffer();
         }
         // Record threads here before resetting the_trace_ to prevent any races between
@@ -651,6 +652,12 @@ void Trace::StopTracing(bool finish_tracing, bool flush_file) {
         the_trace->UpdateThreadsList(thread);
       }
     }
+    if (the_trace->trace_output_mode_ == TraceOutputMode::kStreaming) {
+      // The trace writer thread is suspended and is not in the middle of writing a buffer, so
+      // write out the remaining buffers here. The methods in them may be freed once the_trace_
+      // is reset since that allows class unloading.
+      the_trace->WritePendingStreamingBuffers();
+    }
 
     // Reset the_trace_ by taking a trace_lock
     MutexLock mu(self, *Locks::trace_lock_);
@@ -658,6 +665,10 @@ void Trace::StopTracing(bool finish_tracing, bool flush_file) {
     sampling_pthread_ = 0U;
   }
 
+  // Stop the trace writer thread. It has no more buffers to write, so it is at most finishing
+  // a task that finds an empty queue.
+  the_trace->trace_writer_pool_.reset();
+
   // At this point, code may read buf_ as its writers are shutdown
   // and the ScopedSuspendAll above has ensured all stores to buf_
   // are now visible.
@@ -687,7 +698,7 @@ void Trace::StopTracing(bool finish_tracing, bool flush_file) {
 
 void Trace::FlushThreadBuffer(Thread* self) {
   MutexLock mu(self, *Locks::trace_lock_);
-  the_trace_->FlushStreamingBuffer(self);
+  the_trace_->FlushStreamingBuffer(self, /*needs_new_buffer=*/ false);
 }
 
 void Trace::Abort() {
@@ -727,6 +738,9 @@ static constexpr size_t kMinBufSize = 18U;  // Trace header is up to 18B.
 // should be greater than kMinBufSize.
 static constexpr size_t kPerThreadBufSize = 512 * 1024;
 static_assert(kPerThreadBufSize > kMinBufSize);
+// The maximum number of flushed per-thread buffers waiting for the trace writer thread. When a
+// thread flushes its buffer with more buffers pending, it writes them out itself.
+static constexpr size_t kMaxPendingStreamingBuffers = 8;
 
 namespace {
 
@@ -763,7 +777,8 @@ Trace::Trace(File* trace_file,
       overflow_(false),
       interval_us_(0),
       stop_tracing_(false),
-      tracing_lock_("tracing lock", LockLevel::kTracingStreamingLock) {
+      tracing_lock_("tracing lock", LockLevel::kTracingStreamingLock),
+      pending_buffers_lock_("tracing pending buffers lock", LockLevel::kGenericBottomLock) {
   CHECK_IMPLIES(trace_file == nullptr, output_mode == TraceOutputMode::kDDMS);
 
   uint16_t trace_version = GetTraceVersion(clock_source_);
@@ -791,6 +806,11 @@ Trace::Trace(File* trace_file,
       PLOG(WARNING) << "Failed streaming a tracing event.";
     }
     cur_offset_.store(0, std::memory_order_relaxed);
+
+    // The per-thread buffers are encoded and written to the file on a separate thread, so that
+    // the traced threads don't wait for each other's file writes.
+    trace_writer_pool_.reset(new ThreadPool("Trace writer pool", /*num_threads=*/ 1));
+    trace_writer_pool_->StartWorkers(Thread::Current());
   }
 }
 
@@ -1047,10 +1067,11 @@ void Trace::RecordStreamingMethodEvent(Thread* thread,
 
   size_t required_entries = (clock_source_ == TraceClockSource::kDual) ? 4 : 3;
   if (*current_offset + required_entries >= kPerThreadBufSize) {
-    // We don't have space for further entries. Flush the contents of the buffer and reuse the
-    // buffer to store contents. Reset the index to the start of the buffer.
-    FlushStreamingBuffer(thread);
-    *current_offset = 0;
+    // We don't have space for further entries. Hand the buffer over to the trace writer and
+    // continue recording into a new buffer from the start.
+    FlushStreamingBuffer(thread, /*needs_new_buffer=*/ true);
+    method_trace_buffer = thread->GetMethodTraceBuffer();
+    DCHECK_EQ(*current_offset, 0u);
   }
 
   // Record entry in per-thread trace buffer.
@@ -1098,18 +1119,78 @@ void Trace::WriteToBuf(uint8_t* header,
   }
 }
 
-void Trace::FlushStreamingBuffer(Thread* thread) {
-  // Take a tracing_lock_ to serialize writes across threads. We also need to allocate a unique
-  // method id for each method. We do that by maintaining a map from id to method for each newly
-  // seen method. tracing_lock_ is required to serialize these.
-  MutexLock mu(Thread::Current(), tracing_lock_);
-  uintptr_t* method_trace_buffer = thread->GetMethodTraceBuffer();
+void Trace::FlushStreamingBuffer(Thread* thread, bool needs_new_buffer) {
+  Thread* self = Thread::Current();
+  PendingStreamingBuffer pending_buffer;
+  pending_buffer.tid = thread->GetTid();
+  pending_buffer.method_trace_buffer.reset(thread->GetMethodTraceBuffer());
+  pending_buffer.num_entries = *(thread->GetMethodTraceIndexPtr());
+
+  std::unique_ptr<uintptr_t[]> new_buffer;
+  size_t num_pending_buffers;
+  {
+    MutexLock mu(self, pending_buffers_lock_);
+    pending_buffers_.push_back(std::move(pending_buffer));
+    num_pending_buffers = pending_buffers_.size();
+    if (needs_new_buffer && !free_buffers_.empty()) {
+      new_buffer = std::move(free_buffers_.back());
+      free_buffers_.pop_back();
+    }
+  }
+  if (needs_new_buffer && new_buffer == nullptr) {
+    new_buffer.reset(new uintptr_t[std::max(kMinBufSize, kPerThreadBufSize)]);
+  }
+  // Transfer the ownership of the buffer, `Thread::ResetMethodTraceBuffer()` must not free it.
+  thread->SetMethodTraceBuffer(new_buffer.release());
+  *(thread->GetMethodTraceIndexPtr()) = 0;
+
+  if (num_pending_buffers > kMaxPendingStreamingBuffers) {
+    // The trace writer can't keep up. Write out the buffers here rather than letting them pile up.
+    WritePendingStreamingBuffers();
+  } else {
+    trace_writer_pool_->AddTask(self, new FunctionTask([this](Thread* worker) {
+      ScopedObjectAccess soa(worker);
+      WritePendingStreamingBuffers();
+    }));
+  }
+}
+
+void Trace::WritePendingStreamingBuffers() {
+  Thread* self = Thread::Current();
+  while (true) {
+    // Take a tracing_lock_ to serialize writes across threads. We also need to allocate a unique
+    // method id for each method. We do that by maintaining a map from id to method for each newly
+    // seen method. tracing_lock_ is required to serialize these.
+    MutexLock mu(self, tracing_lock_);
+    PendingStreamingBuffer pending_buffer;
+    {
+      MutexLock mu2(self, pending_buffers_lock_);
+      if (pending_buffers_.empty()) {
+        return;
+      }
+      pending_buffer = std::move(pending_buffers_.front());
+      pending_buffers_.pop_front();
+    }
+    WriteStreamingBuffer(pending_buffer.tid,
+                         pending_buffer.method_trace_buffer.get(),
+                         pending_buffer.num_entries);
+    {
+      MutexLock mu2(self, pending_buffers_lock_);
+      if (free_buffers_.size() < kMaxPendingStreamingBuffers) {
+        free_buffers_.push_back(std::move(pending_buffer.method_trace_buffer));
+      }
+    }
+  }
+}
+
+void Trace::WriteStreamingBuffer(pid_t tid,
+                                 const uintptr_t* method_trace_buffer,
+                                 size_t num_entries) {
   // Create a temporary buffer to encode the trace events from the specified thread.
   size_t buffer_size = kPerThreadBufSize;
   size_t current_index = 0;
   std::unique_ptr<uint8_t[]> buffer(new uint8_t[std::max(kMinBufSize, buffer_size)]);
 
-  size_t num_entries = *(thread->GetMethodTraceIndexPtr());
   for (size_t entry_index = 0; entry_index < num_entries;) {
     ArtMethod* method = reinterpret_cast<ArtMethod*>(method_trace_buffer[entry_index++]);
     TraceAction action = DecodeTraceAction(method_trace_buffer[entry_index++]);
@@ -1156,7 +1237,7 @@ void Trace::FlushStreamingBuffer(Thread* thread) {
     DCHECK_LT(record_size, kPerThreadBufSize);
     EnsureSpace(buffer.get(), &current_index, buffer_size, record_size);
     EncodeEventEntry(
-        buffer.get() + current_index, thread, method_index, action, thread_time, wall_time);
+        buffer.get() + current_index, tid, method_index, action, thread_time, wall_time);
     current_index += record_size;
   }
 
@@ -1204,7 +1285,7 @@ void Trace::RecordMethodEvent(Thread* thread,
   uint32_t wall_clock_diff = GetMicroTime(timestamp_counter) - start_time_;
   MutexLock mu(Thread::Current(), tracing_lock_);
   EncodeEventEntry(
-      ptr, thread, EncodeTraceMethod(method), action, thread_clock_diff, wall_clock_diff);
+      ptr, thread->GetTid(), EncodeTraceMethod(method), action, thread_clock_diff, wall_clock_diff);
 }
 
 void Trace::LogMethodTraceEvent(Thread* thread,
@@ -1228,14 +1309,14 @@ void Trace::LogMethodTraceEvent(Thread* thread,
 }
 
 void Trace::EncodeEventEntry(uint8_t* ptr,
-                             Thread* thread,
+                             pid_t tid,
                              uint32_t method_index,
                              TraceAction action,
                              uint32_t thread_clock_diff,
                              uint32_t wall_clock_diff) {
   static constexpr size_t kPacketSize = 14U;  // The maximum size of data in a packet.
   uint32_t method_value = (method_index << TraceActionBits) | action;
-  Append2LE(ptr, thread->GetTid());
+  Append2LE(ptr, tid);
   Append4LE(ptr + 2, method_value);
   ptr += 6;
 
@@ -18,6 +18,7 @@
 #define ART_RUNTIME_TRACE_H_
 
 #include <bitset>
+#include <deque>
 #include <map>
 #include <memory>
 #include <ostream>
@@ -46,6 +47,7 @@ class ArtMethod;
 class DexFile;
 class ShadowFrame;
 class Thread;
+class ThreadPool;
 
 using DexIndexBitSet = std::bitset<65536>;
 
@@ -279,7 +281,7 @@ class Trace final : public instrumentation::InstrumentationListener {
   // Encodes event in non-streaming mode. This assumes that there is enough space reserved to
   // encode the entry.
   void EncodeEventEntry(uint8_t* ptr,
-                        Thread* thread,
+                        pid_t tid,
                         uint32_t method_index,
                         TraceAction action,
                         uint32_t thread_clock_diff,
@@ -296,13 +298,25 @@ class Trace final : public instrumentation::InstrumentationListener {
                                   uint32_t thread_clock_diff,
                                   uint64_t timestamp) REQUIRES_SHARED(Locks::mutator_lock_)
       REQUIRES(!tracing_lock_);
-  // This encodes all the events in the per-thread trace buffer and writes it to the trace file.
+  // This hands the events in the per-thread trace buffer over to the trace writer thread, which
+  // encodes them and writes them to the trace file. If `needs_new_buffer` is true, the thread
+  // gets a buffer to record further events, reusing one that has already been written out when
+  // available, otherwise the thread is left without a buffer.
+  // If the trace writer thread falls too far behind, the pending buffers are written out on the
+  // calling thread instead, so that the memory used for them stays bounded.
+  void FlushStreamingBuffer(Thread* thread, bool needs_new_buffer)
+      REQUIRES_SHARED(Locks::mutator_lock_) REQUIRES(!tracing_lock_, !pending_buffers_lock_);
+  // This encodes and writes out the pending per-thread buffers in the order they were flushed.
   // This acquires streaming lock to prevent any other threads writing concurrently. It is required
   // to serialize these since each method is encoded with a unique id which is assigned when the
   // method is seen for the first time in the recoreded events. So we need to serialize these
-  // flushes across threads.
-  void FlushStreamingBuffer(Thread* thread) REQUIRES_SHARED(Locks::mutator_lock_)
-      REQUIRES(!tracing_lock_);
+  // writes across threads. Buffers are only taken off the queue with the streaming lock held,
+  // so the events of each thread are written in the order they were recorded.
+  void WritePendingStreamingBuffers() REQUIRES_SHARED(Locks::mutator_lock_)
+      REQUIRES(!tracing_lock_, !pending_buffers_lock_);
+  // This encodes the events of one per-thread buffer and writes them to the trace file.
+  void WriteStreamingBuffer(pid_t tid, const uintptr_t* method_trace_buffer, size_t num_entries)
+      REQUIRES_SHARED(Locks::mutator_lock_) REQUIRES(tracing_lock_);
   // Ensures there is sufficient space in the buffer to record the requested_size. If there is not
   // enough sufficient space the current contents of the buffer are written to the file and
   // current_index is reset to 0. This doesn't check if buffer_size is big enough to hold the
@@ -410,6 +424,26 @@ class Trace final : public instrumentation::InstrumentationListener {
   // Streaming mode data.
   Mutex tracing_lock_;
 
+  // Events recorded by one thread in streaming mode, waiting to be written to the trace file.
+  struct PendingStreamingBuffer {
+    pid_t tid;
+    std::unique_ptr<uintptr_t[]> method_trace_buffer;
+    size_t num_entries;
+  };
+
+  // Per-thread buffers flushed in streaming mode, oldest first. Recording threads only hold
+  // this lock to queue a buffer, so they do not wait for the trace file writes.
+  Mutex pending_buffers_lock_ BOTTOM_MUTEX_ACQUIRED_AFTER;
+  std::deque<PendingStreamingBuffer> pending_buffers_ GUARDED_BY(pending_buffers_lock_);
+  // Per-thread buffers that have been written out and can be handed to the next flushing
+  // thread, so that flushes don't allocate a new buffer each time. At most
+  // kMaxPendingStreamingBuffers buffers are kept, the rest are freed.
+  std::vector<std::unique_ptr<uintptr_t[]>> free_buffers_ GUARDED_BY(pending_buffers_lock_);
+
+  // The thread pool with the single trace writer thread in streaming mode. A single thread
+  // keeps the writes of the pending buffers in order.
+  std::unique_ptr<ThreadPool> trace_writer_pool_;
+
   // Map from ArtMethod* to index.
   std::unordered_map<ArtMethod*, uint32_t> art_method_id_map_ GUARDED_BY(tracing_lock_);
   uint32_t current_method_index_ = 0;
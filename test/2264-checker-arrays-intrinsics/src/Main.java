@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+public class Main {
+  // Covers the empty array, the scalar tails on their own and after any number of vector
+  // iterations of up to 16 bytes.
+  static final int MAX_LENGTH = 70;
+
+  public static void main(String[] args) {
+    testEquals();
+    testFill();
+    testHashCode();
+    testStringHashCode();
+  }
+
+  public static void assertIntEquals(int expected, int result) {
+    if (expected != result) {
+      throw new Error("Expected: " + expected + ", found: " + result);
+    }
+  }
+
+  public static void assertBooleanEquals(boolean expected, boolean result) {
+    if (expected != result) {
+      throw new Error("Expected: " + expected + ", found: " + result);
+    }
+  }
+
+  /// CHECK-START: boolean Main.$noinline$equals(byte[], byte[]) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysEqualsByte
+  public static boolean $noinline$equals(byte[] a, byte[] b) {
+    return Arrays.equals(a, b);
+  }
+
+  /// CHECK-START: boolean Main.$noinline$equals(char[], char[]) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysEqualsChar
+  public static boolean $noinline$equals(char[] a, char[] b) {
+    return Arrays.equals(a, b);
+  }
+
+  /// CHECK-START: boolean Main.$noinline$equals(short[], short[]) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysEqualsShort
+  public static boolean $noinline$equals(short[] a, short[] b) {
+    return Arrays.equals(a, b);
+  }
+
+  /// CHECK-START: boolean Main.$noinline$equals(int[], int[]) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysEqualsInt
+  public static boolean $noinline$equals(int[] a, int[] b) {
+    return Arrays.equals(a, b);
+  }
+
+  /// CHECK-START: boolean Main.$noinline$equals(long[], long[]) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysEqualsLong
+  public static boolean $noinline$equals(long[] a, long[] b) {
+    return Arrays.equals(a, b);
+  }
+
+  /// CHECK-START-X86_64: boolean Main.$noinline$equalsNotNull() disassembly (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysEqualsInt
+  /// CHECK-NOT:      call
+  /// CHECK:          Return
+
+  /// CHECK-START-ARM64: boolean Main.$noinline$equalsNotNull() disassembly (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysEqualsInt
+  /// CHECK-NOT:      blr
+  /// CHECK:          Return
+  public static boolean $noinline$equalsNotNull() {
+    return Arrays.equals(new int[5], new int[5]);
+  }
+
+  public static void testEquals() {
+    assertBooleanEquals(true, $noinline$equals((byte[]) null, (byte[]) null));
+    assertBooleanEquals(false, $noinline$equals(new byte[0], (byte[]) null));
+    assertBooleanEquals(false, $noinline$equals((long[]) null, new long[0]));
+    assertBooleanEquals(false, $noinline$equals(new int[1], new int[2]));
+    assertBooleanEquals(true, $noinline$equalsNotNull());
+
+    for (int length = 0; length <= MAX_LENGTH; ++length) {
+      byte[] b1 = new byte[length];
+      byte[] b2 = new byte[length];
+      char[] c1 = new char[length];
+      char[] c2 = new char[length];
+      short[] s1 = new short[length];
+      short[] s2 = new short[length];
+      int[] i1 = new int[length];
+      int[] i2 = new int[length];
+      long[] l1 = new long[length];
+      long[] l2 = new long[length];
+      for (int i = 0; i < length; ++i) {
+        b1[i] = b2[i] = (byte) (i * 7);
+        c1[i] = c2[i] = (char) (i * 0x1234);
+        s1[i] = s2[i] = (short) (i * -3);
+        i1[i] = i2[i] = i * 0x12345;
+        l1[i] = l2[i] = i * 0x123456789L;
+      }
+      assertBooleanEquals(true, $noinline$equals(b1, b2));
+      assertBooleanEquals(true, $noinline$equals(c1, c2));
+      assertBooleanEquals(true, $noinline$equals(s1, s2));
+      assertBooleanEquals(true, $noinline$equals(i1, i2));
+      assertBooleanEquals(true, $noinline$equals(l1, l2));
+      // Flip the highest bit of each element in turn, so that a difference is detected
+      // regardless of where it is within the vector or the scalar tail.
+      for (int i = 0; i < length; ++i) {
+        b2[i] ^= (byte) 0x80;
+        c2[i] ^= (char) 0x8000;
+        s2[i] ^= (short) 0x8000;
+        i2[i] ^= 0x80000000;
+        l2[i] ^= 0x8000000000000000L;
+        assertBooleanEquals(false, $noinline$equals(b1, b2));
+        assertBooleanEquals(false, $noinline$equals(c1, c2));
+        assertBooleanEquals(false, $noinline$equals(s1, s2));
+        assertBooleanEquals(false, $noinline$equals(i1, i2));
+        assertBooleanEquals(false, $noinline$equals(l1, l2));
+        b2[i] ^= (byte) 0x80;
+        c2[i] ^= (char) 0x8000;
+        s2[i] ^= (short) 0x8000;
+        i2[i] ^= 0x80000000;
+        l2[i] ^= 0x8000000000000000L;
+      }
+    }
+  }
+
+  /// CHECK-START: void Main.$noinline$fill(byte[], byte) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysFillByte
+  public static void $noinline$fill(byte[] a, byte value) {
+    Arrays.fill(a, value);
+  }
+
+  /// CHECK-START: void Main.$noinline$fill(char[], char) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysFillChar
+  public static void $noinline$fill(char[] a, char value) {
+    Arrays.fill(a, value);
+  }
+
+  /// CHECK-START: void Main.$noinline$fill(short[], short) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysFillShort
+  public static void $noinline$fill(short[] a, short value) {
+    Arrays.fill(a, value);
+  }
+
+  /// CHECK-START: void Main.$noinline$fill(int[], int) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysFillInt
+  public static void $noinline$fill(int[] a, int value) {
+    Arrays.fill(a, value);
+  }
+
+  /// CHECK-START: void Main.$noinline$fill(long[], long) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysFillLong
+  public static void $noinline$fill(long[] a, long value) {
+    Arrays.fill(a, value);
+  }
+
+  public static void testFill() {
+    try {
+      $noinline$fill((int[]) null, 1);
+      throw new Error("Expected NullPointerException");
+    } catch (NullPointerException expected) {
+      // Expected.
+    }
+
+    for (int length = 0; length <= MAX_LENGTH; ++length) {
+      byte[] b = new byte[length];
+      char[] c = new char[length];
+      short[] s = new short[length];
+      int[] i = new int[length];
+      long[] l = new long[length];
+      $noinline$fill(b, (byte) -2);
+      $noinline$fill(c, (char) 0xfedc);
+      $noinline$fill(s, (short) -3);
+      $noinline$fill(i, 0x12345678);
+      $noinline$fill(l, 0x123456789abcdefL);
+      for (int j = 0; j < length; ++j) {
+        assertIntEquals(-2, b[j]);
+        assertIntEquals(0xfedc, c[j]);
+        assertIntEquals(-3, s[j]);
+        assertIntEquals(0x12345678, i[j]);
+        assertBooleanEquals(true, l[j] == 0x123456789abcdefL);
+      }
+    }
+  }
+
+  /// CHECK-START: int Main.$noinline$hashCode(byte[]) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysHashCodeByte
+  public static int $noinline$hashCode(byte[] a) {
+    return Arrays.hashCode(a);
+  }
+
+  /// CHECK-START: int Main.$noinline$hashCode(char[]) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysHashCodeChar
+  public static int $noinline$hashCode(char[] a) {
+    return Arrays.hashCode(a);
+  }
+
+  /// CHECK-START: int Main.$noinline$hashCode(short[]) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysHashCodeShort
+  public static int $noinline$hashCode(short[] a) {
+    return Arrays.hashCode(a);
+  }
+
+  /// CHECK-START: int Main.$noinline$hashCode(int[]) builder (after)
+  /// CHECK:          InvokeStaticOrDirect intrinsic:ArraysHashCodeInt
+  public static int $noinline$hashCode(int[] a) {
+    return Arrays.hashCode(a);
+  }
+
+  public static void testHashCode() {
+    assertIntEquals(0, $noinline$hashCode((byte[]) null));
+    assertIntEquals(0, $noinline$hashCode((int[]) null));
+
+    for (int length = 0; length <= MAX_LENGTH; ++length) {
+      byte[] b = new byte[length];
+      char[] c = new char[length];
+      short[] s = new short[length];
+      int[] i = new int[length];
+      // Use negative values to check the sign extension of narrow elements.
+      int bExpected = 1;
+      int cExpected = 1;
+      int sExpected = 1;
+      int iExpected = 1;
+      for (int j = 0; j < length; ++j) {
+        b[j] = (byte) (j * -37);
+        c[j] = (char) (j * -4321);
+        s[j] = (short) (j * -4321);
+        i[j] = j * -123456789;
+        bExpected = 31 * bExpected + b[j];
+        cExpected = 31 * cExpected + c[j];
+        sExpected = 31 * sExpected + s[j];
+        iExpected = 31 * iExpected + i[j];
+      }
+      assertIntEquals(bExpected, $noinline$hashCode(b));
+      assertIntEquals(cExpected, $noinline$hashCode(c));
+      assertIntEquals(sExpected, $noinline$hashCode(s));
+      assertIntEquals(iExpected, $noinline$hashCode(i));
+    }
+  }
+
+  /// CHECK-START: int Main.$noinline$stringHashCode(java.lang.String) builder (after)
+  /// CHECK:          InvokeVirtual intrinsic:StringHashCode
+  public static int $noinline$stringHashCode(String s) {
+    return s.hashCode();
+  }
+
+  public static void testStringHashCode() {
+    StringBuilder compressible = new StringBuilder();
+    StringBuilder uncompressible = new StringBuilder();
+    for (int length = 0; length <= MAX_LENGTH; ++length) {
+      int compressibleExpected = 0;
+      int uncompressibleExpected = 0;
+      for (int j = 0; j < length; ++j) {
+        compressibleExpected = 31 * compressibleExpected + compressible.charAt(j);
+        uncompressibleExpected = 31 * uncompressibleExpected + uncompressible.charAt(j);
+      }
+      // Hash new strings, so that the hash code is not already cached, and then hash them again
+      // to check the cached value.
+      String s1 = compressible.toString();
+      String s2 = uncompressible.toString();
+      assertIntEquals(compressibleExpected, $noinline$stringHashCode(s1));
+      assertIntEquals(uncompressibleExpected, $noinline$stringHashCode(s2));
+      assertIntEquals(compressibleExpected, $noinline$stringHashCode(s1));
+      assertIntEquals(uncompressibleExpected, $noinline$stringHashCode(s2));
+      compressible.append((char) ('a' + (length % 26)));
+      uncompressible.append((char) (0xff00 + length));
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+interface Shape {
+  int area();
+}
+
+class Square implements Shape {
+  Square(int side) {
+    this.side = side;
+  }
+
+  public int area() {
+    return side * side;
+  }
+
+  int side;
+}
+
+class Line implements Shape {
+  public int area() {
+    return 0;
+  }
+}
+
+class Point implements Shape {
+  public int area() {
+    return 0;
+  }
+}
+
+class UnitSquare implements Shape {
+  public int area() {
+    return 1;
+  }
+}
+
+class Domino implements Shape {
+  public int area() {
+    return 2;
+  }
+}
+
+class Tromino implements Shape {
+  public int area() {
+    return 3;
+  }
+}
+
+public class Main {
+
+  // Receiver counts are recorded by the baseline compiled code of these architectures only.
+
+  /// CHECK-START-{ARM64,X86_64}: int Main.$noinline$megamorphicArea(Shape) inliner (before)
+  /// CHECK-NOT:   Mul
+
+  /// CHECK-START-{ARM64,X86_64}: int Main.$noinline$megamorphicArea(Shape) inliner (after)
+  /// CHECK:       NotEqual
+  /// CHECK:       If
+  /// CHECK:       Mul
+  /// CHECK:       InvokeInterface method_name:Shape.area
+
+  /// CHECK-START-{ARM64,X86_64}: int Main.$noinline$megamorphicArea(Shape) inliner (after)
+  /// CHECK-NOT:   Deoptimize
+
+  public static int $noinline$megamorphicArea(Shape shape) {
+    return shape.area();
+  }
+
+  public static void test() {
+    ensureJitBaselineCompiled(Main.class, "$noinline$megamorphicArea");
+    Shape square = new Square(3);
+    Shape[] others = {
+        new Line(), new Point(), new UnitSquare(), new Domino(), new Tromino()
+    };
+    // Warm up the inline cache, with `Square` as the dominant receiver type.
+    for (int i = 0; i < 600000; i++) {
+      if (i % 20 == 19) {
+        $noinline$megamorphicArea(others[(i / 20) % others.length]);
+      } else {
+        $noinline$megamorphicArea(square);
+      }
+    }
+    ensureJitCompiled(Main.class, "$noinline$megamorphicArea");
+    assertEquals(9, $noinline$megamorphicArea(square));
+    assertEquals(0, $noinline$megamorphicArea(others[0]));
+    assertEquals(0, $noinline$megamorphicArea(others[1]));
+    assertEquals(1, $noinline$megamorphicArea(others[2]));
+    assertEquals(2, $noinline$megamorphicArea(others[3]));
+    assertEquals(3, $noinline$megamorphicArea(others[4]));
+  }
+
+  public static void assertEquals(int expected, int actual) {
+    if (expected != actual) {
+      throw new Error("Expected " + expected + ", got " + actual);
+    }
+  }
+
+  public static void main(String[] args) {
+    System.loadLibrary(args[0]);
+    test();
+  }
+
+  private static native void ensureJitBaselineCompiled(Class<?> itf, String method_name);
+  private static native void ensureJitCompiled(Class<?> itf, String method_name);
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// The methods named in the profile are hot and their loops are unrolled by up to 4 on arm64 and
+// x86-64, and by 2 on other targets. Other methods keep the conservative unrolling by 2, which
+// is only done for trip counts that are a multiple of 2.
+//
+// The loops below carry a dependence through memory or have a non-trivial reduction, so they
+// are not vectorized.
+public class Main {
+  private static final int LENGTH = 1003;
+
+  /// CHECK-START: int Main.$noinline$prefixSum1000() loop_optimization (before)
+  /// CHECK:                      ArraySet loop:{{B\d+}}
+  /// CHECK-NOT:                  ArraySet
+
+  /// CHECK-START-{ARM64,X86_64}: int Main.$noinline$prefixSum1000() loop_optimization (after)
+  /// CHECK-DAG:                  ArraySet loop:<<Loop:B\d+>> outer_loop:none
+  /// CHECK-DAG:                  ArraySet loop:<<Loop>>      outer_loop:none
+  /// CHECK-DAG:                  ArraySet loop:<<Loop>>      outer_loop:none
+  /// CHECK-DAG:                  ArraySet loop:<<Loop>>      outer_loop:none
+
+  /// CHECK-START-{ARM64,X86_64}: int Main.$noinline$prefixSum1000() loop_optimization (after)
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK-NOT:                  ArraySet
+
+  /// CHECK-START-{ARM,X86}: int Main.$noinline$prefixSum1000() loop_optimization (after)
+  /// CHECK-DAG:                  ArraySet loop:<<Loop:B\d+>> outer_loop:none
+  /// CHECK-DAG:                  ArraySet loop:<<Loop>>      outer_loop:none
+
+  /// CHECK-START-{ARM,X86}: int Main.$noinline$prefixSum1000() loop_optimization (after)
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK-NOT:                  ArraySet
+  private static int $noinline$prefixSum1000() {
+    int[] a = new int[LENGTH];
+    $noinline$init(a);
+    for (int i = 1; i < 1001; i++) {
+      a[i] += a[i - 1];
+    }
+    return a[1000];
+  }
+
+  // 1002 iterations: two iterations are peeled before unrolling by 4.
+  //
+  /// CHECK-START-ARM64: int Main.$noinline$prefixSum1002() loop_optimization (after)
+  /// CHECK-DAG:                  ArraySet loop:none
+  /// CHECK-DAG:                  ArraySet loop:none
+  /// CHECK-DAG:                  ArraySet loop:<<Loop:B\d+>> outer_loop:none
+  /// CHECK-DAG:                  ArraySet loop:<<Loop>>      outer_loop:none
+  /// CHECK-DAG:                  ArraySet loop:<<Loop>>      outer_loop:none
+  /// CHECK-DAG:                  ArraySet loop:<<Loop>>      outer_loop:none
+
+  /// CHECK-START-ARM64: int Main.$noinline$prefixSum1002() loop_optimization (after)
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK-NOT:                  ArraySet
+  private static int $noinline$prefixSum1002() {
+    int[] a = new int[LENGTH];
+    $noinline$init(a);
+    for (int i = 1; i < 1003; i++) {
+      a[i] += a[i - 1];
+    }
+    return a[1002];
+  }
+
+  // Not in the profile: unrolled by 2 on all targets.
+  //
+  /// CHECK-START: int Main.$noinline$prefixSumCold() loop_optimization (after)
+  /// CHECK-DAG:                  ArraySet loop:<<Loop:B\d+>> outer_loop:none
+  /// CHECK-DAG:                  ArraySet loop:<<Loop>>      outer_loop:none
+
+  /// CHECK-START: int Main.$noinline$prefixSumCold() loop_optimization (after)
+  /// CHECK:                      ArraySet
+  /// CHECK:                      ArraySet
+  /// CHECK-NOT:                  ArraySet
+  private static int $noinline$prefixSumCold() {
+    int[] a = new int[LENGTH];
+    $noinline$init(a);
+    for (int i = 1; i < 1003; i++) {
+      a[i] += a[i - 1];
+    }
+    return a[1002];
+  }
+
+  // The reduction is live after the loop.
+  //
+  /// CHECK-START: int Main.$noinline$polynomialHash() loop_optimization (before)
+  /// CHECK:                      ArrayGet loop:{{B\d+}}
+  /// CHECK-NOT:                  ArrayGet
+
+  /// CHECK-START: int Main.$noinline$polynomialHash() loop_optimization (after)
+  /// CHECK-DAG:                  ArrayGet loop:<<Loop:B\d+>> outer_loop:none
+  /// CHECK-DAG:                  ArrayGet loop:<<Loop>>      outer_loop:none
+  private static int $noinline$polynomialHash() {
+    int[] a = new int[LENGTH];
+    $noinline$init(a);
+    int hash = 0;
+    for (int i = 0; i < 1000; i++) {
+      hash = hash * 31 + a[i];
+    }
+    return hash;
+  }
+
+  private static void $noinline$init(int[] a) {
+    for (int i = 0; i < a.length; i++) {
+      a[i] = i;
+    }
+  }
+
+  public static void main(String[] args) {
+    expectEquals(500500, $noinline$prefixSum1000());
+    expectEquals(502503, $noinline$prefixSum1002());
+    expectEquals(502503, $noinline$prefixSumCold());
+    expectEquals(562641396, $noinline$polynomialHash());
+  }
+
+  private static void expectEquals(int expected, int result) {
+    if (expected != result) {
+      throw new Error("Expected: " + expected + ", found: " + result);
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Main {
+  static class Point {
+    int x;
+    int y;
+
+    Point(int x, int y) {
+      this.x = x;
+      this.y = y;
+    }
+  }
+
+  static Point sLast;
+
+  // The point escapes only when published and is not used afterwards. A copy is created
+  // before the publication and the original allocation is removed by LSE.
+  //
+  /// CHECK-START: int Main.$noinline$sumOrPublish(int, int, boolean) scalar_replacement (before)
+  /// CHECK:                      NewInstance
+  /// CHECK-NOT:                  NewInstance
+
+  /// CHECK-START: int Main.$noinline$sumOrPublish(int, int, boolean) scalar_replacement (after)
+  /// CHECK:                      NewInstance
+  /// CHECK:                      NewInstance
+  /// CHECK-NOT:                  NewInstance
+
+  /// CHECK-START: int Main.$noinline$sumOrPublish(int, int, boolean) load_store_elimination (after)
+  /// CHECK:                      NewInstance
+  /// CHECK-NOT:                  NewInstance
+
+  /// CHECK-START: int Main.$noinline$sumOrPublish(int, int, boolean) load_store_elimination (after)
+  /// CHECK-NOT:                  InstanceFieldGet
+  private static int $noinline$sumOrPublish(int x, int y, boolean publish) {
+    Point p = new Point(x, y);
+    p.x += 1;
+    int sum = p.x + p.y;
+    if (publish) {
+      sLast = p;
+    }
+    return sum;
+  }
+
+  // The copy is allocated at the escape, so it takes the dex pc of the call that publishes it
+  // rather than that of the original allocation.
+  //
+  /// CHECK-START: int Main.$noinline$sumOrPass(int, int, boolean) scalar_replacement (after)
+  /// CHECK:                      NewInstance dex_pc:<<AllocPc:\d+>>
+  /// CHECK:                      NewInstance dex_pc:<<CopyPc:\d+>>
+  /// CHECK:                      InvokeStaticOrDirect dex_pc:<<CopyPc>> method_name:Main.$noinline$publish
+  /// CHECK-EVAL:                 <<AllocPc>> != <<CopyPc>>
+  private static int $noinline$sumOrPass(int x, int y, boolean publish) {
+    Point p = new Point(x, y);
+    p.y += 1;
+    int sum = p.x + p.y;
+    if (publish) {
+      $noinline$publish(p);
+    }
+    return sum;
+  }
+
+  private static void $noinline$publish(Point p) {
+    sLast = p;
+  }
+
+  // The point is returned on one path and dropped on the other.
+  //
+  /// CHECK-START: Main$Point Main.$noinline$maybeReturn(int, boolean) load_store_elimination (after)
+  /// CHECK:                      NewInstance
+  /// CHECK-NOT:                  NewInstance
+
+  /// CHECK-START: Main$Point Main.$noinline$maybeReturn(int, boolean) load_store_elimination (after)
+  /// CHECK-NOT:                  InstanceFieldGet
+  private static Point $noinline$maybeReturn(int x, boolean keep) {
+    Point p = new Point(x, x);
+    p.y = p.x * 2;
+    if (keep) {
+      return p;
+    }
+    sLast = null;
+    return null;
+  }
+
+  // The field is read after the escape on a path that does not go through the escape, so the
+  // allocation cannot be replaced.
+  //
+  /// CHECK-START: int Main.$noinline$useAfterEscape(int, boolean) scalar_replacement (after)
+  /// CHECK:                      NewInstance
+  /// CHECK-NOT:                  NewInstance
+
+  /// CHECK-START: int Main.$noinline$useAfterEscape(int, boolean) load_store_elimination (after)
+  /// CHECK:                      NewInstance
+  private static int $noinline$useAfterEscape(int x, boolean publish) {
+    Point p = new Point(x, x);
+    if (publish) {
+      sLast = p;
+    }
+    return p.x;
+  }
+
+  // The escape is in a loop that does not contain the allocation, so each iteration would
+  // publish a different copy.
+  //
+  /// CHECK-START: int Main.$noinline$escapeInLoop(int) scalar_replacement (after)
+  /// CHECK:                      NewInstance
+  /// CHECK-NOT:                  NewInstance
+  private static int $noinline$escapeInLoop(int n) {
+    Point p = new Point(n, n);
+    for (int i = 0; i < n; i++) {
+      sLast = p;
+    }
+    return p.y;
+  }
+
+  public static void main(String[] args) {
+    sLast = null;
+    expectEquals(6, $noinline$sumOrPublish(2, 3, false));
+    expectNull(sLast);
+    expectEquals(6, $noinline$sumOrPublish(2, 3, true));
+    expectEquals(3, sLast.x);
+    expectEquals(3, sLast.y);
+
+    sLast = null;
+    expectEquals(6, $noinline$sumOrPass(2, 3, false));
+    expectNull(sLast);
+    expectEquals(6, $noinline$sumOrPass(2, 3, true));
+    expectEquals(2, sLast.x);
+    expectEquals(4, sLast.y);
+
+    Point p = $noinline$maybeReturn(7, true);
+    expectEquals(7, p.x);
+    expectEquals(14, p.y);
+    expectNull($noinline$maybeReturn(7, false));
+
+    sLast = null;
+    expectEquals(5, $noinline$useAfterEscape(5, false));
+    expectNull(sLast);
+    expectEquals(5, $noinline$useAfterEscape(5, true));
+    expectEquals(5, sLast.x);
+
+    sLast = null;
+    expectEquals(4, $noinline$escapeInLoop(4));
+    expectEquals(4, sLast.x);
+    Point last = sLast;
+    expectEquals(0, $noinline$escapeInLoop(0));
+    expectEquals(last, sLast);
+  }
+
+  private static void expectEquals(int expected, int result) {
+    if (expected != result) {
+      throw new Error("Expected: " + expected + ", found: " + result);
+    }
+  }
+
+  private static void expectEquals(Object expected, Object result) {
+    if (expected != result) {
+      throw new Error("Expected: " + expected + ", found: " + result);
+    }
+  }
+
+  private static void expectNull(Object result) {
+    if (result != null) {
+      throw new Error("Expected null, found: " + result);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import dalvik.system.VMRuntime;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+public class Main {
+  public static int $noinline$compiled(int x) {
+    return x * 31 + 7;
+  }
+
+  public static int $noinline$notCompiled(int x) {
+    return x * 17 + 3;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.loadLibrary(args[0]);
+    if (!hasJit()) {
+      return;
+    }
+
+    File file = null;
+    File persistedFile = null;
+    try {
+      file = createTempFile();
+      // Hardcoded assumption about the name of the persisted methods file, see
+      // Jit::GetPersistedMethodsFile.
+      persistedFile = new File(file.getPath() + ".jitprof");
+      String codePath = System.getenv("DEX_LOCATION") + "/2268-jit-persisted-methods.jar";
+      VMRuntime.registerAppInfo(
+          "test.app",
+          file.getPath(),
+          file.getPath(),
+          new String[] {codePath},
+          VMRuntime.CODE_PATH_TYPE_PRIMARY_APK);
+
+      $noinline$compiled(1);
+      ensureJitCompiled(Main.class, "$noinline$compiled");
+      if (!hasJitCompiledCode(Main.class, "$noinline$compiled")) {
+        // The JIT is not able to compile in this configuration, e.g. with entry/exit stubs.
+        return;
+      }
+      ensureProfileProcessing();
+
+      if (!persistedFile.exists()) {
+        System.out.println("Persisted methods file was not written");
+        return;
+      }
+      Method compiled = Main.class.getDeclaredMethod("$noinline$compiled", int.class);
+      if (!presentInProfile(persistedFile.getPath(), compiled)) {
+        System.out.println("Compiled method not in the persisted methods file");
+      }
+      Method notCompiled = Main.class.getDeclaredMethod("$noinline$notCompiled", int.class);
+      if (presentInProfile(persistedFile.getPath(), notCompiled)) {
+        System.out.println("Method without JIT code in the persisted methods file");
+      }
+    } finally {
+      if (file != null) {
+        file.delete();
+      }
+      if (persistedFile != null) {
+        persistedFile.delete();
+      }
+    }
+  }
+
+  // Checks if the profile has the method as hot.
+  public static native boolean presentInProfile(String profile, Method method);
+  // Ensures the profile saver does its usual processing.
+  public static native void ensureProfileProcessing();
+  public static native boolean hasJit();
+  public static native void ensureJitCompiled(Class<?> cls, String methodName);
+  public static native boolean hasJitCompiledCode(Class<?> cls, String methodName);
+
+  private static final String TEMP_FILE_NAME_PREFIX = "temp";
+  private static final String TEMP_FILE_NAME_SUFFIX = "-file";
+
+  private static File createTempFile() throws Exception {
+    try {
+      return File.createTempFile(TEMP_FILE_NAME_PREFIX, TEMP_FILE_NAME_SUFFIX);
+    } catch (IOException e) {
+      System.setProperty("java.io.tmpdir", "/data/local/tmp");
+      try {
+        return File.createTempFile(TEMP_FILE_NAME_PREFIX, TEMP_FILE_NAME_SUFFIX);
+      } catch (IOException e2) {
+        System.setProperty("java.io.tmpdir", "/sdcard");
+        return File.createTempFile(TEMP_FILE_NAME_PREFIX, TEMP_FILE_NAME_SUFFIX);
+      }
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Main {
+  /// CHECK-START: int Main.$noinline$addExact(int, int) builder (after)
+  /// CHECK:                      InvokeStaticOrDirect intrinsic:MathAddExactInt
+  private static int $noinline$addExact(int x, int y) {
+    return Math.addExact(x, y);
+  }
+
+  /// CHECK-START: long Main.$noinline$addExact(long, long) builder (after)
+  /// CHECK:                      InvokeStaticOrDirect intrinsic:MathAddExactLong
+  private static long $noinline$addExact(long x, long y) {
+    return Math.addExact(x, y);
+  }
+
+  /// CHECK-START: int Main.$noinline$subtractExact(int, int) builder (after)
+  /// CHECK:                      InvokeStaticOrDirect intrinsic:MathSubtractExactInt
+  private static int $noinline$subtractExact(int x, int y) {
+    return Math.subtractExact(x, y);
+  }
+
+  /// CHECK-START: long Main.$noinline$subtractExact(long, long) builder (after)
+  /// CHECK:                      InvokeStaticOrDirect intrinsic:MathSubtractExactLong
+  private static long $noinline$subtractExact(long x, long y) {
+    return Math.subtractExact(x, y);
+  }
+
+  /// CHECK-START: int Main.$noinline$multiplyExact(int, int) builder (after)
+  /// CHECK:                      InvokeStaticOrDirect intrinsic:MathMultiplyExactInt
+  private static int $noinline$multiplyExact(int x, int y) {
+    return Math.multiplyExact(x, y);
+  }
+
+  /// CHECK-START: long Main.$noinline$multiplyExact(long, long) builder (after)
+  /// CHECK:                      InvokeStaticOrDirect intrinsic:MathMultiplyExactLong
+  private static long $noinline$multiplyExact(long x, long y) {
+    return Math.multiplyExact(x, y);
+  }
+
+  // The overflow check must not be removed when the result is unused.
+  //
+  /// CHECK-START: void Main.$noinline$addExactUnused(int, int) dead_code_elimination$before_codegen (after)
+  /// CHECK:                      InvokeStaticOrDirect intrinsic:MathAddExactInt
+  private static void $noinline$addExactUnused(int x, int y) {
+    Math.addExact(x, y);
+  }
+
+  /// CHECK-START: int Main.$noinline$boxUnbox(int) instruction_simplifier$after_inlining (before)
+  /// CHECK:                      InstanceFieldGet field_name:java.lang.Integer.value
+
+  /// CHECK-START: int Main.$noinline$boxUnbox(int) instruction_simplifier$after_inlining (after)
+  /// CHECK-DAG:  <<Arg:i\d+>>    ParameterValue
+  /// CHECK-DAG:                  Return [<<Arg>>]
+
+  /// CHECK-START: int Main.$noinline$boxUnbox(int) instruction_simplifier$after_inlining (after)
+  /// CHECK-NOT:                  InstanceFieldGet
+  private static int $noinline$boxUnbox(int x) {
+    return Integer.valueOf(x).intValue();
+  }
+
+  /// CHECK-START: int Main.$noinline$sumBoxed(int, int) instruction_simplifier$after_inlining (after)
+  /// CHECK-DAG:  <<Arg1:i\d+>>   ParameterValue
+  /// CHECK-DAG:  <<Arg2:i\d+>>   ParameterValue
+  /// CHECK-DAG:  <<Add:i\d+>>    Add [<<Arg1>>,<<Arg2>>]
+  /// CHECK-DAG:                  Return [<<Add>>]
+
+  /// CHECK-START: int Main.$noinline$sumBoxed(int, int) instruction_simplifier$after_inlining (after)
+  /// CHECK-NOT:                  InstanceFieldGet
+  private static int $noinline$sumBoxed(int x, int y) {
+    Integer a = x;
+    Integer b = y;
+    return a + b;
+  }
+
+  public static void main(String[] args) {
+    testAddExact();
+    testSubtractExact();
+    testMultiplyExact();
+    testBoxUnbox();
+  }
+
+  private static void testAddExact() {
+    expectEquals(5, $noinline$addExact(2, 3));
+    expectEquals(-1, $noinline$addExact(Integer.MAX_VALUE, Integer.MIN_VALUE));
+    expectEquals(Integer.MAX_VALUE, $noinline$addExact(Integer.MAX_VALUE - 1, 1));
+    expectEquals(Integer.MIN_VALUE, $noinline$addExact(Integer.MIN_VALUE + 1, -1));
+    expectIntOverflow(() -> $noinline$addExact(Integer.MAX_VALUE, 1));
+    expectIntOverflow(() -> $noinline$addExact(Integer.MIN_VALUE, -1));
+    expectIntOverflow(() -> $noinline$addExact(Integer.MIN_VALUE, Integer.MIN_VALUE));
+    expectIntOverflow(() -> { $noinline$addExactUnused(Integer.MAX_VALUE, 1); return 0; });
+    $noinline$addExactUnused(Integer.MAX_VALUE, 0);
+
+    expectEquals(5L, $noinline$addExact(2L, 3L));
+    expectEquals(1L << 32, $noinline$addExact(1L << 31, 1L << 31));
+    expectEquals(Long.MAX_VALUE, $noinline$addExact(Long.MAX_VALUE - 1, 1L));
+    expectEquals(Long.MIN_VALUE, $noinline$addExact(Long.MIN_VALUE + 1, -1L));
+    expectLongOverflow(() -> $noinline$addExact(Long.MAX_VALUE, 1L));
+    expectLongOverflow(() -> $noinline$addExact(Long.MIN_VALUE, -1L));
+    expectLongOverflow(() -> $noinline$addExact(Long.MIN_VALUE, Long.MIN_VALUE));
+  }
+
+  private static void testSubtractExact() {
+    expectEquals(-1, $noinline$subtractExact(2, 3));
+    expectEquals(Integer.MIN_VALUE, $noinline$subtractExact(-1, Integer.MAX_VALUE));
+    expectEquals(Integer.MAX_VALUE, $noinline$subtractExact(Integer.MAX_VALUE, 0));
+    expectIntOverflow(() -> $noinline$subtractExact(Integer.MIN_VALUE, 1));
+    expectIntOverflow(() -> $noinline$subtractExact(Integer.MAX_VALUE, -1));
+    expectIntOverflow(() -> $noinline$subtractExact(0, Integer.MIN_VALUE));
+
+    expectEquals(-1L, $noinline$subtractExact(2L, 3L));
+    expectEquals(Long.MIN_VALUE, $noinline$subtractExact(-1L, Long.MAX_VALUE));
+    expectEquals(-(1L << 32), $noinline$subtractExact(0L, 1L << 32));
+    expectLongOverflow(() -> $noinline$subtractExact(Long.MIN_VALUE, 1L));
+    expectLongOverflow(() -> $noinline$subtractExact(Long.MAX_VALUE, -1L));
+    expectLongOverflow(() -> $noinline$subtractExact(0L, Long.MIN_VALUE));
+  }
+
+  private static void testMultiplyExact() {
+    expectEquals(6, $noinline$multiplyExact(2, 3));
+    expectEquals(-6, $noinline$multiplyExact(-2, 3));
+    expectEquals(Integer.MIN_VALUE, $noinline$multiplyExact(-0x10000, 0x8000));
+    expectEquals(Integer.MAX_VALUE, $noinline$multiplyExact(Integer.MAX_VALUE, 1));
+    expectEquals(-Integer.MAX_VALUE, $noinline$multiplyExact(Integer.MAX_VALUE, -1));
+    expectEquals(2147395600, $noinline$multiplyExact(46340, 46340));
+    expectIntOverflow(() -> $noinline$multiplyExact(46341, 46341));
+    expectIntOverflow(() -> $noinline$multiplyExact(0x10000, 0x8000));
+    expectIntOverflow(() -> $noinline$multiplyExact(0x10000, 0x10000));
+    expectIntOverflow(() -> $noinline$multiplyExact(Integer.MIN_VALUE, -1));
+    expectIntOverflow(() -> $noinline$multiplyExact(Integer.MIN_VALUE, 2));
+
+    expectEquals(6L, $noinline$multiplyExact(2L, 3L));
+    expectEquals(1L << 32, $noinline$multiplyExact(0x10000L, 0x10000L));
+    expectEquals(Long.MIN_VALUE, $noinline$multiplyExact(-(1L << 32), 1L << 31));
+    expectEquals(9223372030926249001L, $noinline$multiplyExact(3037000499L, 3037000499L));
+    expectLongOverflow(() -> $noinline$multiplyExact(3037000500L, 3037000500L));
+    expectLongOverflow(() -> $noinline$multiplyExact(1L << 32, 1L << 31));
+    expectLongOverflow(() -> $noinline$multiplyExact(1L << 32, 1L << 32));
+    expectLongOverflow(() -> $noinline$multiplyExact(Long.MIN_VALUE, -1L));
+    expectLongOverflow(() -> $noinline$multiplyExact(-1L, Long.MIN_VALUE));
+  }
+
+  private static void testBoxUnbox() {
+    // Values inside and outside of the boxing cache.
+    int[] values = { 0, 1, -128, 127, -129, 128, 55555, Integer.MIN_VALUE, Integer.MAX_VALUE };
+    for (int value : values) {
+      expectEquals(value, $noinline$boxUnbox(value));
+      expectEquals(value + 1, $noinline$sumBoxed(value, 1));
+    }
+  }
+
+  interface IntOperation {
+    int apply();
+  }
+
+  interface LongOperation {
+    long apply();
+  }
+
+  private static void expectIntOverflow(IntOperation operation) {
+    try {
+      int result = operation.apply();
+      throw new Error("Expected ArithmeticException, found: " + result);
+    } catch (ArithmeticException expected) {
+      // Expected.
+    }
+  }
+
+  private static void expectLongOverflow(LongOperation operation) {
+    try {
+      long result = operation.apply();
+      throw new Error("Expected ArithmeticException, found: " + result);
+    } catch (ArithmeticException expected) {
+      // Expected.
+    }
+  }
+
+  private static void expectEquals(int expected, int result) {
+    if (expected != result) {
+      throw new Error("Expected: " + expected + ", found: " + result);
+    }
+  }
+
+  private static void expectEquals(long expected, long result) {
+    if (expected != result) {
+      throw new Error("Expected: " + expected + ", found: " + result);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.CyclicBarrier;
+
+public class Main {
+  private static final int NUMBER_OF_METHODS = 16;
+  private static final int NUMBER_OF_THREADS = 8;
+  private static final int NUMBER_OF_REQUESTS_PER_THREAD = 4;
+
+  // Instance methods, so that the compiled code does not depend on the visible initialization
+  // of the class.
+  static class Target {
+    public int m0(int x) {
+      return x * 3 + 0;
+    }
+
+    public int m1(int x) {
+      return x * 5 + 1;
+    }
+
+    public int m2(int x) {
+      return x * 7 + 2;
+    }
+
+    public int m3(int x) {
+      return x * 9 + 3;
+    }
+
+    public int m4(int x) {
+      return x * 11 + 4;
+    }
+
+    public int m5(int x) {
+      return x * 13 + 5;
+    }
+
+    public int m6(int x) {
+      return x * 15 + 6;
+    }
+
+    public int m7(int x) {
+      return x * 17 + 7;
+    }
+
+    public int m8(int x) {
+      return x * 19 + 8;
+    }
+
+    public int m9(int x) {
+      return x * 21 + 9;
+    }
+
+    public int m10(int x) {
+      return x * 23 + 10;
+    }
+
+    public int m11(int x) {
+      return x * 25 + 11;
+    }
+
+    public int m12(int x) {
+      return x * 27 + 12;
+    }
+
+    public int m13(int x) {
+      return x * 29 + 13;
+    }
+
+    public int m14(int x) {
+      return x * 31 + 14;
+    }
+
+    public int m15(int x) {
+      return x * 33 + 15;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.loadLibrary(args[0]);
+    if (!hasJit()) {
+      return;
+    }
+
+    Target target = new Target();
+    int expected = 0;
+    for (int i = 0; i < NUMBER_OF_METHODS; ++i) {
+      expected += (int) Target.class.getDeclaredMethod("m" + i, int.class).invoke(target, 1);
+    }
+
+    ensureJitCompiled(Main.class, "$noinline$control");
+    if (!hasJitCompiledCode(Main.class, "$noinline$control")) {
+      // The JIT is not able to compile in this configuration, e.g. with entry/exit stubs.
+      return;
+    }
+
+    // All threads request the compilation of all methods at the same time, several times over.
+    CyclicBarrier barrier = new CyclicBarrier(NUMBER_OF_THREADS);
+    Thread[] threads = new Thread[NUMBER_OF_THREADS];
+    for (int t = 0; t < NUMBER_OF_THREADS; ++t) {
+      final int offset = t;
+      threads[t] = new Thread(() -> {
+        try {
+          barrier.await();
+          for (int r = 0; r < NUMBER_OF_REQUESTS_PER_THREAD; ++r) {
+            for (int i = 0; i < NUMBER_OF_METHODS; ++i) {
+              enqueueJitCompilation(Target.class, "m" + ((i + offset) % NUMBER_OF_METHODS));
+            }
+          }
+        } catch (Exception e) {
+          throw new Error(e);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    waitForCompilation();
+
+    for (int i = 0; i < NUMBER_OF_METHODS; ++i) {
+      int count = getNumberOfJitCompiledCode(Target.class, "m" + i);
+      if (count != 1) {
+        System.out.println("m" + i + " compiled " + count + " times");
+      }
+    }
+
+    int actual = 0;
+    for (int i = 0; i < NUMBER_OF_METHODS; ++i) {
+      actual += (int) Target.class.getDeclaredMethod("m" + i, int.class).invoke(target, 1);
+    }
+    if (actual != expected) {
+      throw new Error("Expected " + expected + ", got " + actual);
+    }
+  }
+
+  private static int $noinline$control(int x) {
+    return x + 1;
+  }
+
+  private static native boolean hasJit();
+  private static native void ensureJitCompiled(Class<?> cls, String methodName);
+  private static native boolean hasJitCompiledCode(Class<?> cls, String methodName);
+  private static native void enqueueJitCompilation(Class<?> cls, String methodName);
+  private static native void waitForCompilation();
+  private static native int getNumberOfJitCompiledCode(Class<?> cls, String methodName);
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.GZIPInputStream;
+
+public class Main {
+    private static final int HPROF_TAG_STRING = 0x01;
+    private static final int HPROF_TAG_LOAD_CLASS = 0x02;
+    private static final int HPROF_TAG_HEAP_DUMP_SEGMENT = 0x1C;
+    private static final int HPROF_TAG_HEAP_DUMP_END = 0x2C;
+
+    // Kept alive so that the dumps contain an instance of a class loaded by the test.
+    static Object sDumped = new Dumped();
+
+    static class Dumped {}
+
+    public static void main(String[] args) throws Exception {
+        Class<?> vmDebug = Class.forName("dalvik.system.VMDebug");
+
+        // The runtime is started with -Xhprof-compress:true, which compresses dumps to a file
+        // name without a ".gz" suffix, ...
+        File file = File.createTempFile("test-2271-hprof", ".hprof");
+        try {
+            Method dump = vmDebug.getDeclaredMethod("dumpHprofData", String.class);
+            dump.invoke(null, file.getAbsolutePath());
+            checkDump(file);
+        } finally {
+            file.delete();
+        }
+
+        // ... and dumps to a file descriptor, as written by `am dumpheap`.
+        file = File.createTempFile("test-2271-hprof", ".hprof");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            Method dump =
+                    vmDebug.getDeclaredMethod("dumpHprofData", String.class, FileDescriptor.class);
+            dump.invoke(null, file.getAbsolutePath(), out.getFD());
+            checkDump(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void checkDump(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            if (in.read() != 0x1F || in.read() != 0x8B) {
+                throw new AssertionError("Heap dump " + file + " is not compressed with gzip");
+            }
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            checkRecords(in);
+        }
+    }
+
+    // Checks that the dump is a single well-formed sequence of records, in which every string
+    // is defined before a class refers to it, and which ends with a HEAP DUMP END record.
+    private static void checkRecords(DataInputStream in) throws IOException {
+        byte[] magic = new byte[19];
+        in.readFully(magic);
+        if (!"JAVA PROFILE 1.0.3\0".equals(new String(magic, StandardCharsets.US_ASCII))) {
+            throw new AssertionError("Unexpected header " + new String(magic));
+        }
+        int idSize = in.readInt();
+        if (idSize != 4) {
+            throw new AssertionError("Unexpected id size " + idSize);
+        }
+        in.readLong();  // Time.
+
+        HashMap<Integer, String> strings = new HashMap<>();
+        HashSet<String> classNames = new HashSet<>();
+        int segments = 0;
+        boolean ended = false;
+        while (true) {
+            int tag = in.read();
+            if (tag == -1) {
+                break;
+            }
+            if (ended) {
+                throw new AssertionError("Record with tag " + tag + " after HEAP DUMP END");
+            }
+            in.readInt();  // Time.
+            int length = in.readInt();
+            switch (tag) {
+                case HPROF_TAG_STRING: {
+                    int id = in.readInt();
+                    byte[] bytes = new byte[length - idSize];
+                    in.readFully(bytes);
+                    if (strings.put(id, new String(bytes, StandardCharsets.UTF_8)) != null) {
+                        throw new AssertionError("String " + id + " defined twice");
+                    }
+                    break;
+                }
+                case HPROF_TAG_LOAD_CLASS: {
+                    in.readInt();  // Class serial number.
+                    in.readInt();  // Class object id.
+                    in.readInt();  // Stack trace serial number.
+                    int nameId = in.readInt();
+                    String name = strings.get(nameId);
+                    if (name == null) {
+                        throw new AssertionError("Class name " + nameId + " used before defined");
+                    }
+                    classNames.add(name);
+                    break;
+                }
+                case HPROF_TAG_HEAP_DUMP_SEGMENT:
+                    segments++;
+                    skipFully(in, length);
+                    break;
+                case HPROF_TAG_HEAP_DUMP_END:
+                    ended = true;
+                    skipFully(in, length);
+                    break;
+                default:
+                    skipFully(in, length);
+                    break;
+            }
+        }
+        if (!ended) {
+            throw new AssertionError("Missing HEAP DUMP END record");
+        }
+        if (segments == 0) {
+            throw new AssertionError("Missing HEAP DUMP SEGMENT records");
+        }
+        if (!classNames.contains("java.lang.Class") || !classNames.contains("Main$Dumped")) {
+            throw new AssertionError("Missing LOAD CLASS records");
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            length -= skipped;
+        }
+    }
+}
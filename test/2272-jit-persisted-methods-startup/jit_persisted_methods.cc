@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "jit/jit.h"
+#include "jni.h"
+#include "nativehelper/ScopedUtfChars.h"
+#include "runtime.h"
+#include "thread.h"
+
+namespace art {
+namespace {
+
+extern "C" JNIEXPORT jint JNICALL Java_Main_compileMethodsFromPersistedFile(JNIEnv* env,
+                                                                            jclass,
+                                                                            jstring filename,
+                                                                            jstring code_path) {
+  jit::Jit* jit = Runtime::Current()->GetJit();
+  if (jit == nullptr) {
+    return 0;
+  }
+  ScopedUtfChars filename_chars(env, filename);
+  CHECK(filename_chars.c_str() != nullptr);
+  ScopedUtfChars code_path_chars(env, code_path);
+  CHECK(code_path_chars.c_str() != nullptr);
+  return static_cast<jint>(jit->CompileMethodsFromPersistedFile(
+      Thread::Current(), filename_chars.c_str(), {std::string(code_path_chars.c_str())}));
+}
+
+}  // namespace
+}  // namespace art
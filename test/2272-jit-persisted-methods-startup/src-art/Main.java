@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import dalvik.system.PathClassLoader;
+import dalvik.system.VMRuntime;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+public class Main {
+  private static final String TEST_NAME = "2272-jit-persisted-methods-startup";
+
+  // Listed as hot in the `profile` file, and never invoked.
+  public static int $noinline$persisted(int x) {
+    return x * 31 + 7;
+  }
+
+  public static int $noinline$probe(int x) {
+    return x * 17 + 3;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.loadLibrary(args[0]);
+    if (!hasJit() || isAotCompiled(Main.class, "$noinline$persisted")) {
+      return;
+    }
+    $noinline$probe(1);
+    ensureJitCompiled(Main.class, "$noinline$probe");
+    if (!hasJitCompiledCode(Main.class, "$noinline$probe")) {
+      // The JIT is not able to compile in this configuration, e.g. with entry/exit stubs.
+      return;
+    }
+
+    String dexLocation = System.getenv("DEX_LOCATION");
+    // The profile created by the test runner from the `profile` file. It has the format of a
+    // persisted methods file, and the checksum of the test's jar.
+    File persistedMethods = new File(dexLocation, TEST_NAME + ".prof");
+    File file = null;
+    File persistedFile = null;
+    File updatedDir = null;
+    File updatedJar = null;
+    try {
+      file = createTempFile();
+      // Hardcoded assumption about the name of the persisted methods file, see
+      // Jit::GetPersistedMethodsFile.
+      persistedFile = new File(file.getPath() + ".jitprof");
+      Files.copy(persistedMethods.toPath(), persistedFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+
+      // Registering the code path queues the persisted methods for compilation.
+      String codePath = dexLocation + "/" + TEST_NAME + ".jar";
+      VMRuntime.registerAppInfo(
+          "test.app",
+          file.getPath(),
+          file.getPath(),
+          new String[] {codePath},
+          VMRuntime.CODE_PATH_TYPE_PRIMARY_APK);
+      waitForCompilation();
+      if (!hasJitCompiledCode(Main.class, "$noinline$persisted")) {
+        System.out.println("Persisted method was not compiled");
+      }
+
+      // A dex file at the same location but with a different checksum, as after an update of
+      // the application, ignores the persisted methods.
+      updatedDir = new File(file.getPath() + "-updated");
+      if (!updatedDir.mkdir()) {
+        throw new IOException("Could not create " + updatedDir);
+      }
+      updatedJar = new File(updatedDir, TEST_NAME + ".jar");
+      Files.copy(new File(dexLocation, TEST_NAME + "-ex.jar").toPath(), updatedJar.toPath());
+      ClassLoader loader =
+          new PathClassLoader(updatedJar.getPath(), Object.class.getClassLoader());
+      Class<?> persisted = loader.loadClass("Persisted");
+      int added = compileMethodsFromPersistedFile(persistedFile.getPath(), updatedJar.getPath());
+      if (added != 0) {
+        System.out.println("Queued " + added + " persisted methods of a changed dex file");
+      }
+      waitForCompilation();
+      if (hasJitCompiledCode(persisted, "$noinline$persisted")) {
+        System.out.println("Method of a changed dex file was compiled");
+      }
+    } finally {
+      if (file != null) {
+        file.delete();
+      }
+      if (persistedFile != null) {
+        persistedFile.delete();
+      }
+      if (updatedJar != null) {
+        updatedJar.delete();
+      }
+      if (updatedDir != null) {
+        updatedDir.delete();
+      }
+    }
+  }
+
+  // Adds the methods of the persisted methods file `filename` that belong to `codePath` to the
+  // JIT queue, and returns their number.
+  public static native int compileMethodsFromPersistedFile(String filename, String codePath);
+  public static native boolean hasJit();
+  public static native boolean isAotCompiled(Class<?> cls, String methodName);
+  public static native void ensureJitCompiled(Class<?> cls, String methodName);
+  public static native boolean hasJitCompiledCode(Class<?> cls, String methodName);
+  public static native void waitForCompilation();
+
+  private static final String TEMP_FILE_NAME_PREFIX = "temp";
+  private static final String TEMP_FILE_NAME_SUFFIX = "-file";
+
+  private static File createTempFile() throws Exception {
+    try {
+      return File.createTempFile(TEMP_FILE_NAME_PREFIX, TEMP_FILE_NAME_SUFFIX);
+    } catch (IOException e) {
+      System.setProperty("java.io.tmpdir", "/data/local/tmp");
+      try {
+        return File.createTempFile(TEMP_FILE_NAME_PREFIX, TEMP_FILE_NAME_SUFFIX);
+      } catch (IOException e2) {
+        System.setProperty("java.io.tmpdir", "/sdcard");
+        return File.createTempFile(TEMP_FILE_NAME_PREFIX, TEMP_FILE_NAME_SUFFIX);
+      }
+    }
+  }
+}
@@ -0,0 +1 @@
+../../2271-hprof-single-pass/src/Main.java
\ No newline at end of file
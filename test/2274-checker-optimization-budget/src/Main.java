@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Main {
+  static class Point {
+    int x;
+    int y;
+  }
+
+  static int addOne(int x) {
+    return x + 1;
+  }
+
+  // The inliner is skipped, so the call stays.
+  //
+  /// CHECK-START: int Main.$noinline$callAddOne(int) instruction_simplifier$before_codegen (after)
+  /// CHECK:                      InvokeStaticOrDirect method_name:Main.addOne
+  private static int $noinline$callAddOne(int x) {
+    return addOne(x) * 2;
+  }
+
+  // GVN is skipped, so both additions stay.
+  //
+  /// CHECK-START: int Main.$noinline$squareOfSum(int, int) instruction_simplifier$before_codegen (after)
+  /// CHECK:                      Add
+  /// CHECK:                      Add
+  private static int $noinline$squareOfSum(int a, int b) {
+    return (a + b) * (a + b);
+  }
+
+  // LSE is skipped, so the load of the stored value stays.
+  //
+  /// CHECK-START: int Main.$noinline$storeThenLoad(Main$Point, int) instruction_simplifier$before_codegen (after)
+  /// CHECK:                      InstanceFieldSet
+  /// CHECK:                      InstanceFieldGet
+  private static int $noinline$storeThenLoad(Point p, int value) {
+    p.x = value;
+    return p.x + p.y;
+  }
+
+  // BCE is skipped, so the bounds check in the loop stays.
+  //
+  /// CHECK-START: int Main.$noinline$sum(int[]) instruction_simplifier$before_codegen (after)
+  /// CHECK:                      BoundsCheck
+  private static int $noinline$sum(int[] array) {
+    int sum = 0;
+    for (int i = 0; i < array.length; ++i) {
+      sum += array[i];
+    }
+    return sum;
+  }
+
+  public static void main(String[] args) {
+    assertEquals(12, $noinline$callAddOne(5));
+    assertEquals(49, $noinline$squareOfSum(3, 4));
+    Point p = new Point();
+    p.y = 2;
+    assertEquals(9, $noinline$storeThenLoad(p, 7));
+    assertEquals(7, p.x);
+    assertEquals(10, $noinline$sum(new int[] {1, 2, 3, 4}));
+    try {
+      $noinline$sum(null);
+      throw new Error("Expected NullPointerException");
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  private static void assertEquals(int expected, int actual) {
+    if (expected != actual) {
+      throw new Error("Expected " + expected + ", got " + actual);
+    }
+  }
+}
@@ -55,6 +55,26 @@ public class Main {
   /// CHECK:    <<res1:i\d+>>         Add [<<res0>>,<<ArrayGet1>>]
   /// CHECK:                          Add [<<res1>>,<<ArrayGet2>>]
 
+  /// CHECK-START-X86_64: int Main.arrayAccess() scheduler (before)
+  /// CHECK:    <<Const1:i\d+>>       IntConstant 1
+  /// CHECK:    <<res0:i\d+>>         Phi
+  /// CHECK:    <<i0:i\d+>>           Phi
+  /// CHECK:    <<ArrayGet1:i\d+>>    ArrayGet [<<Array:l\d+>>,<<i0>>]
+  /// CHECK:    <<res1:i\d+>>         Add [<<res0>>,<<ArrayGet1>>]
+  /// CHECK:    <<i1:i\d+>>           Add [<<i0>>,<<Const1>>]
+  /// CHECK:    <<ArrayGet2:i\d+>>    ArrayGet [<<Array>>,<<i1>>]
+  /// CHECK:                          Add [<<res1>>,<<ArrayGet2>>]
+
+  /// CHECK-START-X86_64: int Main.arrayAccess() scheduler (after)
+  /// CHECK:    <<Const1:i\d+>>       IntConstant 1
+  /// CHECK:    <<res0:i\d+>>         Phi
+  /// CHECK:    <<i0:i\d+>>           Phi
+  /// CHECK:    <<ArrayGet1:i\d+>>    ArrayGet [<<Array:l\d+>>,<<i0>>]
+  /// CHECK:    <<i1:i\d+>>           Add [<<i0>>,<<Const1>>]
+  /// CHECK:    <<ArrayGet2:i\d+>>    ArrayGet [<<Array>>,<<i1>>]
+  /// CHECK:    <<res1:i\d+>>         Add [<<res0>>,<<ArrayGet1>>]
+  /// CHECK:                          Add [<<res1>>,<<ArrayGet2>>]
+
   public static int arrayAccess() {
     int res = 0;
     int [] array = new int[10];
@@ -419,6 +439,7 @@ public class Main {
 
   /// CHECK-START-ARM: void Main.accessFieldsVolatile() scheduler (before)
   /// CHECK-START-ARM64: void Main.accessFieldsVolatile() scheduler (before)
+  /// CHECK-START-X86_64: void Main.accessFieldsVolatile() scheduler (before)
   /// CHECK:            InstanceFieldGet
   /// CHECK:            Add
   /// CHECK:            InstanceFieldSet
@@ -434,6 +455,7 @@ public class Main {
 
   /// CHECK-START-ARM: void Main.accessFieldsVolatile() scheduler (after)
   /// CHECK-START-ARM64: void Main.accessFieldsVolatile() scheduler (after)
+  /// CHECK-START-X86_64: void Main.accessFieldsVolatile() scheduler (after)
   /// CHECK:            InstanceFieldGet
   /// CHECK:            Add
   /// CHECK:            InstanceFieldSet
@@ -498,13 +520,13 @@ public class Main {
     }
   }
 
-  /// CHECK-START-ARM64: int Main.intDiv(int) scheduler (before)
+  /// CHECK-START-{ARM64,X86_64}: int Main.intDiv(int) scheduler (before)
   /// CHECK:               Sub
   /// CHECK:               DivZeroCheck
   /// CHECK:               Div
   /// CHECK:               StaticFieldSet
 
-  /// CHECK-START-ARM64: int Main.intDiv(int) scheduler (after)
+  /// CHECK-START-{ARM64,X86_64}: int Main.intDiv(int) scheduler (after)
   /// CHECK:               Sub
   /// CHECK-NOT:           StaticFieldSet
   /// CHECK:               DivZeroCheck
@@ -587,14 +609,14 @@ public class Main {
   // Check that instructions having cross iteration dependencies are not
   // reordered.
   //
-  /// CHECK-START-{ARM,ARM64}: void Main.testCrossItersDependencies() scheduler (before)
+  /// CHECK-START-{ARM,ARM64,X86_64}: void Main.testCrossItersDependencies() scheduler (before)
   /// CHECK:     <<ID1:i\d+>>  Phi [{{i\d+}},<<ID3:i\d+>>]
   /// CHECK:     <<ID2:i\d+>>  Phi [{{i\d+}},<<ID4:i\d+>>]
   //
   /// CHECK:     <<ID3>>  Sub [<<ID1>>,<<ID2>>]
   /// CHECK:     <<ID4>>  Add [<<ID2>>,{{i\d+}}]
 
-  /// CHECK-START-{ARM,ARM64}: void Main.testCrossItersDependencies() scheduler (after)
+  /// CHECK-START-{ARM,ARM64,X86_64}: void Main.testCrossItersDependencies() scheduler (after)
   /// CHECK:     <<ID1:i\d+>>  Phi [{{i\d+}},<<ID3:i\d+>>]
   /// CHECK:     <<ID2:i\d+>>  Phi [{{i\d+}},<<ID4:i\d+>>]
   //
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+class CompiledMethodCache {
+    static int readField(Base base) {
+        return base.field;
+    }
+
+    static int callInlined(Base base) {
+        return readField(base) + 1;
+    }
+
+    static Object newDerived() {
+        return new Derived();
+    }
+}
+
+class Base {
+    int field;
+}
+
+class Derived extends Base {
+}
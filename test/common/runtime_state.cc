@@ -348,6 +348,39 @@ extern "C" JNIEXPORT void JNICALL Java_Main_ensureJitBaselineCompiled(JNIEnv* en
   ForceJitCompiled(self, method, CompilationKind::kBaseline);
 }
 
+extern "C" JNIEXPORT void JNICALL Java_Main_enqueueJitCompilation(JNIEnv* env,
+                                                                  jclass,
+                                                                  jclass cls,
+                                                                  jstring method_name) {
+  jit::Jit* jit = GetJitIfEnabled();
+  if (jit == nullptr) {
+    return;
+  }
+
+  // Make sure that the JIT code does not get deleted, so that it can be counted.
+  jit->GetCodeCache()->SetGarbageCollectCode(false);
+  Thread* self = Thread::Current();
+  ScopedObjectAccess soa(self);
+  ScopedUtfChars chars(env, method_name);
+  ArtMethod* method = GetMethod(soa, cls, chars);
+  jit->EnqueueOptimizedCompilation(method, self);
+}
+
+extern "C" JNIEXPORT jint JNICALL Java_Main_getNumberOfJitCompiledCode(JNIEnv* env,
+                                                                      jclass,
+                                                                      jclass cls,
+                                                                      jstring method_name) {
+  jit::Jit* jit = GetJitIfEnabled();
+  if (jit == nullptr) {
+    return 0;
+  }
+
+  ScopedObjectAccess soa(Thread::Current());
+  ScopedUtfChars chars(env, method_name);
+  ArtMethod* method = GetMethod(soa, cls, chars);
+  return static_cast<jint>(jit->GetCodeCache()->GetNumberOfCompiledCode(method));
+}
+
 extern "C" JNIEXPORT jboolean JNICALL Java_Main_hasSingleImplementation(JNIEnv* env,
                                                                         jclass,
                                                                         jclass cls,
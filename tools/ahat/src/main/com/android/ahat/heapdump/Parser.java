@@ -20,11 +20,15 @@ import com.android.ahat.progress.NullProgress;
 import com.android.ahat.progress.Progress;
 import com.android.ahat.proguard.ProguardMap;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -33,13 +37,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Provides methods for parsing heap dumps.
  * <p>
  * The heap dump should be a heap dump in the J2SE HPROF format optionally
- * with Android extensions and satisfying the following additional
- * constraints:
+ * with Android extensions, possibly compressed with gzip when read from a
+ * file, and satisfying the following additional constraints:
  * <ul>
  * <li>
  * Class serial numbers, stack frames, and stack traces individually satisfy
@@ -49,8 +54,8 @@ import java.util.Objects;
  *   <li> Ids are densely packed in some range [a, b] where a is not necessarily 0.
  *   <li> There are not more than 2^31 elements defined.
  * </ul>
- * <li> All classes are defined via a LOAD CLASS record before the first
- * heap dump segment.
+ * <li> All classes are defined via a LOAD CLASS record before the heap dump
+ * segment that first refers to them.
  * </ul>
  */
 public class Parser {
@@ -201,6 +206,7 @@ public class Parser {
       AhatClassObj[] primArrayClasses = new AhatClassObj[Type.values().length];
       ArrayList<AhatClassObj> classes = new ArrayList<AhatClassObj>();
       Instances<AhatClassObj> classById = null;
+      int classesById = 0;
 
       progress.start("Reading hprof", hprof.size());
       while (hprof.hasRemaining()) {
@@ -278,8 +284,10 @@ public class Parser {
           case 0x0C:   // HEAP DUMP
           case 0x1C: { // HEAP DUMP SEGMENT
             int endOfRecord = hprof.tell() + recordLength;
-            if (classById == null) {
+            if (classById == null || classesById != classes.size()) {
+              // More classes may be defined between heap dump segments.
               classById = new Instances<AhatClassObj>(classes);
+              classesById = classes.size();
             }
             while (hprof.tell() < endOfRecord) {
               progress.update(hprof.tell());
@@ -909,15 +917,50 @@ public class Parser {
     private final ByteBuffer mBuffer;
 
     public HprofBuffer(File path) throws IOException {
-      FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ);
-      mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-      channel.close();
+      ByteBuffer mapped = map(path);
+      mBuffer = isGzip(mapped) ? inflate(path) : mapped;
     }
 
     public HprofBuffer(ByteBuffer buffer) {
       mBuffer = buffer;
     }
 
+    /**
+     * Returns true if the buffer starts with the gzip magic number, as for
+     * heap dumps written to a file name ending with ".gz".
+     */
+    private static boolean isGzip(ByteBuffer buffer) {
+      return buffer.limit() >= 2
+          && (buffer.get(0) & 0xFF) == 0x1F
+          && (buffer.get(1) & 0xFF) == 0x8B;
+    }
+
+    private static ByteBuffer map(File path) throws IOException {
+      try (FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+    }
+
+    /**
+     * Decompresses a gzip file into a temporary file and maps that, so the
+     * decompressed heap dump is not held on the Java heap.
+     */
+    private static ByteBuffer inflate(File path) throws IOException {
+      File inflated = File.createTempFile("ahat", ".hprof");
+      try {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(path), 64 * 1024)) {
+          Files.copy(in, inflated.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return map(inflated);
+      } finally {
+        // The mapping stays valid after the file is deleted, where the
+        // platform allows deleting a mapped file.
+        if (!inflated.delete()) {
+          inflated.deleteOnExit();
+        }
+      }
+    }
+
     public void setIdSize8() {
       mIdSize8 = true;
     }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatHeap;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ParserTest {
+  /**
+   * Copy the named resource to a temporary file, compressing it with gzip if
+   * requested.
+   */
+  private static File resourceToFile(String name, boolean gzip) throws IOException {
+    File file = File.createTempFile("ahat-parser-test", gzip ? ".hprof.gz" : ".hprof");
+    file.deleteOnExit();
+    ClassLoader loader = ParserTest.class.getClassLoader();
+    try (InputStream is = loader.getResourceAsStream(name);
+         OutputStream os = gzip
+             ? new GZIPOutputStream(new FileOutputStream(file))
+             : new FileOutputStream(file)) {
+      byte[] buf = new byte[4096];
+      int read;
+      while ((read = is.read(buf)) != -1) {
+        os.write(buf, 0, read);
+      }
+    }
+    return file;
+  }
+
+  @Test
+  public void gzipHeapDump() throws IOException, HprofFormatException {
+    // Verify a gzip compressed heap dump file is inflated and parsed the same
+    // as the uncompressed heap dump file.
+    File plain = resourceToFile("test-dump.hprof", false);
+    File compressed = resourceToFile("test-dump.hprof", true);
+    try {
+      AhatSnapshot expected = new Parser(plain).parse();
+      AhatSnapshot actual = new Parser(compressed).parse();
+      assertEquals(expected.getRooted().size(), actual.getRooted().size());
+      assertEquals(expected.getHeaps().size(), actual.getHeaps().size());
+      for (AhatHeap heap : expected.getHeaps()) {
+        AhatHeap inflated = actual.getHeap(heap.getName());
+        assertNotNull(inflated);
+        assertEquals(heap.getSize(), inflated.getSize());
+      }
+    } finally {
+      plain.delete();
+      compressed.delete();
+    }
+  }
+}